@@ -5,51 +5,95 @@
 package com.github.dozedoff.dedupe.cli;
 
 import java.io.IOException;
+import java.nio.file.FileSystems;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.sql.SQLException;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.function.Function;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiPredicate;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.github.dozedoff.dedupe.db.AdaptiveBatchSize;
 import com.github.dozedoff.dedupe.db.BatchWriter;
 import com.github.dozedoff.dedupe.db.Database;
+import com.github.dozedoff.dedupe.db.DeferredLinkWriter;
+import com.github.dozedoff.dedupe.db.FileKeyIndex;
+import com.github.dozedoff.dedupe.db.LinkIndex;
+import com.github.dozedoff.dedupe.db.LinkInvalidator;
+import com.github.dozedoff.dedupe.db.MetaDataIndex;
+import com.github.dozedoff.dedupe.db.RunCheckpoint;
+import com.github.dozedoff.dedupe.db.StaleRowSweep;
 import com.github.dozedoff.dedupe.db.dao.FileLinkDao;
 import com.github.dozedoff.dedupe.db.dao.FileMetaDataDao;
 import com.github.dozedoff.dedupe.db.table.FileLink;
 import com.github.dozedoff.dedupe.db.table.FileMetaData;
+import com.github.dozedoff.dedupe.db.table.PendingLink;
 import com.github.dozedoff.dedupe.duplicate.CompareFile;
 import com.github.dozedoff.dedupe.duplicate.HashGroup;
-import com.github.dozedoff.dedupe.duplicate.SizeGroup;
+import com.github.dozedoff.dedupe.duplicate.HashKey;
+import com.github.dozedoff.dedupe.duplicate.StreamingSizeGroup;
+import com.github.dozedoff.dedupe.duplicate.StreamingSizeGroup.Candidate;
 import com.github.dozedoff.dedupe.duplicate.VerifyMetaData;
+import com.github.dozedoff.dedupe.file.AsyncHasher;
+import com.github.dozedoff.dedupe.file.DirectReader;
 import com.github.dozedoff.dedupe.file.FileFinder;
 import com.github.dozedoff.dedupe.file.FileLinker;
 import com.github.dozedoff.dedupe.file.HardLinker;
+import com.github.dozedoff.dedupe.file.HashAttributeCache;
+import com.github.dozedoff.dedupe.file.IoThrottle;
 import com.github.dozedoff.dedupe.file.LinkedFilter;
 import com.github.dozedoff.dedupe.file.LoggingLinker;
 import com.github.dozedoff.dedupe.file.MetaData;
+import com.github.dozedoff.dedupe.file.MoveDetector;
+import com.github.dozedoff.dedupe.file.ThrottleControlFile;
+import com.github.dozedoff.dedupe.metrics.MetricsRegistry;
+import com.github.dozedoff.dedupe.metrics.RunMetrics;
+import com.github.dozedoff.dedupe.metrics.RunMetrics.Counter;
+import com.github.dozedoff.dedupe.pipeline.CpuLimit;
+import com.github.dozedoff.dedupe.pipeline.DeviceLimiter;
+import com.github.dozedoff.dedupe.pipeline.DeviceLimiter.FileOperation;
+import com.github.dozedoff.dedupe.pipeline.PhaseProgress;
+import com.github.dozedoff.dedupe.pipeline.Stage;
+import com.github.dozedoff.dedupe.pipeline.Stage.Worker;
+import com.github.dozedoff.dedupe.pipeline.ThreadMode;
+import com.github.dozedoff.dedupe.pipeline.TimeBudget;
 import com.google.common.base.Stopwatch;
+import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Multimap;
-import com.google.common.collect.Multimaps;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.j256.ormlite.dao.DaoManager;
 import com.j256.ormlite.dao.LruObjectCache;
 
 import net.sourceforge.argparse4j.ArgumentParsers;
 import net.sourceforge.argparse4j.impl.Arguments;
+import net.sourceforge.argparse4j.inf.Argument;
 import net.sourceforge.argparse4j.inf.ArgumentParser;
+import net.sourceforge.argparse4j.inf.ArgumentParserException;
 import net.sourceforge.argparse4j.inf.Namespace;
 
+
 /**
  * The main class for Dedupe CLI
  * 
@@ -58,15 +102,90 @@ import net.sourceforge.argparse4j.inf.Namespace;
  */
 public class DedupeCli {
 	private static final Logger LOGGER = LoggerFactory.getLogger(DedupeCli.class);
+	private static final long BATCH_WRITER_INTERVAL_MINUTES = 1;
+
+	private static final int QUEUE_CAPACITY = 10000;
+	private static final long DEFAULT_PROGRESS_INTERVAL_SECONDS = 30;
+	private static final long THROTTLE_POLL_SECONDS = 5;
+	private static final long CHECKPOINT_INTERVAL_MINUTES = 5;
+	private static final int EXIT_INTERRUPTED = 130;
 
 	private Namespace ns;
 	private FileMetaDataDao dao;
 	private FileLinkDao linkDao;
 	Database database;
+
+	private MetaDataIndex knownPaths;
+	private MetaData metaData;
+	private VerifyMetaData verify;
+	private MoveDetector moveDetector;
+	private CompareFile compareFile;
+	private BatchWriter<FileMetaDataDao, FileMetaData> batchWriter;
+	private BatchWriter<FileLinkDao, FileLink> linkWriter;
+	private LinkInvalidator linkInvalidator;
+	private DeferredLinkWriter deferredLinks;
+	private LinkIndex linkIndex;
+	private LinkedFilter linkedFilter;
+	private FileLinker fileLinker;
+
+	private StreamingSizeGroup sizeGroup;
+	private AsyncHasher asyncHasher;
+	private DirectReader directReader;
+	private IoThrottle throttle;
+	private ThrottleControlFile throttleControl;
+	private ThreadMode threadMode;
+	private DeviceLimiter deviceLimiter;
+	private TimeBudget timeBudget;
+	private RunCheckpoint checkpoint;
+	private volatile boolean interrupted;
+	private Stage<Path> statStage;
+	private Stage<Candidate> lookupStage;
+	private Stage<HashTask> hashStage;
+	private Stage<List<FileMetaData>> compareStage;
+	private Stage<Collection<FileMetaData>> linkStage;
+
+	private final RunMetrics metrics = new RunMetrics();
+	private final Phaser pendingHashes = new Phaser(1);
+	private final PhaseProgress walkProgress = new PhaseProgress("walk");
+	private final PhaseProgress hashProgress = new PhaseProgress("hash");
+	private final PhaseProgress compareProgress = new PhaseProgress("compare");
+	private final PhaseProgress linkProgress = new PhaseProgress("link");
 	
-	public static void main(String[] args) throws SQLException {
+	/**
+	 * A file to hash, with its stored metadata if the file is known and has to be checked for changes.
+	 */
+	private static final class HashTask {
+		private final Candidate candidate;
+		private final FileMetaData stored;
+
+		HashTask(Candidate candidate, FileMetaData stored) {
+			this.candidate = candidate;
+			this.stored = stored;
+		}
+
+		@Override
+		public String toString() {
+			return candidate.toString();
+		}
+	}
+
+	public static void main(String[] args) throws SQLException, InterruptedException {
+		if (args.length > 0 && QueryCli.COMMAND.equals(args[0])) {
+			new QueryCli(Arrays.copyOfRange(args, 1, args.length), System.out).run();
+			return;
+		}
+
+		if (args.length > 0 && ReadBenchmarkCli.COMMAND.equals(args[0])) {
+			new ReadBenchmarkCli(Arrays.copyOfRange(args, 1, args.length), System.out).run();
+			return;
+		}
+
 		DedupeCli instance = new DedupeCli(args);
 		instance.run();
+
+		if (instance.interrupted) {
+			System.exit(EXIT_INTERRUPTED);
+		}
 	}
 
 	public DedupeCli(String[] args) {
@@ -74,10 +193,14 @@ public class DedupeCli {
 	}
 
 	private Namespace parseArgs(String[] args) {
+		int cpus = new CpuLimit().availableCpus();
+
 		ArgumentParser parser = ArgumentParsers.newArgumentParser("Dedupe CLI").defaultHelp(true)
-				.description("Find duplicate files and replace them with links");
+				.description("Find duplicate files and replace them with links. Use '" + QueryCli.COMMAND
+						+ "' as the first argument to look up known duplicates of files instead, or '"
+						+ ReadBenchmarkCli.COMMAND + "' to compare page cache and direct reads");
 		parser.addArgument("dir").nargs("+").help("Directories to walk for files");
-		parser.addArgument("-d", "--db").help("Path to the database");
+		parser.addArgument("-d", "--db").setDefault("dedupe.db").help("Path to the database");
 		parser.addArgument("-n", "--dry-run").help("Generate and update metadata, but do not create hard links")
 				.action(Arguments.storeTrue());
 		parser.addArgument("-p", "--paranoid")
@@ -85,7 +208,66 @@ public class DedupeCli {
 				.action(Arguments.storeTrue());
 		parser.addArgument("-i", "--ignore").nargs("*").help("Ignore paths that match the given java regex pattern")
 				.setDefault(Collections.emptyList());
-		
+		parser.addArgument("--commit-latency").type(Long.class).setDefault(200L)
+				.choices(Arguments.range(1L, Long.MAX_VALUE)).help("Target latency in milliseconds for database commits, used to size write batches");
+		parser.addArgument("--read-connections").type(Integer.class).setDefault(0).help(
+				"Open the database in WAL mode with this many read-only connections, 0 uses a single exclusive connection."
+						+ " Needed to run '" + QueryCli.COMMAND + "' while this run is in progress");
+		parser.addArgument("--preload").action(Arguments.storeTrue()).help(
+				"Load all known metadata for the directories and all known file keys into memory before processing files");
+		parser.addArgument("--sweep").action(Arguments.storeTrue()).help(
+				"Remove metadata and links of files under the directories that no longer exist or are ignored");
+		parser.addArgument("--vacuum").action(Arguments.storeTrue())
+				.help("Compact the database and update its statistics after a sweep");
+		parser.addArgument("-g", "--global").action(Arguments.storeTrue())
+				.help("Match files against all files in the database, not just the ones found in the given directories");
+		parser.addArgument("--walk-threads").type(Integer.class).setDefault(1)
+				.choices(Arguments.range(1, Integer.MAX_VALUE)).help("Number of directories walked in parallel");
+		parser.addArgument("--stat-threads").type(Integer.class).setDefault(cpus)
+				.choices(Arguments.range(1, Integer.MAX_VALUE)).help("Threads reading file sizes");
+		parser.addArgument("--db-threads").type(Integer.class).setDefault(0)
+				.choices(Arguments.range(0, Integer.MAX_VALUE))
+				.help("Threads looking up stored metadata, 0 uses one thread per read connection");
+		parser.addArgument("--hash-threads").type(Integer.class).setDefault(cpus)
+				.choices(Arguments.range(1, Integer.MAX_VALUE)).help("Threads hashing new and changed files");
+		parser.addArgument("--compare-threads").type(Integer.class).setDefault(cpus)
+				.choices(Arguments.range(1, Integer.MAX_VALUE))
+				.help("Threads grouping files by hash and comparing their contents");
+		parser.addArgument("--thread-mode").type(ThreadMode.class).setDefault(ThreadMode.PLATFORM)
+				.help("Run stat and hash work on platform or virtual threads, virtual threads need Java 21 or newer");
+		parser.addArgument("--virtual-threads").type(Integer.class).setDefault(1024)
+				.choices(Arguments.range(1, Integer.MAX_VALUE))
+				.help("Virtual threads per stat and hash stage, replaces the stage thread counts in virtual mode");
+		parser.addArgument("--device-concurrency").type(Integer.class).setDefault(64)
+				.choices(Arguments.range(1, Integer.MAX_VALUE))
+				.help("Maximum file operations in flight per device in virtual mode");
+		parser.addArgument("--async-reads").type(Integer.class).setDefault(0)
+				.choices(Arguments.range(0, Integer.MAX_VALUE)).help(
+						"Hash files with asynchronous reads, keeping this many files in flight and computing digests on --hash-threads threads, 0 reads files in the hash stage threads");
+		parser.addArgument("--direct-io").action(Arguments.storeTrue()).help(
+				"Hash and compare files with direct I/O to keep them out of the page cache, needs Java 10 or newer. Does not apply to --async-reads");
+		parser.addArgument("--max-read-rate").type(DedupeCli::parseRate).setDefault(IoThrottle.UNLIMITED)
+				.help("Limit reading file contents to this many bytes per second, with an optional K, M, G or T suffix, 0 is unlimited");
+		parser.addArgument("--max-read-ops").type(DedupeCli::parseRate).setDefault(IoThrottle.UNLIMITED)
+				.help("Limit reading file contents to this many read operations per second, 0 is unlimited");
+		parser.addArgument("--throttle-file").help("Properties file with the keys "
+				+ ThrottleControlFile.BYTES_PER_SECOND + " and " + ThrottleControlFile.OPERATIONS_PER_SECOND
+				+ ", checked every " + THROTTLE_POLL_SECONDS + " seconds to change the read limits of a running instance");
+		parser.addArgument("--time-budget").type(DedupeCli::parseDuration).help(
+				"Stop hashing new files, and comparing them with --paranoid, once this much time has passed, e.g. 30m, 2h or PT1H30M. The directories are walked completely, then size groups are hashed in order of the bytes they could reclaim, largest first");
+		parser.addArgument("--progress-interval").type(Long.class).setDefault(DEFAULT_PROGRESS_INTERVAL_SECONDS)
+				.choices(Arguments.range(0L, Long.MAX_VALUE)).help(
+						"Seconds between progress reports with throughput, queue depths and the estimated remaining time of each phase, 0 disables the reports");
+		parser.addArgument("--metrics-json").help(
+				"Write the metrics of the run, which are also exposed as JMX MBeans while it runs, as JSON to this file at the end of the run");
+		parser.addArgument("--checkpoint").action(Arguments.storeTrue()).help(
+				"Store the progress of the run in the database every " + CHECKPOINT_INTERVAL_MINUTES
+						+ " minutes and on interrupt. A run with the same directories resumes after the walk of an interrupted run");
+		parser.addArgument("--restart").action(Arguments.storeTrue())
+				.help("Discard the checkpoint of an interrupted run and walk the directories again");
+		parser.addArgument("--xattr-cache").action(Arguments.storeTrue()).help(
+				"Store hashes in extended attributes of the files and reuse them if size and modified time still match");
+
 		return parser.parseArgsOrFail(args);
 	}
 
@@ -96,11 +278,7 @@ public class DedupeCli {
 
 		LOGGER.info("Opening database...");
 
-		if (ns.getString("db") == null) {
-			database = new Database();
-		} else {
-			database = new Database(ns.getString("db"));
-		}
+		database = new Database(ns.getString("db"), ns.getInt("read_connections"));
 
 		dao = DaoManager.createDao(database.getConnectionSource(), FileMetaData.class);
 		dao.setObjectCache(new LruObjectCache(100));
@@ -120,179 +298,912 @@ public class DedupeCli {
 		}));
 	}
 
-	private List<Path> findFiles() {
-		FileFinder ff = new FileFinder(ns.getList("ignore"));
+	private MetaData createMetaData() {
+		HashAttributeCache hashCache = ns.getBoolean("xattr_cache") ? new HashAttributeCache(MetaData.HASH_ALGORITHM)
+				: null;
+		int asyncReads = ns.getInt("async_reads");
 
-		MetaData metaData = new MetaData();
-		SizeGroup sizeGroup = new SizeGroup(metaData);
+		if (asyncReads > 0) {
+			asyncHasher = new AsyncHasher(Hashing.sha512(), asyncReads, ns.getInt("hash_threads"),
+					AsyncHasher.DEFAULT_BUFFER_SIZE, throttle);
+		}
 
-		Stopwatch sw = Stopwatch.createStarted();
+		return new MetaData(FileSystems.getDefault(), hashCache, asyncHasher, directReader, throttle);
+	}
 
-		for (String path : ns.<String> getList("dir")) {
-			try {
-				Stream<Path> stream = ff.findFiles(Paths.get(path));
-				sizeGroup.add(stream);
-			} catch (IOException e) {
-				LOGGER.error("Failed to find files: {}", e.toString());
-			}
+	private IoThrottle createThrottle() {
+		long bytesPerSecond = ns.getLong("max_read_rate");
+		long operationsPerSecond = ns.getLong("max_read_ops");
+		String controlFile = ns.getString("throttle_file");
+
+		if (bytesPerSecond == IoThrottle.UNLIMITED && operationsPerSecond == IoThrottle.UNLIMITED
+				&& controlFile == null) {
+			return null;
 		}
 
-		List<Path> sizeBasedCandidates = sizeGroup.sameSizeFiles();
+		IoThrottle ioThrottle = new IoThrottle(bytesPerSecond, operationsPerSecond);
 
-		LOGGER.info("Found {} files with non-unique file sizes in {}", sizeBasedCandidates.size(), sw.toString());
+		if (controlFile != null) {
+			throttleControl = new ThrottleControlFile(Paths.get(controlFile), ioThrottle);
+			throttleControl.reload();
+		}
 
-		return sizeBasedCandidates;
+		LOGGER.info("Limiting file reads: {}", ioThrottle);
+		return ioThrottle;
 	}
 
-	public void run() throws SQLException {
-		setUpDatabase();
-		
-		List<Path> sizeBasedCandidates = findFiles();
+	private static Long parseRate(ArgumentParser parser, Argument arg, String value) throws ArgumentParserException {
+		try {
+			return IoThrottle.parseRate(value);
+		} catch (IllegalArgumentException e) {
+			throw new ArgumentParserException(e.getMessage(), parser, arg);
+		}
+	}
 
-		LOGGER.info("Building list of known paths...");
-		
-		MetaData metaData = new MetaData();
+	private static Duration parseDuration(ArgumentParser parser, Argument arg, String value)
+			throws ArgumentParserException {
+		try {
+			return TimeBudget.parseDuration(value);
+		} catch (IllegalArgumentException e) {
+			throw new ArgumentParserException(e.getMessage(), parser, arg);
+		}
+	}
 
-		LOGGER.info("Generating metadata for candidates...");
-		Stopwatch metadataSW = Stopwatch.createStarted();
-		HashGroup hashGroup = new HashGroup();
+	private DirectReader createDirectReader() {
+		if (!ns.getBoolean("direct_io")) {
+			return null;
+		}
+
+		if (!DirectReader.isSupported()) {
+			LOGGER.warn("Direct I/O is not supported by this JVM, reading files through the page cache");
+			return null;
+		}
+
+		return new DirectReader(DirectReader.DEFAULT_BUFFER_SIZE, throttle);
+	}
 
-		AtomicInteger existingMeta = new AtomicInteger();
-		AtomicInteger newMeta = new AtomicInteger();
-		AtomicInteger totalFiles = new AtomicInteger();
-		AtomicInteger updatedMeta = new AtomicInteger();
+	private void walk(Path root, Map<Path, List<Path>> walkedFiles) throws InterruptedException {
+		FileFinder ff = new FileFinder(ns.getList("ignore"));
 
-		BatchWriter<FileMetaDataDao, FileMetaData> batchWriter = new BatchWriter<FileMetaDataDao, FileMetaData>(dao);
+		try (Stream<Path> found = ff.findFiles(root)) {
+			Stream<Path> stream = found;
 
-		VerifyMetaData verify = new VerifyMetaData(metaData);
+			if (walkedFiles != null) {
+				List<Path> files = stream.collect(Collectors.toList());
+				walkedFiles.put(root, files);
+				stream = files.stream();
+			}
 
-		hashGroup.add(sizeBasedCandidates.parallelStream().map(new Function<Path, FileMetaData>() {
-			@Override
-			public FileMetaData apply(Path t) {
-				FileMetaData meta = null;
+			Iterator<Path> files = stream.iterator();
+
+			while (files.hasNext() && !interrupted) {
+				statStage.submit(files.next());
+			}
+		} catch (IOException e) {
+			metrics.error("walk", e);
+			LOGGER.error("Failed to find files: {}", e.toString());
+		}
+	}
+
+	private void sweepStaleRows(StaleRowSweep sweep, Path directory, List<Path> files) {
+		try {
+			sweep.sweep(directory, files);
+		} catch (SQLException e) {
+			LOGGER.warn("Failed to remove stale rows under {}: {}", directory, e.toString());
+		}
+	}
+
+	private long databaseSize(StaleRowSweep sweep) {
+		try {
+			return sweep.databaseSize();
+		} catch (SQLException e) {
+			LOGGER.warn("Failed to get database size: {}", e.toString());
+			return 0;
+		}
+	}
+
+	private void finishSweep(StaleRowSweep sweep, Map<Path, List<Path>> walkedFiles, long sizeBefore) {
+		if (interrupted) {
+			LOGGER.info("Not removing stale rows, moved files may not have been detected yet");
+			return;
+		}
+
+		// rows of moved files are only moved to their new path once all files have been looked up
+		walkedFiles.forEach((root, files) -> sweepStaleRows(sweep, root, files));
+
+		try {
+			sweep.removeEmptyDirectories();
+
+			if (ns.getBoolean("vacuum")) {
+				LOGGER.info("Compacting database...");
+				sweep.vacuum();
+			}
 
-				totalFiles.getAndIncrement();
+			LOGGER.info(
+					"Removed {} stale rows and {} empty directories, reclaimed {} bytes in the database file, {} bytes are free for reuse",
+					sweep.getRemovedRows(), sweep.getRemovedDirectories(), sizeBefore - sweep.databaseSize(),
+					sweep.freeSpace());
 
+			if (ns.getBoolean("vacuum")) {
+				sweep.analyze();
+			}
+		} catch (SQLException e) {
+			LOGGER.warn("Failed to finish removing stale rows: {}", e.toString());
+		}
+	}
+
+	private boolean isKnownSize(Path path, long size) {
+		try {
+			return dao.hasOtherFileWithSize(path, size);
+		} catch (SQLException e) {
+			LOGGER.warn("Failed to query files with size {}: {}", size, e.toString());
+			return false;
+		}
+	}
+
+	private Stream<FileMetaData> indexedMatches(FileMetaData meta, VerifyMetaData verify) {
+		try {
+			return dao.getMetaDataWithHash(meta.getSize(), meta.getHash()).stream().filter(known -> {
 				try {
-					if (dao.hasMetaData(t)) {
-						existingMeta.getAndIncrement();
-						meta = dao.getMetaDataForPath(t);
-
-						if (verify.hasChanged(meta)) {
-							LOGGER.info("File {} has changed, updating metadata", meta.getPath());
-							updatedMeta.getAndIncrement();
-							metaData.updateMetaData(meta);
-							batchWriter.add(meta);
-							linkDao.deleteLinksWith(meta);
-						}
-					} else {
-						newMeta.getAndIncrement();
-						meta = metaData.createMetaDataFromFile(t);
-						
-						batchWriter.add(meta);
-					}
-
-					return meta;
+					return !verify.hasChanged(known);
 				} catch (IOException e) {
-					LOGGER.warn("Failed to generate metadata for {}: {}", t, e.toString());
-				} catch (SQLException e) {
-					LOGGER.warn("Failed to access database: {} cause: {}", e.toString(),
-							e.getCause() == null ? "null" : e.getCause().toString());
+					LOGGER.debug("Ignoring indexed file {}: {}", known.getPath(), e.toString());
+					return false;
 				}
+			});
+		} catch (SQLException e) {
+			LOGGER.warn("Failed to query files matching {}: {}", meta.getPath(), e.toString());
+			return Stream.empty();
+		}
+	}
+
+	private MetaDataIndex loadKnownPaths() throws SQLException {
+		LOGGER.info("Building list of known paths...");
+
+		return MetaDataIndex.load(dao, roots());
+	}
+
+	private List<Path> roots() {
+		// stored paths are absolute, so they do not depend on the working directory and match queries
+		return ns.<String> getList("dir").stream().map(dir -> Paths.get(dir).toAbsolutePath().normalize())
+				.collect(Collectors.toList());
+	}
+
+	public void run() throws SQLException, InterruptedException {
+		setUpDatabase();
+
+		List<Path> roots = roots();
+		checkpoint = ns.getBoolean("checkpoint") ? new RunCheckpoint(database.getConnectionSource(), roots) : null;
 
-				return new FileMetaData();
+		if (checkpoint != null) {
+			installInterruptHandler();
+		}
+		boolean resume = startCheckpoint();
+
+		knownPaths = ns.getBoolean("preload") ? loadKnownPaths() : null;
+		throttle = createThrottle();
+		directReader = createDirectReader();
+		metaData = createMetaData();
+		verify = new VerifyMetaData(metaData);
+		compareFile = new CompareFile(FileSystems.getDefault(), directReader, throttle);
+
+		// stores the directories of moved files in the batch transaction
+		batchWriter = new BatchWriter<FileMetaDataDao, FileMetaData>(dao, BATCH_WRITER_INTERVAL_MINUTES,
+				TimeUnit.MINUTES, new AdaptiveBatchSize(ns.getLong("commit_latency"), TimeUnit.MILLISECONDS), dao::store);
+		linkWriter = new BatchWriter<FileLinkDao, FileLink>(linkDao, BATCH_WRITER_INTERVAL_MINUTES, TimeUnit.MINUTES,
+				new AdaptiveBatchSize(ns.getLong("commit_latency"), TimeUnit.MILLISECONDS), linkDao::upsertLink);
+		linkInvalidator = new LinkInvalidator(linkDao);
+		deferredLinks = new DeferredLinkWriter(batchWriter, linkWriter, linkInvalidator);
+		batchWriter.addCommitListener(deferredLinks::retry);
+		linkIndex = LinkIndex.load(linkDao);
+		linkedFilter = new LinkedFilter(linkIndex);
+		fileLinker = createFileLinker();
+
+		if (resume && ns.getBoolean("sweep")) {
+			LOGGER.info("Not removing stale rows, the directories are not walked when resuming");
+		}
+
+		StaleRowSweep sweep = ns.getBoolean("sweep") && !resume ? new StaleRowSweep(dao, linkDao) : null;
+		long sizeBeforeSweep = sweep == null ? 0 : databaseSize(sweep);
+		Map<Path, List<Path>> walkedFiles = sweep == null ? null : new ConcurrentHashMap<Path, List<Path>>();
+
+		Duration budget = ns.get("time_budget");
+		timeBudget = budget == null ? null : new TimeBudget(budget);
+		sizeGroup = new StreamingSizeGroup(timeBudget != null);
+		threadMode = ns.<ThreadMode> get("thread_mode").orFallback();
+		deviceLimiter = threadMode == ThreadMode.VIRTUAL ? new DeviceLimiter(ns.getInt("device_concurrency")) : null;
+		moveDetector = new MoveDetector(dao, deviceLimiter,
+				ns.getBoolean("preload") ? FileKeyIndex.load(dao) : null);
+
+		linkStage = new Stage<Collection<FileMetaData>>("link", 1, QUEUE_CAPACITY, this::link);
+		compareStage = new Stage<List<FileMetaData>>("compare", ns.getInt("compare_threads"), QUEUE_CAPACITY,
+				this::compare);
+		hashStage = ioStage("hash", ns.getInt("hash_threads"), this::hash);
+		lookupStage = new Stage<Candidate>("lookup", dbThreads(), QUEUE_CAPACITY, this::lookup);
+		statStage = ioStage("stat", ns.getInt("stat_threads"),
+				this::stat);
+		Stage<Path> walkStage = new Stage<Path>("walk", ns.getInt("walk_threads"), QUEUE_CAPACITY,
+				root -> walk(root, walkedFiles));
+
+		List<Stage<?>> stages = Arrays.asList(walkStage, statStage, lookupStage, hashStage, compareStage, linkStage);
+		MetricsRegistry metricsRegistry = registerMetrics(stages);
+		ScheduledExecutorService progress = startProgressReport(stages);
+
+		if (throttleControl != null) {
+			progress.scheduleWithFixedDelay(throttleControl::reload, THROTTLE_POLL_SECONDS, THROTTLE_POLL_SECONDS,
+					TimeUnit.SECONDS);
+		}
+
+		if (checkpoint != null) {
+			progress.scheduleWithFixedDelay(this::writeCheckpoint, CHECKPOINT_INTERVAL_MINUTES,
+					CHECKPOINT_INTERVAL_MINUTES, TimeUnit.MINUTES);
+		}
+		Stopwatch sw = Stopwatch.createStarted();
+		metrics.phaseFinished("setup");
+
+		if (resume) {
+			LOGGER.info("Resuming hashing and linking of the files found by the interrupted run...");
+			resumeLinks();
+			resumeFiles();
+		} else if (timeBudget == null) {
+			LOGGER.info("Walking directories and hashing files with non-unique sizes...");
+			walkStage.submitAll(roots);
+		} else {
+			LOGGER.info("Walking directories, hashing is deferred until the walk has finished, {}", timeBudget);
+			walkStage.submitAll(roots);
+		}
+
+		walkStage.finishAndAwait();
+		statStage.finishAndAwait();
+		walkProgress.totalKnown();
+		metrics.phaseFinished("walk");
+
+		BiPredicate<Path, Long> knownSize;
+
+		if (resume) {
+			// the stored groups were already filtered when the walk finished
+			knownSize = (path, size) -> true;
+		} else {
+			knownSize = ns.getBoolean("global") ? this::isKnownSize : (path, size) -> false;
+		}
+
+		if (timeBudget == null) {
+			List<Candidate> toHash = sizeGroup.walkFinished(knownSize);
+			checkpointWalk(toHash);
+			expectHashing(toHash);
+			hashProgress.totalKnown();
+			lookupStage.submitAll(toHash);
+
+			for (List<FileMetaData> group : sizeGroup.completeGroups()) {
+				submitForComparison(group);
 			}
-		}));
+		} else {
+			List<List<Candidate>> groups = sizeGroup.walkFinishedByReclaimableBytes(knownSize);
+			List<Candidate> toHash = groups.stream().flatMap(List::stream).collect(Collectors.toList());
+			checkpointWalk(toHash);
+			expectHashing(toHash);
+			hashProgress.totalKnown();
+			LOGGER.info("Hashing {} size groups, largest reclaimable bytes first, {} left", groups.size(),
+					timeBudget.remaining());
+			submitWithinBudget(groups);
+		}
 
+		if (!resume) {
+			LOGGER.info("Found {} files, of which {} have non-unique file sizes, in {}", statStage.processed(),
+					sizeGroup.candidates(), sw);
+		}
+
+		lookupStage.finishAndAwait();
+		hashStage.finishAndAwait();
+		pendingHashes.arriveAndAwaitAdvance();
+		compareProgress.totalKnown();
+		metrics.phaseFinished("hash");
 		LOGGER.info(
-				"From a total of {} files, {} files were already known, of which {} were updated, {} new metadata entries were added and {} errors were encountered",
-				totalFiles, existingMeta, updatedMeta, newMeta, 
-				totalFiles.get() - newMeta.get() - existingMeta.get());
-		LOGGER.info("Finished generating metadata for {} files in {}", newMeta, metadataSW);
+				"From a total of {} files, {} files were already known, of which {} were updated, {} were moved, {} new metadata entries were added and {} errors were encountered",
+				metrics.getTotalFiles(), metrics.getExistingFiles(), metrics.getUpdatedFiles(),
+				metrics.getMovedFiles(), metrics.getNewFiles(),
+				metrics.getTotalFiles() - metrics.getNewFiles() - metrics.getExistingFiles() - metrics.getMovedFiles()
+						- metrics.getUnhashedFiles());
+
+		compareStage.finishAndAwait();
+		linkProgress.totalKnown();
+		metrics.phaseFinished("compare");
+		LOGGER.info("Found {} groups of files with matching hashes, {} groups after comparing",
+				metrics.getHashGroups(), metrics.getDuplicateGroups());
 
-		batchWriter.flush();
+		linkStage.finishAndAwait();
+		metrics.phaseFinished("link");
+		progress.shutdownNow();
+		finishCheckpoint();
 
-		Multimap<String, FileMetaData> hashBasedCandidates = hashGroup.nonUniqueMap();
+		batchWriter.flushAndWait();
+		deferredLinks.close();
+		batchWriter.shutdown();
 
-		LOGGER.info("Found {} files with matching hashes in {} groups", hashBasedCandidates.size(),
-				hashBasedCandidates.keySet().size());
-		LOGGER.info("Comparing files by contents...");
+		if (asyncHasher != null) {
+			asyncHasher.close();
+		}
 
-		CompareFile compareFile = new CompareFile();
-		List<Collection<FileMetaData>> duplicateGroups;
-		if (ns.getBoolean("paranoid")) {
-			duplicateGroups = compareFile.groupIdenticalFiles(hashBasedCandidates);
-		} else {
-			duplicateGroups  = new LinkedList<Collection<FileMetaData>>();
-			Multimaps.asMap(hashBasedCandidates)
-					.forEach((key, valueCollection) -> duplicateGroups.add(valueCollection));
+		linkInvalidator.flush();
+		linkWriter.shutdown();
+
+		if (sweep != null) {
+			finishSweep(sweep, walkedFiles, sizeBeforeSweep);
+		}
+
+		metrics.phaseFinished("finish");
+
+		for (Stage<?> stage : stages) {
+			LOGGER.info("Stage {} processed {} items with {} failures in {} ms of worker time, peak queue depth was {}",
+					stage.getName(), stage.processed(), stage.failed(), stage.busyTime(TimeUnit.MILLISECONDS),
+					stage.peakQueueDepth());
+		}
+
+		if (throttle != null) {
+			LOGGER.info("Reads waited {} ms for the throttle", throttle.waitTime(TimeUnit.MILLISECONDS));
+		}
+
+		if (metrics.getNotStartedGroups() > 0 || metrics.getUnhashedFiles() > 0) {
+			LOGGER.info(
+					"Hashing stopped early, {} size groups with up to {} reclaimable bytes were not started and {} files were not hashed",
+					metrics.getNotStartedGroups(), metrics.getNotStartedBytes(), metrics.getUnhashedFiles());
+		}
+
+		if (metrics.getUncomparedGroups() > 0) {
+			LOGGER.info("Comparing stopped early, {} size groups were not compared",
+					metrics.getUncomparedGroups());
+		}
+
+		if (metrics.getErrorCount() > 0) {
+			LOGGER.info("Errors by type: {}", metrics.getErrors());
+		}
+
+		LOGGER.info("In {}, linked {} groups and skipped {} groups", sw, metrics.getLinkedGroups(),
+				metrics.getSkippedGroups());
+
+		writeMetrics(metricsRegistry);
+		metricsRegistry.close();
+	}
+
+	private MetricsRegistry registerMetrics(List<Stage<?>> stages) {
+		MetricsRegistry registry = new MetricsRegistry();
+		registry.register("Run", "run", metrics);
+
+		for (Stage<?> stage : stages) {
+			registry.register("Stage", stage.getName(), stage);
+		}
+
+		for (PhaseProgress phase : Arrays.asList(walkProgress, hashProgress, compareProgress, linkProgress)) {
+			registry.register("Phase", phase.getName(), phase);
+		}
+
+		registry.register("BatchWriter", "metadata", batchWriter);
+		registry.register("BatchWriter", "links", linkWriter);
+
+		return registry;
+	}
+
+	private void writeMetrics(MetricsRegistry registry) {
+		String file = ns.getString("metrics_json");
+
+		if (file == null) {
+			return;
+		}
+
+		try {
+			registry.writeJson(Paths.get(file));
+			LOGGER.info("Wrote metrics to {}", file);
+		} catch (IOException e) {
+			LOGGER.warn("Failed to write metrics to {}: {}", file, e.toString());
+		}
+	}
+
+	/**
+	 * Submit the size groups, largest reclaimable bytes first, until the time budget expires. Submitting blocks while
+	 * the lookup queue is full, so the budget is checked as the pipeline drains and the remaining groups are never
+	 * started.
+	 */
+	private void submitWithinBudget(List<List<Candidate>> groups) throws InterruptedException {
+		for (List<Candidate> group : groups) {
+			if (stopHashing()) {
+				metrics.increment(Counter.NOT_STARTED_GROUPS);
+				metrics.add(Counter.NOT_STARTED_BYTES, StreamingSizeGroup.reclaimableBytes(group));
+				hashProgress.cancel(group.size(), totalSize(group));
+				continue;
+			}
+
+			lookupStage.submitAll(group);
+		}
+	}
+
+	/**
+	 * On the first interrupt, stop starting new work and let the files in flight finish, so the run ends with all
+	 * completed work and a checkpoint written. A second interrupt exits immediately.
+	 */
+	private void installInterruptHandler() {
+		boolean installed = InterruptSignal.handleFirst(() -> {
+			interrupted = true;
+			LOGGER.info(
+					"Interrupted, finishing files in flight and writing a checkpoint, interrupt again to exit immediately");
+		});
+
+		if (!installed) {
+			LOGGER.warn(
+					"Failed to install the interrupt handler, interrupting will exit without writing a checkpoint");
+		}
+	}
+
+	private boolean stopHashing() {
+		return interrupted || (timeBudget != null && timeBudget.isExpired());
+	}
+
+	private void skipHashing(Candidate candidate) throws InterruptedException {
+		metrics.increment(Counter.UNHASHED_FILES);
+
+		if (checkpoint != null) {
+			checkpoint.incomplete(candidate.getSize());
+		}
+
+		hashed(candidate, null);
+	}
+
+	private boolean startCheckpoint() throws SQLException {
+		if (checkpoint == null) {
+			return false;
+		}
+
+		if (checkpoint.isResumable() && !ns.getBoolean("restart")) {
+			LOGGER.info("Resuming the interrupted run from the checkpoint written at {}",
+					Instant.ofEpochMilli(checkpoint.lastCheckpoint()));
+			return true;
+		}
+
+		if (checkpoint.hasOtherRun()) {
+			LOGGER.warn("Discarding the checkpoint of an interrupted run with other directories");
+		}
+
+		checkpoint.start();
+		return false;
+	}
+
+	private void resumeLinks() throws InterruptedException, SQLException {
+		for (PendingLink link : checkpoint.pendingLinks()) {
+			List<FileMetaData> group = new ArrayList<FileMetaData>();
+
+			for (int id : link.getMetaDataIds()) {
+				FileMetaData meta = dao.queryForId(id);
+
+				if (meta != null && isUnchanged(meta)) {
+					group.add(meta);
+				}
+			}
+
+			checkpoint.restored(link, group);
+
+			if (group.size() > 1) {
+				linkProgress.expect(group.size(), reclaimableBytes(group));
+				linkStage.submit(group);
+			} else {
+				checkpoint.linked(group);
+			}
+		}
+	}
+
+	private boolean isUnchanged(FileMetaData meta) {
+		try {
+			return !verify.hasChanged(meta);
+		} catch (IOException e) {
+			LOGGER.warn("Not linking {}: {}", meta.getPath(), e.toString());
+			return false;
+		}
+	}
+
+	private void resumeFiles() throws InterruptedException, SQLException {
+		ListMultimap<Long, String> pending = checkpoint.pendingFiles();
+		LOGGER.info("{} files in {} size groups have not been compared", pending.size(), pending.keySet().size());
+
+		for (Entry<Long, String> file : pending.entries()) {
+			release(sizeGroup.add(Paths.get(file.getValue()), file.getKey()));
+		}
+	}
+
+	private void stat(Path path) throws IOException, InterruptedException {
+		long size;
+
+		try {
+			size = io(path, () -> metaData.size(path));
+		} catch (IOException e) {
+			metrics.error("stat", e);
+			throw e;
+		}
+
+		walkProgress.completed(1, size);
+		release(sizeGroup.add(path, size));
+	}
+
+	private void release(List<Candidate> candidates) throws InterruptedException {
+		if (checkpoint != null && !candidates.isEmpty()) {
+			checkpoint.released(candidates.get(0).getSize(),
+					candidates.stream().map(Candidate::getPath).collect(Collectors.toList()));
+		}
+
+		expectHashing(candidates);
+		lookupStage.submitAll(candidates);
+	}
+
+	private void expectHashing(List<Candidate> candidates) {
+		hashProgress.expect(candidates.size(), totalSize(candidates));
+	}
+
+	private static long totalSize(List<Candidate> candidates) {
+		return candidates.stream().mapToLong(Candidate::getSize).sum();
+	}
+
+	private static long reclaimableBytes(Collection<FileMetaData> identical) {
+		return identical.isEmpty() ? 0 : identical.iterator().next().getSize() * (identical.size() - 1);
+	}
+
+	private void checkpointWalk(List<Candidate> released) {
+		if (checkpoint == null || interrupted) {
+			return;
+		}
+
+		released.stream().collect(Collectors.groupingBy(Candidate::getSize,
+				Collectors.mapping(Candidate::getPath, Collectors.toList())))
+				.forEach(checkpoint::released);
+
+		try {
+			checkpoint.walkFinished(this::flushWriters);
+		} catch (SQLException e) {
+			metrics.error("checkpoint", e);
+			LOGGER.warn("Failed to write the checkpoint: {}", e.toString());
+		}
+	}
+
+	private void writeCheckpoint() {
+		try {
+			checkpoint.checkpoint(this::flushWriters);
+		} catch (SQLException e) {
+			metrics.error("checkpoint", e);
+			LOGGER.warn("Failed to write the checkpoint: {}", e.toString());
+		}
+	}
+
+	private void finishCheckpoint() {
+		if (checkpoint == null) {
+			return;
+		}
+
+		try {
+			if (checkpoint.finish(this::flushWriters)) {
+				LOGGER.info("All files were compared and linked, removed the checkpoint");
+			} else if (checkpoint.isResumable()) {
+				LOGGER.info("Wrote a checkpoint, run again with the same directories and --checkpoint to resume");
+			} else {
+				LOGGER.info("The walk did not finish, the next run will walk the directories again");
+			}
+		} catch (SQLException e) {
+			metrics.error("checkpoint", e);
+			LOGGER.warn("Failed to write the checkpoint: {}", e.toString());
+		}
+	}
+
+	private void flushWriters() {
+		batchWriter.flushAndWait();
+		deferredLinks.flush();
+		batchWriter.flushAndWait();
+		linkWriter.flushAndWait();
+	}
+
+	private ScheduledExecutorService startProgressReport(List<Stage<?>> stages) {
+		ScheduledExecutorService progress = Executors.newSingleThreadScheduledExecutor(
+				new ThreadFactoryBuilder().setNameFormat("progress-%d").setDaemon(true).build());
+		long interval = ns.getLong("progress_interval");
+
+		if (interval > 0) {
+			progress.scheduleAtFixedRate(() -> reportProgress(stages), interval, interval, TimeUnit.SECONDS);
 		}
 
-		LOGGER.info("After comparing and grouping, there are {} groups", duplicateGroups.size());
+		return progress;
+	}
+
+	private void reportProgress(List<Stage<?>> stages) {
+		LOGGER.info("Pipeline: {}", stages);
 
-		FileLinker fileLinker = null;
+		for (PhaseProgress phase : Arrays.asList(walkProgress, hashProgress, compareProgress, linkProgress)) {
+			if (phase.hasStarted()) {
+				LOGGER.info("Progress of {}", phase.report());
+			}
+		}
+	}
 
+	private FileLinker createFileLinker() {
 		if (ns.getBoolean("dry_run")) {
 			LOGGER.info("Using logging linker...");
-			fileLinker = new LoggingLinker();
+			return new LoggingLinker();
 		} else {
 			LOGGER.info("Using hard linker...");
-			fileLinker = new HardLinker();
+			return new HardLinker();
 		}
+	}
 
-		long skipped = 0;
-		long linked = 0;
+	private int dbThreads() {
+		int dbThreads = ns.getInt("db_threads");
 
-		LinkedFilter linkedFilter = new LinkedFilter(linkDao);
+		return dbThreads > 0 ? dbThreads : Math.max(1, ns.getInt("read_connections"));
+	}
 
-		Stopwatch linkTime = Stopwatch.createStarted();
+	private void lookup(Candidate candidate) throws InterruptedException {
+		Path path = candidate.getPath();
+		metrics.increment(Counter.TOTAL_FILES);
 
-		for (Collection<FileMetaData> duplicateGroup : duplicateGroups) {
-			if (isValidDuplicateGroup(duplicateGroup)) {
-				skipped++;
-				continue;
-			}
+		if (interrupted) {
+			skipHashing(candidate);
+			return;
+		}
 
-			List<FileMetaData> duplicateList = new ArrayList<FileMetaData>(duplicateGroup);
-			Collections.sort(duplicateList, new Comparator<FileMetaData>() {
+		try {
+			FileMetaData meta = knownPaths == null ? dao.getMetaDataForPath(path)
+					: knownPaths.getMetaDataForPath(path);
 
-				@Override
-				public int compare(FileMetaData o1, FileMetaData o2) {
-					return o1.getPath().compareTo(o2.getPath());
-				}
-			});
+			if (meta != null) {
+				metrics.increment(Counter.EXISTING_FILES);
+				hashStage.submit(new HashTask(candidate, meta));
+			} else if ((meta = moveDetector.findMoved(path)) != null) {
+				metrics.increment(Counter.MOVED_FILES);
+				batchWriter.add(meta);
+				hashed(candidate, meta);
+			} else {
+				hashStage.submit(new HashTask(candidate, null));
+			}
+		} catch (IOException e) {
+			metrics.error("lookup", e);
+			LOGGER.warn("Failed to generate metadata for {}: {}", path, e.toString());
+			hashed(candidate, null);
+		} catch (SQLException e) {
+			metrics.error("lookup", e);
+			LOGGER.warn("Failed to access database: {} cause: {}", e.toString(),
+					e.getCause() == null ? "null" : e.getCause().toString());
+			hashed(candidate, null);
+		}
+	}
 
-			Iterator<FileMetaData> iter = duplicateList.iterator();
+	private void hash(HashTask task) throws InterruptedException {
+		Path path = task.candidate.getPath();
+		FileMetaData meta = task.stored;
 
-			FileMetaData source = iter.next();
-			iter.remove();
-			
-			duplicateGroup = linkedFilter.filterLinked(source, duplicateList);
+		try {
+			if (meta != null && !io(path, () -> verify.hasChanged(task.stored))) {
+				fillFileKey(meta, path);
+				hashed(task.candidate, meta);
+				return;
+			}
 
-			if (duplicateGroup.isEmpty()) {
-				skipped++;
-				continue;
+			if (stopHashing()) {
+				skipHashing(task.candidate);
+				return;
 			}
 
-			linked++;
+			if (meta != null) {
+				LOGGER.info("File {} has changed, updating metadata", meta.getPath());
+				metrics.increment(Counter.UPDATED_FILES);
+			} else {
+				metrics.increment(Counter.NEW_FILES);
+			}
 
-			boolean allOk = fileLinker.link(source.getPath(),
-					duplicateGroup.parallelStream().map(DedupeCli::pathFromMeta).collect(Collectors.toList()));
+			if (asyncHasher != null) {
+				hashAsync(task);
+				return;
+			}
 
-			if (allOk && !ns.getBoolean("dry_run")) {
-				duplicateGroup.parallelStream().forEach(meta -> {
-					try {
-						linkDao.linkFiles(source, meta);
-						batchWriter.add(meta);
-					} catch (SQLException e) {
-						LOGGER.warn("Failed to link {} to {} due to: {}", meta, source, e.toString());
-					}
+			if (meta != null) {
+				io(path, () -> {
+					metaData.updateMetaData(task.stored);
+					return null;
 				});
+			} else {
+				meta = io(path, () -> metaData.createMetaDataFromFile(path));
+			}
+
+			storeHashed(task, meta);
+		} catch (IOException e) {
+			metrics.error("hash", e);
+			LOGGER.warn("Failed to generate metadata for {}: {}", path, e.toString());
+			hashed(task.candidate, null);
+		}
+	}
+
+	private void fillFileKey(FileMetaData meta, Path path) throws IOException, InterruptedException {
+		// rows stored before the file key column was added have no key, unchanged files are never hashed again
+		if (meta.getFileKey() != null) {
+			return;
+		}
+
+		String fileKey = io(path, () -> metaData.fileKey(path));
+
+		if (fileKey != null) {
+			meta.setFileKey(fileKey);
+			batchWriter.add(meta);
+		}
+	}
+
+	private void hashAsync(HashTask task) throws IOException, InterruptedException {
+		Path path = task.candidate.getPath();
+		CompletableFuture<FileMetaData> hashing = task.stored != null ? metaData.updateMetaDataAsync(task.stored)
+				: metaData.createMetaDataFromFileAsync(path);
+
+		pendingHashes.register();
+		hashing.whenComplete((meta, error) -> {
+			try {
+				if (error == null) {
+					storeHashed(task, meta);
+				} else {
+					Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+					metrics.error("hash", cause);
+					LOGGER.warn("Failed to generate metadata for {}: {}", path, cause.toString());
+					hashed(task.candidate, null);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				LOGGER.warn("Interrupted while storing metadata for {}", path);
+			} finally {
+				pendingHashes.arriveAndDeregister();
 			}
+		});
+	}
+
+	private void storeHashed(HashTask task, FileMetaData meta) throws InterruptedException {
+		if (task.stored != null) {
+			linkInvalidator.add(meta);
+			linkIndex.invalidate(meta.getId());
 		}
 
-		batchWriter.shutdown();
-		LOGGER.info("In {}, linked {} groups and skipped {} groups", linkTime, linked, skipped);
+		metrics.add(Counter.BYTES_HASHED, task.candidate.getSize());
+		batchWriter.add(meta);
+		hashed(task.candidate, meta);
+	}
+
+	private <T> Stage<T> ioStage(String name, int platformThreads, Worker<T> worker) {
+		if (threadMode == ThreadMode.VIRTUAL) {
+			return new Stage<T>(name, ns.getInt("virtual_threads"), QUEUE_CAPACITY, threadMode.threadFactory(name),
+					worker);
+		}
+
+		return new Stage<T>(name, platformThreads, QUEUE_CAPACITY, worker);
+	}
+
+	private <R> R io(Path path, FileOperation<R> operation) throws IOException, InterruptedException {
+		if (deviceLimiter == null) {
+			return operation.run();
+		}
+
+		return deviceLimiter.call(path, operation);
+	}
+
+	private void hashed(Candidate candidate, FileMetaData meta) throws InterruptedException {
+		hashProgress.completed(1, candidate.getSize());
+		List<FileMetaData> complete = sizeGroup.hashed(candidate, meta);
+
+		if (complete != null) {
+			submitForComparison(complete);
+		}
+	}
+
+	private void submitForComparison(List<FileMetaData> group) throws InterruptedException {
+		compareProgress.expect(group.size(), group.stream().mapToLong(FileMetaData::getSize).sum());
+		compareStage.submit(group);
+	}
+
+	private void compare(List<FileMetaData> group) throws InterruptedException {
+		if (ns.getBoolean("paranoid") && stopHashing()) {
+			skipComparing(group);
+			return;
+		}
+
+		// materialized, so the checkpoint and the link stage see the same group instances
+		List<Collection<FileMetaData>> identical = new ArrayList<Collection<FileMetaData>>(duplicateGroups(group));
+
+		if (checkpoint != null && !group.isEmpty()) {
+			checkpoint.compared(group.get(0).getSize(), identical);
+		}
+
+		compareProgress.completed(group.size(), group.stream().mapToLong(FileMetaData::getSize).sum());
+
+		for (Collection<FileMetaData> duplicates : identical) {
+			linkProgress.expect(duplicates.size(), reclaimableBytes(duplicates));
+		}
+
+		linkStage.submitAll(identical);
+	}
+
+	private void skipComparing(List<FileMetaData> group) {
+		long size = group.isEmpty() ? 0 : group.get(0).getSize();
+		metrics.increment(Counter.UNCOMPARED_GROUPS);
+		compareProgress.cancel(group.size(), size * group.size());
+		LOGGER.debug("Not comparing {} files with a size of {} bytes, hashing has stopped", group.size(), size);
+
+		if (checkpoint != null && !group.isEmpty()) {
+			checkpoint.incomplete(size);
+		}
+	}
+
+	private void link(Collection<FileMetaData> duplicateGroup) {
+		linkGroup(duplicateGroup);
+		linkProgress.completed(duplicateGroup.size(), reclaimableBytes(duplicateGroup));
+
+		if (checkpoint != null) {
+			checkpoint.linked(duplicateGroup);
+		}
+	}
+
+	private Collection<Collection<FileMetaData>> duplicateGroups(List<FileMetaData> sizeGroup) {
+		HashGroup hashGroup = new HashGroup();
+		hashGroup.addAll(sizeGroup);
+
+		if (ns.getBoolean("global")) {
+			hashGroup.addAll(hashGroup.onePerHash().stream().flatMap(meta -> indexedMatches(meta, verify))
+					.collect(Collectors.toList()));
+		}
+
+		Multimap<HashKey, FileMetaData> hashBasedCandidates = hashGroup.nonUniqueMap();
+		metrics.add(Counter.HASH_GROUPS, hashBasedCandidates.keySet().size());
+
+		Collection<Collection<FileMetaData>> identical;
+
+		if (ns.getBoolean("paranoid")) {
+			metrics.add(Counter.BYTES_COMPARED,
+					hashBasedCandidates.values().stream().mapToLong(FileMetaData::getSize).sum());
+			identical = compareFile.groupIdenticalFiles(hashBasedCandidates);
+		} else {
+			identical = hashBasedCandidates.asMap().values();
+		}
+
+		metrics.add(Counter.DUPLICATE_GROUPS, identical.size());
+
+		return identical;
+	}
+
+	private void linkGroup(Collection<FileMetaData> duplicateGroup) {
+		if (isValidDuplicateGroup(duplicateGroup)) {
+			metrics.increment(Counter.SKIPPED_GROUPS);
+			return;
+		}
+
+		List<FileMetaData> duplicateList = new ArrayList<FileMetaData>(duplicateGroup);
+		Collections.sort(duplicateList, new Comparator<FileMetaData>() {
+
+			@Override
+			public int compare(FileMetaData o1, FileMetaData o2) {
+				return o1.getPath().compareTo(o2.getPath());
+			}
+		});
+
+		Iterator<FileMetaData> iter = duplicateList.iterator();
+
+		FileMetaData source = iter.next();
+		iter.remove();
+
+		List<FileMetaData> toLink = linkedFilter.filterLinked(source, duplicateList);
+
+		if (toLink.isEmpty()) {
+			metrics.increment(Counter.SKIPPED_GROUPS);
+			return;
+		}
+
+		metrics.increment(Counter.LINKED_GROUPS);
+
+		boolean allOk = fileLinker.link(source.getPath(),
+				toLink.stream().map(DedupeCli::pathFromMeta).collect(Collectors.toList()));
+
+		if (allOk) {
+			metrics.add(Counter.LINKED_FILES, toLink.size());
+		} else {
+			metrics.error("link", "LinkFailed");
+		}
+
+		if (allOk && !ns.getBoolean("dry_run")) {
+			deferredLinks.add(source, toLink);
+		}
 	}
 
 	private boolean isValidDuplicateGroup(Collection<FileMetaData> duplicateGroup) {
@@ -0,0 +1,79 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.cli;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Replaces the default handling of the first interrupt signal (SIGINT, Ctrl-C) with a callback. The handler restores
+ * the default handling before running the callback, so a second interrupt exits the JVM as usual, running the shutdown
+ * hooks. The signal API of the JDK is internal, it is looked up via reflection, if it is not available interrupting
+ * exits immediately.
+ *
+ * @author Nicholas Wright
+ *
+ */
+class InterruptSignal {
+	private static final Logger LOGGER = LoggerFactory.getLogger(InterruptSignal.class);
+
+	private static final String SIGNAL_CLASS = "sun.misc.Signal";
+	private static final String HANDLER_CLASS = "sun.misc.SignalHandler";
+	private static final String INTERRUPT = "INT";
+
+	private InterruptSignal() {
+	}
+
+	/**
+	 * Run the callback on the first interrupt instead of exiting.
+	 *
+	 * @param onInterrupt
+	 *            called from the signal thread on the first interrupt
+	 * @return true if the handler was installed, false if interrupting still exits immediately
+	 */
+	static boolean handleFirst(Runnable onInterrupt) {
+		try {
+			Class<?> signalClass = Class.forName(SIGNAL_CLASS);
+			Class<?> handlerClass = Class.forName(HANDLER_CLASS);
+			Method handle = signalClass.getMethod("handle", signalClass, handlerClass);
+			Object signal = signalClass.getConstructor(String.class).newInstance(INTERRUPT);
+			Object defaultHandler = handlerClass.getField("SIG_DFL").get(null);
+
+			Object handler = Proxy.newProxyInstance(InterruptSignal.class.getClassLoader(),
+					new Class<?>[] { handlerClass }, (proxy, method, args) -> {
+						if (method.getDeclaringClass() == Object.class) {
+							return objectMethod(proxy, method, args);
+						}
+
+						handle.invoke(null, signal, defaultHandler);
+						onInterrupt.run();
+						return null;
+					});
+
+			handle.invoke(null, signal, handler);
+			return true;
+		} catch (ReflectiveOperationException | LinkageError e) {
+			LOGGER.debug("Signal handling is not available: {}", e.toString());
+			return false;
+		} catch (IllegalArgumentException e) {
+			LOGGER.debug("The interrupt signal cannot be handled: {}", e.toString());
+			return false;
+		}
+	}
+
+	private static Object objectMethod(Object proxy, Method method, Object[] args) {
+		switch (method.getName()) {
+		case "equals":
+			return proxy == args[0];
+		case "hashCode":
+			return System.identityHashCode(proxy);
+		default:
+			return InterruptSignal.class.getSimpleName();
+		}
+	}
+}
@@ -0,0 +1,170 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.cli;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.dozedoff.dedupe.db.Database;
+import com.github.dozedoff.dedupe.db.dao.DuplicateGroupIterator;
+import com.github.dozedoff.dedupe.db.dao.FileMetaDataDao;
+import com.github.dozedoff.dedupe.db.table.FileMetaData;
+import com.github.dozedoff.dedupe.duplicate.DuplicateQuery;
+import com.github.dozedoff.dedupe.duplicate.VerifyMetaData;
+import com.github.dozedoff.dedupe.file.MetaData;
+import com.google.common.base.Stopwatch;
+import com.j256.ormlite.dao.DaoManager;
+
+import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.impl.Arguments;
+import net.sourceforge.argparse4j.inf.ArgumentParser;
+import net.sourceforge.argparse4j.inf.ArgumentParserException;
+import net.sourceforge.argparse4j.inf.Namespace;
+
+/**
+ * Looks up known duplicates for the given files without walking any directories. For every duplicate a line with the
+ * queried path and the duplicate path, separated by a tab, is written to standard out. Alternatively all known duplicate
+ * groups can be listed, one line per group with the paths separated by tabs. The groups are found by the database and
+ * read one at a time, so listing them does not depend on the size of the database.
+ * 
+ * @author Nicholas Wright
+ *
+ */
+public class QueryCli {
+	private static final Logger LOGGER = LoggerFactory.getLogger(QueryCli.class);
+
+	/**
+	 * Name of the sub command, used as the first argument of {@link DedupeCli}.
+	 */
+	public static final String COMMAND = "query";
+
+	private final Namespace ns;
+	private final PrintStream out;
+
+	/**
+	 * Create a new query command with the arguments following the command name.
+	 * 
+	 * @param args
+	 *            command line arguments
+	 * @param out
+	 *            stream to write results to
+	 */
+	public QueryCli(String[] args, PrintStream out) {
+		this.ns = parseArgs(args);
+		this.out = out;
+	}
+
+	private Namespace parseArgs(String[] args) {
+		ArgumentParser parser = ArgumentParsers.newArgumentParser("Dedupe CLI " + COMMAND).defaultHelp(true)
+				.description("Find known duplicates of the given files, or list all known duplicates");
+		parser.addArgument("file").nargs("*").help("Files to find duplicates for");
+		parser.addArgument("-d", "--db").setDefault("dedupe.db").help(
+				"Path to the database, opened read-only. To query while dedupe is running, run it with --read-connections");
+		parser.addArgument("--all").action(Arguments.storeTrue())
+				.help("List all known groups of duplicates instead of querying files. Files that have changed since they were"
+						+ " recorded are left out");
+
+		Namespace ns = parser.parseArgsOrFail(args);
+
+		if (ns.<String> getList("file").isEmpty() == !ns.getBoolean("all")) {
+			parser.handleError(new ArgumentParserException("either files or --all must be given", parser));
+			System.exit(1);
+		}
+
+		return ns;
+	}
+
+	/**
+	 * Query the database for each file, or list all known duplicate groups.
+	 * 
+	 * @return the number of files that have at least one known duplicate, or the number of listed groups
+	 * @throws SQLException
+	 *             if there is an error accessing the database
+	 */
+	public int run() throws SQLException {
+		// read-only, the database is not modified. A concurrent run must use read connections, see Database#readOnly
+		Database database = Database.readOnly(ns.getString("db"));
+
+		try {
+			FileMetaDataDao dao = DaoManager.createDao(database.getConnectionSource(), FileMetaData.class);
+
+			if (ns.getBoolean("all")) {
+				return printAllGroups(dao);
+			}
+
+			DuplicateQuery query = new DuplicateQuery(dao, new MetaData());
+			int withDuplicates = 0;
+
+			for (String file : ns.<String> getList("file")) {
+				if (printDuplicates(query, Paths.get(file).toAbsolutePath().normalize())) {
+					withDuplicates++;
+				}
+			}
+
+			return withDuplicates;
+		} finally {
+			database.close();
+		}
+	}
+
+	private int printAllGroups(FileMetaDataDao dao) throws SQLException {
+		Stopwatch sw = Stopwatch.createStarted();
+		VerifyMetaData verify = new VerifyMetaData(new MetaData());
+		int groups = 0;
+
+		try (DuplicateGroupIterator iter = dao.iterateDuplicateGroups()) {
+			while (iter.hasNext()) {
+				List<FileMetaData> unchanged = iter.next().stream().filter(meta -> isUnchanged(verify, meta))
+						.collect(Collectors.toList());
+
+				if (unchanged.size() > 1) {
+					out.println(unchanged.stream().map(FileMetaData::getPathAsString).collect(Collectors.joining("\t")));
+					groups++;
+				}
+			}
+		}
+
+		LOGGER.info("Listed {} groups of duplicates in {}", groups, sw);
+
+		return groups;
+	}
+
+	private boolean isUnchanged(VerifyMetaData verify, FileMetaData meta) {
+		try {
+			return !verify.hasChanged(meta);
+		} catch (IOException e) {
+			LOGGER.debug("Ignoring known file {}: {}", meta.getPath(), e.toString());
+			return false;
+		}
+	}
+
+	private boolean printDuplicates(DuplicateQuery query, Path file) throws SQLException {
+		Stopwatch sw = Stopwatch.createStarted();
+
+		try {
+			boolean found = false;
+
+			for (FileMetaData duplicate : query.findDuplicates(file)) {
+				out.println(file + "\t" + duplicate.getPathAsString());
+				found = true;
+			}
+
+			LOGGER.debug("Query for {} took {}", file, sw);
+
+			return found;
+		} catch (IOException e) {
+			LOGGER.warn("Failed to read {}: {}", file, e.toString());
+			return false;
+		}
+	}
+}
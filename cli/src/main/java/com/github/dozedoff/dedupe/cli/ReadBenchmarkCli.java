@@ -0,0 +1,165 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.cli;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.dozedoff.dedupe.file.DirectReader;
+import com.github.dozedoff.dedupe.file.FileFinder;
+import com.github.dozedoff.dedupe.file.MetaData;
+import com.google.common.base.Stopwatch;
+
+import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.impl.Arguments;
+import net.sourceforge.argparse4j.inf.ArgumentParser;
+import net.sourceforge.argparse4j.inf.Namespace;
+
+/**
+ * Hashes the files under the given directories once with direct I/O and once through the page cache, and writes the
+ * throughput and the growth of the page cache for each pass to standard out. The page cache size is read from
+ * <code>/proc/meminfo</code>, so it includes the activity of other processes.
+ *
+ * @author Nicholas Wright
+ *
+ */
+public class ReadBenchmarkCli {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ReadBenchmarkCli.class);
+
+	/**
+	 * Name of the sub command, used as the first argument of {@link DedupeCli}.
+	 */
+	public static final String COMMAND = "benchmark-io";
+
+	private static final Path MEMINFO = Paths.get("/proc/meminfo");
+	private static final Path DROP_CACHES = Paths.get("/proc/sys/vm/drop_caches");
+	private static final String CACHED_PREFIX = "Cached:";
+	private static final double BYTES_PER_MIB = 1024 * 1024;
+	private static final double KIB_PER_MIB = 1024;
+
+	private final Namespace ns;
+	private final PrintStream out;
+
+	/**
+	 * Create a new benchmark command with the arguments following the command name.
+	 *
+	 * @param args
+	 *            command line arguments
+	 * @param out
+	 *            stream to write results to
+	 */
+	public ReadBenchmarkCli(String[] args, PrintStream out) {
+		this.ns = parseArgs(args);
+		this.out = out;
+	}
+
+	private Namespace parseArgs(String[] args) {
+		ArgumentParser parser = ArgumentParsers.newArgumentParser("Dedupe CLI " + COMMAND).defaultHelp(true)
+				.description("Compare hashing throughput and page cache growth of direct and page cache reads");
+		parser.addArgument("dir").nargs("+").help("Directories with files to read");
+		parser.addArgument("--buffer-size").type(Integer.class).setDefault(DirectReader.DEFAULT_BUFFER_SIZE)
+				.choices(Arguments.range(1, Integer.MAX_VALUE)).help("Size of the direct read buffer in bytes");
+		parser.addArgument("--drop-caches").action(Arguments.storeTrue())
+				.help("Drop the page cache before each pass, needs root");
+
+		return parser.parseArgsOrFail(args);
+	}
+
+	/**
+	 * Run both passes and print the results.
+	 */
+	public void run() {
+		List<Path> files = findFiles();
+
+		if (!DirectReader.isSupported()) {
+			LOGGER.warn("Direct I/O is not supported by this JVM, both passes read through the page cache");
+		}
+
+		DirectReader directReader = new DirectReader(ns.getInt("buffer_size"));
+
+		out.println("mode\tfiles\tbytes\tseconds\tMiB/s\tpage cache growth MiB");
+		pass("direct", new MetaData(FileSystems.getDefault(), null, null, directReader), files);
+		pass("page-cache", new MetaData(), files);
+
+		if (directReader.fallbacks() > 0) {
+			LOGGER.warn("{} files were read through the page cache in the direct pass, direct I/O was rejected",
+					directReader.fallbacks());
+		}
+	}
+
+	private List<Path> findFiles() {
+		FileFinder finder = new FileFinder();
+		List<Path> files = new ArrayList<Path>();
+
+		for (String dir : ns.<String> getList("dir")) {
+			try (Stream<Path> found = finder.findFiles(Paths.get(dir))) {
+				files.addAll(found.collect(Collectors.toList()));
+			} catch (IOException e) {
+				LOGGER.error("Failed to find files in {}: {}", dir, e.toString());
+			}
+		}
+
+		return files;
+	}
+
+	private void pass(String mode, MetaData metaData, List<Path> files) {
+		if (ns.getBoolean("drop_caches")) {
+			dropCaches();
+		}
+
+		long cachedBefore = cachedKib();
+		long bytes = 0;
+		int hashed = 0;
+		Stopwatch sw = Stopwatch.createStarted();
+
+		for (Path file : files) {
+			try {
+				metaData.contentHash(file);
+				bytes += Files.size(file);
+				hashed++;
+			} catch (IOException e) {
+				LOGGER.warn("Failed to read {}: {}", file, e.toString());
+			}
+		}
+
+		double seconds = sw.elapsed(TimeUnit.NANOSECONDS) / (double) TimeUnit.SECONDS.toNanos(1);
+		double cacheGrowth = (cachedKib() - cachedBefore) / KIB_PER_MIB;
+
+		out.println(String.format("%s\t%d\t%d\t%.3f\t%.1f\t%.1f", mode, hashed, bytes, seconds,
+				bytes / BYTES_PER_MIB / seconds, cacheGrowth));
+	}
+
+	private void dropCaches() {
+		try {
+			Files.write(DROP_CACHES, "1".getBytes(StandardCharsets.US_ASCII));
+		} catch (IOException e) {
+			LOGGER.warn("Failed to drop the page cache: {}", e.toString());
+		}
+	}
+
+	private long cachedKib() {
+		try (Stream<String> lines = Files.lines(MEMINFO)) {
+			return lines.filter(line -> line.startsWith(CACHED_PREFIX)).findFirst()
+					.map(line -> Long.parseLong(line.substring(CACHED_PREFIX.length()).replace("kB", "").trim()))
+					.orElse(0L);
+		} catch (IOException e) {
+			LOGGER.debug("Failed to read the page cache size: {}", e.toString());
+			return 0;
+		}
+	}
+}
@@ -0,0 +1,117 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.db;
+
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Batch size policy that grows or shrinks the number of rows per transaction to approach a target commit latency.
+ *
+ * @author Nicholas Wright
+ *
+ */
+public class AdaptiveBatchSize {
+	private static final Logger LOGGER = LoggerFactory.getLogger(AdaptiveBatchSize.class);
+
+	private static final int DEFAULT_INITIAL_SIZE = 1000;
+	private static final int DEFAULT_MIN_SIZE = 10;
+	private static final int DEFAULT_MAX_SIZE = 100000;
+	private static final int MAX_GROWTH_FACTOR = 2;
+
+	private final long targetLatencyNanos;
+	private final int minSize;
+	private final int maxSize;
+	private volatile int batchSize;
+
+	/**
+	 * Create a new policy with the given target latency and default size limits.
+	 *
+	 * @param targetLatency
+	 *            the commit latency to aim for
+	 * @param unit
+	 *            of the target latency
+	 */
+	public AdaptiveBatchSize(long targetLatency, TimeUnit unit) {
+		this(targetLatency, unit, DEFAULT_INITIAL_SIZE, DEFAULT_MIN_SIZE, DEFAULT_MAX_SIZE);
+	}
+
+	/**
+	 * Create a new policy with the given target latency and size limits.
+	 *
+	 * @param targetLatency
+	 *            the commit latency to aim for
+	 * @param unit
+	 *            of the target latency
+	 * @param initialSize
+	 *            batch size to use before the first commit has been measured
+	 * @param minSize
+	 *            the batch size will never shrink below this value
+	 * @param maxSize
+	 *            the batch size will never grow above this value
+	 */
+	public AdaptiveBatchSize(long targetLatency, TimeUnit unit, int initialSize, int minSize, int maxSize) {
+		if (targetLatency <= 0) {
+			throw new IllegalArgumentException("Target latency must be greater than 0");
+		}
+
+		if (minSize < 1 || maxSize < minSize) {
+			throw new IllegalArgumentException("Invalid batch size limits: " + minSize + " - " + maxSize);
+		}
+
+		this.targetLatencyNanos = unit.toNanos(targetLatency);
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+		this.batchSize = clamp(initialSize);
+	}
+
+	/**
+	 * The number of rows that should be written in the next transaction.
+	 *
+	 * @return the current batch size
+	 */
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * Adjust the batch size based on the measured latency of a completed commit. Batches that did not fill the current
+	 * batch size will only ever shrink the batch size, as they say nothing about the cost of a larger batch.
+	 *
+	 * @param rows
+	 *            number of rows written in the transaction
+	 * @param latency
+	 *            time the transaction took
+	 * @param unit
+	 *            of the latency
+	 */
+	public synchronized void commitCompleted(int rows, long latency, TimeUnit unit) {
+		if (rows <= 0) {
+			return;
+		}
+
+		long latencyNanos = Math.max(1, unit.toNanos(latency));
+		int current = batchSize;
+
+		if (rows < current && latencyNanos <= targetLatencyNanos) {
+			return;
+		}
+
+		double projected = (double) rows * targetLatencyNanos / latencyNanos;
+		long smoothed = Math.round((current + projected) / 2);
+		long next = Math.min(smoothed, (long) current * MAX_GROWTH_FACTOR);
+
+		batchSize = clamp(next);
+
+		LOGGER.trace("Commit of {} rows took {} ms, batch size {} -> {}", rows, TimeUnit.NANOSECONDS.toMillis(latencyNanos),
+				current, batchSize);
+	}
+
+	private int clamp(long size) {
+		return (int) Math.max(minSize, Math.min(maxSize, size));
+	}
+}
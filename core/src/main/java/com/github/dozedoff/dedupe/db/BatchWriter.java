@@ -5,17 +5,21 @@
 package com.github.dozedoff.dedupe.db;
 
 import java.sql.SQLException;
+import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Stopwatch;
 import com.j256.ormlite.dao.Dao;
-import com.j256.ormlite.misc.TransactionManager;
 
 /**
  * Class for batching database writes. Trades reliability for performance.
@@ -27,7 +31,26 @@ import com.j256.ormlite.misc.TransactionManager;
  * @param <T>
  *            the class that will be written
  */
-public class BatchWriter<D extends Dao<T, ?>, T> {
+public class BatchWriter<D extends Dao<T, ?>, T> implements BatchWriterMXBean {
+	/**
+	 * Writes a single row to the database.
+	 *
+	 * @param <T>
+	 *            the class that will be written
+	 */
+	@FunctionalInterface
+	public interface RowWriter<T> {
+		/**
+		 * Write the row.
+		 * 
+		 * @param row
+		 *            to write
+		 * @throws SQLException
+		 *             if there is an error writing the row
+		 */
+		void write(T row) throws SQLException;
+	}
+
 	private static final Logger LOGGER = LoggerFactory.getLogger(BatchWriter.class);
 
 	private static final long DEFAULT_FLUSH_INTERVAL_DUARTION = 1;
@@ -37,6 +60,16 @@ public class BatchWriter<D extends Dao<T, ?>, T> {
 	private final ConcurrentLinkedQueue<T> toPersist;
 	private final long flushIntervalDuration;
 	private final TimeUnit flushIntervalUnit;
+	private final AdaptiveBatchSize batchSize;
+	private final AtomicInteger pending;
+	private final RowWriter<T> rowWriter;
+	private final LongAdder batches;
+	private final LongAdder rowsWritten;
+	private final LongAdder failedRows;
+	private final LongAdder commitNanos;
+	private final AtomicLong maxCommitNanos;
+	private final List<Runnable> commitListeners;
+	private volatile long lastCommitNanos;
 	private boolean isShuttingDown;
 	private Semaphore isFlushing;
 	private Stopwatch intervalTimer;
@@ -53,11 +86,57 @@ public class BatchWriter<D extends Dao<T, ?>, T> {
 	 *            the unit for the interval
 	 */
 	public BatchWriter(D dao, long duration, TimeUnit timeunit) {
+		this(dao, duration, timeunit, null);
+	}
+
+	/**
+	 * Create a new batch writer that will write the rows once the interval has elapsed or enough rows for a batch have
+	 * been queued. Rows are written in transactions sized by the {@link AdaptiveBatchSize} policy, which is updated
+	 * with the latency of every commit.
+	 * 
+	 * @param dao
+	 *            to use for database access
+	 * @param duration
+	 *            value for the interval duration
+	 * @param timeunit
+	 *            the unit for the interval
+	 * @param batchSize
+	 *            policy for the number of rows per transaction, null to write all queued rows in one transaction
+	 */
+	public BatchWriter(D dao, long duration, TimeUnit timeunit, AdaptiveBatchSize batchSize) {
+		this(dao, duration, timeunit, batchSize, row -> dao.createOrUpdate(row));
+	}
+
+	/**
+	 * Create a new batch writer that writes rows with the given {@link RowWriter}, for rows that need a different
+	 * write statement than {@link Dao#createOrUpdate(Object)}.
+	 * 
+	 * @param dao
+	 *            to use for database access
+	 * @param duration
+	 *            value for the interval duration
+	 * @param timeunit
+	 *            the unit for the interval
+	 * @param batchSize
+	 *            policy for the number of rows per transaction, null to write all queued rows in one transaction
+	 * @param rowWriter
+	 *            writes a single row, called inside the batch transaction
+	 */
+	public BatchWriter(D dao, long duration, TimeUnit timeunit, AdaptiveBatchSize batchSize, RowWriter<T> rowWriter) {
 		this.dao = dao;
+		this.rowWriter = rowWriter;
 		this.flushIntervalDuration = duration;
 		this.flushIntervalUnit = timeunit;
+		this.batchSize = batchSize;
 
 		this.toPersist = new ConcurrentLinkedQueue<T>();
+		this.pending = new AtomicInteger();
+		this.batches = new LongAdder();
+		this.rowsWritten = new LongAdder();
+		this.failedRows = new LongAdder();
+		this.commitNanos = new LongAdder();
+		this.maxCommitNanos = new AtomicLong();
+		this.commitListeners = new CopyOnWriteArrayList<Runnable>();
 		isFlushing = new Semaphore(1);
 		this.intervalTimer = Stopwatch.createStarted();
 	}
@@ -73,10 +152,23 @@ public class BatchWriter<D extends Dao<T, ?>, T> {
 		this(dao, DEFAULT_FLUSH_INTERVAL_DUARTION, DEFAULT_FLUSH_INTERVAL_UNIT);
 	}
 
+	/**
+	 * Create a new batch writer with the default interval of 1 minute, that sizes transactions with the given
+	 * {@link AdaptiveBatchSize} policy.
+	 * 
+	 * @param dao
+	 *            to use for database access
+	 * @param batchSize
+	 *            policy for the number of rows per transaction
+	 */
+	public BatchWriter(D dao, AdaptiveBatchSize batchSize) {
+		this(dao, DEFAULT_FLUSH_INTERVAL_DUARTION, DEFAULT_FLUSH_INTERVAL_UNIT, batchSize);
+	}
+
 	/**
 	 * Add a row to the queue to be written at a later time. If the row exists, it will be updated, otherwise a new row
-	 * will be created. If the interval has been exceeded, a {@link BatchWriter#flush()} will be triggered after the
-	 * insert.
+	 * will be created. If the interval has been exceeded or a full batch is queued, a {@link BatchWriter#flush()} will
+	 * be triggered after the insert.
 	 * 
 	 * @param enqueue
 	 *            element to queue for write
@@ -85,6 +177,7 @@ public class BatchWriter<D extends Dao<T, ?>, T> {
 		shutdownCheck();
 
 		toPersist.add(enqueue);
+		pending.incrementAndGet();
 
 		flushCheck();
 	}
@@ -96,40 +189,162 @@ public class BatchWriter<D extends Dao<T, ?>, T> {
 	}
 
 	/**
-	 * Check if the interval has been reached and flush if necessary.
+	 * Check if the interval has been reached or a full batch is queued and flush if necessary.
 	 */
 	public void flushCheck() {
 		if (intervalTimer.elapsed(flushIntervalUnit) > flushIntervalDuration) {
 			LOGGER.trace("Flush interval exceeded with a time of {} , flushhing...", intervalTimer);
 			flush();
+		} else if (batchSize != null && pending.get() >= batchSize.getBatchSize()) {
+			LOGGER.trace("{} rows queued, flushing...", pending);
+			flush();
 		}
 	}
 
-	private synchronized void writeToDatabase() {
+	/**
+	 * Get the number of rows waiting to be written.
+	 * 
+	 * @return number of queued rows
+	 */
+	public int pendingRows() {
+		return pending.get();
+	}
+
+	@Override
+	public int getPendingRows() {
+		return pendingRows();
+	}
+
+	@Override
+	public long getBatches() {
+		return batches.sum();
+	}
+
+	@Override
+	public long getRowsWritten() {
+		return rowsWritten.sum();
+	}
+
+	@Override
+	public long getFailedRows() {
+		return failedRows.sum();
+	}
+
+	@Override
+	public long getTotalCommitMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(commitNanos.sum());
+	}
+
+	@Override
+	public long getLastCommitMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(lastCommitNanos);
+	}
+
+	@Override
+	public long getMaxCommitMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(maxCommitNanos.get());
+	}
+
+	/**
+	 * Add a listener that is called after a flush has written rows. Listeners are called by the thread that flushed,
+	 * after the batch transactions have been committed and without holding any lock of this writer, so they may add
+	 * rows.
+	 * 
+	 * @param listener
+	 *            to call after rows have been written
+	 */
+	public void addCommitListener(Runnable listener) {
+		commitListeners.add(listener);
+	}
+
+	private void notifyCommitted(int written) {
+		if (written > 0) {
+			commitListeners.forEach(Runnable::run);
+		}
+	}
+
+	private synchronized int writeToDatabase() {
 		this.intervalTimer.reset();
+		int written = 0;
 
 		try {
-			writeNewEntries();
+			written = writeNewEntries();
 		} catch (SQLException e) {
 			LOGGER.warn("Batch transaction call failed: {}", e.toString());
+		} finally {
+			this.intervalTimer.start();
+		}
+
+		return written;
+	}
+
+	private int writeNewEntries() throws SQLException {
+		// rows added while writing are left for the next flush, so the flushing thread is not held up indefinitely
+		int remaining = toPersist.size();
+
+		if (batchSize == null) {
+			Stopwatch commitTimer = Stopwatch.createStarted();
+			int written = writeBatch(remaining);
+			commitCompleted(written, commitTimer);
+			return written;
+		}
+
+		int total = 0;
+
+		while (remaining > 0) {
+			Stopwatch commitTimer = Stopwatch.createStarted();
+			int written = writeBatch(Math.min(remaining, batchSize.getBatchSize()));
+			batchSize.commitCompleted(written, commitCompleted(written, commitTimer), TimeUnit.NANOSECONDS);
+
+			if (written == 0) {
+				break;
+			}
+
+			remaining -= written;
+			total += written;
 		}
 
-		this.intervalTimer.start();
+		return total;
 	}
 
-	private void writeNewEntries() throws SQLException {
-		TransactionManager.callInTransaction(dao.getConnectionSource(), new Callable<Void>() {
+	private long commitCompleted(int written, Stopwatch commitTimer) {
+		long nanos = commitTimer.elapsed(TimeUnit.NANOSECONDS);
+
+		if (written > 0) {
+			batches.increment();
+			rowsWritten.add(written);
+			commitNanos.add(nanos);
+			maxCommitNanos.accumulateAndGet(nanos, Math::max);
+			lastCommitNanos = nanos;
+		}
+
+		return nanos;
+	}
+
+	private int writeBatch(int maxRows) throws SQLException {
+		return Database.callInWriteTransaction(dao.getConnectionSource(), new Callable<Integer>() {
 			@Override
-			public Void call() {
-				while (!toPersist.isEmpty()) {
+			public Integer call() {
+				int written = 0;
+
+				while (written < maxRows && !toPersist.isEmpty()) {
 					T toWrite = toPersist.poll();
+
+					if (toWrite == null) {
+						break;
+					}
+
+					pending.decrementAndGet();
+					written++;
+
 					try {
-						dao.createOrUpdate(toWrite);
+						rowWriter.write(toWrite);
 					} catch (SQLException e) {
+						failedRows.increment();
 						LOGGER.warn("Failed to write {}: {}", toWrite, e.toString());
 					}
 				}
-				return null;
+				return written;
 			}
 		});
 	}
@@ -139,11 +354,26 @@ public class BatchWriter<D extends Dao<T, ?>, T> {
 	 */
 	public void flush() {
 		if (isFlushing.tryAcquire()) {
-			writeToDatabase();
-			isFlushing.release();
+			int written;
+
+			try {
+				written = writeToDatabase();
+			} finally {
+				isFlushing.release();
+			}
+
+			notifyCommitted(written);
 		}
 	}
 
+	/**
+	 * Write all queued rows. If another thread is writing, wait for it to finish first. Once this method returns, all
+	 * rows added before the call have been written.
+	 */
+	public void flushAndWait() {
+		notifyCommitted(writeToDatabase());
+	}
+
 	/**
 	 * Shutdown the {@link BatchWriter} and flush any pending elements. Attempts to {@link BatchWriter#add(Object)}
 	 * after this call will throw {@link IllegalStateException}.
@@ -151,8 +381,8 @@ public class BatchWriter<D extends Dao<T, ?>, T> {
 	public void shutdown() {
 		isShuttingDown = true;
 
-		LOGGER.info("Batch writer is shutting down, writing {} pending rows...", toPersist.size());
+		LOGGER.info("Batch writer is shutting down, writing {} pending rows...", pending.get());
 
-		writeToDatabase();
+		notifyCommitted(writeToDatabase());
 	}
 }
@@ -0,0 +1,63 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.db;
+
+/**
+ * Management interface of a {@link BatchWriter}, exposes the queue and the commit latency as JMX attributes. Only
+ * transactions that wrote at least one row are counted.
+ *
+ * @author Nicholas Wright
+ *
+ */
+public interface BatchWriterMXBean {
+	/**
+	 * Get the number of rows waiting to be written.
+	 *
+	 * @return number of queued rows
+	 */
+	int getPendingRows();
+
+	/**
+	 * Get the number of committed batch transactions.
+	 *
+	 * @return number of batches
+	 */
+	long getBatches();
+
+	/**
+	 * Get the number of rows written by the batch transactions, including rows that failed.
+	 *
+	 * @return number of written rows
+	 */
+	long getRowsWritten();
+
+	/**
+	 * Get the number of rows that could not be written.
+	 *
+	 * @return number of failed rows
+	 */
+	long getFailedRows();
+
+	/**
+	 * Get the time spent in batch transactions.
+	 *
+	 * @return the total commit time in milliseconds
+	 */
+	long getTotalCommitMillis();
+
+	/**
+	 * Get the duration of the most recent batch transaction.
+	 *
+	 * @return the last commit time in milliseconds
+	 */
+	long getLastCommitMillis();
+
+	/**
+	 * Get the duration of the slowest batch transaction.
+	 *
+	 * @return the maximum commit time in milliseconds
+	 */
+	long getMaxCommitMillis();
+}
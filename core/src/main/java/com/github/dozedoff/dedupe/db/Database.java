@@ -5,11 +5,23 @@
 package com.github.dozedoff.dedupe.db;
 
 import java.sql.SQLException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
+import com.github.dozedoff.dedupe.db.table.Directory;
 import com.github.dozedoff.dedupe.db.table.FileLink;
 import com.github.dozedoff.dedupe.db.table.FileMetaData;
+import com.github.dozedoff.dedupe.db.table.PendingFile;
+import com.github.dozedoff.dedupe.db.table.PendingLink;
+import com.github.dozedoff.dedupe.db.table.RunState;
 import com.j256.ormlite.jdbc.JdbcConnectionSource;
-import com.j256.ormlite.support.DatabaseConnection;
+import com.j256.ormlite.jdbc.JdbcPooledConnectionSource;
+import com.j256.ormlite.misc.TransactionManager;
+import com.j256.ormlite.support.ConnectionSource;
 import com.j256.ormlite.table.TableUtils;
 
 /**
@@ -20,8 +32,25 @@ import com.j256.ormlite.table.TableUtils;
  */
 public class Database {
 	private static final String DEFAULT_DATABASE_PATH = "dedupe.db";
+	private static final String IN_MEMORY_DATABASE = ":memory:";
+	private static final String JDBC_PREFIX = "jdbc:sqlite:";
+	/**
+	 * Pragmas are set with the connection URL, pragmas that return a row would otherwise leave a statement open,
+	 * which blocks VACUUM.
+	 */
+	private static final String WRITER_PRAGMAS = "page_size=4096&cache_size=5120&synchronous=NORMAL&temp_store=MEMORY";
+	private static final String EXCLUSIVE_PARAMETERS = "?" + WRITER_PRAGMAS + "&locking_mode=EXCLUSIVE";
+	private static final String WAL_PARAMETERS = "?" + WRITER_PRAGMAS + "&journal_mode=WAL&busy_timeout=5000";
+	private static final String READ_ONLY_PARAMETERS = "?open_mode=1&busy_timeout=5000";
 
-	private final JdbcConnectionSource connectionSource;
+	/**
+	 * Write locks by connection source, so DAOs that only know their connection source use the lock of the database.
+	 */
+	private static final Map<ConnectionSource, Lock> WRITE_LOCKS = Collections
+			.synchronizedMap(new WeakHashMap<ConnectionSource, Lock>());
+
+	private final ConnectionSource connectionSource;
+	private final Lock writeLock;
 
 	/**
 	 * Create or open a Database in the default location.
@@ -41,7 +70,7 @@ public class Database {
 	 *             if there is an error creating the database
 	 */
 	public static Database inMemoryDatabase() throws SQLException {
-		return new Database(":memory:");
+		return new Database(IN_MEMORY_DATABASE);
 	}
 
 	/**
@@ -53,18 +82,139 @@ public class Database {
 	 *             if there is an error creating the database
 	 */
 	public Database(String databaseFile) throws SQLException {
-		connectionSource = new JdbcConnectionSource("jdbc:sqlite:" + databaseFile);
-
-		DatabaseConnection dbConn = connectionSource.getReadWriteConnection();
-		dbConn.executeStatement("PRAGMA page_size=4096;", DatabaseConnection.DEFAULT_RESULT_FLAGS);
-		dbConn.executeStatement("PRAGMA cache_size=5120;", DatabaseConnection.DEFAULT_RESULT_FLAGS);
-		dbConn.executeStatement("PRAGMA locking_mode=EXCLUSIVE;", DatabaseConnection.DEFAULT_RESULT_FLAGS);
-		dbConn.executeStatement("PRAGMA synchronous=NORMAL;", DatabaseConnection.DEFAULT_RESULT_FLAGS);
-		dbConn.executeStatement("PRAGMA temp_store=MEMORY;", DatabaseConnection.DEFAULT_RESULT_FLAGS);
-		connectionSource.releaseConnection(dbConn);
-
-		TableUtils.createTableIfNotExists(getConnectionSource(), FileMetaData.class);
-		TableUtils.createTableIfNotExists(getConnectionSource(), FileLink.class);
+		this(databaseFile, 0);
+	}
+
+	/**
+	 * Create or open a Database in the given location. If read connections are requested, the database is opened in
+	 * WAL journal mode with a single writer connection and a pool of read-only connections, so queries can proceed
+	 * while a write transaction is open and other processes can read the database. In memory databases cannot be
+	 * shared between connections and will always use a single connection.
+	 * 
+	 * @param databaseFile
+	 *            path to the database file
+	 * @param readConnections
+	 *            maximum number of concurrent read-only connections, 0 for a single exclusive connection
+	 * @throws SQLException
+	 *             if there is an error creating the database
+	 */
+	public Database(String databaseFile, int readConnections) throws SQLException {
+		boolean useWal = readConnections > 0 && !IN_MEMORY_DATABASE.equals(databaseFile);
+		JdbcConnectionSource writer = new JdbcConnectionSource(
+				JDBC_PREFIX + databaseFile + (useWal ? WAL_PARAMETERS : EXCLUSIVE_PARAMETERS));
+
+		writeLock = writeLock(writer);
+
+		NormalizedPathMigration migration = new NormalizedPathMigration(writer);
+
+		if (migration.isRequired()) {
+			migration.migrate();
+		}
+
+		FileKeyMigration fileKeyMigration = new FileKeyMigration(writer);
+
+		if (fileKeyMigration.isRequired()) {
+			fileKeyMigration.migrate();
+		}
+
+		TableUtils.createTableIfNotExists(writer, Directory.class);
+		TableUtils.createTableIfNotExists(writer, FileMetaData.class);
+		TableUtils.createTableIfNotExists(writer, FileLink.class);
+		TableUtils.createTableIfNotExists(writer, RunState.class);
+		TableUtils.createTableIfNotExists(writer, PendingFile.class);
+		TableUtils.createTableIfNotExists(writer, PendingLink.class);
+
+		if (useWal) {
+			JdbcPooledConnectionSource reader = new JdbcPooledConnectionSource(
+					JDBC_PREFIX + databaseFile + READ_ONLY_PARAMETERS);
+			reader.setMaxConnectionsFree(readConnections);
+			connectionSource = new ReadWriteConnectionSource(writer, reader, readConnections);
+			WRITE_LOCKS.put(connectionSource, writeLock);
+		} else {
+			connectionSource = writer;
+		}
+	}
+
+	private Database(ConnectionSource connectionSource) {
+		this.connectionSource = connectionSource;
+		this.writeLock = writeLock(connectionSource);
+	}
+
+	/**
+	 * Open an existing database read-only, for example to query it while another process is using it. No tables are
+	 * created and no migrations are run, so the journal mode and schema of the database are left as they are. A
+	 * concurrent run must use read connections, otherwise it keeps the database locked exclusively and it cannot be
+	 * opened.
+	 * 
+	 * @param databaseFile
+	 *            path to the database file
+	 * @return a database that can only be read
+	 * @throws SQLException
+	 *             if the database cannot be opened, or needs to be migrated first
+	 */
+	public static Database readOnly(String databaseFile) throws SQLException {
+		JdbcConnectionSource reader = new JdbcConnectionSource(JDBC_PREFIX + databaseFile + READ_ONLY_PARAMETERS);
+
+		try {
+			if (new NormalizedPathMigration(reader).isRequired() || new FileKeyMigration(reader).isRequired()) {
+				throw new SQLException(
+						"The database " + databaseFile + " uses an old schema, open it for writing once to migrate it");
+			}
+		} catch (SQLException e) {
+			reader.closeQuietly();
+			throw e;
+		}
+
+		return new Database(reader);
+	}
+
+	/**
+	 * Get the lock that serializes write transactions. There is a single writer connection, transactions of different
+	 * threads on it must not interleave, or a commit or rollback of one thread would include the statements of the
+	 * other.
+	 * 
+	 * @return the write lock of the database
+	 */
+	public Lock getWriteLock() {
+		return writeLock;
+	}
+
+	/**
+	 * Get the write lock of the database the connection source belongs to. Connection sources that were not created
+	 * by a {@link Database} get a lock of their own, shared by all callers with the same connection source.
+	 * 
+	 * @param connectionSource
+	 *            of the database
+	 * @return the write lock for the connection source
+	 */
+	public static Lock writeLock(ConnectionSource connectionSource) {
+		return WRITE_LOCKS.computeIfAbsent(connectionSource, source -> new ReentrantLock());
+	}
+
+	/**
+	 * Run the callable in a transaction while holding the write lock of the database. All write transactions must be
+	 * started with this method.
+	 * 
+	 * @param connectionSource
+	 *            of the database
+	 * @param callable
+	 *            to run in the transaction
+	 * @param <T>
+	 *            the type returned by the callable
+	 * @return the value returned by the callable
+	 * @throws SQLException
+	 *             if the callable or the commit fails, the transaction is rolled back
+	 */
+	public static <T> T callInWriteTransaction(ConnectionSource connectionSource, Callable<T> callable)
+			throws SQLException {
+		Lock lock = writeLock(connectionSource);
+		lock.lock();
+
+		try {
+			return TransactionManager.callInTransaction(connectionSource, callable);
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	/**
@@ -72,7 +222,7 @@ public class Database {
 	 * 
 	 * @return the connectionsource
 	 */
-	public JdbcConnectionSource getConnectionSource() {
+	public ConnectionSource getConnectionSource() {
 		return connectionSource;
 	}
 
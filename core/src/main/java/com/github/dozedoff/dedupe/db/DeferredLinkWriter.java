@@ -0,0 +1,199 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.db;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.dozedoff.dedupe.db.dao.FileLinkDao;
+import com.github.dozedoff.dedupe.db.dao.FileMetaDataDao;
+import com.github.dozedoff.dedupe.db.table.FileLink;
+import com.github.dozedoff.dedupe.db.table.FileMetaData;
+
+/**
+ * Queues the links of linked groups for writing. A link can only be written once the metadata of both files has been
+ * stored and the stale links of changed files have been deleted. Groups where this is not the case yet are held back
+ * and retried later, usually after the next metadata batch has been committed, instead of forcing a commit for every
+ * group.
+ *
+ * @author Nicholas Wright
+ *
+ */
+public class DeferredLinkWriter {
+	private static final Logger LOGGER = LoggerFactory.getLogger(DeferredLinkWriter.class);
+
+	private final BatchWriter<FileMetaDataDao, FileMetaData> metaWriter;
+	private final BatchWriter<FileLinkDao, FileLink> linkWriter;
+	private final LinkInvalidator invalidator;
+	private final ConcurrentLinkedQueue<LinkedGroup> deferred;
+	private final AtomicBoolean isRetrying;
+
+	private static class LinkedGroup {
+		private final FileMetaData source;
+		private final List<FileMetaData> links;
+
+		LinkedGroup(FileMetaData source, List<FileMetaData> links) {
+			this.source = source;
+			this.links = new ArrayList<FileMetaData>(links);
+		}
+
+		boolean isStored() {
+			return source.getId() != 0 && links.stream().allMatch(meta -> meta.getId() != 0);
+		}
+
+		boolean isInvalidating(LinkInvalidator invalidator) {
+			return invalidator.isPending(source.getId())
+					|| links.stream().anyMatch(meta -> invalidator.isPending(meta.getId()));
+		}
+	}
+
+	/**
+	 * Create a new writer for links.
+	 *
+	 * @param metaWriter
+	 *            that stores the metadata of the files, also used to update the metadata of the linked files
+	 * @param linkWriter
+	 *            to write the links with
+	 * @param invalidator
+	 *            that deletes the stale links of changed files
+	 */
+	public DeferredLinkWriter(BatchWriter<FileMetaDataDao, FileMetaData> metaWriter,
+			BatchWriter<FileLinkDao, FileLink> linkWriter, LinkInvalidator invalidator) {
+		this.metaWriter = metaWriter;
+		this.linkWriter = linkWriter;
+		this.invalidator = invalidator;
+		this.deferred = new ConcurrentLinkedQueue<LinkedGroup>();
+		this.isRetrying = new AtomicBoolean();
+	}
+
+	/**
+	 * Queue the links from the source to the files linked to it. The links are written right away if the metadata of
+	 * all files is stored and no stale links are waiting to be deleted, otherwise they are held back until a later
+	 * {@link #retry()}, {@link #flush()} or {@link #close()}.
+	 *
+	 * @param source
+	 *            the files were linked to
+	 * @param links
+	 *            files that now share the inode of the source
+	 */
+	public void add(FileMetaData source, List<FileMetaData> links) {
+		LinkedGroup group = new LinkedGroup(source, links);
+
+		if (group.isStored() && !group.isInvalidating(invalidator)) {
+			write(group);
+		} else {
+			deferred.add(group);
+		}
+	}
+
+	/**
+	 * Write the held back groups whose metadata has been stored since. If some of them are waiting for stale links to
+	 * be deleted, the queued deletes are run once for all of them. Meant to be called after a metadata batch has been
+	 * committed. If another thread is already retrying, this call returns immediately.
+	 */
+	public void retry() {
+		if (!isRetrying.compareAndSet(false, true)) {
+			return;
+		}
+
+		try {
+			if (deferred.stream().anyMatch(group -> group.isStored() && group.isInvalidating(invalidator))) {
+				invalidator.flush();
+			}
+
+			int size = deferred.size();
+
+			for (int i = 0; i < size; i++) {
+				LinkedGroup group = deferred.poll();
+
+				if (group == null) {
+					break;
+				}
+
+				if (group.isStored() && !group.isInvalidating(invalidator)) {
+					write(group);
+				} else {
+					deferred.add(group);
+				}
+			}
+		} finally {
+			isRetrying.set(false);
+		}
+	}
+
+	/**
+	 * Delete the queued stale links and write all held back groups whose metadata is stored, waiting for running
+	 * deletes. Groups with files that have no stored metadata yet stay queued.
+	 */
+	public void flush() {
+		invalidator.flush();
+		int size = deferred.size();
+
+		for (int i = 0; i < size; i++) {
+			LinkedGroup group = deferred.poll();
+
+			if (group == null) {
+				break;
+			}
+
+			if (group.isStored()) {
+				write(group);
+			} else {
+				deferred.add(group);
+			}
+		}
+	}
+
+	/**
+	 * Write all held back groups. The metadata writer must have been flushed before, files that still have no stored
+	 * metadata will never get it and their links are dropped with a warning.
+	 */
+	public void close() {
+		invalidator.flush();
+		LinkedGroup group;
+
+		while ((group = deferred.poll()) != null) {
+			if (group.source.getId() == 0) {
+				LOGGER.warn("Not recording links to {}, the file has no stored metadata", group.source.getPath());
+				continue;
+			}
+
+			group.links.removeIf(meta -> {
+				if (meta.getId() == 0) {
+					LOGGER.warn("Not recording link of {}, the file has no stored metadata", meta.getPath());
+					return true;
+				}
+
+				return false;
+			});
+
+			write(group);
+		}
+	}
+
+	/**
+	 * Get the number of groups that are held back.
+	 *
+	 * @return number of groups waiting to be written
+	 */
+	public int deferredGroups() {
+		return deferred.size();
+	}
+
+	private void write(LinkedGroup group) {
+		for (FileMetaData meta : group.links) {
+			// the link now shares the inode, and with it the modified time, of the source
+			meta.setFileKey(group.source.getFileKey());
+			meta.setModifiedTime(group.source.getModifiedTime());
+			linkWriter.add(new FileLink(group.source, meta));
+			metaWriter.add(meta);
+		}
+	}
+}
@@ -0,0 +1,93 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.db;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.dozedoff.dedupe.db.dao.FileMetaDataDao;
+import com.google.common.base.Stopwatch;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * In memory set of the stored file keys, used to skip the database for files that cannot have been moved. Keys are
+ * stored as sorted 64 bit hashes, so the index needs 8 bytes per file. A hash collision only causes an unnecessary
+ * query, the index never misses a stored key. The index is read-only once loaded and can be queried from multiple
+ * threads.
+ *
+ * @author Nicholas Wright
+ *
+ */
+public class FileKeyIndex {
+	private static final Logger LOGGER = LoggerFactory.getLogger(FileKeyIndex.class);
+
+	private static final int DEFAULT_CAPACITY = 16;
+	private static final HashFunction KEY_HASH = Hashing.murmur3_128();
+
+	private long[] hashes;
+	private int size;
+
+	private FileKeyIndex(int expectedKeys) {
+		this.hashes = new long[Math.max(DEFAULT_CAPACITY, expectedKeys)];
+	}
+
+	/**
+	 * Load the keys of all stored files.
+	 *
+	 * @param dao
+	 *            to load the keys from
+	 * @return an index containing all stored file keys
+	 * @throws SQLException
+	 *             if there is an error accessing the database
+	 */
+	public static FileKeyIndex load(FileMetaDataDao dao) throws SQLException {
+		Stopwatch sw = Stopwatch.createStarted();
+		FileKeyIndex index = new FileKeyIndex((int) Math.min(Integer.MAX_VALUE, dao.countOf()));
+
+		dao.forEachFileKey(index::add);
+		Arrays.sort(index.hashes, 0, index.size);
+
+		LOGGER.info("Loaded {} known file keys in {}", index.size(), sw);
+
+		return index;
+	}
+
+	private void add(String fileKey) {
+		if (size == hashes.length) {
+			hashes = Arrays.copyOf(hashes, size * 2);
+		}
+
+		hashes[size++] = hash(fileKey);
+	}
+
+	private static long hash(String fileKey) {
+		return KEY_HASH.hashString(fileKey, StandardCharsets.UTF_8).asLong();
+	}
+
+	/**
+	 * Check if a file with the key may be stored.
+	 *
+	 * @param fileKey
+	 *            to look up
+	 * @return false if no stored file has the key, true if one probably has
+	 */
+	public boolean mightContain(String fileKey) {
+		return Arrays.binarySearch(hashes, 0, size, hash(fileKey)) >= 0;
+	}
+
+	/**
+	 * The number of keys in this index.
+	 *
+	 * @return number of indexed keys
+	 */
+	public int size() {
+		return size;
+	}
+}
@@ -0,0 +1,77 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.db;
+
+import java.sql.SQLException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.dozedoff.dedupe.db.table.FileMetaData;
+import com.j256.ormlite.support.ConnectionSource;
+import com.j256.ormlite.support.DatabaseConnection;
+
+/**
+ * Adds the file key column and its index to a file metadata table that was created before the column existed. Existing
+ * rows get a null key, which is filled in the next time the file is found.
+ * 
+ * @author Nicholas Wright
+ *
+ */
+class FileKeyMigration {
+	private static final Logger LOGGER = LoggerFactory.getLogger(FileKeyMigration.class);
+
+	private final ConnectionSource connectionSource;
+
+	/**
+	 * Create a new migration for the database.
+	 * 
+	 * @param connectionSource
+	 *            a read-write connection source for the database
+	 */
+	FileKeyMigration(ConnectionSource connectionSource) {
+		this.connectionSource = connectionSource;
+	}
+
+	/**
+	 * Check if the file metadata table exists without the file key column.
+	 * 
+	 * @return true if the database needs to be migrated
+	 * @throws SQLException
+	 *             if there is an error accessing the database
+	 */
+	boolean isRequired() throws SQLException {
+		DatabaseConnection conn = connectionSource.getReadWriteConnection();
+
+		try {
+			return conn.queryForLong("SELECT COUNT(*) FROM sqlite_master WHERE type = 'table'"
+					+ " AND name = 'filemetadata' AND sql NOT LIKE '%`" + FileMetaData.FILE_KEY_COLUMN_NAME + "`%'") > 0;
+		} finally {
+			connectionSource.releaseConnection(conn);
+		}
+	}
+
+	/**
+	 * Add the column and index.
+	 * 
+	 * @throws SQLException
+	 *             if there is an error accessing the database
+	 */
+	void migrate() throws SQLException {
+		LOGGER.info("Adding file key column to file metadata...");
+
+		DatabaseConnection conn = connectionSource.getReadWriteConnection();
+
+		try {
+			conn.executeStatement("ALTER TABLE `filemetadata` ADD COLUMN `" + FileMetaData.FILE_KEY_COLUMN_NAME
+					+ "` VARCHAR", DatabaseConnection.DEFAULT_RESULT_FLAGS);
+			conn.executeStatement("CREATE INDEX IF NOT EXISTS `filemetadata_" + FileMetaData.FILE_KEY_COLUMN_NAME
+					+ "_idx` ON `filemetadata` ( `" + FileMetaData.FILE_KEY_COLUMN_NAME + "` )",
+					DatabaseConnection.DEFAULT_RESULT_FLAGS);
+		} finally {
+			connectionSource.releaseConnection(conn);
+		}
+	}
+}
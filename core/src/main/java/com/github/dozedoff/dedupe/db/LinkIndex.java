@@ -0,0 +1,193 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.db;
+
+import java.sql.SQLException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.dozedoff.dedupe.db.dao.FileLinkDao;
+import com.google.common.base.Stopwatch;
+
+/**
+ * In memory map from the id of a linked file to the id of its source. Ids are stored in primitive arrays using open
+ * addressing, so millions of links need only a few bytes each and lookups do not box or touch the database.<br>
+ * This class is not thread safe, if links are put after loading, access must be synchronized externally.
+ * {@link #invalidate(int)} may be called while other threads read the index.
+ * 
+ * @author Nicholas Wright
+ *
+ */
+public class LinkIndex {
+	private static final Logger LOGGER = LoggerFactory.getLogger(LinkIndex.class);
+
+	/**
+	 * Value returned for unknown links. Generated ids start at 1, so this is never a valid id.
+	 */
+	public static final int NO_SOURCE = 0;
+
+	private static final int DEFAULT_CAPACITY = 16;
+	private static final int GOLDEN_RATIO = 0x9E3779B9;
+
+	private int[] keys;
+	private int[] values;
+	private int size;
+	private int mask;
+	private final Set<Integer> invalidated = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Create a new, empty index.
+	 */
+	public LinkIndex() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Create a new, empty index with room for the given number of links before it has to grow.
+	 * 
+	 * @param expectedLinks
+	 *            number of links the index should hold
+	 */
+	public LinkIndex(int expectedLinks) {
+		allocate(Integer.highestOneBit(Math.max(DEFAULT_CAPACITY, expectedLinks) * 2 - 1) * 2);
+	}
+
+	/**
+	 * Load all stored links.
+	 * 
+	 * @param dao
+	 *            to load the links from
+	 * @return an index containing all stored links
+	 * @throws SQLException
+	 *             if there is an error accessing the database
+	 */
+	public static LinkIndex load(FileLinkDao dao) throws SQLException {
+		Stopwatch sw = Stopwatch.createStarted();
+		LinkIndex index = new LinkIndex((int) dao.countOf());
+
+		dao.forEachLinkId(index::put);
+
+		LOGGER.info("Loaded {} known links in {}", index.size(), sw);
+
+		return index;
+	}
+
+	/**
+	 * Add or replace the source of a link.
+	 * 
+	 * @param linkId
+	 *            id of the linked file
+	 * @param sourceId
+	 *            id of the source file
+	 */
+	public void put(int linkId, int sourceId) {
+		if (linkId == NO_SOURCE) {
+			throw new IllegalArgumentException("Link id must not be " + NO_SOURCE);
+		}
+
+		int slot = slot(linkId);
+
+		if (keys[slot] == NO_SOURCE) {
+			keys[slot] = linkId;
+			size++;
+		}
+
+		values[slot] = sourceId;
+
+		if (size * 2 > keys.length) {
+			rehash();
+		}
+	}
+
+	/**
+	 * Get the source of a linked file.
+	 * 
+	 * @param linkId
+	 *            id of the linked file
+	 * @return the id of the source, or {@link #NO_SOURCE} if the file is not linked
+	 */
+	public int sourceOf(int linkId) {
+		if (linkId == NO_SOURCE) {
+			return NO_SOURCE;
+		}
+
+		int slot = slot(linkId);
+		int sourceId = keys[slot] == NO_SOURCE ? NO_SOURCE : values[slot];
+
+		if (sourceId != NO_SOURCE && !invalidated.isEmpty()
+				&& (invalidated.contains(linkId) || invalidated.contains(sourceId))) {
+			return NO_SOURCE;
+		}
+
+		return sourceId;
+	}
+
+	/**
+	 * Check if a file is linked to the given source.
+	 * 
+	 * @param linkId
+	 *            id of the linked file
+	 * @param sourceId
+	 *            id of the source file
+	 * @return true if the link is known
+	 */
+	public boolean isLinkedTo(int linkId, int sourceId) {
+		return sourceId != NO_SOURCE && sourceOf(linkId) == sourceId;
+	}
+
+	/**
+	 * Remove all links of a file, both where it is the link and where it is the source. Used for files that changed
+	 * since they were linked.
+	 * 
+	 * @param id
+	 *            of the file
+	 */
+	public void invalidate(int id) {
+		invalidated.add(id);
+	}
+
+	/**
+	 * Get the number of links in the index.
+	 * 
+	 * @return number of links
+	 */
+	public int size() {
+		return size;
+	}
+
+	private int slot(int key) {
+		int slot = (key * GOLDEN_RATIO) & mask;
+
+		while (keys[slot] != NO_SOURCE && keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+
+		return slot;
+	}
+
+	private void allocate(int capacity) {
+		keys = new int[capacity];
+		values = new int[capacity];
+		mask = capacity - 1;
+	}
+
+	private void rehash() {
+		int[] oldKeys = keys;
+		int[] oldValues = values;
+
+		allocate(keys.length * 2);
+
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != NO_SOURCE) {
+				int slot = slot(oldKeys[i]);
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+}
@@ -0,0 +1,151 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.db;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.dozedoff.dedupe.db.dao.FileLinkDao;
+import com.github.dozedoff.dedupe.db.table.FileMetaData;
+
+/**
+ * Collects the ids of changed files and deletes their links in batches, with one set-based delete per batch. Adding a
+ * file never waits for the database: if another thread is already deleting, the id stays queued for the next batch.
+ * A file that is already queued is only deleted once.
+ * 
+ * @author Nicholas Wright
+ *
+ */
+public class LinkInvalidator {
+	private static final Logger LOGGER = LoggerFactory.getLogger(LinkInvalidator.class);
+
+	private static final int DEFAULT_BATCH_SIZE = 500;
+
+	private final FileLinkDao dao;
+	private final int batchSize;
+	private final ConcurrentLinkedQueue<Integer> changed;
+	private final Set<Integer> queued;
+	private final AtomicInteger pending;
+	private final Semaphore isDeleting;
+
+	/**
+	 * Create a new invalidator with the default batch size.
+	 * 
+	 * @param dao
+	 *            to delete links with
+	 */
+	public LinkInvalidator(FileLinkDao dao) {
+		this(dao, DEFAULT_BATCH_SIZE);
+	}
+
+	/**
+	 * Create a new invalidator.
+	 * 
+	 * @param dao
+	 *            to delete links with
+	 * @param batchSize
+	 *            number of queued files that triggers a delete, also the maximum number of files per statement
+	 */
+	public LinkInvalidator(FileLinkDao dao, int batchSize) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("Batch size must be at least 1");
+		}
+
+		this.dao = dao;
+		this.batchSize = batchSize;
+		this.changed = new ConcurrentLinkedQueue<Integer>();
+		this.queued = ConcurrentHashMap.newKeySet();
+		this.pending = new AtomicInteger();
+		this.isDeleting = new Semaphore(1);
+	}
+
+	/**
+	 * Queue all links of the file for deletion. Files that have not been stored yet cannot have links and are ignored.
+	 * 
+	 * @param metadata
+	 *            of the changed file
+	 */
+	public void add(FileMetaData metadata) {
+		if (metadata.getId() == 0 || !queued.add(metadata.getId())) {
+			return;
+		}
+
+		changed.add(metadata.getId());
+
+		if (pending.incrementAndGet() >= batchSize && isDeleting.tryAcquire()) {
+			try {
+				deleteBatches(false);
+			} finally {
+				isDeleting.release();
+			}
+		}
+	}
+
+	/**
+	 * Get the number of files whose links have not been deleted yet.
+	 * 
+	 * @return number of queued files
+	 */
+	public int pendingFiles() {
+		return pending.get();
+	}
+
+	/**
+	 * Check if the links of the file are queued for deletion. Links of such a file must not be written until the
+	 * queued deletes have run, or they would be deleted with the stale links.
+	 * 
+	 * @param id
+	 *            of the file
+	 * @return true if the delete of the links is still pending
+	 */
+	public boolean isPending(int id) {
+		return queued.contains(id);
+	}
+
+	/**
+	 * Delete the links of all queued files, waiting for a running delete to finish first.
+	 */
+	public void flush() {
+		isDeleting.acquireUninterruptibly();
+
+		try {
+			deleteBatches(true);
+		} finally {
+			isDeleting.release();
+		}
+	}
+
+	private void deleteBatches(boolean all) {
+		while (all ? !changed.isEmpty() : pending.get() >= batchSize) {
+			List<Integer> batch = new ArrayList<Integer>(batchSize);
+			Integer id;
+
+			while (batch.size() < batchSize && (id = changed.poll()) != null) {
+				batch.add(id);
+			}
+
+			pending.addAndGet(-batch.size());
+
+			try {
+				int deleted = Database.callInWriteTransaction(dao.getConnectionSource(),
+						() -> dao.deleteLinksWithIds(batch));
+				LOGGER.debug("Deleted {} links of {} changed files", deleted, batch.size());
+			} catch (SQLException e) {
+				LOGGER.warn("Failed to delete links of {} changed files: {}", batch.size(), e.toString());
+			} finally {
+				queued.removeAll(batch);
+			}
+		}
+	}
+}
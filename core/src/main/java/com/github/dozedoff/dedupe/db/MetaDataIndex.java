@@ -0,0 +1,198 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.db;
+
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.dozedoff.dedupe.db.dao.FileMetaDataDao;
+import com.github.dozedoff.dedupe.db.table.Directory;
+import com.github.dozedoff.dedupe.db.table.FileMetaData;
+import com.google.common.base.Stopwatch;
+import com.j256.ormlite.dao.CloseableIterator;
+
+/**
+ * Read-only in memory copy of the stored {@link FileMetaData}, keyed by path. The index is loaded once with a
+ * sequential scan, the columns are kept in parallel arrays instead of one object per file, and a {@link FileMetaData}
+ * is only created when a path is looked up. Once loaded, the index can be queried from multiple threads without
+ * locking or database access.
+ * 
+ * @author Nicholas Wright
+ *
+ */
+public class MetaDataIndex {
+	private static final Logger LOGGER = LoggerFactory.getLogger(MetaDataIndex.class);
+
+	private static final int DEFAULT_CAPACITY = 16;
+	private static final byte[] NO_HASH = new byte[0];
+
+	private String[] paths;
+	private Directory[] directories;
+	private int[] ids;
+	private long[] sizes;
+	private long[] modifiedTimes;
+	private byte[][] hashes;
+	private String[] fileKeys;
+	private int size;
+	private int known;
+
+	/**
+	 * Open addressing hash table, the slots contain the index of the file plus one, or zero if they are empty.
+	 */
+	private int[] slots;
+
+	private MetaDataIndex() {
+		this.paths = new String[DEFAULT_CAPACITY];
+		this.directories = new Directory[DEFAULT_CAPACITY];
+		this.ids = new int[DEFAULT_CAPACITY];
+		this.sizes = new long[DEFAULT_CAPACITY];
+		this.modifiedTimes = new long[DEFAULT_CAPACITY];
+		this.hashes = new byte[DEFAULT_CAPACITY][];
+		this.fileKeys = new String[DEFAULT_CAPACITY];
+	}
+
+	/**
+	 * Load the metadata for all files under the given directories.
+	 * 
+	 * @param dao
+	 *            to load the metadata from
+	 * @param roots
+	 *            directories that will be searched for files
+	 * @return an index containing the metadata of all known files under the roots
+	 * @throws SQLException
+	 *             if there is an error accessing the database
+	 */
+	public static MetaDataIndex load(FileMetaDataDao dao, Collection<Path> roots) throws SQLException {
+		Stopwatch sw = Stopwatch.createStarted();
+		MetaDataIndex index = new MetaDataIndex();
+
+		for (Path root : roots) {
+			CloseableIterator<FileMetaData> iter = dao.iteratorUnder(root);
+
+			try {
+				while (iter.hasNext()) {
+					index.add(iter.next());
+				}
+			} finally {
+				iter.closeQuietly();
+			}
+		}
+
+		index.buildSlots();
+		LOGGER.info("Loaded metadata for {} known files in {}", index.size(), sw);
+
+		return index;
+	}
+
+	private void add(FileMetaData meta) {
+		if (size == ids.length) {
+			int capacity = size * 2;
+			paths = Arrays.copyOf(paths, capacity);
+			directories = Arrays.copyOf(directories, capacity);
+			ids = Arrays.copyOf(ids, capacity);
+			sizes = Arrays.copyOf(sizes, capacity);
+			modifiedTimes = Arrays.copyOf(modifiedTimes, capacity);
+			hashes = Arrays.copyOf(hashes, capacity);
+			fileKeys = Arrays.copyOf(fileKeys, capacity);
+		}
+
+		byte[] hash = meta.getHash();
+
+		paths[size] = meta.getPathAsString();
+		directories[size] = meta.getDirectory();
+		ids[size] = meta.getId();
+		sizes[size] = meta.getSize();
+		modifiedTimes[size] = meta.getModifiedTime();
+		hashes[size] = hash.length == 0 ? NO_HASH : hash;
+		fileKeys[size] = meta.getFileKey();
+		size++;
+	}
+
+	private void buildSlots() {
+		// at most two thirds of the slots are used, so probe sequences stay short
+		slots = new int[Integer.highestOneBit(Math.max(DEFAULT_CAPACITY, size + size / 2) - 1) * 2];
+
+		for (int i = 0; i < size; i++) {
+			int slot = firstSlot(paths[i]);
+
+			while (slots[slot] != 0 && !paths[slots[slot] - 1].equals(paths[i])) {
+				slot = (slot + 1) & (slots.length - 1);
+			}
+
+			// overlapping roots return the same file twice
+			if (slots[slot] == 0) {
+				slots[slot] = i + 1;
+				known++;
+			}
+		}
+	}
+
+	private int firstSlot(String path) {
+		int hash = path.hashCode();
+		return (hash ^ (hash >>> 16)) & (slots.length - 1);
+	}
+
+	private int indexOf(Path path) {
+		String key = path.toString();
+		int slot = firstSlot(key);
+
+		while (slots[slot] != 0) {
+			int index = slots[slot] - 1;
+
+			if (paths[index].equals(key)) {
+				return index;
+			}
+
+			slot = (slot + 1) & (slots.length - 1);
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Get the metadata for the given path. Every call returns a new instance.
+	 * 
+	 * @param path
+	 *            to get the metadata for
+	 * @return the metadata if found, else null
+	 */
+	public FileMetaData getMetaDataForPath(Path path) {
+		int index = indexOf(path);
+
+		if (index < 0) {
+			return null;
+		}
+
+		Directory directory = directories[index];
+
+		return new FileMetaData(ids[index], directory, paths[index].substring(directory.getPath().length()),
+				sizes[index], modifiedTimes[index], hashes[index], fileKeys[index]);
+	}
+
+	/**
+	 * Check if the index contains metadata for the path.
+	 * 
+	 * @param path
+	 *            to query for
+	 * @return true if meta data is present for the path
+	 */
+	public boolean hasMetaData(Path path) {
+		return indexOf(path) >= 0;
+	}
+
+	/**
+	 * The number of files in this index.
+	 * 
+	 * @return number of indexed files
+	 */
+	public int size() {
+		return known;
+	}
+}
@@ -0,0 +1,146 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.db;
+
+import java.io.File;
+import java.sql.SQLException;
+import java.util.concurrent.Callable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.dozedoff.dedupe.db.dao.DirectoryDao;
+import com.github.dozedoff.dedupe.db.table.Directory;
+import com.github.dozedoff.dedupe.db.table.FileMetaData;
+import com.google.common.base.Stopwatch;
+import com.j256.ormlite.dao.DaoManager;
+import com.j256.ormlite.support.ConnectionSource;
+import com.j256.ormlite.support.DatabaseConnection;
+import com.j256.ormlite.table.TableUtils;
+
+/**
+ * Migrates a database that stores the full path for every file to the schema with a separate directory table. Row ids
+ * are kept, so existing links stay valid.
+ * 
+ * @author Nicholas Wright
+ *
+ */
+class NormalizedPathMigration {
+	private static final Logger LOGGER = LoggerFactory.getLogger(NormalizedPathMigration.class);
+
+	private static final String OLD_TABLE = "filemetadata_old";
+	private static final String[] OLD_INDEXES = { "filemetadata_path_idx", "filemetadata_size_idx",
+			"filemetadata_hash_idx" };
+
+	private final ConnectionSource connectionSource;
+
+	/**
+	 * Create a new migration for the database.
+	 * 
+	 * @param connectionSource
+	 *            a read-write connection source for the database
+	 */
+	NormalizedPathMigration(ConnectionSource connectionSource) {
+		this.connectionSource = connectionSource;
+	}
+
+	/**
+	 * Check if the database still uses the full path schema.
+	 * 
+	 * @return true if the database needs to be migrated
+	 * @throws SQLException
+	 *             if there is an error accessing the database
+	 */
+	boolean isRequired() throws SQLException {
+		DatabaseConnection conn = connectionSource.getReadWriteConnection();
+
+		try {
+			return conn.queryForLong("SELECT COUNT(*) FROM sqlite_master WHERE type = 'table'"
+					+ " AND name = 'filemetadata' AND sql LIKE '%`path`%'") > 0;
+		} finally {
+			connectionSource.releaseConnection(conn);
+		}
+	}
+
+	/**
+	 * Move all rows to the new schema in a single transaction.
+	 * 
+	 * @throws SQLException
+	 *             if there is an error accessing the database
+	 */
+	void migrate() throws SQLException {
+		LOGGER.info("Migrating file metadata to normalized paths, this may take a while...");
+		Stopwatch sw = Stopwatch.createStarted();
+
+		long migrated = Database.callInWriteTransaction(connectionSource, new Callable<Long>() {
+			@Override
+			public Long call() throws Exception {
+				DatabaseConnection conn = connectionSource.getReadWriteConnection();
+
+				try {
+					conn.executeStatement("ALTER TABLE filemetadata RENAME TO " + OLD_TABLE,
+							DatabaseConnection.DEFAULT_RESULT_FLAGS);
+
+					for (String index : OLD_INDEXES) {
+						conn.executeStatement("DROP INDEX IF EXISTS " + index,
+								DatabaseConnection.DEFAULT_RESULT_FLAGS);
+					}
+				} finally {
+					connectionSource.releaseConnection(conn);
+				}
+
+				TableUtils.createTableIfNotExists(connectionSource, Directory.class);
+				TableUtils.createTableIfNotExists(connectionSource, FileMetaData.class);
+
+				long rows = copyRows();
+
+				conn = connectionSource.getReadWriteConnection();
+
+				try {
+					conn.executeStatement("DROP TABLE " + OLD_TABLE, DatabaseConnection.DEFAULT_RESULT_FLAGS);
+				} finally {
+					connectionSource.releaseConnection(conn);
+				}
+
+				return rows;
+			}
+		});
+
+		LOGGER.info("Migrated {} rows in {}", migrated, sw);
+	}
+
+	private long copyRows() throws SQLException {
+		DirectoryDao directoryDao = DaoManager.createDao(connectionSource, Directory.class);
+		String directory = directoryOf("path");
+
+		directoryDao.executeRaw("INSERT OR IGNORE INTO directory (" + Directory.PATH_COLUMN_NAME + ") SELECT DISTINCT "
+				+ directory + " FROM " + OLD_TABLE);
+
+		return directoryDao.executeRaw("INSERT INTO filemetadata (id, " + FileMetaData.DIRECTORY_COLUMN_NAME + ", "
+				+ FileMetaData.NAME_COLUMN_NAME + ", size, modifiedTime, hash) SELECT o.id, d."
+				+ Directory.ID_COLUMN_NAME + ", substr(o.path, length(d." + Directory.PATH_COLUMN_NAME
+				+ ") + 1), o.size, o.modifiedTime, o.hash FROM (SELECT *, " + directory + " AS dir FROM " + OLD_TABLE
+				+ ") o JOIN directory d ON d." + Directory.PATH_COLUMN_NAME + " = o.dir");
+	}
+
+	/**
+	 * Build an expression for the directory part of a path, split the same way as {@link FileMetaData#setPath(String)}.
+	 * Trimming every character except the separators from the end leaves the path up to and including the last
+	 * separator.
+	 * 
+	 * @param column
+	 *            containing the full path
+	 * @return the SQL expression
+	 */
+	private static String directoryOf(String column) {
+		String nameCharacters = "replace(" + column + ", '/', '')";
+
+		if (File.separatorChar != '/') {
+			nameCharacters = "replace(" + nameCharacters + ", '" + File.separatorChar + "', '')";
+		}
+
+		return "rtrim(" + column + ", " + nameCharacters + ")";
+	}
+}
@@ -0,0 +1,232 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.db;
+
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+
+import com.j256.ormlite.db.DatabaseType;
+import com.j256.ormlite.logger.Logger;
+import com.j256.ormlite.logger.LoggerFactory;
+import com.j256.ormlite.support.BaseConnectionSource;
+import com.j256.ormlite.support.ConnectionSource;
+import com.j256.ormlite.support.DatabaseConnection;
+
+/**
+ * Connection source that hands out read-only connections from a bounded pool and routes all writes to a single
+ * dedicated writer. A thread inside a transaction always gets the transaction connection, so it can read its own
+ * uncommitted writes. A thread that already holds a read connection gets the same connection again, so nested reads,
+ * such as refreshing foreign objects while iterating, do not wait for a second permit.
+ *
+ * @author Nicholas Wright
+ *
+ */
+public class ReadWriteConnectionSource extends BaseConnectionSource {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ReadWriteConnectionSource.class);
+
+	private final ConnectionSource writer;
+	private final ConnectionSource reader;
+	private final Semaphore readPermits;
+	private final ConcurrentMap<DatabaseConnection, HeldConnection> readConnections;
+	private final ThreadLocal<HeldConnection> heldConnection;
+
+	/**
+	 * Create a new connection source that splits reads and writes.
+	 *
+	 * @param writer
+	 *            source for read-write connections
+	 * @param reader
+	 *            source for read-only connections
+	 * @param maxReaders
+	 *            maximum number of read-only connections that can be in use at the same time
+	 */
+	public ReadWriteConnectionSource(ConnectionSource writer, ConnectionSource reader, int maxReaders) {
+		if (maxReaders < 1) {
+			throw new IllegalArgumentException("At least one reader is required");
+		}
+
+		this.writer = writer;
+		this.reader = reader;
+		this.readPermits = new Semaphore(maxReaders);
+		this.readConnections = new ConcurrentHashMap<DatabaseConnection, HeldConnection>();
+		this.heldConnection = new ThreadLocal<HeldConnection>();
+	}
+
+	/**
+	 * Get a read-only connection from the pool, blocking until one is available. Returns the transaction connection if
+	 * the calling thread is in a transaction.
+	 *
+	 * @return a connection for reading
+	 * @throws SQLException
+	 *             if there is an error opening the connection or the thread was interrupted
+	 */
+	@Override
+	public DatabaseConnection getReadOnlyConnection() throws SQLException {
+		DatabaseConnection saved = getSavedConnection();
+
+		if (saved != null) {
+			return saved;
+		}
+
+		HeldConnection held = heldConnection.get();
+
+		if (held != null && held.acquire()) {
+			return held.connection;
+		}
+
+		try {
+			readPermits.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for a read connection", e);
+		}
+
+		try {
+			DatabaseConnection connection = reader.getReadOnlyConnection();
+			held = new HeldConnection(connection);
+			readConnections.put(connection, held);
+			heldConnection.set(held);
+			return connection;
+		} catch (SQLException | RuntimeException e) {
+			readPermits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Get the writer connection, or the transaction connection if the calling thread is in a transaction.
+	 *
+	 * @return the connection for writing
+	 * @throws SQLException
+	 *             if there is an error opening the connection
+	 */
+	@Override
+	public DatabaseConnection getReadWriteConnection() throws SQLException {
+		DatabaseConnection saved = getSavedConnection();
+
+		if (saved != null) {
+			return saved;
+		}
+
+		return writer.getReadWriteConnection();
+	}
+
+	/**
+	 * Return the connection to the source it was taken from.
+	 *
+	 * @param connection
+	 *            to release
+	 * @throws SQLException
+	 *             if there is an error releasing the connection
+	 */
+	@Override
+	public void releaseConnection(DatabaseConnection connection) throws SQLException {
+		if (isSavedConnection(connection)) {
+			return;
+		}
+
+		HeldConnection held = readConnections.get(connection);
+
+		if (held != null) {
+			if (!held.release()) {
+				return;
+			}
+
+			readConnections.remove(connection);
+
+			if (heldConnection.get() == held) {
+				heldConnection.remove();
+			}
+
+			try {
+				reader.releaseConnection(connection);
+			} finally {
+				readPermits.release();
+			}
+		} else {
+			writer.releaseConnection(connection);
+		}
+	}
+
+	@Override
+	public boolean saveSpecialConnection(DatabaseConnection connection) throws SQLException {
+		return saveSpecial(connection);
+	}
+
+	@Override
+	public void clearSpecialConnection(DatabaseConnection connection) {
+		clearSpecial(connection, LOGGER);
+	}
+
+	/**
+	 * Close both the reader and writer sources.
+	 *
+	 * @throws SQLException
+	 *             if there is an error closing the sources
+	 */
+	@Override
+	public void close() throws SQLException {
+		try {
+			reader.close();
+		} finally {
+			writer.close();
+		}
+	}
+
+	@Override
+	public void closeQuietly() {
+		reader.closeQuietly();
+		writer.closeQuietly();
+	}
+
+	@Override
+	public DatabaseType getDatabaseType() {
+		return writer.getDatabaseType();
+	}
+
+	@Override
+	public boolean isOpen() {
+		return writer.isOpen() && reader.isOpen();
+	}
+
+	/**
+	 * A read connection with the number of times it was handed out and not yet released.
+	 */
+	private static class HeldConnection {
+		private final DatabaseConnection connection;
+		private int references;
+
+		HeldConnection(DatabaseConnection connection) {
+			this.connection = connection;
+			this.references = 1;
+		}
+
+		/**
+		 * Add a reference, unless the connection was already released.
+		 * 
+		 * @return true if the connection can be used
+		 */
+		synchronized boolean acquire() {
+			if (references == 0) {
+				return false;
+			}
+
+			references++;
+			return true;
+		}
+
+		/**
+		 * Remove a reference.
+		 * 
+		 * @return true if this was the last reference and the connection should be returned to the pool
+		 */
+		synchronized boolean release() {
+			references--;
+			return references == 0;
+		}
+	}
+}
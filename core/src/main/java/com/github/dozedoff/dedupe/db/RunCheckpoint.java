@@ -0,0 +1,440 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.db;
+
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.dozedoff.dedupe.db.table.FileMetaData;
+import com.github.dozedoff.dedupe.db.table.PendingFile;
+import com.github.dozedoff.dedupe.db.table.PendingLink;
+import com.github.dozedoff.dedupe.db.table.RunState;
+import com.github.dozedoff.dedupe.db.table.RunState.Phase;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.dao.DaoManager;
+import com.j256.ormlite.stmt.DeleteBuilder;
+import com.j256.ormlite.support.ConnectionSource;
+
+/**
+ * Durable state of a run, so a run that is interrupted after the walk can be resumed without walking the directories
+ * again. Once the walk has finished, the files of all size groups are stored. Size groups are removed when they have
+ * been compared, the groups of identical files they produced are stored until they have been linked.<br>
+ * Progress is recorded in memory and written with {@link #checkpoint(Runnable)}, after the batch writers have been
+ * flushed, so the stored state never refers to metadata or links that were lost. A size group with files that were
+ * not hashed is never removed, it is compared again when the run is resumed.
+ *
+ * @author Nicholas Wright
+ *
+ */
+public class RunCheckpoint {
+	private static final Logger LOGGER = LoggerFactory.getLogger(RunCheckpoint.class);
+
+	private static final String ROOT_SEPARATOR = "\n";
+
+	private final ConnectionSource connectionSource;
+	private final Dao<RunState, Integer> stateDao;
+	private final Dao<PendingFile, Integer> fileDao;
+	private final Dao<PendingLink, Integer> linkDao;
+	private final String roots;
+
+	private RunState state;
+	private final ListMultimap<Long, Path> released;
+	private final Map<Long, Collection<Collection<FileMetaData>>> compared;
+	private final Set<Long> incomplete;
+	private final Map<Collection<FileMetaData>, PendingLink> storedLinks;
+	private final Set<Collection<FileMetaData>> linked;
+	/**
+	 * Serializes checkpoints. Taken before the writers are flushed, the database write lock is only held for the
+	 * transactions, so the writers can take it while flushing.
+	 */
+	private final Object checkpointLock;
+
+	/**
+	 * Load the stored state for the given directories.
+	 *
+	 * @param connectionSource
+	 *            of the database
+	 * @param roots
+	 *            the directories of the run
+	 * @throws SQLException
+	 *             if there is an error accessing the database
+	 */
+	public RunCheckpoint(ConnectionSource connectionSource, Collection<Path> roots) throws SQLException {
+		this.connectionSource = connectionSource;
+		this.stateDao = DaoManager.createDao(connectionSource, RunState.class);
+		this.fileDao = DaoManager.createDao(connectionSource, PendingFile.class);
+		this.linkDao = DaoManager.createDao(connectionSource, PendingLink.class);
+		this.roots = roots.stream().map(root -> root.toAbsolutePath().normalize().toString()).sorted().distinct()
+				.collect(Collectors.joining(ROOT_SEPARATOR));
+
+		this.released = ArrayListMultimap.create();
+		this.compared = new HashMap<Long, Collection<Collection<FileMetaData>>>();
+		this.incomplete = new HashSet<Long>();
+		this.storedLinks = new IdentityHashMap<Collection<FileMetaData>, PendingLink>();
+		this.linked = Collections.newSetFromMap(new IdentityHashMap<Collection<FileMetaData>, Boolean>());
+		this.checkpointLock = new Object();
+
+		this.state = stateDao.queryForAll().stream().findFirst().orElse(null);
+	}
+
+	/**
+	 * Check if the stored state belongs to a run with the same directories that finished walking.
+	 *
+	 * @return true if the run can be resumed
+	 */
+	public boolean isResumable() {
+		return state != null && state.getPhase() == Phase.HASH && roots.equals(state.getRoots());
+	}
+
+	/**
+	 * Check if there is stored state of a run with other directories, that will be discarded by {@link #start()}.
+	 *
+	 * @return true if other state is stored
+	 */
+	public boolean hasOtherRun() {
+		return state != null && !roots.equals(state.getRoots());
+	}
+
+	/**
+	 * Get the time the stored state was last written.
+	 *
+	 * @return time in milliseconds since the epoch, 0 if there is no stored state
+	 */
+	public long lastCheckpoint() {
+		return state == null ? 0 : state.getUpdated();
+	}
+
+	/**
+	 * Start a new run, discarding any stored state.
+	 *
+	 * @throws SQLException
+	 *             if there is an error accessing the database
+	 */
+	public void start() throws SQLException {
+		state = new RunState(roots, Phase.WALK);
+
+		Database.callInWriteTransaction(connectionSource, new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				clear();
+				stateDao.create(state);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Get the files of the size groups that have not been compared by the resumed run.
+	 *
+	 * @return the paths of the files by size
+	 * @throws SQLException
+	 *             if there is an error accessing the database
+	 */
+	public ListMultimap<Long, String> pendingFiles() throws SQLException {
+		ListMultimap<Long, String> pending = ArrayListMultimap.create();
+
+		for (PendingFile file : fileDao.queryForAll()) {
+			pending.put(file.getSize(), file.getPath());
+		}
+
+		return pending;
+	}
+
+	/**
+	 * Get the groups of identical files that have not been linked by the resumed run. Each group must be passed to
+	 * {@link #restored(PendingLink, Collection)} once its metadata has been loaded.
+	 *
+	 * @return the stored groups
+	 * @throws SQLException
+	 *             if there is an error accessing the database
+	 */
+	public List<PendingLink> pendingLinks() throws SQLException {
+		return linkDao.queryForAll();
+	}
+
+	/**
+	 * Track a stored group of identical files, so it is removed once it has been linked.
+	 *
+	 * @param link
+	 *            as returned by {@link #pendingLinks()}
+	 * @param group
+	 *            the metadata of the files, passed to {@link #linked(Collection)}
+	 */
+	public synchronized void restored(PendingLink link, Collection<FileMetaData> group) {
+		storedLinks.put(group, link);
+	}
+
+	/**
+	 * Record files that were released for hashing during the walk. Ignored when the run was resumed.
+	 *
+	 * @param size
+	 *            of the files
+	 * @param paths
+	 *            of the files
+	 */
+	public synchronized void released(long size, Collection<Path> paths) {
+		if (state != null && state.getPhase() == Phase.WALK) {
+			released.putAll(size, paths);
+		}
+	}
+
+	/**
+	 * Record that not all files of the size group were hashed, the group will be compared again when the run is
+	 * resumed.
+	 *
+	 * @param size
+	 *            of the group
+	 */
+	public synchronized void incomplete(long size) {
+		incomplete.add(size);
+		compared.remove(size);
+	}
+
+	/**
+	 * Record that a size group has been compared.
+	 *
+	 * @param size
+	 *            of the group
+	 * @param identical
+	 *            the groups of identical files that will be linked, each passed to {@link #linked(Collection)} once
+	 *            it has been linked
+	 */
+	public synchronized void compared(long size, Collection<Collection<FileMetaData>> identical) {
+		if (!incomplete.contains(size)) {
+			compared.put(size, new ArrayList<Collection<FileMetaData>>(identical));
+		}
+	}
+
+	/**
+	 * Record that a group of identical files has been linked or skipped.
+	 *
+	 * @param group
+	 *            as passed to {@link #compared(long, Collection)} or {@link #restored(PendingLink, Collection)}
+	 */
+	public synchronized void linked(Collection<FileMetaData> group) {
+		linked.add(group);
+	}
+
+	/**
+	 * Record that the walk has finished and write the files of all size groups.
+	 *
+	 * @param flushWriters
+	 *            writes all queued metadata and links
+	 * @throws SQLException
+	 *             if there is an error accessing the database
+	 */
+	public void walkFinished(Runnable flushWriters) throws SQLException {
+		synchronized (this) {
+			if (state.getPhase() != Phase.WALK) {
+				return;
+			}
+
+			state.setPhase(Phase.HASH);
+		}
+
+		checkpoint(flushWriters);
+	}
+
+	/**
+	 * Write the progress since the last checkpoint. Nothing but the time of the checkpoint is written until the walk
+	 * has finished.
+	 *
+	 * @param flushWriters
+	 *            writes all queued metadata and links, called before the state is written
+	 * @throws SQLException
+	 *             if there is an error accessing the database
+	 */
+	public void checkpoint(Runnable flushWriters) throws SQLException {
+		synchronized (checkpointLock) {
+			writeCheckpoint(flushWriters);
+		}
+	}
+
+	private void writeCheckpoint(Runnable flushWriters) throws SQLException {
+		ListMultimap<Long, Path> files;
+		Map<Long, Collection<Collection<FileMetaData>>> groups;
+		Set<Collection<FileMetaData>> done;
+
+		synchronized (this) {
+			if (state == null) {
+				return;
+			}
+
+			files = ArrayListMultimap.create(released);
+			groups = new HashMap<Long, Collection<Collection<FileMetaData>>>(compared);
+			done = identitySet();
+			done.addAll(linked);
+
+			if (state.getPhase() == Phase.HASH) {
+				released.clear();
+				compared.clear();
+				linked.clear();
+			}
+		}
+
+		flushWriters.run();
+
+		if (state.getPhase() != Phase.HASH) {
+			return;
+		}
+
+		Map<Collection<FileMetaData>, PendingLink> created =
+				new IdentityHashMap<Collection<FileMetaData>, PendingLink>();
+		Set<Collection<FileMetaData>> skipped = identitySet();
+		Map<Long, Collection<Collection<FileMetaData>>> retry =
+				new HashMap<Long, Collection<Collection<FileMetaData>>>();
+
+		try {
+			Database.callInWriteTransaction(connectionSource, new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					write(files, groups, done, created, skipped, retry);
+					return null;
+				}
+			});
+		} catch (SQLException | RuntimeException e) {
+			synchronized (this) {
+				released.putAll(files);
+				groups.forEach(compared::putIfAbsent);
+				linked.addAll(done);
+			}
+
+			throw e;
+		}
+
+		synchronized (this) {
+			storedLinks.keySet().removeAll(done);
+			storedLinks.putAll(created);
+			linked.removeAll(skipped);
+			retry.forEach(compared::putIfAbsent);
+		}
+	}
+
+	private static Set<Collection<FileMetaData>> identitySet() {
+		return Collections.newSetFromMap(new IdentityHashMap<Collection<FileMetaData>, Boolean>());
+	}
+
+	/**
+	 * Write the progress to the database. The in memory state is only read, the changes to it are collected and
+	 * applied once the transaction has been committed.
+	 */
+	private void write(ListMultimap<Long, Path> files, Map<Long, Collection<Collection<FileMetaData>>> groups,
+			Set<Collection<FileMetaData>> done, Map<Collection<FileMetaData>, PendingLink> created,
+			Set<Collection<FileMetaData>> skipped, Map<Long, Collection<Collection<FileMetaData>>> retry)
+			throws SQLException {
+		for (Entry<Long, Path> file : files.entries()) {
+			if (!groups.containsKey(file.getKey())) {
+				fileDao.create(new PendingFile(file.getValue().toString(), file.getKey()));
+			}
+		}
+
+		for (Entry<Long, Collection<Collection<FileMetaData>>> group : groups.entrySet()) {
+			storeCompared(group.getKey(), group.getValue(), done, created, skipped, retry);
+		}
+
+		for (Collection<FileMetaData> group : done) {
+			PendingLink link;
+
+			synchronized (this) {
+				link = storedLinks.get(group);
+			}
+
+			if (link != null) {
+				linkDao.delete(link);
+			}
+		}
+
+		state.touch();
+		stateDao.update(state);
+	}
+
+	private void storeCompared(long size, Collection<Collection<FileMetaData>> identical,
+			Set<Collection<FileMetaData>> done, Map<Collection<FileMetaData>, PendingLink> created,
+			Set<Collection<FileMetaData>> skipped, Map<Long, Collection<Collection<FileMetaData>>> retry)
+			throws SQLException {
+		List<Collection<FileMetaData>> toLink = identical.stream().filter(group -> !done.contains(group))
+				.collect(Collectors.toList());
+
+		if (toLink.stream().flatMap(Collection::stream).anyMatch(meta -> meta.getId() == 0)) {
+			LOGGER.debug("Metadata of size group {} has not been stored, retrying with the next checkpoint", size);
+			retry.put(size, toLink);
+			return;
+		}
+
+		DeleteBuilder<PendingFile, Integer> delete = fileDao.deleteBuilder();
+		delete.where().eq(PendingFile.SIZE_COLUMN_NAME, size);
+		delete.delete();
+
+		for (Collection<FileMetaData> group : toLink) {
+			boolean isLinked;
+
+			synchronized (this) {
+				isLinked = linked.contains(group);
+			}
+
+			if (isLinked) {
+				skipped.add(group);
+			} else {
+				PendingLink link = new PendingLink(group);
+				linkDao.create(link);
+				created.put(group, link);
+			}
+		}
+	}
+
+	/**
+	 * Write a final checkpoint and discard the stored state if all size groups have been compared and all identical
+	 * files have been linked.
+	 *
+	 * @param flushWriters
+	 *            writes all queued metadata and links
+	 * @return true if the run is complete, false if there is work left to resume
+	 * @throws SQLException
+	 *             if there is an error accessing the database
+	 */
+	public boolean finish(Runnable flushWriters) throws SQLException {
+		synchronized (checkpointLock) {
+			writeCheckpoint(flushWriters);
+		}
+
+		if (state == null || state.getPhase() != Phase.HASH || fileDao.countOf() > 0 || linkDao.countOf() > 0) {
+			return false;
+		}
+
+		Database.callInWriteTransaction(connectionSource, new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				clear();
+				return null;
+			}
+		});
+
+		state = null;
+		return true;
+	}
+
+	private void clear() throws SQLException {
+		stateDao.deleteBuilder().delete();
+		fileDao.deleteBuilder().delete();
+		linkDao.deleteBuilder().delete();
+	}
+}
@@ -0,0 +1,310 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.db;
+
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.dozedoff.dedupe.db.dao.DirectoryDao;
+import com.github.dozedoff.dedupe.db.dao.FileLinkDao;
+import com.github.dozedoff.dedupe.db.dao.FileMetaDataDao;
+import com.github.dozedoff.dedupe.db.table.Directory;
+import com.github.dozedoff.dedupe.db.table.FileMetaData;
+import com.google.common.base.Stopwatch;
+import com.j256.ormlite.dao.CloseableIterator;
+
+/**
+ * Removes the metadata and links of files that no longer exist. The files found by a walk are sorted and merged with
+ * the stored rows under the walked directory, which are read in index order, so no file is checked individually.
+ * Stale rows are deleted in batches.
+ * 
+ * @author Nicholas Wright
+ *
+ */
+public class StaleRowSweep {
+	private static final Logger LOGGER = LoggerFactory.getLogger(StaleRowSweep.class);
+
+	private static final int DEFAULT_BATCH_SIZE = 500;
+
+	/**
+	 * Same order as the SQLite BINARY collation for UTF-8 text, which compares code points.
+	 */
+	private static final Comparator<String> CODE_POINT_ORDER = (a, b) -> {
+		int i = 0;
+		int j = 0;
+
+		while (i < a.length() && j < b.length()) {
+			int cpA = a.codePointAt(i);
+			int cpB = b.codePointAt(j);
+
+			if (cpA != cpB) {
+				return Integer.compare(cpA, cpB);
+			}
+
+			i += Character.charCount(cpA);
+			j += Character.charCount(cpB);
+		}
+
+		return Integer.compare(a.length() - i, b.length() - j);
+	};
+
+	private static final Comparator<FileKey> KEY_ORDER = Comparator.<FileKey> comparingInt(key -> key.directoryId)
+			.thenComparing(key -> key.name, CODE_POINT_ORDER);
+
+	private final FileMetaDataDao dao;
+	private final FileLinkDao linkDao;
+	private final int batchSize;
+
+	private long removedRows;
+	private long removedDirectories;
+
+	/**
+	 * Create a new sweep with the default batch size.
+	 * 
+	 * @param dao
+	 *            for the file metadata
+	 * @param linkDao
+	 *            for the links between files
+	 */
+	public StaleRowSweep(FileMetaDataDao dao, FileLinkDao linkDao) {
+		this(dao, linkDao, DEFAULT_BATCH_SIZE);
+	}
+
+	/**
+	 * Create a new sweep.
+	 * 
+	 * @param dao
+	 *            for the file metadata
+	 * @param linkDao
+	 *            for the links between files
+	 * @param batchSize
+	 *            maximum number of rows deleted per transaction
+	 */
+	public StaleRowSweep(FileMetaDataDao dao, FileLinkDao linkDao, int batchSize) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("Batch size must be at least 1");
+		}
+
+		this.dao = dao;
+		this.linkDao = linkDao;
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Delete all rows under the directory that are not in the given files, together with their links.
+	 * 
+	 * @param directory
+	 *            that was walked
+	 * @param existingFiles
+	 *            all files found in the directory
+	 * @return the number of rows deleted for this directory
+	 * @throws SQLException
+	 *             if there is an error accessing the database
+	 */
+	public long sweep(Path directory, Collection<Path> existingFiles) throws SQLException {
+		Stopwatch sw = Stopwatch.createStarted();
+		List<FileKey> existing = sortedKeys(existingFiles);
+		IntList stale = new IntList();
+
+		CloseableIterator<FileMetaData> rows = dao.iteratorUnder(directory);
+
+		try {
+			int index = 0;
+
+			while (rows.hasNext()) {
+				FileMetaData row = rows.next();
+				FileKey rowKey = new FileKey(row.getDirectory().getId(), row.getName());
+
+				while (index < existing.size() && KEY_ORDER.compare(existing.get(index), rowKey) < 0) {
+					index++;
+				}
+
+				if (index < existing.size() && KEY_ORDER.compare(existing.get(index), rowKey) == 0) {
+					index++;
+				} else {
+					stale.add(row.getId());
+				}
+			}
+		} finally {
+			rows.closeQuietly();
+		}
+
+		long deleted = deleteStale(stale);
+		removedRows += deleted;
+
+		LOGGER.info("Removed {} stale rows under {} in {}", deleted, directory, sw);
+
+		return deleted;
+	}
+
+	private List<FileKey> sortedKeys(Collection<Path> files) throws SQLException {
+		DirectoryDao directoryDao = dao.getDirectoryDao();
+		List<FileKey> keys = new ArrayList<FileKey>(files.size());
+
+		for (Path file : files) {
+			FileMetaData split = new FileMetaData(file.toString());
+			Directory directory = directoryDao.findDirectory(split.getDirectory().getPath());
+
+			if (directory != null) {
+				keys.add(new FileKey(directory.getId(), split.getName()));
+			}
+		}
+
+		keys.sort(KEY_ORDER);
+
+		return keys;
+	}
+
+	private long deleteStale(IntList stale) throws SQLException {
+		long deleted = 0;
+
+		for (int start = 0; start < stale.size(); start += batchSize) {
+			deleted += dao.deleteWithLinks(stale.subList(start, Math.min(stale.size(), start + batchSize)), linkDao);
+		}
+
+		return deleted;
+	}
+
+	/**
+	 * Delete directories that no longer contain files. Call this after all directories have been swept.
+	 * 
+	 * @return the number of deleted directories
+	 * @throws SQLException
+	 *             if there is an error accessing the database
+	 */
+	public long removeEmptyDirectories() throws SQLException {
+		long deleted = dao.deleteEmptyDirectories();
+		removedDirectories += deleted;
+
+		return deleted;
+	}
+
+	/**
+	 * Get the number of metadata rows deleted by this instance.
+	 * 
+	 * @return total number of deleted rows
+	 */
+	public long getRemovedRows() {
+		return removedRows;
+	}
+
+	/**
+	 * Get the number of directory rows deleted by this instance.
+	 * 
+	 * @return total number of deleted directories
+	 */
+	public long getRemovedDirectories() {
+		return removedDirectories;
+	}
+
+	/**
+	 * Rebuild the database file to release the space of deleted rows.
+	 * 
+	 * @throws SQLException
+	 *             if there is an error accessing the database
+	 */
+	public void vacuum() throws SQLException {
+		executeLocked("VACUUM");
+	}
+
+	/**
+	 * Update the statistics used by the query planner.
+	 * 
+	 * @throws SQLException
+	 *             if there is an error accessing the database
+	 */
+	public void analyze() throws SQLException {
+		executeLocked("ANALYZE");
+	}
+
+	/**
+	 * VACUUM cannot run in a transaction, hold the write lock so no other transaction is open while it runs.
+	 */
+	private void executeLocked(String statement) throws SQLException {
+		Lock lock = Database.writeLock(dao.getConnectionSource());
+		lock.lock();
+
+		try {
+			dao.executeRaw(statement);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Get the size of the database, calculated from the number of pages.
+	 * 
+	 * @return the size of the database in bytes
+	 * @throws SQLException
+	 *             if there is an error accessing the database
+	 */
+	public long databaseSize() throws SQLException {
+		return pragma("page_count") * pragma("page_size");
+	}
+
+	/**
+	 * Get the space taken up by unused pages, which will be reused by new rows or released with {@link #vacuum()}.
+	 * 
+	 * @return the size of the unused pages in bytes
+	 * @throws SQLException
+	 *             if there is an error accessing the database
+	 */
+	public long freeSpace() throws SQLException {
+		return pragma("freelist_count") * pragma("page_size");
+	}
+
+	private long pragma(String name) throws SQLException {
+		return Long.parseLong(dao.queryRaw("PRAGMA " + name).getFirstResult()[0]);
+	}
+
+	private static final class FileKey {
+		private final int directoryId;
+		private final String name;
+
+		FileKey(int directoryId, String name) {
+			this.directoryId = directoryId;
+			this.name = name;
+		}
+	}
+
+	/**
+	 * Growable list of primitive ints, so millions of stale ids do not need to be boxed while the cursor is open.
+	 */
+	private static final class IntList {
+		private int[] values = new int[16];
+		private int size;
+
+		void add(int value) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, size * 2);
+			}
+
+			values[size++] = value;
+		}
+
+		int size() {
+			return size;
+		}
+
+		List<Integer> subList(int from, int to) {
+			List<Integer> list = new ArrayList<Integer>(to - from);
+
+			for (int i = from; i < to; i++) {
+				list.add(values[i]);
+			}
+
+			return list;
+		}
+	}
+}
@@ -0,0 +1,168 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.db.dao;
+
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.github.dozedoff.dedupe.db.table.Directory;
+import com.github.dozedoff.dedupe.db.table.FileMetaData;
+import com.j256.ormlite.dao.BaseDaoImpl;
+import com.j256.ormlite.dao.ReferenceObjectCache;
+import com.j256.ormlite.stmt.PreparedQuery;
+import com.j256.ormlite.stmt.QueryBuilder;
+import com.j256.ormlite.stmt.SelectArg;
+import com.j256.ormlite.support.ConnectionSource;
+
+/**
+ * DAO for {@link Directory}. Directories are cached by id and path, so resolving the directory of a file rarely needs
+ * a query.
+ * 
+ * @author Nicholas Wright
+ *
+ */
+public class DirectoryDao extends BaseDaoImpl<Directory, Integer> {
+	private final ConcurrentMap<String, Directory> pathCache;
+	private final PerThreadStatement<PreparedQuery<Directory>> pathQuery;
+
+	/**
+	 * Create an extended DAO for {@link Directory}.
+	 * 
+	 * @param connectionSource
+	 *            connection to use
+	 * @param dataClass
+	 *            class this DAO is used for
+	 * @throws SQLException
+	 *             if there is a database error
+	 */
+	public DirectoryDao(ConnectionSource connectionSource, Class<Directory> dataClass) throws SQLException {
+		super(connectionSource, dataClass);
+
+		setObjectCache(ReferenceObjectCache.makeSoftCache());
+
+		this.pathCache = new ConcurrentHashMap<String, Directory>();
+		this.pathQuery = new PerThreadStatement<PreparedQuery<Directory>>(
+				() -> queryBuilder().where().eq(Directory.PATH_COLUMN_NAME, new SelectArg()).prepare());
+	}
+
+	/**
+	 * Find the stored directory with the given path.
+	 * 
+	 * @param path
+	 *            of the directory including the trailing separator
+	 * @return the stored directory, or null if it does not exist
+	 * @throws SQLException
+	 *             if there is an error accessing the database
+	 */
+	public Directory findDirectory(String path) throws SQLException {
+		Directory directory = pathCache.get(path);
+
+		if (directory != null) {
+			return directory;
+		}
+
+		directory = queryForFirst(pathQuery.bind(path));
+
+		if (directory != null) {
+			pathCache.putIfAbsent(path, directory);
+		}
+
+		return directory;
+	}
+
+	/**
+	 * Store the directory, unless a directory with the same path is already stored. In both cases the id of the
+	 * directory is set to the id of the stored row. This is also used when a {@link FileMetaData} with a new directory
+	 * is created.
+	 * 
+	 * @param directory
+	 *            to store
+	 * @return number of rows created
+	 * @throws SQLException
+	 *             if there is an error accessing the database
+	 */
+	@Override
+	public int create(Directory directory) throws SQLException {
+		Directory stored = getOrCreate(directory);
+
+		if (stored != directory) {
+			getTableInfo().getIdField().assignField(directory, stored.getId(), false, null);
+			return 0;
+		}
+
+		return 1;
+	}
+
+	/**
+	 * Get the stored directory for the given directory, creating it if it does not exist yet.
+	 * 
+	 * @param directory
+	 *            to look up
+	 * @return the stored directory with a valid id
+	 * @throws SQLException
+	 *             if there is an error accessing the database
+	 */
+	public Directory getOrCreate(Directory directory) throws SQLException {
+		if (directory.getId() != 0) {
+			return directory;
+		}
+
+		Directory stored = findDirectory(directory.getPath());
+
+		if (stored != null) {
+			return stored;
+		}
+
+		synchronized (pathCache) {
+			stored = findDirectory(directory.getPath());
+
+			if (stored == null) {
+				stored = new Directory(directory.getPath());
+				super.create(stored);
+				pathCache.put(stored.getPath(), stored);
+			}
+		}
+
+		return stored;
+	}
+
+	/**
+	 * Get a query for the ids of the given directory and all directories below it, using a range scan on the path
+	 * index.
+	 * 
+	 * @param directory
+	 *            the root directory
+	 * @return a query selecting the directory ids
+	 * @throws SQLException
+	 *             if there is an error building the query
+	 */
+	public QueryBuilder<Directory, Integer> idsUnder(Path directory) throws SQLException {
+		String separator = directory.getFileSystem().getSeparator();
+		String lowerBound = directory.toString();
+
+		if (!lowerBound.endsWith(separator)) {
+			lowerBound += separator;
+		}
+
+		char last = lowerBound.charAt(lowerBound.length() - 1);
+		String upperBound = lowerBound.substring(0, lowerBound.length() - 1) + (char) (last + 1);
+
+		QueryBuilder<Directory, Integer> query = queryBuilder().selectColumns(Directory.ID_COLUMN_NAME);
+		query.where().ge(Directory.PATH_COLUMN_NAME, new SelectArg(lowerBound)).and().lt(Directory.PATH_COLUMN_NAME,
+				new SelectArg(upperBound));
+
+		return query;
+	}
+
+	/**
+	 * Clear the cached directories, for example after directories were removed from the database.
+	 */
+	public void clearDirectoryCache() {
+		pathCache.clear();
+		clearObjectCache();
+	}
+}
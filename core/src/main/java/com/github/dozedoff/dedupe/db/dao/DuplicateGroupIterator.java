@@ -0,0 +1,99 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.db.dao;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import com.github.dozedoff.dedupe.db.table.FileMetaData;
+import com.j256.ormlite.dao.CloseableIterator;
+
+/**
+ * Groups consecutive rows with the same size and hash. The rows must be ordered by size and hash, so only the current
+ * group is held in memory. The iterator must be closed after use.
+ * 
+ * @author Nicholas Wright
+ *
+ */
+public class DuplicateGroupIterator implements Iterator<List<FileMetaData>>, AutoCloseable {
+	private final CloseableIterator<FileMetaData> rows;
+	private FileMetaData nextRow;
+
+	/**
+	 * Create a new iterator that groups the rows.
+	 * 
+	 * @param rows
+	 *            ordered by size and hash
+	 */
+	public DuplicateGroupIterator(CloseableIterator<FileMetaData> rows) {
+		this.rows = rows;
+		this.nextRow = rows.hasNext() ? rows.next() : null;
+	}
+
+	/**
+	 * Check if there is another group.
+	 * 
+	 * @return true if there are more groups
+	 */
+	@Override
+	public boolean hasNext() {
+		return nextRow != null;
+	}
+
+	/**
+	 * Read all rows of the next group from the cursor.
+	 * 
+	 * @return the files in the next group
+	 */
+	@Override
+	public List<FileMetaData> next() {
+		if (nextRow == null) {
+			throw new NoSuchElementException();
+		}
+
+		List<FileMetaData> group = new ArrayList<FileMetaData>();
+		FileMetaData first = nextRow;
+		group.add(first);
+		nextRow = null;
+
+		while (rows.hasNext()) {
+			FileMetaData row = rows.next();
+
+			if (isSameGroup(first, row)) {
+				group.add(row);
+			} else {
+				nextRow = row;
+				break;
+			}
+		}
+
+		return group;
+	}
+
+	private boolean isSameGroup(FileMetaData first, FileMetaData row) {
+		return first.getSize() == row.getSize() && first.getHashBuffer().equals(row.getHashBuffer());
+	}
+
+	/**
+	 * Close the underlying cursor.
+	 * 
+	 * @throws SQLException
+	 *             if there is an error closing the cursor
+	 */
+	@Override
+	public void close() throws SQLException {
+		rows.close();
+	}
+
+	/**
+	 * Close the underlying cursor, ignoring any errors.
+	 */
+	public void closeQuietly() {
+		rows.closeQuietly();
+	}
+}
@@ -5,14 +5,17 @@
 package com.github.dozedoff.dedupe.db.dao;
 
 import java.sql.SQLException;
+import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.stream.Collectors;
 
+import com.github.dozedoff.dedupe.db.Database;
 import com.github.dozedoff.dedupe.db.table.FileLink;
 import com.github.dozedoff.dedupe.db.table.FileMetaData;
 import com.j256.ormlite.dao.BaseDaoImpl;
-import com.j256.ormlite.misc.TransactionManager;
+import com.j256.ormlite.dao.GenericRawResults;
+import com.j256.ormlite.field.DataType;
 import com.j256.ormlite.stmt.DeleteBuilder;
 import com.j256.ormlite.stmt.PreparedDelete;
 import com.j256.ormlite.stmt.PreparedQuery;
@@ -22,15 +25,14 @@ import com.j256.ormlite.support.ConnectionSource;
 public class FileLinkDao extends BaseDaoImpl<FileLink, Integer> {
 	private static final String LINK_ID_COLUMN = "link_id";
 	private static final String SOURCE_ID_COLUMN = "source_id";
+	private static final String LINK_ID_QUERY = "SELECT " + LINK_ID_COLUMN + ", " + SOURCE_ID_COLUMN + " FROM filelink";
+	private static final String UPSERT_LINK = "INSERT OR REPLACE INTO filelink (" + SOURCE_ID_COLUMN + ", "
+			+ LINK_ID_COLUMN + ") VALUES (?, ?)";
+	private static final DataType[] LINK_ID_TYPES = { DataType.INTEGER, DataType.INTEGER };
 
-	private final PreparedDelete<FileLink> linkDelete;
-	private final PreparedDelete<FileLink> allMetaDelete;
-	private final PreparedQuery<FileLink> linkQuery;
-
-	private final SelectArg deleteLink;
-	private final SelectArg deleteAllLink;
-	private final SelectArg deleteAllSource;
-	private final SelectArg querySource;
+	private final PerThreadStatement<PreparedDelete<FileLink>> linkDelete;
+	private final PerThreadStatement<PreparedDelete<FileLink>> allMetaDelete;
+	private final PerThreadStatement<PreparedQuery<FileLink>> linkQuery;
 
 	/**
 	 * Create an extended dao for {@link FileLink}.
@@ -45,20 +47,20 @@ public class FileLinkDao extends BaseDaoImpl<FileLink, Integer> {
 	public FileLinkDao(ConnectionSource connectionSource, Class<FileLink> dataClass) throws SQLException {
 		super(connectionSource, dataClass);
 
-		this.deleteLink = new SelectArg();
-		this.querySource = new SelectArg();
-		this.deleteAllLink = new SelectArg();
-		this.deleteAllSource = new SelectArg();
-
-		DeleteBuilder<FileLink, Integer> db = deleteBuilder();
-		db.where().eq(LINK_ID_COLUMN, deleteLink);
-		this.linkDelete = db.prepare();
+		this.linkDelete = new PerThreadStatement<PreparedDelete<FileLink>>(() -> {
+			DeleteBuilder<FileLink, Integer> db = deleteBuilder();
+			db.where().eq(LINK_ID_COLUMN, new SelectArg());
+			return db.prepare();
+		});
 
-		DeleteBuilder<FileLink, Integer> metaDeleteBuilder = deleteBuilder();
-		metaDeleteBuilder.where().eq(LINK_ID_COLUMN, deleteAllLink).or().eq(SOURCE_ID_COLUMN, deleteAllSource);
-		this.allMetaDelete = metaDeleteBuilder.prepare();
+		this.allMetaDelete = new PerThreadStatement<PreparedDelete<FileLink>>(() -> {
+			DeleteBuilder<FileLink, Integer> metaDeleteBuilder = deleteBuilder();
+			metaDeleteBuilder.where().eq(LINK_ID_COLUMN, new SelectArg()).or().eq(SOURCE_ID_COLUMN, new SelectArg());
+			return metaDeleteBuilder.prepare();
+		});
 
-		this.linkQuery = queryBuilder().where().eq(SOURCE_ID_COLUMN, querySource).prepare();
+		this.linkQuery = new PerThreadStatement<PreparedQuery<FileLink>>(
+				() -> queryBuilder().where().eq(SOURCE_ID_COLUMN, new SelectArg()).prepare());
 	}
 
 	/**
@@ -72,18 +74,31 @@ public class FileLinkDao extends BaseDaoImpl<FileLink, Integer> {
 	 *             if there is an error accessing the database
 	 */
 	public void linkFiles(FileMetaData source, FileMetaData link) throws SQLException {
-		synchronized (deleteLink) {
-			TransactionManager.callInTransaction(connectionSource, new Callable<Void>() {
+		PreparedDelete<FileLink> delete = linkDelete.bind(link);
+
+		Database.callInWriteTransaction(connectionSource, new Callable<Void>() {
 			@Override
 			public Void call() throws Exception {
-				deleteLink.setValue(link);
-				delete(linkDelete);
+				delete(delete);
 				create(new FileLink(source, link));
 
 				return null;
 			}
 		});
-		}
+	}
+
+	/**
+	 * Create a link, replacing an existing link of the same file, with a single statement. Does not start a
+	 * transaction, so many links can be written in one batch, for example with a
+	 * {@link com.github.dozedoff.dedupe.db.BatchWriter}.
+	 * 
+	 * @param link
+	 *            to write
+	 * @throws SQLException
+	 *             if there is an error accessing the database
+	 */
+	public void upsertLink(FileLink link) throws SQLException {
+		updateRaw(UPSERT_LINK, Integer.toString(link.getSource().getId()), Integer.toString(link.getLink().getId()));
 	}
 
 	/**
@@ -96,14 +111,46 @@ public class FileLinkDao extends BaseDaoImpl<FileLink, Integer> {
 	 *             if there is an error accessing the database
 	 */
 	public List<FileMetaData> getLinksTo(FileMetaData source) throws SQLException {
-		List<FileLink> links;
+		List<FileLink> links = query(linkQuery.bind(source));
 
-		synchronized (querySource) {
-			querySource.setValue(source);
-			links = query(linkQuery);
-		}
+		return links.stream().map(link -> link.getLink()).collect(Collectors.toList());
+	}
+
+	/**
+	 * Receives the ids of a stored link.
+	 */
+	@FunctionalInterface
+	public interface LinkIdConsumer {
+		/**
+		 * Called once for every stored link.
+		 * 
+		 * @param linkId
+		 *            id of the linked file
+		 * @param sourceId
+		 *            id of the source file
+		 */
+		void accept(int linkId, int sourceId);
+	}
 
-		return links.parallelStream().map(link -> link.getLink()).collect(Collectors.toList());
+	/**
+	 * Read the ids of all stored links with a single query. Only the id columns are read, the linked
+	 * {@link FileMetaData} is not loaded.
+	 * 
+	 * @param consumer
+	 *            called for every link
+	 * @throws SQLException
+	 *             if there is an error accessing the database
+	 */
+	public void forEachLinkId(LinkIdConsumer consumer) throws SQLException {
+		GenericRawResults<Object[]> results = queryRaw(LINK_ID_QUERY, LINK_ID_TYPES);
+
+		try {
+			for (Object[] row : results) {
+				consumer.accept((Integer) row[0], (Integer) row[1]);
+			}
+		} finally {
+			results.close();
+		}
 	}
 
 	/**
@@ -115,11 +162,26 @@ public class FileLinkDao extends BaseDaoImpl<FileLink, Integer> {
 	 *             if there is an error accessing the database
 	 */
 	public void deleteLinksWith(FileMetaData metadata) throws SQLException {
-		synchronized (deleteAllLink) {
-			deleteAllLink.setValue(metadata);
-			deleteAllSource.setValue(metadata);
+		delete(allMetaDelete.bind(metadata, metadata));
+	}
 
-			delete(allMetaDelete);
+	/**
+	 * Delete all links that reference any of the given {@link FileMetaData} ids, with a single set-based statement.
+	 * 
+	 * @param metadataIds
+	 *            ids of the metadata for which all links should be deleted
+	 * @return the number of deleted links
+	 * @throws SQLException
+	 *             if there is an error accessing the database
+	 */
+	public int deleteLinksWithIds(Collection<Integer> metadataIds) throws SQLException {
+		if (metadataIds.isEmpty()) {
+			return 0;
 		}
+
+		DeleteBuilder<FileLink, Integer> delete = deleteBuilder();
+		delete.where().in(LINK_ID_COLUMN, metadataIds).or().in(SOURCE_ID_COLUMN, metadataIds);
+
+		return delete.delete();
 	}
 }
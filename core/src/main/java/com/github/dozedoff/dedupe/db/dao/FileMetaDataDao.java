@@ -6,16 +6,38 @@ package com.github.dozedoff.dedupe.db.dao;
 
 import java.nio.file.Path;
 import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.function.Consumer;
 
+import com.github.dozedoff.dedupe.db.Database;
+import com.github.dozedoff.dedupe.db.table.Directory;
 import com.github.dozedoff.dedupe.db.table.FileMetaData;
 import com.j256.ormlite.dao.BaseDaoImpl;
+import com.j256.ormlite.dao.CloseableIterator;
+import com.j256.ormlite.dao.DaoManager;
+import com.j256.ormlite.dao.GenericRawResults;
+import com.j256.ormlite.stmt.DeleteBuilder;
 import com.j256.ormlite.stmt.PreparedQuery;
+import com.j256.ormlite.stmt.QueryBuilder;
 import com.j256.ormlite.stmt.SelectArg;
 import com.j256.ormlite.support.ConnectionSource;
 
 public class FileMetaDataDao extends BaseDaoImpl<FileMetaData, Integer> {
-	private final SelectArg pathArg;
-	private PreparedQuery<FileMetaData> pathQuery;
+	private static final String DUPLICATE_GROUP_CLAUSE = "(`" + FileMetaData.SIZE_COLUMN_NAME + "`, `"
+			+ FileMetaData.HASH_COLUMN_NAME + "`) IN (SELECT `" + FileMetaData.SIZE_COLUMN_NAME + "`, `"
+			+ FileMetaData.HASH_COLUMN_NAME + "` FROM `filemetadata` WHERE length(`" + FileMetaData.HASH_COLUMN_NAME
+			+ "`) > 0 GROUP BY `" + FileMetaData.SIZE_COLUMN_NAME + "`, `" + FileMetaData.HASH_COLUMN_NAME
+			+ "` HAVING COUNT(*) > 1)";
+	private static final String FILE_KEY_SCAN = "SELECT `" + FileMetaData.FILE_KEY_COLUMN_NAME
+			+ "` FROM `filemetadata` WHERE `" + FileMetaData.FILE_KEY_COLUMN_NAME + "` IS NOT NULL";
+
+	private final DirectoryDao directoryDao;
+	private final PerThreadStatement<PreparedQuery<FileMetaData>> pathQuery;
+	private final PerThreadStatement<PreparedQuery<FileMetaData>> sizeQuery;
+	private final PerThreadStatement<PreparedQuery<FileMetaData>> sizeHashQuery;
+	private final PerThreadStatement<PreparedQuery<FileMetaData>> fileKeyQuery;
 
 	/**
 	 * Create an extended DAO for {@link FileMetaData}.
@@ -30,12 +52,28 @@ public class FileMetaDataDao extends BaseDaoImpl<FileMetaData, Integer> {
 	public FileMetaDataDao(ConnectionSource connectionSource, Class<FileMetaData> dataClass) throws SQLException {
 		super(connectionSource, dataClass);
 
-		pathArg = new SelectArg();
-		prepareStatements();
+		directoryDao = DaoManager.createDao(connectionSource, Directory.class);
+		pathQuery = new PerThreadStatement<PreparedQuery<FileMetaData>>(
+				() -> queryBuilder().where().eq(FileMetaData.DIRECTORY_COLUMN_NAME, new SelectArg()).and()
+						.eq(FileMetaData.NAME_COLUMN_NAME, new SelectArg()).prepare());
+		sizeQuery = new PerThreadStatement<PreparedQuery<FileMetaData>>(() -> queryBuilder().limit(2L).where()
+				.eq(FileMetaData.SIZE_COLUMN_NAME, new SelectArg()).prepare());
+		sizeHashQuery = new PerThreadStatement<PreparedQuery<FileMetaData>>(
+				() -> queryBuilder().where().eq(FileMetaData.SIZE_COLUMN_NAME, new SelectArg()).and()
+						.eq(FileMetaData.HASH_COLUMN_NAME, new SelectArg()).prepare());
+		fileKeyQuery = new PerThreadStatement<PreparedQuery<FileMetaData>>(
+				() -> queryBuilder().where().eq(FileMetaData.FILE_KEY_COLUMN_NAME, new SelectArg()).and()
+						.eq(FileMetaData.SIZE_COLUMN_NAME, new SelectArg()).and()
+						.eq(FileMetaData.MODIFIED_TIME_COLUMN_NAME, new SelectArg()).prepare());
 	}
 
-	private void prepareStatements() throws SQLException {
-		pathQuery = this.queryBuilder().where().eq(FileMetaData.PATH_COLUMN_NAME, pathArg).prepare();
+	/**
+	 * Get the DAO used for the directories of the files.
+	 * 
+	 * @return the directory DAO
+	 */
+	public DirectoryDao getDirectoryDao() {
+		return directoryDao;
 	}
 
 	/**
@@ -61,13 +99,199 @@ public class FileMetaDataDao extends BaseDaoImpl<FileMetaData, Integer> {
 	 *             if there is an error accessing the database
 	 */
 	public FileMetaData getMetaDataForPath(Path path) throws SQLException {
-		FileMetaData meta;
+		FileMetaData key = new FileMetaData(path.toString());
+		Directory directory = directoryDao.findDirectory(key.getDirectory().getPath());
+
+		if (directory == null) {
+			return null;
+		}
+
+		return queryForFirst(pathQuery.bind(directory, key.getName()));
+	}
+
+	/**
+	 * Check if the database contains metadata for a file with the given size, other than the file itself. Uses the
+	 * size index.
+	 * 
+	 * @param path
+	 *            of the file, metadata for this path is ignored
+	 * @param size
+	 *            of the file in bytes
+	 * @return true if another file with the same size is known
+	 * @throws SQLException
+	 *             if there is an error accessing the database
+	 */
+	public boolean hasOtherFileWithSize(Path path, long size) throws SQLException {
+		String pathString = path.toString();
 
-		synchronized (pathArg) {
-			pathArg.setValue(path);
-			meta = queryForFirst(pathQuery);
+		for (FileMetaData meta : query(sizeQuery.bind(size))) {
+			if (!pathString.equals(meta.getPathAsString())) {
+				return true;
+			}
 		}
 
-		return meta;
+		return false;
+	}
+
+	/**
+	 * Get the metadata of all files with the given size and hash, using the size and hash indexes.
+	 * 
+	 * @param size
+	 *            of the file in bytes
+	 * @param hash
+	 *            of the file
+	 * @return all matching metadata, may be empty
+	 * @throws SQLException
+	 *             if there is an error accessing the database
+	 */
+	public List<FileMetaData> getMetaDataWithHash(long size, byte[] hash) throws SQLException {
+		return query(sizeHashQuery.bind(size, hash));
+	}
+
+	/**
+	 * Get the metadata of all files with the given file key, size and modified time, using the file key index. More
+	 * than one file is returned if the file has several hard links.
+	 * 
+	 * @param fileKey
+	 *            that identifies the file independent of the path
+	 * @param size
+	 *            of the file in bytes
+	 * @param modifiedTime
+	 *            of the file
+	 * @return all matching metadata, may be empty
+	 * @throws SQLException
+	 *             if there is an error accessing the database
+	 */
+	public List<FileMetaData> getMetaDataForFileKey(String fileKey, long size, long modifiedTime)
+			throws SQLException {
+		return query(fileKeyQuery.bind(fileKey, size, modifiedTime));
+	}
+
+	/**
+	 * Read the file keys of all stored files with a single query. Only the key column is read, rows without a key are
+	 * skipped.
+	 * 
+	 * @param consumer
+	 *            called for every stored file key
+	 * @throws SQLException
+	 *             if there is an error accessing the database
+	 */
+	public void forEachFileKey(Consumer<String> consumer) throws SQLException {
+		GenericRawResults<String[]> results = queryRaw(FILE_KEY_SCAN);
+
+		try {
+			for (String[] row : results) {
+				consumer.accept(row[0]);
+			}
+		} finally {
+			results.close();
+		}
+	}
+
+	/**
+	 * Change the path of the metadata to the new location of the file. Nothing is written, the directory of the new
+	 * path is stored together with the metadata by {@link #store(FileMetaData)}, for example with the next batch.
+	 * 
+	 * @param metadata
+	 *            of the moved file
+	 * @param path
+	 *            the new path of the file
+	 */
+	public void moveTo(FileMetaData metadata, Path path) {
+		metadata.setPath(path.toString());
+	}
+
+	/**
+	 * Create or update the metadata. If the directory of the file has not been stored yet, e.g. after
+	 * {@link #moveTo(FileMetaData, Path)}, it is created first, in the transaction of the caller. Does not start a
+	 * transaction, so it can be used as the row writer of a {@link com.github.dozedoff.dedupe.db.BatchWriter}.
+	 * 
+	 * @param metadata
+	 *            to write
+	 * @throws SQLException
+	 *             if there is an error accessing the database
+	 */
+	public void store(FileMetaData metadata) throws SQLException {
+		if (metadata.getDirectory().getId() == 0) {
+			directoryDao.create(metadata.getDirectory());
+		}
+
+		createOrUpdate(metadata);
+	}
+
+	/**
+	 * Iterate over the metadata of all files in the directory or one of its sub directories. Rows are loaded from the
+	 * database as the iterator advances, using a range scan on the directory path index, and are ordered by directory
+	 * id and name. The iterator must be closed after use.
+	 * 
+	 * @param directory
+	 *            to list metadata for
+	 * @return an iterator over the metadata in the directory
+	 * @throws SQLException
+	 *             if there is an error accessing the database
+	 */
+	public CloseableIterator<FileMetaData> iteratorUnder(Path directory) throws SQLException {
+		QueryBuilder<FileMetaData, Integer> query = queryBuilder();
+		query.where().in(FileMetaData.DIRECTORY_COLUMN_NAME, directoryDao.idsUnder(directory));
+		query.orderBy(FileMetaData.DIRECTORY_COLUMN_NAME, true).orderBy(FileMetaData.NAME_COLUMN_NAME, true);
+
+		return iterator(query.prepare());
+	}
+
+	/**
+	 * Iterate over groups of files that have the same size and hash. Grouping is done by the database with
+	 * {@code GROUP BY size, hash HAVING COUNT(*) > 1}, and the matching rows are read from a cursor ordered by size and
+	 * hash, so only one group is held in memory at a time. Files without a hash are ignored. The iterator must be
+	 * closed after use.
+	 * 
+	 * @return an iterator over the duplicate groups
+	 * @throws SQLException
+	 *             if there is an error accessing the database
+	 */
+	public DuplicateGroupIterator iterateDuplicateGroups() throws SQLException {
+		QueryBuilder<FileMetaData, Integer> query = queryBuilder();
+		query.where().raw(DUPLICATE_GROUP_CLAUSE);
+		query.orderBy(FileMetaData.SIZE_COLUMN_NAME, true).orderBy(FileMetaData.HASH_COLUMN_NAME, true);
+
+		return new DuplicateGroupIterator(iterator(query.prepare()));
+	}
+
+	/**
+	 * Delete the metadata with the given ids and all links that reference it, in a single transaction.
+	 * 
+	 * @param ids
+	 *            of the metadata to delete
+	 * @param linkDao
+	 *            to delete the links with
+	 * @return the number of deleted metadata rows
+	 * @throws SQLException
+	 *             if there is an error accessing the database
+	 */
+	public int deleteWithLinks(Collection<Integer> ids, FileLinkDao linkDao) throws SQLException {
+		return Database.callInWriteTransaction(connectionSource, new Callable<Integer>() {
+			@Override
+			public Integer call() throws Exception {
+				linkDao.deleteLinksWithIds(ids);
+				return deleteIds(ids);
+			}
+		});
+	}
+
+	/**
+	 * Delete all directories that no longer contain any files.
+	 * 
+	 * @return the number of deleted directories
+	 * @throws SQLException
+	 *             if there is an error accessing the database
+	 */
+	public int deleteEmptyDirectories() throws SQLException {
+		DeleteBuilder<Directory, Integer> delete = directoryDao.deleteBuilder();
+		delete.where().notIn(Directory.ID_COLUMN_NAME,
+				queryBuilder().selectColumns(FileMetaData.DIRECTORY_COLUMN_NAME).distinct());
+
+		int deleted = Database.callInWriteTransaction(connectionSource, delete::delete);
+		directoryDao.clearDirectoryCache();
+
+		return deleted;
 	}
 }
@@ -0,0 +1,70 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.db.dao;
+
+import java.sql.SQLException;
+
+import com.j256.ormlite.stmt.PreparedStmt;
+
+/**
+ * Holds a separate prepared statement for every thread, so statements can be bound and executed concurrently without
+ * sharing argument holders.
+ * 
+ * @author Nicholas Wright
+ *
+ * @param <S>
+ *            type of the prepared statement
+ */
+class PerThreadStatement<S extends PreparedStmt<?>> {
+	/**
+	 * Creates a new prepared statement with {@link com.j256.ormlite.stmt.SelectArg} placeholders for all arguments.
+	 *
+	 * @param <S>
+	 *            type of the prepared statement
+	 */
+	@FunctionalInterface
+	interface StatementFactory<S> {
+		S prepare() throws SQLException;
+	}
+
+	private final StatementFactory<S> factory;
+	private final ThreadLocal<S> statements;
+
+	/**
+	 * Create a new holder that prepares statements with the given factory on first use in a thread.
+	 * 
+	 * @param factory
+	 *            used to prepare the statements
+	 */
+	PerThreadStatement(StatementFactory<S> factory) {
+		this.factory = factory;
+		this.statements = new ThreadLocal<S>();
+	}
+
+	/**
+	 * Get the statement for the calling thread with the arguments set to the given values, in the order the arguments
+	 * appear in the statement.
+	 * 
+	 * @param values
+	 *            to bind to the statement arguments
+	 * @return the bound statement, only to be used by the calling thread
+	 * @throws SQLException
+	 *             if the statement could not be prepared or bound
+	 */
+	S bind(Object... values) throws SQLException {
+		S statement = statements.get();
+
+		if (statement == null) {
+			statement = factory.prepare();
+			statements.set(statement);
+		}
+
+		for (int i = 0; i < values.length; i++) {
+			statement.setArgumentHolderValue(i, values[i]);
+		}
+
+		return statement;
+	}
+}
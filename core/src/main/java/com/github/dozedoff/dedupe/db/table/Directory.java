@@ -0,0 +1,107 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.db.table;
+
+import java.util.Objects;
+
+import com.github.dozedoff.dedupe.db.dao.DirectoryDao;
+import com.google.common.base.MoreObjects;
+import com.j256.ormlite.field.DatabaseField;
+import com.j256.ormlite.table.DatabaseTable;
+
+/**
+ * This class represents a row of the directory table. Directories are stored once and referenced by the files they
+ * contain, so the path prefix is not repeated for every file.
+ * 
+ * @author Nicholas Wright
+ *
+ */
+@DatabaseTable(daoClass = DirectoryDao.class)
+public final class Directory {
+	public static final String ID_COLUMN_NAME = "id";
+	public static final String PATH_COLUMN_NAME = "path";
+
+	@DatabaseField(generatedId = true, columnName = ID_COLUMN_NAME)
+	private int id;
+
+	/**
+	 * The directory path including the trailing separator, so it can be concatenated with a file name.
+	 */
+	@DatabaseField(unique = true, index = true, canBeNull = false, columnName = PATH_COLUMN_NAME)
+	private String path;
+
+	/**
+	 * Create a new empty directory. Used by the DAO.
+	 */
+	public Directory() {
+		this.path = "";
+	}
+
+	/**
+	 * Create a new directory with the given path.
+	 * 
+	 * @param path
+	 *            of the directory including the trailing separator
+	 */
+	public Directory(String path) {
+		this.path = path;
+	}
+
+	/**
+	 * Get the database id of this directory.
+	 * 
+	 * @return the id, 0 if the directory has not been stored yet
+	 */
+	public int getId() {
+		return id;
+	}
+
+	/**
+	 * Get the path of this directory, including the trailing separator.
+	 * 
+	 * @return the directory path
+	 */
+	public String getPath() {
+		return path;
+	}
+
+	/**
+	 * Check if the objects are equal.
+	 * 
+	 * @param obj
+	 *            the object to compare to this instance
+	 * @return true if the path matches
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (obj instanceof Directory) {
+			Directory other = (Directory) obj;
+			return Objects.equals(this.path, other.path);
+		}
+
+		return false;
+	}
+
+	/**
+	 * Hashcode of this instance is the hash of path.
+	 * 
+	 * @return the hashcode of this instance
+	 */
+	@Override
+	public int hashCode() {
+		return Objects.hash(path);
+	}
+
+	/**
+	 * String representation of this object.
+	 * 
+	 * @return the fields of this instance encoded as a {@link String}
+	 */
+	@Override
+	public String toString() {
+		return MoreObjects.toStringHelper(Directory.class).add(ID_COLUMN_NAME, id).add(PATH_COLUMN_NAME, path)
+				.toString();
+	}
+}
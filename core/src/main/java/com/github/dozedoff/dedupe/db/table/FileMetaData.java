@@ -4,6 +4,8 @@
  */
 package com.github.dozedoff.dedupe.db.table;
 
+import java.io.File;
+import java.nio.ByteBuffer;
 import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
 import java.nio.file.Path;
@@ -16,31 +18,47 @@ import com.j256.ormlite.field.DatabaseField;
 import com.j256.ormlite.table.DatabaseTable;
 
 /**
- * This class represents a row of the file metadata table.
+ * This class represents a row of the file metadata table. The path is stored as a reference to the {@link Directory}
+ * and the file name.
  * 
  * @author Nicholas Wright
  *
  */
 @DatabaseTable(daoClass = FileMetaDataDao.class)
 final public class FileMetaData {
-	public static final String PATH_COLUMN_NAME = "path";
+	public static final String DIRECTORY_COLUMN_NAME = "directory_id";
+	public static final String NAME_COLUMN_NAME = "name";
+	public static final String SIZE_COLUMN_NAME = "size";
+	public static final String HASH_COLUMN_NAME = "hash";
+	public static final String MODIFIED_TIME_COLUMN_NAME = "modifiedTime";
+	public static final String FILE_KEY_COLUMN_NAME = "fileKey";
 
 	@DatabaseField(generatedId = true)
 	private int id;
-	@DatabaseField(unique = true, index = true, columnName = PATH_COLUMN_NAME)
-	private String path;
-	@DatabaseField(index = true)
+	@DatabaseField(foreign = true, foreignAutoRefresh = true, foreignAutoCreate = true, canBeNull = false,
+			uniqueCombo = true, columnName = DIRECTORY_COLUMN_NAME)
+	private Directory directory;
+	@DatabaseField(uniqueCombo = true, canBeNull = false, columnName = NAME_COLUMN_NAME)
+	private String name;
+	@DatabaseField(index = true, columnName = SIZE_COLUMN_NAME)
 	private long size;
-	@DatabaseField
+	@DatabaseField(columnName = MODIFIED_TIME_COLUMN_NAME)
 	private long modifiedTime;
-	@DatabaseField(index = true, dataType = DataType.BYTE_ARRAY)
+	@DatabaseField(index = true, dataType = DataType.BYTE_ARRAY, columnName = HASH_COLUMN_NAME)
 	private byte[] hash;
+	/**
+	 * Identifies the file on its file system independent of the path, for example the device and inode. Null if the
+	 * file system does not provide a key.
+	 */
+	@DatabaseField(index = true, columnName = FILE_KEY_COLUMN_NAME)
+	private String fileKey;
 
 	/**
 	 * Creates a empty {@link FileMetaData} instance.
 	 */
 	public FileMetaData() {
-		this.path = "";
+		this.directory = new Directory();
+		this.name = "";
 		this.hash = new byte[0];
 	}
 
@@ -67,10 +85,67 @@ final public class FileMetaData {
 	 *            of the file
 	 */
 	public FileMetaData(String path, long size, long modifiedTime, byte[] hash) {
-		this.path = path;
+		setPath(path);
+		this.size = size;
+		this.modifiedTime = modifiedTime;
+		this.hash = hash.clone();
+	}
+
+	/**
+	 * Create the metadata of a stored file from the values of its row, for example from an in memory copy of the
+	 * table.
+	 *
+	 * @param id
+	 *            of the stored row
+	 * @param directory
+	 *            the stored directory of the file
+	 * @param name
+	 *            of the file
+	 * @param size
+	 *            of the file in bytes
+	 * @param modifiedTime
+	 *            when the file was last modified
+	 * @param hash
+	 *            of the file
+	 * @param fileKey
+	 *            of the file, may be null
+	 */
+	public FileMetaData(int id, Directory directory, String name, long size, long modifiedTime, byte[] hash,
+			String fileKey) {
+		this.id = id;
+		this.directory = directory;
+		this.name = name;
 		this.size = size;
 		this.modifiedTime = modifiedTime;
 		this.hash = hash.clone();
+		this.fileKey = fileKey;
+	}
+
+	private static int nameIndex(String path) {
+		return Math.max(path.lastIndexOf('/'), path.lastIndexOf(File.separatorChar)) + 1;
+	}
+
+	/**
+	 * Change the path of the file, for example after it was moved. The directory of the new path is not stored yet,
+	 * see {@link FileMetaDataDao#moveTo(FileMetaData, Path)}.
+	 * 
+	 * @param path
+	 *            the new path of the file
+	 */
+	public void setPath(String path) {
+		int nameIndex = nameIndex(path);
+
+		this.directory = new Directory(path.substring(0, nameIndex));
+		this.name = path.substring(nameIndex);
+	}
+
+	/**
+	 * Get the database id of this file.
+	 * 
+	 * @return the id, 0 if the metadata has not been stored yet
+	 */
+	public int getId() {
+		return id;
 	}
 
 	/**
@@ -99,7 +174,25 @@ final public class FileMetaData {
 	 * @return the files path as a {@link String}
 	 */
 	public String getPathAsString() {
-		return path;
+		return directory.getPath() + name;
+	}
+
+	/**
+	 * The directory that contains the file.
+	 * 
+	 * @return the directory of the file
+	 */
+	public Directory getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * The file name without the directory.
+	 * 
+	 * @return the name of the file
+	 */
+	public String getName() {
+		return name;
 	}
 
 	/**
@@ -149,6 +242,15 @@ final public class FileMetaData {
 		return hash.clone();
 	}
 
+	/**
+	 * A read-only view of the hash, that does not copy it.
+	 * 
+	 * @return a read-only buffer containing the hash
+	 */
+	public ByteBuffer getHashBuffer() {
+		return ByteBuffer.wrap(hash).asReadOnlyBuffer();
+	}
+
 	/**
 	 * Set the hash for this file
 	 * 
@@ -159,6 +261,25 @@ final public class FileMetaData {
 		this.hash = hash.clone();
 	}
 
+	/**
+	 * The key that identifies the file independent of the path.
+	 * 
+	 * @return the file key, or null if it is not known
+	 */
+	public String getFileKey() {
+		return fileKey;
+	}
+
+	/**
+	 * Set the key that identifies the file independent of the path.
+	 * 
+	 * @param fileKey
+	 *            to set, may be null
+	 */
+	public void setFileKey(String fileKey) {
+		this.fileKey = fileKey;
+	}
+
 	/**
 	 * Check if the objects are equal.
 	 * 
@@ -170,20 +291,20 @@ final public class FileMetaData {
 	public boolean equals(Object obj) {
 		if (obj instanceof FileMetaData) {
 			FileMetaData other = (FileMetaData) obj;
-			return Objects.equals(this.path, other.path);
+			return Objects.equals(this.name, other.name) && Objects.equals(this.directory, other.directory);
 		}
 
 		return false;
 	}
 
 	/**
-	 * Hashcode of this instance is the hash of path.
+	 * Hashcode of this instance is the hash of the directory and name.
 	 * 
 	 * @return the hashcode of this instance
 	 */
 	@Override
 	public int hashCode() {
-		return Objects.hash(path);
+		return Objects.hash(directory, name);
 	}
 
 	/**
@@ -193,7 +314,7 @@ final public class FileMetaData {
 	 */
 	@Override
 	public String toString() {
-		return MoreObjects.toStringHelper(FileMetaData.class).add(PATH_COLUMN_NAME, path).add("size", size)
+		return MoreObjects.toStringHelper(FileMetaData.class).add("path", getPathAsString()).add("size", size)
 				.add("modt", modifiedTime).add("hash", hash).toString();
 	}
 }
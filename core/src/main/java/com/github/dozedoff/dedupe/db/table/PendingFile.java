@@ -0,0 +1,66 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.db.table;
+
+import com.j256.ormlite.field.DatabaseField;
+import com.j256.ormlite.table.DatabaseTable;
+
+/**
+ * Database table of the files in size groups that a resumable run has not compared yet. The rows of a size group are
+ * deleted once the group has been compared.
+ * 
+ * @author Nicholas Wright
+ *
+ */
+@DatabaseTable
+public class PendingFile {
+	public static final String SIZE_COLUMN_NAME = "size";
+
+	@DatabaseField(generatedId = true)
+	private int id;
+
+	@DatabaseField(index = true, columnName = SIZE_COLUMN_NAME)
+	private long size;
+
+	@DatabaseField(canBeNull = false)
+	private String path;
+
+	/**
+	 * Create a new pending file.
+	 * 
+	 * @param path
+	 *            of the file
+	 * @param size
+	 *            of the file in bytes
+	 */
+	public PendingFile(String path, long size) {
+		this.path = path;
+		this.size = size;
+	}
+
+	/**
+	 * Create a new empty pending file. Used by the DAO.
+	 */
+	public PendingFile() {
+	}
+
+	/**
+	 * Get the path of the file.
+	 * 
+	 * @return the path as a string
+	 */
+	public String getPath() {
+		return path;
+	}
+
+	/**
+	 * Get the size of the file.
+	 * 
+	 * @return size in bytes
+	 */
+	public long getSize() {
+		return size;
+	}
+}
@@ -0,0 +1,73 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.db.table;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import com.google.common.base.Splitter;
+import com.j256.ormlite.field.DatabaseField;
+import com.j256.ormlite.table.DatabaseTable;
+
+/**
+ * Database table of groups of identical files that a resumable run has found but not linked yet. The files are
+ * referenced by the ids of their {@link FileMetaData}.
+ * 
+ * @author Nicholas Wright
+ *
+ */
+@DatabaseTable
+public class PendingLink {
+	private static final String ID_SEPARATOR = ",";
+
+	@DatabaseField(generatedId = true)
+	private int id;
+
+	@DatabaseField(canBeNull = false)
+	private String metaDataIds;
+
+	/**
+	 * Create a new pending link group for the given files.
+	 * 
+	 * @param group
+	 *            identical files, all must have been stored
+	 * @throws IllegalArgumentException
+	 *             if a file has not been stored
+	 */
+	public PendingLink(Collection<FileMetaData> group) {
+		if (group.stream().anyMatch(meta -> meta.getId() == 0)) {
+			throw new IllegalArgumentException("All files of a pending link group must be stored");
+		}
+
+		this.metaDataIds = group.stream().map(meta -> Integer.toString(meta.getId()))
+				.collect(Collectors.joining(ID_SEPARATOR));
+	}
+
+	/**
+	 * Create a new empty pending link group. Used by the DAO.
+	 */
+	public PendingLink() {
+	}
+
+	/**
+	 * Get the database id of this group.
+	 * 
+	 * @return the id, 0 if the group has not been stored yet
+	 */
+	public int getId() {
+		return id;
+	}
+
+	/**
+	 * Get the ids of the files in the group.
+	 * 
+	 * @return the {@link FileMetaData} ids
+	 */
+	public List<Integer> getMetaDataIds() {
+		return Splitter.on(ID_SEPARATOR).omitEmptyStrings().splitToList(metaDataIds).stream().map(Integer::valueOf)
+				.collect(Collectors.toList());
+	}
+}
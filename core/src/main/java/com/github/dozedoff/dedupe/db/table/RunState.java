@@ -0,0 +1,112 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.db.table;
+
+import com.j256.ormlite.field.DataType;
+import com.j256.ormlite.field.DatabaseField;
+import com.j256.ormlite.table.DatabaseTable;
+
+/**
+ * Database table holding the state of the last run, so an interrupted run can be resumed. There is at most one row.
+ * 
+ * @author Nicholas Wright
+ *
+ */
+@DatabaseTable
+public class RunState {
+	/**
+	 * How far a run has progressed.
+	 */
+	public enum Phase {
+		/**
+		 * The directories are being walked, the files to hash are not known yet.
+		 */
+		WALK,
+		/**
+		 * The walk has finished, the size groups that have not been compared are stored in {@link PendingFile}.
+		 */
+		HASH
+	}
+
+	@DatabaseField(generatedId = true)
+	private int id;
+
+	/**
+	 * The directories of the run, absolute and sorted, separated by new lines.
+	 */
+	@DatabaseField(canBeNull = false)
+	private String roots;
+
+	@DatabaseField(canBeNull = false, dataType = DataType.ENUM_STRING)
+	private Phase phase;
+
+	@DatabaseField
+	private long updated;
+
+	/**
+	 * Create a new state for the given directories.
+	 * 
+	 * @param roots
+	 *            the directories of the run, absolute and sorted, separated by new lines
+	 * @param phase
+	 *            of the run
+	 */
+	public RunState(String roots, Phase phase) {
+		this.roots = roots;
+		this.phase = phase;
+		this.updated = System.currentTimeMillis();
+	}
+
+	/**
+	 * Create a new empty state. Used by the DAO.
+	 */
+	public RunState() {
+	}
+
+	/**
+	 * Get the directories of the run.
+	 * 
+	 * @return the directories, separated by new lines
+	 */
+	public String getRoots() {
+		return roots;
+	}
+
+	/**
+	 * Get how far the run has progressed.
+	 * 
+	 * @return the phase of the run
+	 */
+	public Phase getPhase() {
+		return phase;
+	}
+
+	/**
+	 * Set the phase of the run and update the time of the last change.
+	 * 
+	 * @param phase
+	 *            of the run
+	 */
+	public void setPhase(Phase phase) {
+		this.phase = phase;
+		touch();
+	}
+
+	/**
+	 * Set the time of the last change to the current time.
+	 */
+	public void touch() {
+		this.updated = System.currentTimeMillis();
+	}
+
+	/**
+	 * Get the time the state was last changed.
+	 * 
+	 * @return time in milliseconds since the epoch
+	 */
+	public long getUpdated() {
+		return updated;
+	}
+}
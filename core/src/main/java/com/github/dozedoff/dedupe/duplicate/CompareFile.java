@@ -12,17 +12,19 @@ import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.function.UnaryOperator;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.github.dozedoff.dedupe.db.table.FileMetaData;
+import com.github.dozedoff.dedupe.file.DirectReader;
+import com.github.dozedoff.dedupe.file.IoThrottle;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Multimaps;
 
@@ -35,12 +37,14 @@ import com.google.common.collect.Multimaps;
 public class CompareFile {
 	private static final Logger LOGGER = LoggerFactory.getLogger(CompareFile.class);
 	private final FileSystem fileSystem;
+	private final DirectReader directReader;
+	private final IoThrottle throttle;
 
 	/**
 	 * Create a new instance to group identical files using the {@link FileSystems#getDefault()} filesystem.
 	 */
 	public CompareFile() {
-		this.fileSystem = FileSystems.getDefault();
+		this(FileSystems.getDefault());
 	}
 
 	/**
@@ -50,7 +54,37 @@ public class CompareFile {
 	 *            the file system to use for resolving paths
 	 */
 	public CompareFile(FileSystem fileSystem) {
+		this(fileSystem, null);
+	}
+
+	/**
+	 * Create a new instance to group identical files using the provided {@link FileSystem}, reading files with direct
+	 * I/O.
+	 * 
+	 * @param fileSystem
+	 *            the file system to use for resolving paths
+	 * @param directReader
+	 *            to read the files, or null to read them through the page cache
+	 */
+	public CompareFile(FileSystem fileSystem, DirectReader directReader) {
+		this(fileSystem, directReader, null);
+	}
+
+	/**
+	 * Create a new instance to group identical files using the provided {@link FileSystem}, that charges reads through
+	 * the page cache to the throttle. Direct reads are throttled by the direct reader.
+	 * 
+	 * @param fileSystem
+	 *            the file system to use for resolving paths
+	 * @param directReader
+	 *            to read the files, or null to read them through the page cache
+	 * @param throttle
+	 *            to limit reads through the page cache, or null for unlimited reads
+	 */
+	public CompareFile(FileSystem fileSystem, DirectReader directReader, IoThrottle throttle) {
 		this.fileSystem = fileSystem;
+		this.directReader = directReader;
+		this.throttle = throttle;
 	}
 
 	/**
@@ -65,9 +99,13 @@ public class CompareFile {
 	 *             if there is an error accessing the files
 	 */
 	public static boolean equal(Path path1, Path path2) throws IOException {
+		return equal(path1, path2, UnaryOperator.identity());
+	}
+
+	private static boolean equal(Path path1, Path path2, UnaryOperator<InputStream> wrapper) throws IOException {
 		LOGGER.trace("Comparing {} to {}", path1, path2);
-		try (InputStream is1 = new BufferedInputStream(Files.newInputStream(path1))) {
-			try (InputStream is2 = new BufferedInputStream(Files.newInputStream(path2))) {
+		try (InputStream is1 = new BufferedInputStream(wrapper.apply(Files.newInputStream(path1)))) {
+			try (InputStream is2 = new BufferedInputStream(wrapper.apply(Files.newInputStream(path2)))) {
 				int read;
 				long index = 0;
 
@@ -101,30 +139,41 @@ public class CompareFile {
 	}
 
 	/**
-	 * Group identical files into sets.
+	 * Group identical files into sets. The files are compared in the calling thread.
 	 * 
 	 * @param identaicalCandidates
 	 *            possible identical files
 	 * @return a list of identical file sets
 	 */
 	public List<Collection<FileMetaData>> groupIdenticalFiles(
-			Multimap<String, FileMetaData> identaicalCandidates) {
+			Multimap<?, FileMetaData> identaicalCandidates) {
 
-		List<Collection<FileMetaData>> identicalFileGroups = Collections
-				.synchronizedList(new LinkedList<Collection<FileMetaData>>());
+		List<Collection<FileMetaData>> identicalFileGroups = new LinkedList<Collection<FileMetaData>>();
 		List<Collection<FileMetaData>> candidatesToGroup = new LinkedList<Collection<FileMetaData>>();
 		
 		Multimaps.asMap(identaicalCandidates).forEach((key, valueCollection) -> {
 			candidatesToGroup.add(valueCollection);
 		});
 
-		candidatesToGroup.parallelStream().forEach(candidate -> {
+		candidatesToGroup.forEach(candidate -> {
 			identicalFileGroups.addAll(groupFiles(candidate));
 		});
 		
 		return identicalFileGroups;
 	}
 
+	private boolean contentEquals(Path path1, Path path2) throws IOException {
+		if (directReader != null) {
+			return directReader.equal(path1, path2);
+		}
+
+		if (throttle != null) {
+			return equal(path1, path2, throttle::wrap);
+		}
+
+		return equal(path1, path2);
+	}
+
 	private List<Collection<FileMetaData>> groupFiles(Collection<FileMetaData> toGroup) {
 		List<Collection<FileMetaData>> identicalFileGroups = new LinkedList<Collection<FileMetaData>>();
 		
@@ -140,7 +189,7 @@ public class CompareFile {
 				FileMetaData toCompare = iter.next();
 				
 				try {
-					if (equal(current.getPath(fileSystem), toCompare.getPath(fileSystem))) {
+					if (contentEquals(current.getPath(fileSystem), toCompare.getPath(fileSystem))) {
 						iter.remove();
 						identicalFiles.add(toCompare);
 					}
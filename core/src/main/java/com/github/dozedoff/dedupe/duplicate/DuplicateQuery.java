@@ -0,0 +1,94 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.duplicate;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.dozedoff.dedupe.db.dao.FileMetaDataDao;
+import com.github.dozedoff.dedupe.db.table.FileMetaData;
+import com.github.dozedoff.dedupe.file.MetaData;
+
+/**
+ * Looks up known duplicates of a file using the size and hash indexes of the database. The file is only hashed if
+ * another file with the same size is known and the stored metadata of the file is missing or out of date. Known files
+ * that have changed or no longer exist are not reported.
+ * 
+ * @author Nicholas Wright
+ *
+ */
+public class DuplicateQuery {
+	private static final Logger LOGGER = LoggerFactory.getLogger(DuplicateQuery.class);
+
+	private final FileMetaDataDao dao;
+	private final MetaData metaData;
+	private final VerifyMetaData verify;
+
+	/**
+	 * Create a new query using the given DAO and metadata source.
+	 * 
+	 * @param dao
+	 *            to query for known files
+	 * @param metaData
+	 *            to read size and hash of the queried files
+	 */
+	public DuplicateQuery(FileMetaDataDao dao, MetaData metaData) {
+		this.dao = dao;
+		this.metaData = metaData;
+		this.verify = new VerifyMetaData(metaData);
+	}
+
+	/**
+	 * Find all known files with the same size and hash as the given file. The file itself is not included.
+	 * 
+	 * @param file
+	 *            to find duplicates for, relative paths are resolved against the working directory
+	 * @return the metadata of all known duplicates, may be empty
+	 * @throws IOException
+	 *             if there is an error reading the file
+	 * @throws SQLException
+	 *             if there is an error accessing the database
+	 */
+	public List<FileMetaData> findDuplicates(Path file) throws IOException, SQLException {
+		Path absolute = file.toAbsolutePath().normalize();
+		long size = metaData.size(absolute);
+
+		if (!dao.hasOtherFileWithSize(absolute, size)) {
+			return Collections.emptyList();
+		}
+
+		String pathString = absolute.toString();
+		byte[] hash = hashOf(absolute);
+
+		return dao.getMetaDataWithHash(size, hash).stream().filter(meta -> !pathString.equals(meta.getPathAsString()))
+				.filter(this::isUnchanged).collect(Collectors.toList());
+	}
+
+	private boolean isUnchanged(FileMetaData known) {
+		try {
+			return !verify.hasChanged(known);
+		} catch (IOException e) {
+			LOGGER.debug("Ignoring known file {}: {}", known.getPath(), e.toString());
+			return false;
+		}
+	}
+
+	private byte[] hashOf(Path file) throws IOException, SQLException {
+		FileMetaData stored = dao.getMetaDataForPath(file);
+
+		if (stored != null && stored.getHash().length > 0 && !verify.hasChanged(stored)) {
+			return stored.getHash();
+		}
+
+		return metaData.contentHash(file);
+	}
+}
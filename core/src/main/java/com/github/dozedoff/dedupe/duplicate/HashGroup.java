@@ -4,11 +4,15 @@
  */
 package com.github.dozedoff.dedupe.duplicate;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.function.Consumer;
 import java.util.stream.Stream;
 
@@ -18,46 +22,64 @@ import org.slf4j.LoggerFactory;
 import com.github.dozedoff.dedupe.db.table.FileMetaData;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.MultimapBuilder;
-import com.google.common.collect.Multimaps;
-import com.google.common.hash.HashCode;
+import com.google.common.collect.SetMultimap;
 
 public class HashGroup {
 	private static final Logger LOGGER = LoggerFactory.getLogger(HashGroup.class);
 
-	private final Multimap<String, FileMetaData> hashGroups;
+	private final ConcurrentMap<HashKey, Set<FileMetaData>> hashGroups;
 
 	/**
 	 * Create an instance that can group files based on hash.
 	 */
 	public HashGroup() {
-		this.hashGroups = MultimapBuilder.treeKeys().hashSetValues().build();
+		this.hashGroups = new ConcurrentHashMap<HashKey, Set<FileMetaData>>();
 	}
 
 	/**
-	 * Add the paths in the stream to the group, based on the file hash of the path.
+	 * Add the paths in the stream to the group, based on the file hash of the path. The stream is consumed as given, a
+	 * sequential stream is processed in the calling thread.
 	 * 
 	 * @param stream
 	 *            of files to group by hash
 	 */
 	public void add(Stream<FileMetaData> stream) {
-		Multimap<String, FileMetaData> sync = Multimaps.synchronizedMultimap(hashGroups);
-
-		stream.parallel().forEach(new Consumer<FileMetaData>() {
+		stream.forEach(new Consumer<FileMetaData>() {
 			@Override
 			public void accept(FileMetaData t) {
 				if (!isValidMetadata(t)) {
 					return;
 				}
 
-				sync.put(HashCode.fromBytes(t.getHash()).toString(), t);
+				hashGroups.computeIfAbsent(new HashKey(t.getHashBuffer()), key -> ConcurrentHashMap.newKeySet())
+						.add(t);
 			}
 		});
 
-		LOGGER.info("Currently mapped {} files to {} unique hashes", hashGroups.size(), hashGroups.keySet().size());
+		LOGGER.info("Currently mapped {} files to {} unique hashes", fileCount(), hashGroups.size());
+	}
+
+	/**
+	 * Add the files to the group in the calling thread, for small groups where a parallel stream does not pay off.
+	 * 
+	 * @param files
+	 *            to group by hash
+	 */
+	public void addAll(Collection<FileMetaData> files) {
+		for (FileMetaData file : files) {
+			if (isValidMetadata(file)) {
+				hashGroups.computeIfAbsent(new HashKey(file.getHashBuffer()), key -> ConcurrentHashMap.newKeySet())
+						.add(file);
+			}
+		}
 	}
 
 	private boolean isValidMetadata(FileMetaData metaData) {
-		return metaData.getHash().length > 0;
+		return metaData.getHashBuffer().hasRemaining();
+	}
+
+	private long fileCount() {
+		return hashGroups.values().stream().mapToLong(Set::size).sum();
 	}
 
 	/**
@@ -68,7 +90,7 @@ public class HashGroup {
 	public List<FileMetaData> sameHash() {
 		List<FileMetaData> sameHash = new LinkedList<FileMetaData>();
 
-		hashGroups.asMap().values().forEach(new Consumer<Collection<FileMetaData>>() {
+		hashGroups.values().forEach(new Consumer<Collection<FileMetaData>>() {
 			@Override
 			public void accept(Collection<FileMetaData> t) {
 				if (t.size() > 1) {
@@ -81,23 +103,42 @@ public class HashGroup {
 	}
 
 	/**
-	 * Returns a {@link Multimap} that only contains keys that have more than one value.
+	 * Get one file for every hash in this group, including hashes with only a single file.
+	 * 
+	 * @return a list with one file per hash
+	 */
+	public List<FileMetaData> onePerHash() {
+		List<FileMetaData> representatives = new ArrayList<FileMetaData>(hashGroups.size());
+
+		hashGroups.values().forEach(files -> representatives.add(files.iterator().next()));
+
+		return representatives;
+	}
+
+	/**
+	 * Returns a {@link Multimap} that only contains keys that have more than one value, ordered by hash. Hashes with
+	 * only one file are removed from this group.
 	 * 
 	 * @return a {@link Multimap} with duplicate file candidates
 	 */
-	public Multimap<String, FileMetaData> nonUniqueMap() {
-		Iterator<Entry<String, Collection<FileMetaData>>> iter = hashGroups.asMap().entrySet().iterator();
+	public Multimap<HashKey, FileMetaData> nonUniqueMap() {
+		SetMultimap<HashKey, FileMetaData> nonUnique = MultimapBuilder.treeKeys().hashSetValues().build();
+		Iterator<Entry<HashKey, Set<FileMetaData>>> iter = hashGroups.entrySet().iterator();
 
 		while (iter.hasNext()) {
-			if (!hasMoreThanOneFile(iter.next())) {
+			Entry<HashKey, Set<FileMetaData>> entry = iter.next();
+
+			if (hasMoreThanOneFile(entry)) {
+				nonUnique.putAll(entry.getKey(), entry.getValue());
+			} else {
 				iter.remove();
 			}
 		}
 
-		return hashGroups;
+		return nonUnique;
 	}
 
-	private boolean hasMoreThanOneFile(Entry<String, Collection<FileMetaData>> entry) {
+	private boolean hasMoreThanOneFile(Entry<HashKey, Set<FileMetaData>> entry) {
 		return entry.getValue().size() > 1;
 	}
 }
@@ -0,0 +1,70 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.duplicate;
+
+import java.nio.ByteBuffer;
+
+import com.google.common.hash.HashCode;
+
+/**
+ * Map key for a file hash, that uses the raw hash bytes instead of a hex string. The hash code is taken from the first
+ * bytes of the hash, which are already uniformly distributed.
+ * 
+ * @author Nicholas Wright
+ *
+ */
+public final class HashKey implements Comparable<HashKey> {
+	private final ByteBuffer hash;
+	private final int hashCode;
+
+	/**
+	 * Create a key for the hash. The buffer is not copied and must not be modified afterwards.
+	 * 
+	 * @param hash
+	 *            buffer containing the hash between its position and limit
+	 */
+	public HashKey(ByteBuffer hash) {
+		this.hash = hash;
+		this.hashCode = hash.remaining() >= Long.BYTES ? Long.hashCode(hash.getLong(hash.position()))
+				: hash.hashCode();
+	}
+
+	@Override
+	public int hashCode() {
+		return hashCode;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+
+		if (!(obj instanceof HashKey)) {
+			return false;
+		}
+
+		HashKey other = (HashKey) obj;
+
+		return hashCode == other.hashCode && hash.equals(other.hash);
+	}
+
+	@Override
+	public int compareTo(HashKey o) {
+		return hash.compareTo(o.hash);
+	}
+
+	@Override
+	public String toString() {
+		if (!hash.hasRemaining()) {
+			return "";
+		}
+
+		byte[] bytes = new byte[hash.remaining()];
+		hash.duplicate().get(bytes);
+
+		return HashCode.fromBytes(bytes).toString();
+	}
+}
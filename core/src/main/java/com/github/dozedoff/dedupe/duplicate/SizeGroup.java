@@ -9,6 +9,8 @@ import java.nio.file.Path;
 import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.BiPredicate;
 import java.util.function.Consumer;
 import java.util.stream.Stream;
 
@@ -38,7 +40,8 @@ public class SizeGroup {
 	}
 
 	/**
-	 * Add the paths in the stream to the group, based on the file size of the path.
+	 * Add the paths in the stream to the group, based on the file size of the path. The stream is consumed as given, a
+	 * sequential stream is processed in the calling thread.
 	 * 
 	 * @param stream
 	 *            of files to group by size
@@ -46,7 +49,7 @@ public class SizeGroup {
 	public void add(Stream<Path> stream) {
 		Multimap<Long, Path> sync = Multimaps.synchronizedMultimap(sizeGroups);
 
-		stream.parallel().forEach(new Consumer<Path>() {
+		stream.forEach(new Consumer<Path>() {
 			@Override
 			public void accept(Path t) {
 				try {
@@ -67,13 +70,27 @@ public class SizeGroup {
 	 * @return a list of files with at least a other same size file
 	 */
 	public List<Path> sameSizeFiles() {
+		return sameSizeFiles((path, size) -> false);
+	}
+
+	/**
+	 * Get the files that have the same size as at least one other file, or whose size is known from a previous run.
+	 * 
+	 * @param knownSize
+	 *            tested with the path and size of files that have a unique size in this group, returns true if another
+	 *            file with the size is known
+	 * @return a list of files with at least a other same size file
+	 */
+	public List<Path> sameSizeFiles(BiPredicate<Path, Long> knownSize) {
 		List<Path> sameSize = new LinkedList<Path>();
-		sizeGroups.asMap().values().forEach(new Consumer<Collection<Path>>() {
+		sizeGroups.asMap().forEach(new BiConsumer<Long, Collection<Path>>() {
 
 			@Override
-			public void accept(Collection<Path> t) {
+			public void accept(Long size, Collection<Path> t) {
 				if (t.size() > 1) {
 					sameSize.addAll(t);
+				} else if (knownSize.test(t.iterator().next(), size)) {
+					sameSize.addAll(t);
 				}
 			}
 		});
@@ -0,0 +1,301 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.duplicate;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiPredicate;
+
+import com.github.dozedoff.dedupe.db.table.FileMetaData;
+
+/**
+ * Groups files by size while the directories are still being walked, so hashing can start before the walk has
+ * finished. A file is released for hashing as soon as a second file with the same size is found. Once the walk has
+ * finished and all files of a size have been hashed, the size group is complete and returned for comparison.<br>
+ * Hashing can also be deferred until the walk has finished, so the groups can be processed in order of the bytes they
+ * could reclaim.<br>
+ * All methods are thread safe.
+ *
+ * @author Nicholas Wright
+ *
+ */
+public class StreamingSizeGroup {
+	/**
+	 * A file that should be hashed, together with the size it was grouped by.
+	 */
+	public static final class Candidate {
+		private final Path path;
+		private final long size;
+
+		private Candidate(Path path, long size) {
+			this.path = path;
+			this.size = size;
+		}
+
+		/**
+		 * The path of the file.
+		 *
+		 * @return the file path
+		 */
+		public Path getPath() {
+			return path;
+		}
+
+		/**
+		 * The size the file was grouped by.
+		 *
+		 * @return the size in bytes
+		 */
+		public long getSize() {
+			return size;
+		}
+
+		@Override
+		public String toString() {
+			return path.toString();
+		}
+	}
+
+	private static final class Group {
+		private final Set<Path> paths = new HashSet<Path>();
+		private final List<FileMetaData> hashed = new ArrayList<FileMetaData>();
+		private int dispatched;
+		private int done;
+		private boolean complete;
+	}
+
+	private final ConcurrentMap<Long, Group> groups;
+	private final AtomicLong candidates;
+	private final boolean deferHashing;
+	private volatile boolean walkFinished;
+
+	/**
+	 * Create a new, empty group that releases files for hashing while the walk is in progress.
+	 */
+	public StreamingSizeGroup() {
+		this(false);
+	}
+
+	/**
+	 * Create a new, empty group.
+	 * 
+	 * @param deferHashing
+	 *            if true, no files are released until the walk has finished, use
+	 *            {@link #walkFinishedByReclaimableBytes(BiPredicate)} to get them
+	 */
+	public StreamingSizeGroup(boolean deferHashing) {
+		this.groups = new ConcurrentHashMap<Long, Group>();
+		this.candidates = new AtomicLong();
+		this.deferHashing = deferHashing;
+	}
+
+	/**
+	 * Add a file found by the walk.
+	 *
+	 * @param path
+	 *            of the file
+	 * @param size
+	 *            of the file in bytes
+	 * @return the files that should now be hashed, empty if the size of the file is unique so far or hashing is
+	 *         deferred
+	 * @throws IllegalStateException
+	 *             if the walk has already finished
+	 */
+	public List<Candidate> add(Path path, long size) {
+		if (walkFinished) {
+			throw new IllegalStateException("Cannot add files after the walk has finished");
+		}
+
+		Group group = groups.computeIfAbsent(size, key -> new Group());
+
+		synchronized (group) {
+			if (!group.paths.add(path) || group.paths.size() < 2 || deferHashing) {
+				return Collections.emptyList();
+			}
+
+			List<Candidate> toHash = new ArrayList<Candidate>(2);
+
+			if (group.dispatched == 0) {
+				for (Path sameSize : group.paths) {
+					toHash.add(new Candidate(sameSize, size));
+				}
+			} else {
+				toHash.add(new Candidate(path, size));
+			}
+
+			group.dispatched += toHash.size();
+			candidates.addAndGet(toHash.size());
+
+			return toHash;
+		}
+	}
+
+	/**
+	 * Record that a file has been hashed.
+	 *
+	 * @param candidate
+	 *            that was hashed
+	 * @param metadata
+	 *            of the file, or null if the file could not be hashed
+	 * @return the metadata of all files in the size group if the group is now complete, otherwise null
+	 */
+	public List<FileMetaData> hashed(Candidate candidate, FileMetaData metadata) {
+		Group group = groups.get(candidate.getSize());
+
+		synchronized (group) {
+			group.done++;
+
+			if (metadata != null) {
+				group.hashed.add(metadata);
+			}
+
+			return completeIfDone(candidate.getSize(), group);
+		}
+	}
+
+	/**
+	 * Signal that the walk has finished. Files with a unique size are dropped, unless the size is known from
+	 * elsewhere.
+	 *
+	 * @param knownSize
+	 *            tested with the path and size of files that have a unique size, returns true if the file should be
+	 *            hashed anyway
+	 * @return the files that should now be hashed, those with a known size and all files of deferred groups
+	 */
+	public List<Candidate> walkFinished(BiPredicate<Path, Long> knownSize) {
+		List<Candidate> toHash = new ArrayList<Candidate>();
+		finishWalk(knownSize).forEach(toHash::addAll);
+
+		return toHash;
+	}
+
+	/**
+	 * Signal that the walk has finished, like {@link #walkFinished(BiPredicate)}, and get the files to hash grouped by
+	 * size. The groups are ordered by the number of bytes that could be reclaimed if all files in the group are
+	 * identical, largest first.
+	 *
+	 * @param knownSize
+	 *            tested with the path and size of files that have a unique size, returns true if the file should be
+	 *            hashed anyway
+	 * @return the files that should now be hashed, one list per size
+	 */
+	public List<List<Candidate>> walkFinishedByReclaimableBytes(BiPredicate<Path, Long> knownSize) {
+		List<List<Candidate>> toHash = finishWalk(knownSize);
+		toHash.sort(Comparator.comparingLong(StreamingSizeGroup::reclaimableBytes).reversed());
+
+		return toHash;
+	}
+
+	/**
+	 * Estimate the bytes that could be reclaimed by linking the files, assuming all of them are identical. A single
+	 * file is assumed to have one identical file elsewhere.
+	 *
+	 * @param sameSize
+	 *            files of the same size
+	 * @return the size times the number of files minus one
+	 */
+	public static long reclaimableBytes(List<Candidate> sameSize) {
+		if (sameSize.isEmpty()) {
+			return 0;
+		}
+
+		return sameSize.get(0).getSize() * Math.max(1, sameSize.size() - 1);
+	}
+
+	private List<List<Candidate>> finishWalk(BiPredicate<Path, Long> knownSize) {
+		walkFinished = true;
+		List<List<Candidate>> toHash = new ArrayList<List<Candidate>>();
+
+		for (Entry<Long, Group> entry : groups.entrySet()) {
+			long size = entry.getKey();
+			Group group = entry.getValue();
+
+			synchronized (group) {
+				if (group.dispatched > 0) {
+					continue;
+				}
+
+				if (group.paths.size() < 2 && !knownSize.test(group.paths.iterator().next(), size)) {
+					groups.remove(size);
+					continue;
+				}
+
+				List<Candidate> sameSize = new ArrayList<Candidate>(group.paths.size());
+
+				for (Path path : group.paths) {
+					sameSize.add(new Candidate(path, size));
+				}
+
+				group.dispatched = sameSize.size();
+				candidates.addAndGet(sameSize.size());
+				toHash.add(sameSize);
+			}
+		}
+
+		return toHash;
+	}
+
+	/**
+	 * Get the size groups that were completely hashed before {@link #walkFinished(BiPredicate)} was called. Groups
+	 * completed later are returned by {@link #hashed(Candidate, FileMetaData)}. Every group is only returned once.
+	 *
+	 * @return the metadata of the files for each complete group
+	 */
+	public List<List<FileMetaData>> completeGroups() {
+		List<List<FileMetaData>> complete = new ArrayList<List<FileMetaData>>();
+
+		for (Entry<Long, Group> entry : groups.entrySet()) {
+			Group group = entry.getValue();
+
+			synchronized (group) {
+				List<FileMetaData> files = completeIfDone(entry.getKey(), group);
+
+				if (files != null) {
+					complete.add(files);
+				}
+			}
+		}
+
+		return complete;
+	}
+
+	private List<FileMetaData> completeIfDone(long size, Group group) {
+		if (!walkFinished || group.complete || group.dispatched == 0 || group.done < group.dispatched) {
+			return null;
+		}
+
+		group.complete = true;
+		groups.remove(size);
+
+		return group.hashed;
+	}
+
+	/**
+	 * Get the number of files that were released for hashing.
+	 *
+	 * @return number of files to hash
+	 */
+	public long candidates() {
+		return candidates.get();
+	}
+
+	/**
+	 * Get the number of size groups that are not complete yet.
+	 *
+	 * @return number of pending size groups
+	 */
+	public int pendingGroups() {
+		return groups.size();
+	}
+}
@@ -0,0 +1,232 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.file;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Hashes files with {@link AsynchronousFileChannel} reads, so the number of reads in flight is independent of the
+ * number of threads that compute digests. Each file has one outstanding read at a time, completed buffers are handed
+ * to a fixed pool of digest threads, which then issue the next read.
+ *
+ * @author Nicholas Wright
+ *
+ */
+public class AsyncHasher implements Closeable {
+	private static final Logger LOGGER = LoggerFactory.getLogger(AsyncHasher.class);
+
+	/**
+	 * Default size of the read buffer used for each file.
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+
+	private final HashFunction hashFunction;
+	private final int bufferSize;
+	private final int readsInFlight;
+	private final IoThrottle throttle;
+	private final Semaphore reads;
+	private final ExecutorService ioExecutor;
+	private final ExecutorService digestExecutor;
+
+	/**
+	 * Create a new hasher using the {@link #DEFAULT_BUFFER_SIZE}.
+	 *
+	 * @param hashFunction
+	 *            used to hash the file contents
+	 * @param readsInFlight
+	 *            maximum number of files read at the same time
+	 * @param digestThreads
+	 *            number of threads computing digests
+	 */
+	public AsyncHasher(HashFunction hashFunction, int readsInFlight, int digestThreads) {
+		this(hashFunction, readsInFlight, digestThreads, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Create a new hasher.
+	 *
+	 * @param hashFunction
+	 *            used to hash the file contents
+	 * @param readsInFlight
+	 *            maximum number of files read at the same time
+	 * @param digestThreads
+	 *            number of threads computing digests
+	 * @param bufferSize
+	 *            size of the read buffer for each file in bytes
+	 */
+	public AsyncHasher(HashFunction hashFunction, int readsInFlight, int digestThreads, int bufferSize) {
+		this(hashFunction, readsInFlight, digestThreads, bufferSize, null);
+	}
+
+	/**
+	 * Create a new hasher that charges all reads to the throttle.
+	 *
+	 * @param hashFunction
+	 *            used to hash the file contents
+	 * @param readsInFlight
+	 *            maximum number of files read at the same time
+	 * @param digestThreads
+	 *            number of threads computing digests
+	 * @param bufferSize
+	 *            size of the read buffer for each file in bytes
+	 * @param throttle
+	 *            to limit the reads, or null for unlimited reads
+	 */
+	public AsyncHasher(HashFunction hashFunction, int readsInFlight, int digestThreads, int bufferSize,
+			IoThrottle throttle) {
+		if (readsInFlight < 1 || digestThreads < 1 || bufferSize < 1) {
+			throw new IllegalArgumentException("Reads in flight, digest threads and buffer size must be positive");
+		}
+
+		this.hashFunction = hashFunction;
+		this.bufferSize = bufferSize;
+		this.readsInFlight = readsInFlight;
+		this.throttle = throttle;
+		this.reads = new Semaphore(readsInFlight);
+		this.ioExecutor = Executors.newCachedThreadPool(
+				new ThreadFactoryBuilder().setNameFormat("async-read-%d").setDaemon(true).build());
+		this.digestExecutor = Executors.newFixedThreadPool(digestThreads,
+				new ThreadFactoryBuilder().setNameFormat("digest-%d").setDaemon(true).build());
+	}
+
+	/**
+	 * Start hashing the file, waiting until fewer than the maximum number of files are being read.
+	 *
+	 * @param path
+	 *            of the file to hash
+	 * @return a future that completes with the hash, or exceptionally if reading the file fails
+	 * @throws IOException
+	 *             if the file cannot be opened
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for a free read slot
+	 */
+	public CompletableFuture<byte[]> hash(Path path) throws IOException, InterruptedException {
+		reads.acquire();
+		AsynchronousFileChannel channel;
+
+		try {
+			channel = AsynchronousFileChannel.open(path, Collections.singleton(StandardOpenOption.READ), ioExecutor);
+		} catch (IOException | RuntimeException e) {
+			reads.release();
+			throw e;
+		}
+
+		HashJob job = new HashJob(path, channel);
+		job.read();
+
+		return job.result;
+	}
+
+	/**
+	 * Get the number of files that are currently being read.
+	 *
+	 * @return number of files in flight
+	 */
+	public int inFlight() {
+		return readsInFlight - reads.availablePermits();
+	}
+
+	/**
+	 * Stop the reader and digest threads. Files that are still being hashed fail.
+	 */
+	@Override
+	public void close() {
+		digestExecutor.shutdownNow();
+		ioExecutor.shutdownNow();
+	}
+
+	private final class HashJob implements CompletionHandler<Integer, ByteBuffer> {
+		private final Path path;
+		private final AsynchronousFileChannel channel;
+		private final ByteBuffer buffer;
+		private final Hasher hasher;
+		private final CompletableFuture<byte[]> result;
+		private long position;
+
+		HashJob(Path path, AsynchronousFileChannel channel) {
+			this.path = path;
+			this.channel = channel;
+			this.buffer = ByteBuffer.allocate(bufferSize);
+			this.hasher = hashFunction.newHasher();
+			this.result = new CompletableFuture<byte[]>();
+		}
+
+		void read() {
+			buffer.clear();
+
+			try {
+				channel.read(buffer, position, buffer, this);
+			} catch (RuntimeException e) {
+				done(e);
+			}
+		}
+
+		@Override
+		public void completed(Integer count, ByteBuffer attachment) {
+			if (count < 0) {
+				done(null);
+				return;
+			}
+
+			try {
+				digestExecutor.execute(() -> digest(count));
+			} catch (RejectedExecutionException e) {
+				done(e);
+			}
+		}
+
+		@Override
+		public void failed(Throwable exc, ByteBuffer attachment) {
+			done(exc);
+		}
+
+		private void digest(int count) {
+			buffer.flip();
+			hasher.putBytes(buffer);
+			position += count;
+
+			if (throttle != null) {
+				throttle.acquire(count);
+			}
+
+			read();
+		}
+
+		private void done(Throwable error) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				LOGGER.debug("Failed to close {}: {}", path, e.toString());
+			}
+
+			reads.release();
+
+			if (error == null) {
+				result.complete(hasher.hash().asBytes());
+			} else {
+				result.completeExceptionally(error);
+			}
+		}
+	}
+}
@@ -0,0 +1,362 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.file;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads files with direct I/O, bypassing the page cache, so scanning large amounts of data does not evict the cache of
+ * other processes on the same host. The direct open option and aligned buffers are looked up via reflection, they need
+ * Java 10 or newer. Files on file systems that reject direct I/O, and all files on older JVMs, are read normally. Some
+ * file systems accept the direct open but fail the read, such files are read again from the start without direct I/O.
+ *
+ * @author Nicholas Wright
+ *
+ */
+public class DirectReader {
+	private static final Logger LOGGER = LoggerFactory.getLogger(DirectReader.class);
+
+	/**
+	 * Alignment of buffers, positions and lengths for direct reads. A multiple of the logical block size of common
+	 * devices.
+	 */
+	public static final int ALIGNMENT = 4096;
+	/**
+	 * Default size of the read buffers.
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+
+	private static final OpenOption DIRECT = directOption();
+	private static final Method ALIGNED_SLICE = alignedSliceMethod();
+
+	private final int bufferSize;
+	private final IoThrottle throttle;
+	private final LongAdder directReads;
+	private final LongAdder fallbacks;
+	private final AtomicBoolean fallbackLogged;
+
+	/**
+	 * An open file and whether it was opened for direct I/O.
+	 */
+	private static final class Source implements Closeable {
+		private final Path path;
+		private final FileChannel channel;
+		private final boolean direct;
+
+		Source(Path path, FileChannel channel, boolean direct) {
+			this.path = path;
+			this.channel = channel;
+			this.direct = direct;
+		}
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Create a new reader with the {@link #DEFAULT_BUFFER_SIZE}.
+	 */
+	public DirectReader() {
+		this(DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Create a new reader.
+	 *
+	 * @param bufferSize
+	 *            size of the read buffers in bytes, rounded up to a multiple of {@link #ALIGNMENT}
+	 */
+	public DirectReader(int bufferSize) {
+		this(bufferSize, null);
+	}
+
+	/**
+	 * Create a new reader that charges all reads to the throttle.
+	 *
+	 * @param bufferSize
+	 *            size of the read buffers in bytes, rounded up to a multiple of {@link #ALIGNMENT}
+	 * @param throttle
+	 *            to limit the reads, or null for unlimited reads
+	 */
+	public DirectReader(int bufferSize, IoThrottle throttle) {
+		if (bufferSize < 1) {
+			throw new IllegalArgumentException("Buffer size must be positive");
+		}
+
+		this.bufferSize = (bufferSize + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+		this.throttle = throttle;
+		this.directReads = new LongAdder();
+		this.fallbacks = new LongAdder();
+		this.fallbackLogged = new AtomicBoolean();
+	}
+
+	/**
+	 * Check if the running JVM supports direct I/O.
+	 *
+	 * @return true if files can be opened for direct I/O
+	 */
+	public static boolean isSupported() {
+		return DIRECT != null && ALIGNED_SLICE != null;
+	}
+
+	private static OpenOption directOption() {
+		try {
+			for (Object option : Class.forName("com.sun.nio.file.ExtendedOpenOption").getEnumConstants()) {
+				if ("DIRECT".equals(((Enum<?>) option).name())) {
+					return (OpenOption) option;
+				}
+			}
+		} catch (ClassNotFoundException e) {
+			LOGGER.debug("Extended open options are not available: {}", e.toString());
+		}
+
+		return null;
+	}
+
+	private static Method alignedSliceMethod() {
+		try {
+			return ByteBuffer.class.getMethod("alignedSlice", int.class);
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Open the file for reading, with direct I/O if possible.
+	 *
+	 * @param path
+	 *            of the file to open
+	 * @return a channel for reading the file
+	 * @throws IOException
+	 *             if the file cannot be opened
+	 */
+	public FileChannel open(Path path) throws IOException {
+		return open(path, true).channel;
+	}
+
+	private Source open(Path path, boolean allowDirect) throws IOException {
+		if (allowDirect && isSupported()) {
+			try {
+				FileChannel channel = openDirect(path);
+				directReads.increment();
+				return new Source(path, channel, true);
+			} catch (IOException | UnsupportedOperationException e) {
+				logFallback(path, e);
+			}
+		}
+
+		return new Source(path, FileChannel.open(path, StandardOpenOption.READ), false);
+	}
+
+	FileChannel openDirect(Path path) throws IOException {
+		return FileChannel.open(path, StandardOpenOption.READ, DIRECT);
+	}
+
+	private void readFallback(Source source, IOException e) {
+		if (source.direct) {
+			directReads.decrement();
+			logFallback(source.path, e);
+		}
+	}
+
+	private void logFallback(Path path, Exception e) {
+		fallbacks.increment();
+
+		if (fallbackLogged.compareAndSet(false, true)) {
+			LOGGER.warn(
+					"Direct I/O was rejected for {}, reading normally, further fallbacks are logged at debug level: {}",
+					path, e.toString());
+		} else {
+			LOGGER.debug("Direct I/O was rejected for {}, reading normally: {}", path, e.toString());
+		}
+	}
+
+	/**
+	 * Allocate a read buffer, aligned for direct I/O if it is supported.
+	 *
+	 * @return a new buffer
+	 */
+	public ByteBuffer allocate() {
+		if (!isSupported()) {
+			return ByteBuffer.allocate(bufferSize);
+		}
+
+		try {
+			ByteBuffer buffer = ByteBuffer.allocateDirect(bufferSize + ALIGNMENT);
+			ByteBuffer aligned = (ByteBuffer) ALIGNED_SLICE.invoke(buffer, ALIGNMENT);
+			aligned.limit(bufferSize);
+
+			return aligned.slice();
+		} catch (IllegalAccessException | InvocationTargetException e) {
+			throw new IllegalStateException("Failed to align buffer", e);
+		}
+	}
+
+	/**
+	 * Read the whole file, passing each chunk to the consumer together with the target. The buffer is reused for the
+	 * next chunk once the consumer returns. If a direct read fails, the file is read again normally into a new target.
+	 *
+	 * @param <T>
+	 *            the type of the target
+	 * @param path
+	 *            of the file to read
+	 * @param target
+	 *            creates the target that receives the contents, e.g. a hasher
+	 * @param consumer
+	 *            for the contents of the file
+	 * @return the target that received the whole file
+	 * @throws IOException
+	 *             if the file cannot be read
+	 */
+	public <T> T read(Path path, Supplier<T> target, BiConsumer<T, ByteBuffer> consumer) throws IOException {
+		try (Source source = open(path, true)) {
+			try {
+				return read(source, target.get(), consumer);
+			} catch (IOException e) {
+				if (!source.direct) {
+					throw e;
+				}
+
+				readFallback(source, e);
+			}
+		}
+
+		try (Source source = open(path, false)) {
+			return read(source, target.get(), consumer);
+		}
+	}
+
+	private <T> T read(Source source, T target, BiConsumer<T, ByteBuffer> consumer) throws IOException {
+		ByteBuffer buffer = allocate();
+		long size = source.channel.size();
+		long position = 0;
+
+		while (position < size) {
+			int read = fill(source.channel, buffer, position, size);
+
+			if (read == 0) {
+				throw new IOException("File " + source.path + " was truncated while reading");
+			}
+
+			position += read;
+			consumer.accept(target, buffer);
+		}
+
+		return target;
+	}
+
+	/**
+	 * Compare the contents of two files.
+	 *
+	 * @param path1
+	 *            of a file to compare
+	 * @param path2
+	 *            of a file to compare against
+	 * @return true if the files have the same contents
+	 * @throws IOException
+	 *             if there is an error accessing the files
+	 */
+	public boolean equal(Path path1, Path path2) throws IOException {
+		try (Source source1 = open(path1, true); Source source2 = open(path2, true)) {
+			try {
+				return equal(source1, source2);
+			} catch (IOException e) {
+				if (!source1.direct && !source2.direct) {
+					throw e;
+				}
+
+				readFallback(source1, e);
+				readFallback(source2, e);
+			}
+		}
+
+		try (Source source1 = open(path1, false); Source source2 = open(path2, false)) {
+			return equal(source1, source2);
+		}
+	}
+
+	private boolean equal(Source source1, Source source2) throws IOException {
+		long size = source1.channel.size();
+
+		if (size != source2.channel.size()) {
+			return false;
+		}
+
+		ByteBuffer buffer1 = allocate();
+		ByteBuffer buffer2 = allocate();
+		long position = 0;
+
+		while (position < size) {
+			int read = fill(source1.channel, buffer1, position, size);
+
+			if (read == 0 || fill(source2.channel, buffer2, position, size) != read || !buffer1.equals(buffer2)) {
+				return false;
+			}
+
+			position += read;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Fill the buffer from the position, stopping at the given size so a direct read never starts at an unaligned
+	 * position past the last full block.
+	 */
+	private int fill(FileChannel channel, ByteBuffer buffer, long position, long size) throws IOException {
+		buffer.clear();
+
+		while (buffer.hasRemaining() && position + buffer.position() < size) {
+			int read = channel.read(buffer, position + buffer.position());
+
+			if (throttle != null) {
+				throttle.acquire(read);
+			}
+
+			if (read < 0) {
+				break;
+			}
+		}
+
+		buffer.flip();
+		return buffer.limit();
+	}
+
+	/**
+	 * Get the number of files that were read with direct I/O.
+	 *
+	 * @return number of direct reads
+	 */
+	public long directReads() {
+		return directReads.sum();
+	}
+
+	/**
+	 * Get the number of files that were read normally because direct I/O was rejected, either when opening or when
+	 * reading the file.
+	 *
+	 * @return number of fallbacks
+	 */
+	public long fallbacks() {
+		return fallbacks.sum();
+	}
+}
@@ -0,0 +1,126 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.file;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.hash.HashCode;
+
+/**
+ * Stores file hashes in a user defined extended attribute of the file, so they can be reused by other databases. The
+ * attribute contains the hash algorithm, size and modified time of the file when it was hashed, and is only trusted if
+ * all of them still match. File systems without extended attribute support are ignored, files are then hashed as
+ * usual.
+ *
+ * @author Nicholas Wright
+ *
+ */
+public class HashAttributeCache {
+	private static final Logger LOGGER = LoggerFactory.getLogger(HashAttributeCache.class);
+
+	/**
+	 * Name of the attribute, without the <code>user.</code> namespace prefix.
+	 */
+	public static final String ATTRIBUTE_NAME = "dedupe.hash";
+	private static final String SEPARATOR = ":";
+	private static final int FIELD_COUNT = 4;
+
+	private final String algorithm;
+	private final AtomicBoolean writeFailureLogged = new AtomicBoolean();
+
+	/**
+	 * Create a new cache for hashes of the given algorithm. Attributes written with a different algorithm are ignored.
+	 *
+	 * @param algorithm
+	 *            name of the hash algorithm, e.g. SHA-512
+	 */
+	public HashAttributeCache(String algorithm) {
+		this.algorithm = algorithm;
+	}
+
+	/**
+	 * Read the stored hash of the file.
+	 *
+	 * @param path
+	 *            of the file
+	 * @param size
+	 *            current size of the file
+	 * @param modifiedTime
+	 *            current modified time of the file in milliseconds
+	 * @return the stored hash, or null if there is none or it does not match the file
+	 */
+	public byte[] read(Path path, long size, long modifiedTime) {
+		UserDefinedFileAttributeView view = Files.getFileAttributeView(path, UserDefinedFileAttributeView.class);
+
+		if (view == null) {
+			return null;
+		}
+
+		try {
+			ByteBuffer buffer = ByteBuffer.allocate(view.size(ATTRIBUTE_NAME));
+			view.read(ATTRIBUTE_NAME, buffer);
+			buffer.flip();
+
+			return parse(StandardCharsets.US_ASCII.decode(buffer).toString(), size, modifiedTime);
+		} catch (IOException | IllegalArgumentException e) {
+			LOGGER.trace("No usable hash attribute for {}: {}", path, e.toString());
+			return null;
+		}
+	}
+
+	private byte[] parse(String value, long size, long modifiedTime) {
+		String[] fields = value.split(SEPARATOR);
+
+		if (fields.length != FIELD_COUNT || !algorithm.equals(fields[0]) || Long.parseLong(fields[1]) != size
+				|| Long.parseLong(fields[2]) != modifiedTime) {
+			return null;
+		}
+
+		return HashCode.fromString(fields[3]).asBytes();
+	}
+
+	/**
+	 * Store the hash of the file. Failures are logged and otherwise ignored.
+	 *
+	 * @param path
+	 *            of the file
+	 * @param hash
+	 *            of the file contents
+	 * @param size
+	 *            of the file when it was hashed
+	 * @param modifiedTime
+	 *            of the file in milliseconds when it was hashed
+	 */
+	public void write(Path path, byte[] hash, long size, long modifiedTime) {
+		UserDefinedFileAttributeView view = Files.getFileAttributeView(path, UserDefinedFileAttributeView.class);
+
+		if (view == null) {
+			return;
+		}
+
+		String value = String.join(SEPARATOR, algorithm, Long.toString(size), Long.toString(modifiedTime),
+				HashCode.fromBytes(hash).toString());
+
+		try {
+			view.write(ATTRIBUTE_NAME, StandardCharsets.US_ASCII.encode(value));
+		} catch (IOException e) {
+			if (writeFailureLogged.compareAndSet(false, true)) {
+				LOGGER.warn("Failed to store hash attribute for {}, further failures are logged at debug level: {}",
+						path, e.toString());
+			} else {
+				LOGGER.debug("Failed to store hash attribute for {}: {}", path, e.toString());
+			}
+		}
+	}
+}
@@ -0,0 +1,202 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.file;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.common.util.concurrent.RateLimiter;
+
+/**
+ * Token bucket limiter for file reads, shared by everything that reads file contents. Limits the read bandwidth in
+ * bytes per second and optionally the number of read operations per second. The limits can be changed while reads are
+ * in progress.<br>
+ * Reads are charged after they complete, a large read delays the following reads rather than itself.
+ *
+ * @author Nicholas Wright
+ *
+ */
+public class IoThrottle {
+	/**
+	 * Limit value that disables a limit.
+	 */
+	public static final long UNLIMITED = 0;
+
+	private static final long KIB = 1024;
+
+	private volatile RateLimiter bytes;
+	private volatile RateLimiter operations;
+	private volatile long bytesPerSecond;
+	private volatile long operationsPerSecond;
+	private final LongAdder waitNanos;
+
+	/**
+	 * Create a new throttle.
+	 *
+	 * @param bytesPerSecond
+	 *            maximum read bandwidth, or {@link #UNLIMITED}
+	 * @param operationsPerSecond
+	 *            maximum read operations per second, or {@link #UNLIMITED}
+	 */
+	public IoThrottle(long bytesPerSecond, long operationsPerSecond) {
+		this.waitNanos = new LongAdder();
+		setLimits(bytesPerSecond, operationsPerSecond);
+	}
+
+	/**
+	 * Parse a rate with an optional binary unit suffix of K, M, G or T, e.g. <code>50M</code>.
+	 *
+	 * @param rate
+	 *            to parse
+	 * @return the rate in units per second, 0 is {@link #UNLIMITED}
+	 * @throws IllegalArgumentException
+	 *             if the rate is not a valid number, negative or too large
+	 */
+	public static long parseRate(String rate) {
+		String trimmed = rate.trim().toUpperCase(Locale.ROOT);
+		int exponent = "KMGT".indexOf(trimmed.isEmpty() ? ' ' : trimmed.charAt(trimmed.length() - 1)) + 1;
+		String number = exponent > 0 ? trimmed.substring(0, trimmed.length() - 1) : trimmed;
+		long value;
+
+		try {
+			value = Long.parseLong(number.trim());
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid rate: " + rate, e);
+		}
+
+		if (value < 0) {
+			throw new IllegalArgumentException("Rate must not be negative: " + rate);
+		}
+
+		try {
+			for (int i = 0; i < exponent; i++) {
+				value = Math.multiplyExact(value, KIB);
+			}
+		} catch (ArithmeticException e) {
+			throw new IllegalArgumentException("Rate is too large: " + rate, e);
+		}
+
+		return value;
+	}
+
+	/**
+	 * Change the limits. Reads that are waiting finish their wait at the old rate.
+	 *
+	 * @param bytesPerSecond
+	 *            maximum read bandwidth, or {@link #UNLIMITED}
+	 * @param operationsPerSecond
+	 *            maximum read operations per second, or {@link #UNLIMITED}
+	 * @throws IllegalArgumentException
+	 *             if a limit is negative
+	 */
+	public synchronized void setLimits(long bytesPerSecond, long operationsPerSecond) {
+		if (bytesPerSecond < 0 || operationsPerSecond < 0) {
+			throw new IllegalArgumentException("Limits must not be negative");
+		}
+
+		this.bytes = updated(bytes, bytesPerSecond);
+		this.operations = updated(operations, operationsPerSecond);
+		this.bytesPerSecond = bytesPerSecond;
+		this.operationsPerSecond = operationsPerSecond;
+	}
+
+	private static RateLimiter updated(RateLimiter limiter, long rate) {
+		if (rate == UNLIMITED) {
+			return null;
+		}
+
+		if (limiter == null) {
+			return RateLimiter.create(rate);
+		}
+
+		limiter.setRate(rate);
+		return limiter;
+	}
+
+	/**
+	 * Charge a completed read, waiting if the previous reads exceeded a limit.
+	 *
+	 * @param count
+	 *            number of bytes read
+	 */
+	public void acquire(int count) {
+		RateLimiter operationLimiter = operations;
+		RateLimiter byteLimiter = bytes;
+		double waited = 0;
+
+		if (operationLimiter != null) {
+			waited += operationLimiter.acquire();
+		}
+
+		if (byteLimiter != null && count > 0) {
+			waited += byteLimiter.acquire(count);
+		}
+
+		waitNanos.add((long) (waited * TimeUnit.SECONDS.toNanos(1)));
+	}
+
+	/**
+	 * Wrap the stream, so every read from it is charged to this throttle.
+	 *
+	 * @param stream
+	 *            to wrap
+	 * @return a throttled stream
+	 */
+	public InputStream wrap(InputStream stream) {
+		return new FilterInputStream(stream) {
+			@Override
+			public int read() throws IOException {
+				int read = super.read();
+				acquire(read < 0 ? 0 : 1);
+				return read;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				int read = super.read(b, off, len);
+				acquire(read);
+				return read;
+			}
+		};
+	}
+
+	/**
+	 * Get the current bandwidth limit.
+	 *
+	 * @return bytes per second, or {@link #UNLIMITED}
+	 */
+	public long getBytesPerSecond() {
+		return bytesPerSecond;
+	}
+
+	/**
+	 * Get the current operation limit.
+	 *
+	 * @return read operations per second, or {@link #UNLIMITED}
+	 */
+	public long getOperationsPerSecond() {
+		return operationsPerSecond;
+	}
+
+	/**
+	 * Get the time readers spent waiting for the throttle, summed over all readers.
+	 *
+	 * @param unit
+	 *            of the returned time
+	 * @return the time spent waiting
+	 */
+	public long waitTime(TimeUnit unit) {
+		return unit.convert(waitNanos.sum(), TimeUnit.NANOSECONDS);
+	}
+
+	@Override
+	public String toString() {
+		return "IoThrottle[bytesPerSecond=" + bytesPerSecond + ", operationsPerSecond=" + operationsPerSecond + "]";
+	}
+}
@@ -4,32 +4,24 @@
  */
 package com.github.dozedoff.dedupe.file;
 
-import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-import com.github.dozedoff.dedupe.db.dao.FileLinkDao;
+import com.github.dozedoff.dedupe.db.LinkIndex;
 import com.github.dozedoff.dedupe.db.table.FileMetaData;
 
 public class LinkedFilter {
-	private static final Logger LOGGER = LoggerFactory.getLogger(LinkedFilter.class);
-
-	private final FileLinkDao dao;
+	private final LinkIndex links;
 
 	/**
 	 * Create a filter for removing already linked files.
 	 * 
-	 * @param dao
-	 *            to use for link queries
+	 * @param links
+	 *            index of the known links
 	 */
-	public LinkedFilter(FileLinkDao dao) {
-		this.dao = dao;
+	public LinkedFilter(LinkIndex links) {
+		this.links = links;
 	}
 
 	/**
@@ -42,28 +34,15 @@ public class LinkedFilter {
 	 * @return a list containing all unlinked elements, will never contain source
 	 */
 	public List<FileMetaData> filterLinked(FileMetaData source, Collection<FileMetaData> toFilter) {
-		List<FileMetaData> filterList = new ArrayList<FileMetaData>(toFilter);
-		filterList.remove(source);
-
-		Iterator<FileMetaData> iter = filterList.iterator();
-		
-		List<FileMetaData> knownLinks;
+		List<FileMetaData> filterList = new ArrayList<FileMetaData>(toFilter.size());
+		int sourceId = source.getId();
 
-		try {
-			knownLinks = dao.getLinksTo(source);
-		} catch (SQLException e) {
-			LOGGER.warn("Failed to get known links for {}: {}", source, e.toString());
-			knownLinks = Collections.emptyList();
-		}
-		
-		while(iter.hasNext()) {
-			FileMetaData meta = iter.next();
-			
-			if (knownLinks.contains(meta)) {
-				iter.remove();
+		for (FileMetaData meta : toFilter) {
+			if (!meta.equals(source) && !links.isLinkedTo(meta.getId(), sourceId)) {
+				filterList.add(meta);
 			}
 		}
-		
+
 		return filterList;
 	}
 }
@@ -5,15 +5,20 @@
 package com.github.dozedoff.dedupe.file;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.CompletableFuture;
 
 import com.github.dozedoff.dedupe.db.table.FileMetaData;
 import com.google.common.hash.HashCode;
 import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
+import com.google.common.io.ByteSource;
 import com.google.common.io.MoreFiles;
 
 /**
@@ -24,14 +29,22 @@ import com.google.common.io.MoreFiles;
  */
 public class MetaData {
 	private static final HashFunction SHA512 = Hashing.sha512();
+	/**
+	 * Name of the algorithm used for content hashes.
+	 */
+	public static final String HASH_ALGORITHM = "SHA-512";
 
 	private final FileSystem fileSystem;
+	private final HashAttributeCache hashCache;
+	private final AsyncHasher asyncHasher;
+	private final DirectReader directReader;
+	private final IoThrottle throttle;
 
 	/**
 	 * Create a new instance using the default {@link FileSystem} from {@link FileSystems#getDefault()}.
 	 */
 	public MetaData() {
-		this.fileSystem = FileSystems.getDefault();
+		this(FileSystems.getDefault());
 	}
 
 	/**
@@ -41,7 +54,78 @@ public class MetaData {
 	 *            to use for resolving paths
 	 */
 	public MetaData(FileSystem fileSystem) {
+		this(fileSystem, null);
+	}
+
+	/**
+	 * Create a new instance using the provided {@link FileSystem}, that reuses hashes stored in extended attributes
+	 * of the files.
+	 * 
+	 * @param fileSystem
+	 *            to use for resolving paths
+	 * @param hashCache
+	 *            to read and store hashes, or null to always hash files
+	 */
+	public MetaData(FileSystem fileSystem, HashAttributeCache hashCache) {
+		this(fileSystem, hashCache, null);
+	}
+
+	/**
+	 * Create a new instance using the provided {@link FileSystem}, that reuses hashes stored in extended attributes
+	 * of the files and reads files asynchronously for the asynchronous methods.
+	 * 
+	 * @param fileSystem
+	 *            to use for resolving paths
+	 * @param hashCache
+	 *            to read and store hashes, or null to always hash files
+	 * @param asyncHasher
+	 *            to hash files for the asynchronous methods, or null to hash them in the calling thread
+	 */
+	public MetaData(FileSystem fileSystem, HashAttributeCache hashCache, AsyncHasher asyncHasher) {
+		this(fileSystem, hashCache, asyncHasher, null);
+	}
+
+	/**
+	 * Create a new instance using the provided {@link FileSystem}, that reuses hashes stored in extended attributes
+	 * of the files, reads files asynchronously for the asynchronous methods and with direct I/O otherwise.
+	 * 
+	 * @param fileSystem
+	 *            to use for resolving paths
+	 * @param hashCache
+	 *            to read and store hashes, or null to always hash files
+	 * @param asyncHasher
+	 *            to hash files for the asynchronous methods, or null to hash them in the calling thread
+	 * @param directReader
+	 *            to read files for hashing in the calling thread, or null to read them through the page cache
+	 */
+	public MetaData(FileSystem fileSystem, HashAttributeCache hashCache, AsyncHasher asyncHasher,
+			DirectReader directReader) {
+		this(fileSystem, hashCache, asyncHasher, directReader, null);
+	}
+
+	/**
+	 * Create a new instance like {@link #MetaData(FileSystem, HashAttributeCache, AsyncHasher, DirectReader)}, that
+	 * charges reads through the page cache to the throttle. Direct and asynchronous reads are throttled by the
+	 * respective reader.
+	 * 
+	 * @param fileSystem
+	 *            to use for resolving paths
+	 * @param hashCache
+	 *            to read and store hashes, or null to always hash files
+	 * @param asyncHasher
+	 *            to hash files for the asynchronous methods, or null to hash them in the calling thread
+	 * @param directReader
+	 *            to read files for hashing in the calling thread, or null to read them through the page cache
+	 * @param throttle
+	 *            to limit reads through the page cache, or null for unlimited reads
+	 */
+	public MetaData(FileSystem fileSystem, HashAttributeCache hashCache, AsyncHasher asyncHasher,
+			DirectReader directReader, IoThrottle throttle) {
 		this.fileSystem = fileSystem;
+		this.hashCache = hashCache;
+		this.asyncHasher = asyncHasher;
+		this.directReader = directReader;
+		this.throttle = throttle;
 	}
 
 	/**
@@ -71,7 +155,31 @@ public class MetaData {
 	}
 
 	/**
-	 * Get the hash of the file contents.
+	 * Get the key that identifies the file on its file system, independent of the path. On Unix this contains the
+	 * device and inode.
+	 * 
+	 * @param path
+	 *            to query
+	 * @return the file key, or null if the file system does not provide one
+	 * @throws IOException
+	 *             if there is an IO error
+	 */
+	public String fileKey(Path path) throws IOException {
+		return fileKey(attributes(path));
+	}
+
+	private static String fileKey(BasicFileAttributes attributes) {
+		Object fileKey = attributes.fileKey();
+		return fileKey == null ? null : fileKey.toString();
+	}
+
+	private static BasicFileAttributes attributes(Path path) throws IOException {
+		return Files.readAttributes(path, BasicFileAttributes.class);
+	}
+
+	/**
+	 * Get the hash of the file contents. If a hash cache is set, a stored hash that matches the size and modified time
+	 * of the file is returned instead, otherwise the computed hash is stored.
 	 * 
 	 * @param path
 	 *            of the file to hash
@@ -80,12 +188,101 @@ public class MetaData {
 	 *             if there is an IO error
 	 */
 	public byte[] contentHash(Path path) throws IOException {
-		HashCode hc = MoreFiles.asByteSource(path).hash(SHA512);
-			return hc.asBytes();
+		if (hashCache == null) {
+			return hash(path);
+		}
+
+		return contentHash(path, attributes(path));
 	}
 
 	/**
-	 * Convenience method to create {@link FileMetaData} instances from file paths.
+	 * Get the hash of the file contents, using the attributes that were read before hashing to look up and store the
+	 * hash in the cache. A file changed while hashing does not match the stored entry.
+	 */
+	private byte[] contentHash(Path path, BasicFileAttributes attributes) throws IOException {
+		if (hashCache == null) {
+			return hash(path);
+		}
+
+		long size = attributes.size();
+		long modifiedTime = attributes.lastModifiedTime().toMillis();
+		byte[] hash = hashCache.read(path, size, modifiedTime);
+
+		if (hash == null) {
+			hash = hash(path);
+			hashCache.write(path, hash, size, modifiedTime);
+		}
+
+		return hash;
+	}
+
+	/**
+	 * Get the hash of the file contents, like {@link #contentHash(Path)}, but read the file with the
+	 * {@link AsyncHasher}. Blocks while the hasher has the maximum number of files in flight.
+	 * 
+	 * @param path
+	 *            of the file to hash
+	 * @return a future that completes with the hash of the file
+	 * @throws IOException
+	 *             if there is an IO error
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the hasher
+	 */
+	public CompletableFuture<byte[]> contentHashAsync(Path path) throws IOException, InterruptedException {
+		if (hashCache == null) {
+			return asyncHasher == null ? CompletableFuture.completedFuture(hash(path)) : asyncHasher.hash(path);
+		}
+
+		return contentHashAsync(path, attributes(path));
+	}
+
+	private CompletableFuture<byte[]> contentHashAsync(Path path, BasicFileAttributes attributes)
+			throws IOException, InterruptedException {
+		if (asyncHasher == null) {
+			return CompletableFuture.completedFuture(contentHash(path, attributes));
+		}
+
+		if (hashCache == null) {
+			return asyncHasher.hash(path);
+		}
+
+		long size = attributes.size();
+		long modifiedTime = attributes.lastModifiedTime().toMillis();
+		byte[] hash = hashCache.read(path, size, modifiedTime);
+
+		if (hash != null) {
+			return CompletableFuture.completedFuture(hash);
+		}
+
+		return asyncHasher.hash(path).thenApply(computed -> {
+			hashCache.write(path, computed, size, modifiedTime);
+			return computed;
+		});
+	}
+
+	private byte[] hash(Path path) throws IOException {
+		if (directReader != null) {
+			return directReader.read(path, SHA512::newHasher, Hasher::putBytes).hash().asBytes();
+		}
+
+		ByteSource source = MoreFiles.asByteSource(path);
+
+		if (throttle != null) {
+			source = new ByteSource() {
+				@Override
+				public InputStream openStream() throws IOException {
+					return throttle.wrap(Files.newInputStream(path));
+				}
+			};
+		}
+
+		HashCode hc = source.hash(SHA512);
+		return hc.asBytes();
+	}
+
+	/**
+	 * Convenience method to create {@link FileMetaData} instances from file paths. The attributes of the file are read
+	 * once, for the size, modified time, file key and the hash cache.
 	 * 
 	 * @param file
 	 *            for which metadata should be created
@@ -94,7 +291,36 @@ public class MetaData {
 	 *             if there is an IO error
 	 */
 	public FileMetaData createMetaDataFromFile(Path file) throws IOException {
-		return new FileMetaData(file.toString(), size(file), lastModified(file), contentHash(file));
+		BasicFileAttributes attributes = attributes(file);
+		FileMetaData meta = new FileMetaData(file.toString(), attributes.size(),
+				attributes.lastModifiedTime().toMillis(), contentHash(file, attributes));
+		meta.setFileKey(fileKey(attributes));
+
+		return meta;
+	}
+
+	/**
+	 * Create {@link FileMetaData} for the file, hashing it with {@link #contentHashAsync(Path)}.
+	 * 
+	 * @param file
+	 *            for which metadata should be created
+	 * @return a future that completes with the metadata for the file
+	 * @throws IOException
+	 *             if there is an IO error
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the hasher
+	 */
+	public CompletableFuture<FileMetaData> createMetaDataFromFileAsync(Path file)
+			throws IOException, InterruptedException {
+		BasicFileAttributes attributes = attributes(file);
+		FileMetaData meta = new FileMetaData(file.toString(), attributes.size(),
+				attributes.lastModifiedTime().toMillis(), new byte[0]);
+		meta.setFileKey(fileKey(attributes));
+
+		return contentHashAsync(file, attributes).thenApply(hash -> {
+			meta.setHash(hash);
+			return meta;
+		});
 	}
 
 	/**
@@ -107,9 +333,38 @@ public class MetaData {
 	 */
 	public void updateMetaData(FileMetaData meta) throws IOException {
 		Path path = fileSystem.getPath(meta.getPathAsString());
+		BasicFileAttributes attributes = attributes(path);
+
+		meta.setSize(attributes.size());
+		meta.setModifiedTime(attributes.lastModifiedTime().toMillis());
+		meta.setHash(contentHash(path, attributes));
+		meta.setFileKey(fileKey(attributes));
+	}
+
+	/**
+	 * Update size, modified time and hash for the {@link FileMetaData} object, hashing the file with
+	 * {@link #contentHashAsync(Path)}. The hash is updated once the future completes.
+	 * 
+	 * @param meta
+	 *            to update
+	 * @return a future that completes with the updated metadata
+	 * @throws IOException
+	 *             if there is an IO error
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the hasher
+	 */
+	public CompletableFuture<FileMetaData> updateMetaDataAsync(FileMetaData meta)
+			throws IOException, InterruptedException {
+		Path path = fileSystem.getPath(meta.getPathAsString());
+		BasicFileAttributes attributes = attributes(path);
+
+		meta.setSize(attributes.size());
+		meta.setModifiedTime(attributes.lastModifiedTime().toMillis());
+		meta.setFileKey(fileKey(attributes));
 
-		meta.setSize(size(path));
-		meta.setModifiedTime(lastModified(path));
-		meta.setHash(contentHash(path));
+		return contentHashAsync(path, attributes).thenApply(hash -> {
+			meta.setHash(hash);
+			return meta;
+		});
 	}
 }
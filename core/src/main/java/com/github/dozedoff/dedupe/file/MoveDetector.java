@@ -0,0 +1,118 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.file;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.dozedoff.dedupe.db.FileKeyIndex;
+import com.github.dozedoff.dedupe.db.dao.FileMetaDataDao;
+import com.github.dozedoff.dedupe.db.table.FileMetaData;
+import com.github.dozedoff.dedupe.pipeline.DeviceLimiter;
+import com.github.dozedoff.dedupe.pipeline.DeviceLimiter.FileOperation;
+
+/**
+ * Detects files that were moved or renamed since they were indexed, so the stored hash can be reused instead of
+ * reading the file again. A file counts as moved if a stored row has the same file key, size and modified time, and
+ * the path of that row no longer exists. If the old path still exists, the new path is a hard link and not a move.
+ * 
+ * @author Nicholas Wright
+ *
+ */
+public class MoveDetector {
+	private static final Logger LOGGER = LoggerFactory.getLogger(MoveDetector.class);
+
+	private final FileMetaDataDao dao;
+	private final DeviceLimiter deviceLimiter;
+	private final FileKeyIndex knownKeys;
+	private final Set<Integer> movedRows;
+
+	/**
+	 * Create a new detector that queries the database for every file.
+	 * 
+	 * @param dao
+	 *            to look up stored files
+	 */
+	public MoveDetector(FileMetaDataDao dao) {
+		this(dao, null, null);
+	}
+
+	/**
+	 * Create a new detector.
+	 * 
+	 * @param dao
+	 *            to look up stored files
+	 * @param deviceLimiter
+	 *            to limit the concurrent reads of file attributes per device, null for no limit
+	 * @param knownKeys
+	 *            preloaded keys of the stored files, files with other keys are not looked up in the database. Null to
+	 *            query the database for every file
+	 */
+	public MoveDetector(FileMetaDataDao dao, DeviceLimiter deviceLimiter, FileKeyIndex knownKeys) {
+		this.dao = dao;
+		this.deviceLimiter = deviceLimiter;
+		this.knownKeys = knownKeys;
+		this.movedRows = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+	}
+
+	/**
+	 * Check if the file was moved from a known path. If so, the stored metadata is moved to the new path and
+	 * returned. The caller is responsible for writing the updated metadata.
+	 * 
+	 * @param file
+	 *            that has no stored metadata
+	 * @return the moved metadata with the stored hash, or null if the file is not a known moved file
+	 * @throws IOException
+	 *             if there is an error reading the file attributes
+	 * @throws SQLException
+	 *             if there is an error accessing the database
+	 * @throws InterruptedException
+	 *             if interrupted while waiting to read the file attributes
+	 */
+	public FileMetaData findMoved(Path file) throws IOException, SQLException, InterruptedException {
+		BasicFileAttributes attributes = io(file, () -> Files.readAttributes(file, BasicFileAttributes.class));
+
+		if (attributes.fileKey() == null) {
+			return null;
+		}
+
+		String fileKey = attributes.fileKey().toString();
+
+		if (knownKeys != null && !knownKeys.mightContain(fileKey)) {
+			return null;
+		}
+
+		for (FileMetaData known : dao.getMetaDataForFileKey(fileKey, attributes.size(),
+				attributes.lastModifiedTime().toMillis())) {
+			Path oldPath = known.getPath(file.getFileSystem());
+
+			if (!io(oldPath, () -> Files.exists(oldPath)) && movedRows.add(known.getId())) {
+				dao.moveTo(known, file);
+				LOGGER.debug("Detected move of {} to {}", oldPath, file);
+
+				return known;
+			}
+		}
+
+		return null;
+	}
+
+	private <R> R io(Path path, FileOperation<R> operation) throws IOException, InterruptedException {
+		if (deviceLimiter == null) {
+			return operation.run();
+		}
+
+		return deviceLimiter.call(path, operation);
+	}
+}
@@ -0,0 +1,102 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.file;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Adjusts the limits of an {@link IoThrottle} from a properties file, so the throttle of a running instance can be
+ * changed. The file is only parsed if its modified time has changed since the last reload. Keys that are missing keep
+ * their current limit, a value of 0 disables the limit. Example:
+ *
+ * <pre>
+ * bytes_per_second = 50M
+ * operations_per_second = 200
+ * </pre>
+ *
+ * @author Nicholas Wright
+ *
+ */
+public class ThrottleControlFile {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ThrottleControlFile.class);
+
+	/**
+	 * Key for the bandwidth limit, the value is parsed with {@link IoThrottle#parseRate(String)}.
+	 */
+	public static final String BYTES_PER_SECOND = "bytes_per_second";
+	/**
+	 * Key for the operation limit, the value is parsed with {@link IoThrottle#parseRate(String)}.
+	 */
+	public static final String OPERATIONS_PER_SECOND = "operations_per_second";
+
+	private final Path file;
+	private final IoThrottle throttle;
+	private FileTime lastModified;
+
+	/**
+	 * Create a new control file for the throttle. The file does not need to exist yet.
+	 *
+	 * @param file
+	 *            containing the limits
+	 * @param throttle
+	 *            to adjust
+	 */
+	public ThrottleControlFile(Path file, IoThrottle throttle) {
+		this.file = file;
+		this.throttle = throttle;
+	}
+
+	/**
+	 * Apply the limits in the file, if it has been modified since the last reload. Errors are logged and leave the
+	 * limits unchanged.
+	 *
+	 * @return true if the limits were updated from the file
+	 */
+	public synchronized boolean reload() {
+		try {
+			FileTime modified = Files.getLastModifiedTime(file);
+
+			if (modified.equals(lastModified)) {
+				return false;
+			}
+
+			lastModified = modified;
+			Properties limits = new Properties();
+
+			try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+				limits.load(reader);
+			}
+
+			long bytesPerSecond = limit(limits, BYTES_PER_SECOND, throttle.getBytesPerSecond());
+			long operationsPerSecond = limit(limits, OPERATIONS_PER_SECOND, throttle.getOperationsPerSecond());
+			throttle.setLimits(bytesPerSecond, operationsPerSecond);
+			LOGGER.info("Updated read limits from {}: {}", file, throttle);
+
+			return true;
+		} catch (NoSuchFileException e) {
+			LOGGER.trace("Throttle control file {} does not exist", file);
+		} catch (IOException | IllegalArgumentException e) {
+			LOGGER.warn("Failed to read throttle control file {}: {}", file, e.toString());
+		}
+
+		return false;
+	}
+
+	private static long limit(Properties limits, String key, long current) {
+		String value = limits.getProperty(key);
+
+		return value == null ? current : IoThrottle.parseRate(value);
+	}
+}
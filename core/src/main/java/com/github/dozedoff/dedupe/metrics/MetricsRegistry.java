@@ -0,0 +1,282 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Registers MXBeans with an {@link MBeanServer} under the domain {@value #DOMAIN}, so the metrics of a run can be read
+ * with JMX while it is running. The registered beans can also be written as a JSON snapshot. Registration failures are
+ * logged and do not stop the run.
+ *
+ * @author Nicholas Wright
+ *
+ */
+public class MetricsRegistry implements AutoCloseable {
+	private static final Logger LOGGER = LoggerFactory.getLogger(MetricsRegistry.class);
+
+	/**
+	 * The JMX domain of the registered beans.
+	 */
+	public static final String DOMAIN = "com.github.dozedoff.dedupe";
+
+	private final MBeanServer server;
+	private final List<ObjectName> registered;
+
+	/**
+	 * Create a registry for the platform {@link MBeanServer}.
+	 */
+	public MetricsRegistry() {
+		this(ManagementFactory.getPlatformMBeanServer());
+	}
+
+	/**
+	 * Create a registry for the given server.
+	 *
+	 * @param server
+	 *            to register the beans with
+	 */
+	public MetricsRegistry(MBeanServer server) {
+		this.server = server;
+		this.registered = new ArrayList<ObjectName>();
+	}
+
+	/**
+	 * Create the name of a bean, e.g. <code>com.github.dozedoff.dedupe:type=Stage,name=hash</code>.
+	 *
+	 * @param type
+	 *            of the bean
+	 * @param name
+	 *            of the bean
+	 * @return the object name
+	 * @throws MalformedObjectNameException
+	 *             if the type or name contain characters that are not allowed in an object name
+	 */
+	public static ObjectName objectName(String type, String name) throws MalformedObjectNameException {
+		return new ObjectName(DOMAIN + ":type=" + type + ",name=" + name);
+	}
+
+	/**
+	 * Register a bean. A bean registered with the same name, e.g. by an earlier run in the same JVM, is replaced.
+	 *
+	 * @param type
+	 *            of the bean
+	 * @param name
+	 *            of the bean
+	 * @param bean
+	 *            to register, must implement an MXBean interface
+	 */
+	public synchronized void register(String type, String name, Object bean) {
+		try {
+			ObjectName objectName = objectName(type, name);
+
+			if (server.isRegistered(objectName)) {
+				server.unregisterMBean(objectName);
+			}
+
+			server.registerMBean(bean, objectName);
+
+			if (!registered.contains(objectName)) {
+				registered.add(objectName);
+			}
+		} catch (JMException e) {
+			LOGGER.warn("Failed to register metrics {} {}: {}", type, name, e.toString());
+		}
+	}
+
+	/**
+	 * Read the attributes of all beans registered with this registry. Tables, such as maps, are converted to maps sorted by key.
+	 *
+	 * @return attributes sorted by name, grouped by bean name and type, in the order the beans were registered
+	 */
+	public synchronized Map<String, Map<String, Map<String, Object>>> snapshot() {
+		Map<String, Map<String, Map<String, Object>>> snapshot = new LinkedHashMap<String, Map<String, Map<String, Object>>>();
+
+		for (ObjectName objectName : registered) {
+			try {
+				Map<String, Object> attributes = new TreeMap<String, Object>();
+
+				for (MBeanAttributeInfo info : server.getMBeanInfo(objectName).getAttributes()) {
+					attributes.put(info.getName(), toPlain(server.getAttribute(objectName, info.getName())));
+				}
+
+				snapshot.computeIfAbsent(objectName.getKeyProperty("type"),
+						type -> new LinkedHashMap<String, Map<String, Object>>())
+						.put(objectName.getKeyProperty("name"), attributes);
+			} catch (JMException e) {
+				LOGGER.warn("Failed to read metrics {}: {}", objectName, e.toString());
+			}
+		}
+
+		return snapshot;
+	}
+
+	private static Object toPlain(Object value) {
+		if (value instanceof TabularData) {
+			// the rows of a table have no order, sort them so snapshots are stable
+			Map<String, Object> map = new TreeMap<String, Object>();
+
+			for (Object row : ((TabularData) value).values()) {
+				CompositeData entry = (CompositeData) row;
+				map.put(String.valueOf(entry.get("key")), toPlain(entry.get("value")));
+			}
+
+			return map;
+		}
+
+		if (value instanceof CompositeData) {
+			CompositeData composite = (CompositeData) value;
+			Map<String, Object> map = new LinkedHashMap<String, Object>();
+
+			for (String key : composite.getCompositeType().keySet()) {
+				map.put(key, toPlain(composite.get(key)));
+			}
+
+			return map;
+		}
+
+		return value;
+	}
+
+	/**
+	 * Write a snapshot of all registered beans as JSON to a file, with the time of the snapshot.
+	 *
+	 * @param file
+	 *            to write, existing files are replaced
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	public void writeJson(Path file) throws IOException {
+		try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+			writeJson(writer);
+		}
+	}
+
+	/**
+	 * Write a snapshot of all registered beans as JSON, with the time of the snapshot.
+	 *
+	 * @param writer
+	 *            to write to
+	 * @throws IOException
+	 *             if writing fails
+	 */
+	public void writeJson(Writer writer) throws IOException {
+		Map<String, Object> json = new LinkedHashMap<String, Object>();
+		json.put("timestamp", Instant.now().toString());
+		json.putAll(snapshot());
+
+		StringBuilder sb = new StringBuilder();
+		appendJson(sb, json, "");
+		writer.write(sb.append('\n').toString());
+	}
+
+	private static void appendJson(StringBuilder sb, Object value, String indent) {
+		if (value instanceof Map) {
+			appendJsonObject(sb, (Map<?, ?>) value, indent);
+		} else if (value instanceof Number || value instanceof Boolean) {
+			sb.append(value);
+		} else if (value == null) {
+			sb.append("null");
+		} else {
+			appendJsonString(sb, value.toString());
+		}
+	}
+
+	private static void appendJsonObject(StringBuilder sb, Map<?, ?> map, String indent) {
+		if (map.isEmpty()) {
+			sb.append("{}");
+			return;
+		}
+
+		String inner = indent + "  ";
+		sb.append("{\n");
+		Iterator<? extends Entry<?, ?>> entries = map.entrySet().iterator();
+
+		while (entries.hasNext()) {
+			Entry<?, ?> entry = entries.next();
+			sb.append(inner);
+			appendJsonString(sb, String.valueOf(entry.getKey()));
+			sb.append(": ");
+			appendJson(sb, entry.getValue(), inner);
+			sb.append(entries.hasNext() ? ",\n" : "\n");
+		}
+
+		sb.append(indent).append('}');
+	}
+
+	private static void appendJsonString(StringBuilder sb, String value) {
+		sb.append('"');
+
+		for (char c : value.toCharArray()) {
+			switch (c) {
+			case '"':
+				sb.append("\\\"");
+				break;
+			case '\\':
+				sb.append("\\\\");
+				break;
+			case '\n':
+				sb.append("\\n");
+				break;
+			case '\r':
+				sb.append("\\r");
+				break;
+			case '\t':
+				sb.append("\\t");
+				break;
+			default:
+				if (c < 0x20) {
+					sb.append(String.format("\\u%04x", (int) c));
+				} else {
+					sb.append(c);
+				}
+			}
+		}
+
+		sb.append('"');
+	}
+
+	/**
+	 * Unregister all beans registered with this registry.
+	 */
+	@Override
+	public synchronized void close() {
+		for (ObjectName objectName : registered) {
+			try {
+				if (server.isRegistered(objectName)) {
+					server.unregisterMBean(objectName);
+				}
+			} catch (JMException e) {
+				LOGGER.warn("Failed to unregister metrics {}: {}", objectName, e.toString());
+			}
+		}
+
+		registered.clear();
+	}
+}
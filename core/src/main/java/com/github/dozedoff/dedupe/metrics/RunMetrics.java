@@ -0,0 +1,254 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.metrics;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.common.base.Ticker;
+
+/**
+ * Counters and phase timings of a dedupe run. The counters are striped, so they can be updated from the worker threads
+ * of the pipeline stages with little contention. The run starts when the metrics are created.
+ *
+ * @author Nicholas Wright
+ *
+ */
+public class RunMetrics implements RunMetricsMXBean {
+	/**
+	 * The counters of a run, see the matching getters of {@link RunMetricsMXBean} for their meaning.
+	 */
+	public enum Counter {
+		TOTAL_FILES,
+		EXISTING_FILES,
+		UPDATED_FILES,
+		MOVED_FILES,
+		NEW_FILES,
+		UNHASHED_FILES,
+		BYTES_HASHED,
+		BYTES_COMPARED,
+		HASH_GROUPS,
+		DUPLICATE_GROUPS,
+		LINKED_GROUPS,
+		LINKED_FILES,
+		SKIPPED_GROUPS,
+		NOT_STARTED_GROUPS,
+		NOT_STARTED_BYTES,
+		UNCOMPARED_GROUPS
+	}
+
+	private final Ticker ticker;
+	private final Map<Counter, LongAdder> counters;
+	private final ConcurrentHashMap<String, LongAdder> errors;
+	private final Map<String, Long> phaseNanos;
+	private final long startNanos;
+	private long phaseStartNanos;
+
+	/**
+	 * Create new metrics, the run starts now.
+	 */
+	public RunMetrics() {
+		this(Ticker.systemTicker());
+	}
+
+	RunMetrics(Ticker ticker) {
+		this.ticker = ticker;
+		this.counters = new EnumMap<Counter, LongAdder>(Counter.class);
+		this.errors = new ConcurrentHashMap<String, LongAdder>();
+		this.phaseNanos = new LinkedHashMap<String, Long>();
+		this.startNanos = ticker.read();
+		this.phaseStartNanos = startNanos;
+
+		for (Counter counter : Counter.values()) {
+			counters.put(counter, new LongAdder());
+		}
+	}
+
+	/**
+	 * Increment a counter by one.
+	 *
+	 * @param counter
+	 *            to increment
+	 */
+	public void increment(Counter counter) {
+		counters.get(counter).increment();
+	}
+
+	/**
+	 * Add to a counter.
+	 *
+	 * @param counter
+	 *            to add to
+	 * @param value
+	 *            to add
+	 */
+	public void add(Counter counter, long value) {
+		counters.get(counter).add(value);
+	}
+
+	/**
+	 * Get the current value of a counter.
+	 *
+	 * @param counter
+	 *            to read
+	 * @return the counter value
+	 */
+	public long get(Counter counter) {
+		return counters.get(counter).sum();
+	}
+
+	/**
+	 * Count an error, using the class name of the cause as the error name.
+	 *
+	 * @param operation
+	 *            that failed, e.g. <code>hash</code>
+	 * @param cause
+	 *            of the error
+	 */
+	public void error(String operation, Throwable cause) {
+		error(operation, cause.getClass().getSimpleName());
+	}
+
+	/**
+	 * Count an error.
+	 *
+	 * @param operation
+	 *            that failed, e.g. <code>link</code>
+	 * @param name
+	 *            of the error
+	 */
+	public void error(String operation, String name) {
+		errors.computeIfAbsent(operation + "." + name, key -> new LongAdder()).increment();
+	}
+
+	/**
+	 * Record that a phase has finished. The duration of the phase is the time since the previous phase finished, or
+	 * since the run started for the first phase.
+	 *
+	 * @param phase
+	 *            name of the phase
+	 */
+	public synchronized void phaseFinished(String phase) {
+		long now = ticker.read();
+		phaseNanos.put(phase, now - phaseStartNanos);
+		phaseStartNanos = now;
+	}
+
+	@Override
+	public long getTotalFiles() {
+		return get(Counter.TOTAL_FILES);
+	}
+
+	@Override
+	public long getExistingFiles() {
+		return get(Counter.EXISTING_FILES);
+	}
+
+	@Override
+	public long getUpdatedFiles() {
+		return get(Counter.UPDATED_FILES);
+	}
+
+	@Override
+	public long getMovedFiles() {
+		return get(Counter.MOVED_FILES);
+	}
+
+	@Override
+	public long getNewFiles() {
+		return get(Counter.NEW_FILES);
+	}
+
+	@Override
+	public long getUnhashedFiles() {
+		return get(Counter.UNHASHED_FILES);
+	}
+
+	@Override
+	public long getBytesHashed() {
+		return get(Counter.BYTES_HASHED);
+	}
+
+	@Override
+	public long getBytesCompared() {
+		return get(Counter.BYTES_COMPARED);
+	}
+
+	@Override
+	public long getHashGroups() {
+		return get(Counter.HASH_GROUPS);
+	}
+
+	@Override
+	public long getDuplicateGroups() {
+		return get(Counter.DUPLICATE_GROUPS);
+	}
+
+	@Override
+	public long getLinkedGroups() {
+		return get(Counter.LINKED_GROUPS);
+	}
+
+	@Override
+	public long getLinkedFiles() {
+		return get(Counter.LINKED_FILES);
+	}
+
+	@Override
+	public long getSkippedGroups() {
+		return get(Counter.SKIPPED_GROUPS);
+	}
+
+	@Override
+	public long getNotStartedGroups() {
+		return get(Counter.NOT_STARTED_GROUPS);
+	}
+
+	@Override
+	public long getNotStartedBytes() {
+		return get(Counter.NOT_STARTED_BYTES);
+	}
+
+	@Override
+	public long getUncomparedGroups() {
+		return get(Counter.UNCOMPARED_GROUPS);
+	}
+
+	@Override
+	public long getErrorCount() {
+		return errors.values().stream().mapToLong(LongAdder::sum).sum();
+	}
+
+	@Override
+	public Map<String, Long> getErrors() {
+		Map<String, Long> snapshot = new TreeMap<String, Long>();
+		errors.forEach((type, count) -> snapshot.put(type, count.sum()));
+
+		return snapshot;
+	}
+
+	@Override
+	public synchronized Map<String, Long> getPhaseTimesMillis() {
+		Map<String, Long> snapshot = new LinkedHashMap<String, Long>();
+		phaseNanos.forEach((phase, nanos) -> snapshot.put(phase, TimeUnit.NANOSECONDS.toMillis(nanos)));
+
+		return snapshot;
+	}
+
+	@Override
+	public long getElapsedMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(ticker.read() - startNanos);
+	}
+
+	@Override
+	public String toString() {
+		return "RunMetrics[" + counters + ", errors=" + getErrors() + "]";
+	}
+}
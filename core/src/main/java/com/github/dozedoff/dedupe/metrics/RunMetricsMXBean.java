@@ -0,0 +1,157 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.metrics;
+
+import java.util.Map;
+
+/**
+ * Management interface of {@link RunMetrics}, exposes the counters of a dedupe run as JMX attributes.
+ *
+ * @author Nicholas Wright
+ *
+ */
+public interface RunMetricsMXBean {
+	/**
+	 * Get the number of files with a non-unique size that were looked up.
+	 *
+	 * @return number of files
+	 */
+	long getTotalFiles();
+
+	/**
+	 * Get the number of files that already had stored metadata.
+	 *
+	 * @return number of known files
+	 */
+	long getExistingFiles();
+
+	/**
+	 * Get the number of known files that had changed and were hashed again.
+	 *
+	 * @return number of updated files
+	 */
+	long getUpdatedFiles();
+
+	/**
+	 * Get the number of files whose metadata was found under a different path.
+	 *
+	 * @return number of moved files
+	 */
+	long getMovedFiles();
+
+	/**
+	 * Get the number of files that were hashed for the first time.
+	 *
+	 * @return number of new files
+	 */
+	long getNewFiles();
+
+	/**
+	 * Get the number of files that were not hashed because the run was interrupted or ran out of time.
+	 *
+	 * @return number of unhashed files
+	 */
+	long getUnhashedFiles();
+
+	/**
+	 * Get the size of the files that were hashed.
+	 *
+	 * @return hashed bytes
+	 */
+	long getBytesHashed();
+
+	/**
+	 * Get the size of the files that were compared byte by byte.
+	 *
+	 * @return compared bytes
+	 */
+	long getBytesCompared();
+
+	/**
+	 * Get the number of groups of files with matching hashes.
+	 *
+	 * @return number of hash groups
+	 */
+	long getHashGroups();
+
+	/**
+	 * Get the number of groups of identical files.
+	 *
+	 * @return number of duplicate groups
+	 */
+	long getDuplicateGroups();
+
+	/**
+	 * Get the number of duplicate groups that were linked.
+	 *
+	 * @return number of linked groups
+	 */
+	long getLinkedGroups();
+
+	/**
+	 * Get the number of files that were replaced with links.
+	 *
+	 * @return number of linked files
+	 */
+	long getLinkedFiles();
+
+	/**
+	 * Get the number of duplicate groups that did not need linking.
+	 *
+	 * @return number of skipped groups
+	 */
+	long getSkippedGroups();
+
+	/**
+	 * Get the number of size groups that were not hashed because the time budget expired.
+	 *
+	 * @return number of groups not started
+	 */
+	long getNotStartedGroups();
+
+	/**
+	 * Get the bytes the size groups that were not started could have reclaimed.
+	 *
+	 * @return bytes not started
+	 */
+	long getNotStartedBytes();
+
+	/**
+	 * Get the number of hashed size groups that were not compared byte by byte because the time budget expired.
+	 *
+	 * @return number of groups not compared
+	 */
+	long getUncomparedGroups();
+
+	/**
+	 * Get the number of errors of all types.
+	 *
+	 * @return number of errors
+	 */
+	long getErrorCount();
+
+	/**
+	 * Get the number of errors by type. The type is the operation followed by the name of the error, e.g.
+	 * <code>hash.NoSuchFileException</code>.
+	 *
+	 * @return errors by type, sorted by type
+	 */
+	Map<String, Long> getErrors();
+
+	/**
+	 * Get the duration of the finished phases. Phases overlap, the duration of a phase is the time from the end of the
+	 * previous phase until the phase finished.
+	 *
+	 * @return phase durations in milliseconds, in the order the phases finished
+	 */
+	Map<String, Long> getPhaseTimesMillis();
+
+	/**
+	 * Get the time since the run started.
+	 *
+	 * @return the elapsed time in milliseconds
+	 */
+	long getElapsedMillis();
+}
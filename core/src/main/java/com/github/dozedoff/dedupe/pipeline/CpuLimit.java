@@ -0,0 +1,115 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.pipeline;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.OptionalDouble;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Determines how many CPUs the process may use, taking a CPU quota of the cgroup into account. Older JVMs report all
+ * CPUs of the host, even if a container may only use a fraction of them.
+ *
+ * @author Nicholas Wright
+ *
+ */
+public class CpuLimit {
+	private static final Logger LOGGER = LoggerFactory.getLogger(CpuLimit.class);
+
+	private static final Path CGROUP_ROOT = Paths.get("/sys/fs/cgroup");
+	private static final String UNLIMITED_V2 = "max";
+
+	private final Path cgroupRoot;
+	private final int processors;
+
+	/**
+	 * Create a new instance for the cgroup file system of this machine.
+	 */
+	public CpuLimit() {
+		this(CGROUP_ROOT, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Create a new instance with the given cgroup root and processor count.
+	 *
+	 * @param cgroupRoot
+	 *            directory where the cgroup file system is mounted
+	 * @param processors
+	 *            number of processors reported by the JVM
+	 */
+	public CpuLimit(Path cgroupRoot, int processors) {
+		this.cgroupRoot = cgroupRoot;
+		this.processors = processors;
+	}
+
+	/**
+	 * Get the number of CPUs that can be used, the lower of the processor count and the cgroup quota rounded up.
+	 *
+	 * @return number of usable CPUs, at least 1
+	 */
+	public int availableCpus() {
+		OptionalDouble quota = quotaV2();
+
+		if (!quota.isPresent()) {
+			quota = quotaV1();
+		}
+
+		if (quota.isPresent()) {
+			return Math.max(1, Math.min(processors, (int) Math.ceil(quota.getAsDouble())));
+		}
+
+		return Math.max(1, processors);
+	}
+
+	private OptionalDouble quotaV2() {
+		String[] cpuMax = read(cgroupRoot.resolve("cpu.max")).split(" ");
+
+		if (cpuMax.length != 2 || UNLIMITED_V2.equals(cpuMax[0])) {
+			return OptionalDouble.empty();
+		}
+
+		return quota(cpuMax[0], cpuMax[1]);
+	}
+
+	private OptionalDouble quotaV1() {
+		Path cpu = cgroupRoot.resolve("cpu");
+
+		return quota(read(cpu.resolve("cpu.cfs_quota_us")), read(cpu.resolve("cpu.cfs_period_us")));
+	}
+
+	private OptionalDouble quota(String quota, String period) {
+		try {
+			long quotaMicros = Long.parseLong(quota);
+			long periodMicros = Long.parseLong(period);
+
+			if (quotaMicros <= 0 || periodMicros <= 0) {
+				return OptionalDouble.empty();
+			}
+
+			return OptionalDouble.of((double) quotaMicros / periodMicros);
+		} catch (NumberFormatException e) {
+			return OptionalDouble.empty();
+		}
+	}
+
+	private String read(Path file) {
+		if (!Files.isReadable(file)) {
+			return "";
+		}
+
+		try {
+			return new String(Files.readAllBytes(file), StandardCharsets.US_ASCII).trim();
+		} catch (IOException e) {
+			LOGGER.debug("Failed to read {}: {}", file, e.toString());
+			return "";
+		}
+	}
+}
@@ -0,0 +1,125 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.pipeline;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Limits the number of file operations in flight per device. Used when workers are cheap, e.g. virtual threads, and
+ * the storage rather than the thread count should bound the concurrency. The device of a file is looked up once per
+ * directory.
+ *
+ * @author Nicholas Wright
+ *
+ */
+public class DeviceLimiter {
+	private static final Logger LOGGER = LoggerFactory.getLogger(DeviceLimiter.class);
+
+	private static final int MAX_CACHED_DIRECTORIES = 10000;
+
+	/**
+	 * A file operation to run while holding a permit.
+	 *
+	 * @param <R>
+	 *            the type of the result
+	 */
+	@FunctionalInterface
+	public interface FileOperation<R> {
+		/**
+		 * Run the operation.
+		 *
+		 * @return the result of the operation
+		 * @throws IOException
+		 *             if the operation fails
+		 */
+		R run() throws IOException;
+	}
+
+	private final int permitsPerDevice;
+	private final ConcurrentMap<FileStore, Semaphore> devices;
+	private final Cache<Path, Semaphore> directories;
+	private final Semaphore unknownDevice;
+
+	/**
+	 * Create a new limiter.
+	 *
+	 * @param permitsPerDevice
+	 *            maximum number of concurrent operations per device
+	 */
+	public DeviceLimiter(int permitsPerDevice) {
+		if (permitsPerDevice < 1) {
+			throw new IllegalArgumentException("At least one operation per device must be allowed");
+		}
+
+		this.permitsPerDevice = permitsPerDevice;
+		this.devices = new ConcurrentHashMap<FileStore, Semaphore>();
+		this.directories = CacheBuilder.newBuilder().maximumSize(MAX_CACHED_DIRECTORIES).build();
+		this.unknownDevice = new Semaphore(permitsPerDevice);
+	}
+
+	/**
+	 * Run the operation once a permit for the device of the file is available.
+	 *
+	 * @param <R>
+	 *            the type of the result
+	 * @param path
+	 *            of the file the operation accesses
+	 * @param operation
+	 *            to run
+	 * @return the result of the operation
+	 * @throws IOException
+	 *             if the operation fails
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for a permit
+	 */
+	public <R> R call(Path path, FileOperation<R> operation) throws IOException, InterruptedException {
+		Semaphore permits = permitsFor(path);
+		permits.acquire();
+
+		try {
+			return operation.run();
+		} finally {
+			permits.release();
+		}
+	}
+
+	private Semaphore permitsFor(Path path) {
+		Path directory = path.toAbsolutePath().getParent();
+
+		if (directory == null) {
+			return unknownDevice;
+		}
+
+		try {
+			return directories.get(directory, () -> devices.computeIfAbsent(Files.getFileStore(directory),
+					device -> new Semaphore(permitsPerDevice)));
+		} catch (ExecutionException e) {
+			LOGGER.debug("Failed to find the device of {}: {}", directory, e.getCause().toString());
+			return unknownDevice;
+		}
+	}
+
+	/**
+	 * Get the number of devices seen so far.
+	 *
+	 * @return number of devices
+	 */
+	public int devices() {
+		return devices.size();
+	}
+}
@@ -0,0 +1,284 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.pipeline;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.common.base.Ticker;
+
+/**
+ * Tracks the progress of a pipeline phase in files and bytes. Work is added with {@link #expect(long, long)} as it
+ * becomes known, once all work is known the remaining time can be estimated. The counters are striped, so they can be
+ * updated from the worker threads of a stage with little contention.
+ *
+ * @author Nicholas Wright
+ *
+ */
+public class PhaseProgress implements PhaseProgressMXBean {
+	private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+	private static final String[] BYTE_UNITS = { "B", "KiB", "MiB", "GiB", "TiB", "PiB", "EiB" };
+	private static final double BYTES_PER_UNIT = 1024;
+
+	private final String name;
+	private final Ticker ticker;
+	private final LongAdder expectedFiles;
+	private final LongAdder expectedBytes;
+	private final LongAdder files;
+	private final LongAdder bytes;
+	private volatile boolean totalKnown;
+
+	private final long startNanos;
+	private long sampleNanos;
+	private long sampleFiles;
+	private long sampleBytes;
+
+	/**
+	 * Create a new progress tracker, the elapsed time starts now.
+	 *
+	 * @param name
+	 *            of the phase
+	 */
+	public PhaseProgress(String name) {
+		this(name, Ticker.systemTicker());
+	}
+
+	PhaseProgress(String name, Ticker ticker) {
+		this.name = name;
+		this.ticker = ticker;
+		this.expectedFiles = new LongAdder();
+		this.expectedBytes = new LongAdder();
+		this.files = new LongAdder();
+		this.bytes = new LongAdder();
+		this.startNanos = ticker.read();
+		this.sampleNanos = startNanos;
+	}
+
+	/**
+	 * Add work that the phase will process.
+	 *
+	 * @param fileCount
+	 *            number of files
+	 * @param byteCount
+	 *            total size of the files
+	 */
+	public void expect(long fileCount, long byteCount) {
+		expectedFiles.add(fileCount);
+		expectedBytes.add(byteCount);
+	}
+
+	/**
+	 * Remove expected work that will not be processed.
+	 *
+	 * @param fileCount
+	 *            number of files
+	 * @param byteCount
+	 *            total size of the files
+	 */
+	public void cancel(long fileCount, long byteCount) {
+		expectedFiles.add(-fileCount);
+		expectedBytes.add(-byteCount);
+	}
+
+	/**
+	 * Record processed work.
+	 *
+	 * @param fileCount
+	 *            number of files
+	 * @param byteCount
+	 *            total size of the files
+	 */
+	public void completed(long fileCount, long byteCount) {
+		files.add(fileCount);
+		bytes.add(byteCount);
+	}
+
+	/**
+	 * Signal that all work of the phase has been added, so the remaining time can be estimated.
+	 */
+	public void totalKnown() {
+		totalKnown = true;
+	}
+
+	@Override
+	public boolean isTotalKnown() {
+		return totalKnown;
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Get the number of processed files.
+	 *
+	 * @return files processed so far
+	 */
+	public long files() {
+		return files.sum();
+	}
+
+	/**
+	 * Get the number of processed bytes.
+	 *
+	 * @return bytes processed so far
+	 */
+	public long bytes() {
+		return bytes.sum();
+	}
+
+	/**
+	 * Get the number of files the phase will process, which may still grow if the total is not known.
+	 *
+	 * @return expected files
+	 */
+	public long expectedFiles() {
+		return expectedFiles.sum();
+	}
+
+	/**
+	 * Get the number of bytes the phase will process, which may still grow if the total is not known.
+	 *
+	 * @return expected bytes
+	 */
+	public long expectedBytes() {
+		return expectedBytes.sum();
+	}
+
+	@Override
+	public long getFiles() {
+		return files();
+	}
+
+	@Override
+	public long getBytes() {
+		return bytes();
+	}
+
+	@Override
+	public long getExpectedFiles() {
+		return expectedFiles();
+	}
+
+	@Override
+	public long getExpectedBytes() {
+		return expectedBytes();
+	}
+
+	/**
+	 * Check if the phase has expected or processed any work.
+	 *
+	 * @return true if the phase has started
+	 */
+	public boolean hasStarted() {
+		return files() > 0 || expectedFiles() > 0;
+	}
+
+	/**
+	 * Create a report of the progress, with the throughput since the previous report and the estimated remaining
+	 * time. The estimate uses the current byte rate, or the average if nothing was processed since the previous
+	 * report.
+	 *
+	 * @return a single line report
+	 */
+	public synchronized String report() {
+		long now = ticker.read();
+		long currentFiles = files();
+		long currentBytes = bytes();
+		double intervalSeconds = Math.max(1, now - sampleNanos) / (double) NANOS_PER_SECOND;
+		double elapsedSeconds = Math.max(1, now - startNanos) / (double) NANOS_PER_SECOND;
+
+		double byteRate = (currentBytes - sampleBytes) / intervalSeconds;
+		double fileRate = (currentFiles - sampleFiles) / intervalSeconds;
+
+		sampleNanos = now;
+		sampleFiles = currentFiles;
+		sampleBytes = currentBytes;
+
+		StringBuilder report = new StringBuilder(name).append(": ").append(currentFiles);
+
+		if (expectedFiles() > 0) {
+			report.append('/').append(expectedFiles()).append(totalKnown ? "" : "+");
+		}
+
+		report.append(" files, ").append(formatBytes(currentBytes));
+
+		if (expectedBytes() > 0) {
+			report.append('/').append(formatBytes(expectedBytes())).append(totalKnown ? "" : "+");
+			report.append(String.format(Locale.ROOT, " (%.1f%%)", percent(currentBytes, expectedBytes())));
+		}
+
+		report.append(String.format(Locale.ROOT, ", %s/s, %.1f files/s, ETA ", formatBytes((long) byteRate),
+				fileRate));
+
+		double estimateRate = byteRate > 0 ? byteRate : currentBytes / elapsedSeconds;
+		report.append(eta(expectedBytes() - currentBytes, estimateRate));
+
+		return report.toString();
+	}
+
+	private String eta(long remainingBytes, double bytesPerSecond) {
+		if (!totalKnown) {
+			return "unknown";
+		}
+
+		if (remainingBytes <= 0) {
+			return "done";
+		}
+
+		if (bytesPerSecond <= 0) {
+			return "unknown";
+		}
+
+		return formatDuration((long) Math.ceil(remainingBytes / bytesPerSecond));
+	}
+
+	private static double percent(long part, long total) {
+		return total <= 0 ? 100 : Math.min(100, part * 100.0 / total);
+	}
+
+	/**
+	 * Format a number of bytes with a binary unit, e.g. <code>1.5 GiB</code>.
+	 *
+	 * @param byteCount
+	 *            to format
+	 * @return the formatted size
+	 */
+	public static String formatBytes(long byteCount) {
+		double value = byteCount;
+		int unit = 0;
+
+		while (Math.abs(value) >= BYTES_PER_UNIT && unit < BYTE_UNITS.length - 1) {
+			value /= BYTES_PER_UNIT;
+			unit++;
+		}
+
+		if (unit == 0) {
+			return byteCount + " " + BYTE_UNITS[unit];
+		}
+
+		return String.format(Locale.ROOT, "%.1f %s", value, BYTE_UNITS[unit]);
+	}
+
+	/**
+	 * Format a duration in seconds as hours, minutes and seconds, e.g. <code>12:03:09</code>.
+	 *
+	 * @param seconds
+	 *            to format
+	 * @return the formatted duration
+	 */
+	public static String formatDuration(long seconds) {
+		return String.format(Locale.ROOT, "%d:%02d:%02d", TimeUnit.SECONDS.toHours(seconds),
+				TimeUnit.SECONDS.toMinutes(seconds) % 60, seconds % 60);
+	}
+
+	@Override
+	public String toString() {
+		return name + "[files=" + files() + "/" + expectedFiles() + ", bytes=" + bytes() + "/" + expectedBytes()
+				+ ", totalKnown=" + totalKnown + "]";
+	}
+}
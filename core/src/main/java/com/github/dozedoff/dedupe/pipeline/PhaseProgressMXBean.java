@@ -0,0 +1,55 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.pipeline;
+
+/**
+ * Management interface of a {@link PhaseProgress}, exposes the progress of a phase as JMX attributes.
+ *
+ * @author Nicholas Wright
+ *
+ */
+public interface PhaseProgressMXBean {
+	/**
+	 * Get the name of the phase.
+	 *
+	 * @return the name
+	 */
+	String getName();
+
+	/**
+	 * Get the number of processed files.
+	 *
+	 * @return files processed so far
+	 */
+	long getFiles();
+
+	/**
+	 * Get the number of processed bytes.
+	 *
+	 * @return bytes processed so far
+	 */
+	long getBytes();
+
+	/**
+	 * Get the number of files the phase will process.
+	 *
+	 * @return expected files
+	 */
+	long getExpectedFiles();
+
+	/**
+	 * Get the number of bytes the phase will process.
+	 *
+	 * @return expected bytes
+	 */
+	long getExpectedBytes();
+
+	/**
+	 * Check if all work of the phase has been added.
+	 *
+	 * @return true if the total is known
+	 */
+	boolean isTotalKnown();
+}
@@ -0,0 +1,314 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.pipeline;
+
+import java.util.Collection;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * One stage of a processing pipeline. Items are submitted to a bounded queue and processed by a fixed number of worker
+ * threads. Submitting blocks while the queue is full, so a slow stage slows down the stages feeding it instead of
+ * buffering without limit.<br>
+ * Workers may submit items to other stages. Once all items have been submitted, call {@link #finish()}, the workers
+ * exit after the queue has been drained.
+ *
+ * @author Nicholas Wright
+ *
+ * @param <T>
+ *            the type of the processed items
+ */
+public class Stage<T> implements StageMXBean {
+	/**
+	 * Processes a single item of a stage.
+	 *
+	 * @param <T>
+	 *            the type of the processed items
+	 */
+	@FunctionalInterface
+	public interface Worker<T> {
+		/**
+		 * Process the item.
+		 *
+		 * @param item
+		 *            to process
+		 * @throws Exception
+		 *             if processing fails, the item is logged and counted as failed
+		 */
+		void process(T item) throws Exception;
+	}
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(Stage.class);
+
+	private static final long POLL_INTERVAL_MILLIS = 100;
+
+	private final String name;
+	private final int concurrency;
+	private final BlockingQueue<T> queue;
+	private final Worker<T> worker;
+	private final ExecutorService executor;
+
+	private final AtomicInteger peakQueueDepth;
+	private final LongAdder processed;
+	private final LongAdder failed;
+	private final LongAdder busyNanos;
+
+	private volatile boolean finished;
+
+	/**
+	 * Create a new stage and start its workers.
+	 *
+	 * @param name
+	 *            of the stage, used for thread names and logging
+	 * @param concurrency
+	 *            number of worker threads
+	 * @param queueCapacity
+	 *            maximum number of queued items
+	 * @param worker
+	 *            processes the items
+	 */
+	public Stage(String name, int concurrency, int queueCapacity, Worker<T> worker) {
+		this(name, concurrency, queueCapacity, ThreadMode.PLATFORM.threadFactory(name), worker);
+	}
+
+	/**
+	 * Create a new stage and start its workers on threads created by the given factory.
+	 *
+	 * @param name
+	 *            of the stage, used for logging
+	 * @param concurrency
+	 *            number of worker threads
+	 * @param queueCapacity
+	 *            maximum number of queued items
+	 * @param threadFactory
+	 *            creates the worker threads
+	 * @param worker
+	 *            processes the items
+	 */
+	public Stage(String name, int concurrency, int queueCapacity, ThreadFactory threadFactory, Worker<T> worker) {
+		if (concurrency < 1) {
+			throw new IllegalArgumentException("Stage " + name + " needs at least one worker");
+		}
+
+		this.name = name;
+		this.concurrency = concurrency;
+		this.queue = new ArrayBlockingQueue<T>(queueCapacity);
+		this.worker = worker;
+
+		this.peakQueueDepth = new AtomicInteger();
+		this.processed = new LongAdder();
+		this.failed = new LongAdder();
+		this.busyNanos = new LongAdder();
+
+		this.executor = Executors.newFixedThreadPool(concurrency, threadFactory);
+
+		for (int i = 0; i < concurrency; i++) {
+			executor.execute(this::work);
+		}
+
+		executor.shutdown();
+	}
+
+	/**
+	 * Queue an item for processing, waiting for space in the queue if necessary.
+	 *
+	 * @param item
+	 *            to process
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for space in the queue
+	 * @throws IllegalStateException
+	 *             if the stage has been finished
+	 */
+	public void submit(T item) throws InterruptedException {
+		if (finished) {
+			throw new IllegalStateException("Stage " + name + " has been finished");
+		}
+
+		queue.put(item);
+		peakQueueDepth.accumulateAndGet(queue.size(), Math::max);
+	}
+
+	/**
+	 * Queue all items for processing, waiting for space in the queue if necessary.
+	 *
+	 * @param items
+	 *            to process
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for space in the queue
+	 * @throws IllegalStateException
+	 *             if the stage has been finished
+	 */
+	public void submitAll(Collection<? extends T> items) throws InterruptedException {
+		for (T item : items) {
+			submit(item);
+		}
+	}
+
+	/**
+	 * Signal that no more items will be submitted. Workers exit once the queue is empty.
+	 */
+	public void finish() {
+		finished = true;
+	}
+
+	/**
+	 * Wait for the workers to process all queued items and exit. Must be called after {@link #finish()}.
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	public void awaitCompletion() throws InterruptedException {
+		executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+	}
+
+	/**
+	 * Signal that no more items will be submitted and wait for all queued items to be processed.
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	public void finishAndAwait() throws InterruptedException {
+		finish();
+		awaitCompletion();
+	}
+
+	private void work() {
+		while (true) {
+			T item;
+
+			try {
+				item = queue.poll(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				LOGGER.warn("Worker of stage {} was interrupted, {} items remain queued", name, queue.size());
+				return;
+			}
+
+			if (item == null) {
+				if (finished) {
+					return;
+				}
+
+				continue;
+			}
+
+			process(item);
+		}
+	}
+
+	private void process(T item) {
+		long start = System.nanoTime();
+
+		try {
+			worker.process(item);
+		} catch (InterruptedException e) {
+			failed.increment();
+			Thread.currentThread().interrupt();
+			LOGGER.warn("Stage {} was interrupted while processing {}", name, item);
+		} catch (Exception e) {
+			failed.increment();
+			LOGGER.warn("Stage {} failed to process {}: {}", name, item, e.toString());
+		} finally {
+			processed.increment();
+			busyNanos.add(System.nanoTime() - start);
+		}
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public int getConcurrency() {
+		return concurrency;
+	}
+
+	/**
+	 * Get the number of items currently waiting in the queue.
+	 *
+	 * @return current queue depth
+	 */
+	public int queueDepth() {
+		return queue.size();
+	}
+
+	/**
+	 * Get the highest number of items that were waiting in the queue at the same time.
+	 *
+	 * @return peak queue depth
+	 */
+	public int peakQueueDepth() {
+		return peakQueueDepth.get();
+	}
+
+	/**
+	 * Get the number of items that have been processed, including failed items.
+	 *
+	 * @return number of processed items
+	 */
+	public long processed() {
+		return processed.sum();
+	}
+
+	/**
+	 * Get the number of items whose processing failed.
+	 *
+	 * @return number of failed items
+	 */
+	public long failed() {
+		return failed.sum();
+	}
+
+	/**
+	 * Get the time the workers spent processing items, summed over all workers.
+	 *
+	 * @param unit
+	 *            of the returned time
+	 * @return the busy time
+	 */
+	public long busyTime(TimeUnit unit) {
+		return unit.convert(busyNanos.sum(), TimeUnit.NANOSECONDS);
+	}
+
+	@Override
+	public int getQueueDepth() {
+		return queueDepth();
+	}
+
+	@Override
+	public int getPeakQueueDepth() {
+		return peakQueueDepth();
+	}
+
+	@Override
+	public long getProcessed() {
+		return processed();
+	}
+
+	@Override
+	public long getFailed() {
+		return failed();
+	}
+
+	@Override
+	public long getBusyTimeMillis() {
+		return busyTime(TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public String toString() {
+		return name + "[processed=" + processed() + ", failed=" + failed() + ", queued=" + queueDepth() + ", peak="
+				+ peakQueueDepth() + ", workers=" + concurrency + "]";
+	}
+}
@@ -0,0 +1,62 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.pipeline;
+
+/**
+ * Management interface of a {@link Stage}, exposes the stage counters as JMX attributes.
+ *
+ * @author Nicholas Wright
+ *
+ */
+public interface StageMXBean {
+	/**
+	 * Get the name of the stage.
+	 *
+	 * @return the stage name
+	 */
+	String getName();
+
+	/**
+	 * Get the number of worker threads.
+	 *
+	 * @return number of workers
+	 */
+	int getConcurrency();
+
+	/**
+	 * Get the number of items currently waiting in the queue.
+	 *
+	 * @return current queue depth
+	 */
+	int getQueueDepth();
+
+	/**
+	 * Get the highest number of items that were waiting in the queue at the same time.
+	 *
+	 * @return peak queue depth
+	 */
+	int getPeakQueueDepth();
+
+	/**
+	 * Get the number of items that have been processed, including failed items.
+	 *
+	 * @return number of processed items
+	 */
+	long getProcessed();
+
+	/**
+	 * Get the number of items whose processing failed.
+	 *
+	 * @return number of failed items
+	 */
+	long getFailed();
+
+	/**
+	 * Get the time the workers spent processing items, summed over all workers.
+	 *
+	 * @return the busy time in milliseconds
+	 */
+	long getBusyTimeMillis();
+}
@@ -0,0 +1,96 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.pipeline;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * The kind of threads pipeline stages run on. Virtual threads are looked up via reflection, so the code still runs on
+ * JVMs that do not have them.
+ *
+ * @author Nicholas Wright
+ *
+ */
+public enum ThreadMode {
+	/**
+	 * Daemon platform threads, one operating system thread per worker.
+	 */
+	PLATFORM,
+	/**
+	 * Virtual threads, cheap enough to keep thousands of blocking file operations in flight.
+	 */
+	VIRTUAL;
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ThreadMode.class);
+
+	/**
+	 * Check if threads of this mode can be created on the running JVM.
+	 *
+	 * @return true if the mode is supported
+	 */
+	public boolean isSupported() {
+		if (this == PLATFORM) {
+			return true;
+		}
+
+		try {
+			virtualThreadFactory("probe");
+			return true;
+		} catch (UnsupportedOperationException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Get this mode if it is supported, otherwise fall back to {@link #PLATFORM}.
+	 *
+	 * @return a supported thread mode
+	 */
+	public ThreadMode orFallback() {
+		if (isSupported()) {
+			return this;
+		}
+
+		LOGGER.warn("{} threads are not supported by this JVM, using {} threads", this, PLATFORM);
+		return PLATFORM;
+	}
+
+	/**
+	 * Create a factory for threads of this mode.
+	 *
+	 * @param name
+	 *            prefix for the thread names, followed by a counter
+	 * @return a new thread factory
+	 * @throws UnsupportedOperationException
+	 *             if the mode is not supported by the JVM
+	 */
+	public ThreadFactory threadFactory(String name) {
+		if (this == PLATFORM) {
+			return new ThreadFactoryBuilder().setNameFormat(name + "-%d").setDaemon(true).build();
+		}
+
+		return virtualThreadFactory(name);
+	}
+
+	private static ThreadFactory virtualThreadFactory(String name) {
+		try {
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name + "-", 0L);
+
+			return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+		} catch (InvocationTargetException e) {
+			throw new UnsupportedOperationException("Virtual threads are not enabled", e.getCause());
+		} catch (ReflectiveOperationException e) {
+			throw new UnsupportedOperationException("Virtual threads are not available", e);
+		}
+	}
+}
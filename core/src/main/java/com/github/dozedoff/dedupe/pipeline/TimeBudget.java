@@ -0,0 +1,131 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.pipeline;
+
+import java.time.Duration;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+
+import com.google.common.base.Ticker;
+
+/**
+ * A fixed amount of time for a run, starting when the budget is created. Work that has not been started when the
+ * budget expires should be skipped.
+ *
+ * @author Nicholas Wright
+ *
+ */
+public class TimeBudget {
+	private final Duration budget;
+	private final Ticker ticker;
+	private final long deadline;
+
+	/**
+	 * Create a new budget that starts now.
+	 *
+	 * @param budget
+	 *            time available for the run
+	 */
+	public TimeBudget(Duration budget) {
+		this(budget, Ticker.systemTicker());
+	}
+
+	TimeBudget(Duration budget, Ticker ticker) {
+		if (budget.isNegative()) {
+			throw new IllegalArgumentException("Time budget must not be negative");
+		}
+
+		this.budget = budget;
+		this.ticker = ticker;
+		this.deadline = ticker.read() + saturatedNanos(budget);
+	}
+
+	private static long saturatedNanos(Duration duration) {
+		try {
+			return duration.toNanos();
+		} catch (ArithmeticException e) {
+			return Long.MAX_VALUE / 2;
+		}
+	}
+
+	/**
+	 * Parse a duration as a number with an optional unit suffix of s, m, h or d, e.g. <code>90m</code>, or in the ISO-8601
+	 * format, e.g. <code>PT1H30M</code>. A number without a unit is in seconds.
+	 *
+	 * @param duration
+	 *            to parse
+	 * @return the parsed duration
+	 * @throws IllegalArgumentException
+	 *             if the duration is not valid or negative
+	 */
+	public static Duration parseDuration(String duration) {
+		String trimmed = duration.trim().toUpperCase(Locale.ROOT);
+		Duration parsed;
+
+		try {
+			if (trimmed.startsWith("P")) {
+				parsed = Duration.parse(trimmed);
+			} else {
+				parsed = parseWithUnit(trimmed);
+			}
+		} catch (NumberFormatException | DateTimeParseException | ArithmeticException e) {
+			throw new IllegalArgumentException("Invalid duration: " + duration, e);
+		}
+
+		if (parsed.isNegative()) {
+			throw new IllegalArgumentException("Duration must not be negative: " + duration);
+		}
+
+		return parsed;
+	}
+
+	private static Duration parseWithUnit(String duration) {
+		char unit = duration.isEmpty() ? ' ' : duration.charAt(duration.length() - 1);
+		String number = Character.isLetter(unit) ? duration.substring(0, duration.length() - 1).trim() : duration;
+		long value = Long.parseLong(number);
+
+		switch (unit) {
+		case 'D':
+			return Duration.ofDays(value);
+		case 'H':
+			return Duration.ofHours(value);
+		case 'M':
+			return Duration.ofMinutes(value);
+		case 'S':
+			return Duration.ofSeconds(value);
+		default:
+			if (Character.isLetter(unit)) {
+				throw new NumberFormatException("Unknown unit " + unit);
+			}
+
+			return Duration.ofSeconds(value);
+		}
+	}
+
+	/**
+	 * Check if the budget has been used up.
+	 *
+	 * @return true if the time is up
+	 */
+	public boolean isExpired() {
+		return remaining().isZero();
+	}
+
+	/**
+	 * Get the time left in the budget.
+	 *
+	 * @return the remaining time, zero if the budget has expired
+	 */
+	public Duration remaining() {
+		long remaining = deadline - ticker.read();
+
+		return remaining > 0 ? Duration.ofNanos(remaining) : Duration.ZERO;
+	}
+
+	@Override
+	public String toString() {
+		return "TimeBudget[budget=" + budget + ", remaining=" + remaining() + "]";
+	}
+}
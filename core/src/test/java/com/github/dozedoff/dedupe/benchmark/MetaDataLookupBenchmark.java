@@ -0,0 +1,113 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.benchmark;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.github.dozedoff.dedupe.db.BatchWriter;
+import com.github.dozedoff.dedupe.db.Database;
+import com.github.dozedoff.dedupe.db.dao.FileMetaDataDao;
+import com.github.dozedoff.dedupe.db.table.FileMetaData;
+import com.j256.ormlite.dao.DaoManager;
+
+/**
+ * Measures {@link FileMetaDataDao#getMetaDataForPath(Path)} throughput for an increasing number of threads, using a
+ * single exclusive connection and a WAL database with a read connection per thread.<br>
+ * Run with the test classpath, optional arguments are the number of rows and the seconds per measurement.
+ *
+ * @author Nicholas Wright
+ *
+ */
+public class MetaDataLookupBenchmark {
+	private static final int DEFAULT_ROWS = 100000;
+	private static final int DEFAULT_SECONDS = 5;
+	private static final int[] THREAD_COUNTS = { 1, 2, 4, 8 };
+
+	public static void main(String[] args) throws Exception {
+		int rows = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ROWS;
+		int seconds = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_SECONDS;
+
+		Path dbFile = Files.createTempFile(MetaDataLookupBenchmark.class.getSimpleName(), ".db");
+
+		try {
+			createRows(dbFile, rows);
+
+			System.out.println("connections\tthreads\tlookups/s");
+
+			for (int threads : THREAD_COUNTS) {
+				report("exclusive", threads, measure(new Database(dbFile.toString()), rows, threads, seconds));
+			}
+
+			for (int threads : THREAD_COUNTS) {
+				report("wal", threads, measure(new Database(dbFile.toString(), threads), rows, threads, seconds));
+			}
+		} finally {
+			Files.deleteIfExists(dbFile);
+			Files.deleteIfExists(Paths.get(dbFile.toString() + "-wal"));
+			Files.deleteIfExists(Paths.get(dbFile.toString() + "-shm"));
+		}
+	}
+
+	private static void report(String mode, int threads, double lookupsPerSecond) {
+		System.out.println(String.format("%s\t%d\t%.0f", mode, threads, lookupsPerSecond));
+	}
+
+	private static void createRows(Path dbFile, int rows) throws SQLException {
+		Database database = new Database(dbFile.toString());
+		FileMetaDataDao dao = DaoManager.createDao(database.getConnectionSource(), FileMetaData.class);
+		BatchWriter<FileMetaDataDao, FileMetaData> writer = new BatchWriter<FileMetaDataDao, FileMetaData>(dao);
+
+		for (int i = 0; i < rows; i++) {
+			writer.add(new FileMetaData(pathFor(i), i, i, new byte[64]));
+		}
+
+		writer.shutdown();
+		database.close();
+	}
+
+	private static double measure(Database database, int rows, int threads, int seconds) throws Exception {
+		FileMetaDataDao dao = DaoManager.createDao(database.getConnectionSource(), FileMetaData.class);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		LongAdder lookups = new LongAdder();
+		long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+		List<Future<?>> workers = new ArrayList<Future<?>>();
+
+		for (int i = 0; i < threads; i++) {
+			workers.add(executor.submit(() -> {
+				while (System.nanoTime() < end) {
+					dao.getMetaDataForPath(Paths.get(pathFor(ThreadLocalRandom.current().nextInt(rows))));
+					lookups.increment();
+				}
+
+				return null;
+			}));
+		}
+
+		for (Future<?> worker : workers) {
+			worker.get();
+		}
+
+		executor.shutdown();
+		DaoManager.clearCache();
+		database.close();
+
+		return lookups.doubleValue() / seconds;
+	}
+
+	private static String pathFor(int row) {
+		return "/data/dir" + (row % 1000) + "/file" + row;
+	}
+}
@@ -0,0 +1,99 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.db;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class AdaptiveBatchSizeTest {
+	private static final long TARGET_LATENCY = 200;
+	private static final TimeUnit UNIT = TimeUnit.MILLISECONDS;
+
+	private static final int INITIAL_SIZE = 100;
+	private static final int MIN_SIZE = 10;
+	private static final int MAX_SIZE = 1000;
+
+	private AdaptiveBatchSize cut;
+
+	@Before
+	public void setUp() throws Exception {
+		cut = new AdaptiveBatchSize(TARGET_LATENCY, UNIT, INITIAL_SIZE, MIN_SIZE, MAX_SIZE);
+	}
+
+	@Test
+	public void testInitialSize() throws Exception {
+		assertThat(cut.getBatchSize(), is(INITIAL_SIZE));
+	}
+
+	@Test
+	public void testFastCommitGrows() throws Exception {
+		cut.commitCompleted(INITIAL_SIZE, TARGET_LATENCY / 10, UNIT);
+
+		assertThat(cut.getBatchSize(), is(greaterThan(INITIAL_SIZE)));
+	}
+
+	@Test
+	public void testGrowthIsLimited() throws Exception {
+		cut.commitCompleted(INITIAL_SIZE, 1, UNIT);
+
+		assertThat(cut.getBatchSize(), is(INITIAL_SIZE * 2));
+	}
+
+	@Test
+	public void testSlowCommitShrinks() throws Exception {
+		cut.commitCompleted(INITIAL_SIZE, TARGET_LATENCY * 4, UNIT);
+
+		assertThat(cut.getBatchSize(), is(lessThan(INITIAL_SIZE)));
+	}
+
+	@Test
+	public void testPartialFastBatchDoesNotGrow() throws Exception {
+		cut.commitCompleted(INITIAL_SIZE / 2, 1, UNIT);
+
+		assertThat(cut.getBatchSize(), is(INITIAL_SIZE));
+	}
+
+	@Test
+	public void testPartialSlowBatchShrinks() throws Exception {
+		cut.commitCompleted(INITIAL_SIZE / 2, TARGET_LATENCY * 4, UNIT);
+
+		assertThat(cut.getBatchSize(), is(lessThan(INITIAL_SIZE)));
+	}
+
+	@Test
+	public void testMinimumSize() throws Exception {
+		for (int i = 0; i < 10; i++) {
+			cut.commitCompleted(cut.getBatchSize(), TARGET_LATENCY * 100, UNIT);
+		}
+
+		assertThat(cut.getBatchSize(), is(MIN_SIZE));
+	}
+
+	@Test
+	public void testMaximumSize() throws Exception {
+		for (int i = 0; i < 10; i++) {
+			cut.commitCompleted(cut.getBatchSize(), 1, UNIT);
+		}
+
+		assertThat(cut.getBatchSize(), is(MAX_SIZE));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidLatency() throws Exception {
+		new AdaptiveBatchSize(0, UNIT);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidLimits() throws Exception {
+		new AdaptiveBatchSize(TARGET_LATENCY, UNIT, INITIAL_SIZE, MAX_SIZE, MIN_SIZE);
+	}
+}
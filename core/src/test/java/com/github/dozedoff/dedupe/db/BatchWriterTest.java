@@ -7,12 +7,16 @@ package com.github.dozedoff.dedupe.db;
 import static org.awaitility.Awaitility.await;
 import static org.awaitility.Awaitility.to;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.Matchers.contains;
 import static org.junit.Assert.assertThat;
 
+import java.sql.SQLException;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.awaitility.Duration;
 import org.junit.After;
@@ -112,7 +116,45 @@ public class BatchWriterTest {
 		cut.add(testData.get(0));
 	}
 
+	@Test
+	public void testAddWithBatchSizeReached() throws Exception {
+		cut = new BatchWriter<Dao<FileMetaData, Integer>, FileMetaData>(dao,
+				new AdaptiveBatchSize(DURATION, UNIT, testData.size(), 1, testData.size()));
+
+		testData.forEach(meta -> cut.add(meta));
+
+		assertThat(dao.countOf(), is((long) testData.size()));
+	}
+
+	@Test
+	public void testAddWithoutBatchSizeReached() throws Exception {
+		cut = new BatchWriter<Dao<FileMetaData, Integer>, FileMetaData>(dao,
+				new AdaptiveBatchSize(DURATION, UNIT, testData.size() + 1, 1, testData.size() + 1));
+
+		testData.forEach(meta -> cut.add(meta));
+
+		assertThat(dao.countOf(), is(0L));
+	}
+
+	@Test
+	public void testPendingRows() throws Exception {
+		testData.forEach(meta -> cut.add(meta));
 
+		assertThat(cut.pendingRows(), is(testData.size()));
+	}
+
+	@Test
+	public void testFlushWithBatchSizeWritesAll() throws Exception {
+		cut = new BatchWriter<Dao<FileMetaData, Integer>, FileMetaData>(dao,
+				new AdaptiveBatchSize(DURATION, UNIT, 1, 1, 1));
+
+		cut.add(testData.get(0));
+		cut.add(testData.get(1));
+		cut.flush();
+
+		assertThat(cut.pendingRows(), is(0));
+		assertThat(dao.countOf(), is(2L));
+	}
 
 	@Test
 	public void testAddUpdatesExistingRow() throws Exception {
@@ -123,4 +165,166 @@ public class BatchWriterTest {
 
 		assertThat(dao.queryForId(1).getSize(), is(Long.valueOf(1)));
 	}
+
+	@Test
+	public void testAddUsesRowWriter() throws Exception {
+		List<FileMetaData> written = new LinkedList<FileMetaData>();
+		cut = new BatchWriter<Dao<FileMetaData, Integer>, FileMetaData>(dao, DURATION, UNIT, null, written::add);
+
+		cut.add(testData.get(0));
+		cut.flush();
+
+		assertThat(written, contains(testData.get(0)));
+	}
+
+	@Test
+	public void testFlushAndWait() throws Exception {
+		cut.add(testData.get(0));
+		cut.add(testData.get(1));
+
+		cut.flushAndWait();
+
+		assertThat(dao.countOf(), is(2L));
+	}
+
+	@Test
+	public void testFlushAndWaitAssignsIds() throws Exception {
+		cut.add(testData.get(0));
+
+		cut.flushAndWait();
+
+		assertThat(testData.get(0).getId(), is(not(0)));
+	}
+
+	@Test
+	public void testBatchesCounted() throws Exception {
+		cut = new BatchWriter<Dao<FileMetaData, Integer>, FileMetaData>(dao,
+				new AdaptiveBatchSize(DURATION, UNIT, 1, 1, 1));
+
+		cut.add(testData.get(0));
+		cut.add(testData.get(1));
+		cut.flushAndWait();
+
+		assertThat(cut.getBatches(), is(2L));
+		assertThat(cut.getRowsWritten(), is(2L));
+	}
+
+	@Test
+	public void testEmptyFlushNotCounted() throws Exception {
+		cut.flushAndWait();
+
+		assertThat(cut.getBatches(), is(0L));
+	}
+
+	@Test
+	public void testFailedRowsCounted() throws Exception {
+		cut = new BatchWriter<Dao<FileMetaData, Integer>, FileMetaData>(dao, DURATION, UNIT, null, row -> {
+			throw new SQLException("test");
+		});
+
+		cut.add(testData.get(0));
+		cut.flushAndWait();
+
+		assertThat(cut.getFailedRows(), is(1L));
+		assertThat(cut.getRowsWritten(), is(1L));
+	}
+
+	@Test
+	public void testMaxCommitNotBelowLast() throws Exception {
+		cut.add(testData.get(0));
+		cut.flushAndWait();
+
+		assertThat(cut.getMaxCommitMillis() >= cut.getLastCommitMillis(), is(true));
+		assertThat(cut.getTotalCommitMillis() >= cut.getMaxCommitMillis(), is(true));
+	}
+
+	@Test
+	public void testCommitListenerCalledAfterWrite() throws Exception {
+		AtomicInteger commits = new AtomicInteger();
+		cut.addCommitListener(commits::incrementAndGet);
+
+		cut.add(testData.get(0));
+		cut.flushAndWait();
+
+		assertThat(commits.get(), is(1));
+	}
+
+	@Test
+	public void testCommitListenerSeesIds() throws Exception {
+		List<Integer> ids = new LinkedList<Integer>();
+		cut.addCommitListener(() -> ids.add(testData.get(0).getId()));
+
+		cut.add(testData.get(0));
+		cut.flushAndWait();
+
+		assertThat(ids, contains(not(0)));
+	}
+
+	@Test
+	public void testCommitListenerNotCalledForEmptyFlush() throws Exception {
+		AtomicInteger commits = new AtomicInteger();
+		cut.addCommitListener(commits::incrementAndGet);
+
+		cut.flushAndWait();
+
+		assertThat(commits.get(), is(0));
+	}
+
+	@Test
+	public void testCommitListenerMayAddRows() throws Exception {
+		cut.addCommitListener(() -> {
+			if (testData.get(1).getId() == 0) {
+				cut.add(testData.get(1));
+			}
+		});
+
+		cut.add(testData.get(0));
+		cut.flushAndWait();
+		cut.flushAndWait();
+
+		assertThat(dao.countOf(), is(2L));
+	}
+
+	@Test
+	public void testFlushAfterFailedFlush() throws Exception {
+		AtomicInteger failures = new AtomicInteger(1);
+		cut = new BatchWriter<Dao<FileMetaData, Integer>, FileMetaData>(dao,
+				new AdaptiveBatchSize(DURATION, UNIT, 2, 1, 2) {
+					@Override
+					public synchronized void commitCompleted(int rows, long latency, TimeUnit unit) {
+						if (failures.getAndDecrement() > 0) {
+							throw new IllegalStateException("test");
+						}
+					}
+				});
+
+		cut.add(testData.get(0));
+
+		try {
+			cut.flush();
+		} catch (IllegalStateException e) {
+			// expected, the flush must still release the writer
+		}
+
+		cut.add(testData.get(1));
+		cut.flush();
+
+		assertThat(dao.countOf(), is(2L));
+	}
+
+	@Test
+	public void testFlushLeavesRowsAddedWhileWriting() throws Exception {
+		List<FileMetaData> written = new LinkedList<FileMetaData>();
+		cut = new BatchWriter<Dao<FileMetaData, Integer>, FileMetaData>(dao, DURATION, UNIT,
+				new AdaptiveBatchSize(DURATION, UNIT, 2, 1, 2), row -> {
+					written.add(row);
+					cut.add(new FileMetaData("added" + written.size()));
+				});
+
+		cut.add(testData.get(0));
+		cut.flush();
+
+		assertThat(written, contains(testData.get(0)));
+		assertThat(cut.pendingRows(), is(1));
+	}
 }
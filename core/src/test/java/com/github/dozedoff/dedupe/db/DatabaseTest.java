@@ -4,12 +4,20 @@
  */
 package com.github.dozedoff.dedupe.db;
 
+import static org.hamcrest.CoreMatchers.instanceOf;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
 import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.junit.Assert.assertThat;
 
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.After;
 import org.junit.Before;
@@ -18,21 +26,32 @@ import org.junit.Test;
 import com.github.dozedoff.dedupe.db.table.FileMetaData;
 import com.j256.ormlite.dao.Dao;
 import com.j256.ormlite.dao.DaoManager;
+import com.j256.ormlite.jdbc.JdbcConnectionSource;
+import com.j256.ormlite.misc.TransactionManager;
+import com.j256.ormlite.support.DatabaseConnection;
 
 public class DatabaseTest {
+	private static final int READ_CONNECTIONS = 2;
+
 	private Database cut;
 	private Database memoryDb;
+	private Database walDb;
 	private Path tempDb;
+	private Path tempWalDb;
 
 	@Before
 	public void setUp() throws Exception {
 		tempDb = Files.createTempFile(DatabaseTest.class.getSimpleName(), ".db");
 		cut = new Database(tempDb.toString());
 		memoryDb = Database.inMemoryDatabase();
+
+		tempWalDb = Files.createTempFile(DatabaseTest.class.getSimpleName(), ".db");
+		walDb = new Database(tempWalDb.toString(), READ_CONNECTIONS);
 	}
 
 	@After
 	public void tearDown() throws Exception {
+		walDb.close();
 		memoryDb.close();
 		cut.close();
 	}
@@ -58,4 +77,158 @@ public class DatabaseTest {
 
 		dao.create(new FileMetaData());
 	}
+
+	@Test
+	public void testExclusiveLockingMode() throws Exception {
+		Dao<FileMetaData, Integer> dao = DaoManager.createDao(cut.getConnectionSource(), FileMetaData.class);
+
+		assertThat(dao.queryRaw("PRAGMA locking_mode").getFirstResult()[0], is("exclusive"));
+	}
+
+	@Test
+	public void testSynchronousNormal() throws Exception {
+		Dao<FileMetaData, Integer> dao = DaoManager.createDao(cut.getConnectionSource(), FileMetaData.class);
+
+		assertThat(dao.queryRaw("PRAGMA synchronous").getFirstResult()[0], is("1"));
+	}
+
+	@Test
+	public void testVacuum() throws Exception {
+		Dao<FileMetaData, Integer> dao = DaoManager.createDao(cut.getConnectionSource(), FileMetaData.class);
+
+		dao.executeRaw("VACUUM");
+	}
+
+	@Test
+	public void testWalJournalMode() throws Exception {
+		Dao<FileMetaData, Integer> dao = DaoManager.createDao(walDb.getConnectionSource(), FileMetaData.class);
+
+		assertThat(dao.queryRaw("PRAGMA journal_mode").getFirstResult()[0], is("wal"));
+	}
+
+	@Test
+	public void testWalUsesReadWriteConnectionSource() throws Exception {
+		assertThat(walDb.getConnectionSource(), is(instanceOf(ReadWriteConnectionSource.class)));
+	}
+
+	@Test
+	public void testInMemoryIgnoresReadConnections() throws Exception {
+		Database db = new Database(":memory:", READ_CONNECTIONS);
+
+		try {
+			assertThat(db.getConnectionSource(), is(instanceOf(JdbcConnectionSource.class)));
+		} finally {
+			db.close();
+		}
+	}
+
+	@Test
+	public void testReadDuringWriteTransaction() throws Exception {
+		Dao<FileMetaData, Integer> dao = DaoManager.createDao(walDb.getConnectionSource(), FileMetaData.class);
+		ExecutorService reader = Executors.newSingleThreadExecutor();
+
+		try {
+			long countDuringWrite = TransactionManager.callInTransaction(walDb.getConnectionSource(),
+					new Callable<Long>() {
+						@Override
+						public Long call() throws Exception {
+							dao.create(new FileMetaData("foo"));
+							return reader.submit(() -> dao.countOf()).get(5, TimeUnit.SECONDS);
+						}
+					});
+
+			assertThat(countDuringWrite, is(0L));
+			assertThat(dao.countOf(), is(1L));
+		} finally {
+			reader.shutdown();
+		}
+	}
+
+	@Test
+	public void testWriteLockOfConnectionSource() throws Exception {
+		assertThat(Database.writeLock(cut.getConnectionSource()), is(sameInstance(cut.getWriteLock())));
+	}
+
+	@Test
+	public void testWalWriteLockOfConnectionSource() throws Exception {
+		assertThat(Database.writeLock(walDb.getConnectionSource()), is(sameInstance(walDb.getWriteLock())));
+	}
+
+	@Test
+	public void testWriteLockPerDatabase() throws Exception {
+		assertThat(memoryDb.getWriteLock(), is(not(sameInstance(cut.getWriteLock()))));
+	}
+
+	@Test
+	public void testWriteTransactionHoldsLock() throws Exception {
+		ExecutorService other = Executors.newSingleThreadExecutor();
+
+		try {
+			boolean lockedDuringWrite = Database.callInWriteTransaction(cut.getConnectionSource(),
+					() -> !other.submit(() -> cut.getWriteLock().tryLock()).get(5, TimeUnit.SECONDS));
+
+			assertThat(lockedDuringWrite, is(true));
+		} finally {
+			other.shutdown();
+		}
+	}
+
+	@Test
+	public void testWriteTransactionReleasesLock() throws Exception {
+		Database.callInWriteTransaction(cut.getConnectionSource(), () -> null);
+
+		assertThat(cut.getWriteLock().tryLock(), is(true));
+		cut.getWriteLock().unlock();
+	}
+
+	@Test
+	public void testReadOnlyKeepsJournalMode() throws Exception {
+		cut.close();
+		Database readOnly = Database.readOnly(tempDb.toString());
+
+		try {
+			Dao<FileMetaData, Integer> dao = DaoManager.createDao(readOnly.getConnectionSource(), FileMetaData.class);
+
+			assertThat(dao.queryRaw("PRAGMA journal_mode").getFirstResult()[0], is("delete"));
+		} finally {
+			readOnly.close();
+		}
+	}
+
+	@Test(expected = SQLException.class)
+	public void testReadOnlyCannotWrite() throws Exception {
+		cut.close();
+		Database readOnly = Database.readOnly(tempDb.toString());
+
+		try {
+			DaoManager.createDao(readOnly.getConnectionSource(), FileMetaData.class).create(new FileMetaData("foo"));
+		} finally {
+			readOnly.close();
+		}
+	}
+
+	@Test
+	public void testReadOnlyWhileWalDatabaseIsOpen() throws Exception {
+		DaoManager.createDao(walDb.getConnectionSource(), FileMetaData.class).create(new FileMetaData("foo"));
+		Database readOnly = Database.readOnly(tempWalDb.toString());
+
+		try {
+			assertThat(DaoManager.createDao(readOnly.getConnectionSource(), FileMetaData.class).countOf(), is(1L));
+		} finally {
+			readOnly.close();
+		}
+	}
+
+	@Test(expected = SQLException.class)
+	public void testReadOnlyRejectsOldSchema() throws Exception {
+		Path oldDb = Files.createTempFile(DatabaseTest.class.getSimpleName(), ".db");
+		JdbcConnectionSource connectionSource = new JdbcConnectionSource("jdbc:sqlite:" + oldDb);
+		DatabaseConnection conn = connectionSource.getReadWriteConnection();
+		conn.executeStatement("CREATE TABLE `filemetadata` (`id` INTEGER PRIMARY KEY AUTOINCREMENT, `path` VARCHAR)",
+				DatabaseConnection.DEFAULT_RESULT_FLAGS);
+		connectionSource.releaseConnection(conn);
+		connectionSource.close();
+
+		Database.readOnly(oldDb.toString()).close();
+	}
 }
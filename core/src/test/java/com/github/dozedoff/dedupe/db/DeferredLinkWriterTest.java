@@ -0,0 +1,185 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.db;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.contains;
+import static org.junit.Assert.assertThat;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.dozedoff.dedupe.db.dao.FileLinkDao;
+import com.github.dozedoff.dedupe.db.dao.FileMetaDataDao;
+import com.github.dozedoff.dedupe.db.table.FileLink;
+import com.github.dozedoff.dedupe.db.table.FileMetaData;
+import com.j256.ormlite.dao.DaoManager;
+
+public class DeferredLinkWriterTest {
+	private static final long INTERVAL_MINUTES = 10;
+
+	private Database database;
+	private FileMetaDataDao metaDao;
+	private FileLinkDao linkDao;
+	private BatchWriter<FileMetaDataDao, FileMetaData> metaWriter;
+	private BatchWriter<FileLinkDao, FileLink> linkWriter;
+	private LinkInvalidator invalidator;
+
+	private FileMetaData metaA;
+	private FileMetaData metaB;
+	private FileMetaData newMeta;
+
+	private DeferredLinkWriter cut;
+
+	@Before
+	public void setUp() throws Exception {
+		database = Database.inMemoryDatabase();
+		metaDao = DaoManager.createDao(database.getConnectionSource(), FileMetaData.class);
+		linkDao = DaoManager.createDao(database.getConnectionSource(), FileLink.class);
+
+		metaWriter = new BatchWriter<FileMetaDataDao, FileMetaData>(metaDao, INTERVAL_MINUTES, TimeUnit.MINUTES);
+		linkWriter = new BatchWriter<FileLinkDao, FileLink>(linkDao, INTERVAL_MINUTES, TimeUnit.MINUTES, null,
+				linkDao::upsertLink);
+		invalidator = new LinkInvalidator(linkDao);
+
+		metaA = createMeta("A");
+		metaB = createMeta("B");
+		newMeta = new FileMetaData("C");
+
+		cut = new DeferredLinkWriter(metaWriter, linkWriter, invalidator);
+		metaWriter.addCommitListener(cut::retry);
+	}
+
+	private FileMetaData createMeta(String path) throws SQLException {
+		FileMetaData meta = new FileMetaData(path);
+		metaDao.create(meta);
+		return meta;
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		DaoManager.clearCache();
+		database.close();
+	}
+
+	private List<Integer> linkedIds() throws SQLException {
+		linkWriter.flushAndWait();
+
+		return linkDao.queryForAll().stream().map(link -> link.getLink().getId()).collect(Collectors.toList());
+	}
+
+	@Test
+	public void testStoredGroupWritten() throws Exception {
+		cut.add(metaA, Arrays.asList(metaB));
+
+		assertThat(linkedIds(), contains(metaB.getId()));
+	}
+
+	@Test
+	public void testStoredGroupNotDeferred() throws Exception {
+		cut.add(metaA, Arrays.asList(metaB));
+
+		assertThat(cut.deferredGroups(), is(0));
+	}
+
+	@Test
+	public void testUnstoredGroupDeferred() throws Exception {
+		metaWriter.add(newMeta);
+
+		cut.add(metaA, Arrays.asList(newMeta));
+
+		assertThat(cut.deferredGroups(), is(1));
+		assertThat(linkedIds().isEmpty(), is(true));
+	}
+
+	@Test
+	public void testDeferredGroupWrittenAfterCommit() throws Exception {
+		metaWriter.add(newMeta);
+		cut.add(metaA, Arrays.asList(newMeta));
+
+		metaWriter.flushAndWait();
+
+		assertThat(cut.deferredGroups(), is(0));
+		assertThat(linkedIds(), contains(newMeta.getId()));
+	}
+
+	@Test
+	public void testInvalidatingGroupDeferred() throws Exception {
+		invalidator.add(metaB);
+
+		cut.add(metaA, Arrays.asList(metaB));
+
+		assertThat(cut.deferredGroups(), is(1));
+	}
+
+	@Test
+	public void testRetryDeletesStaleLinksFirst() throws Exception {
+		linkDao.create(new FileLink(metaA, metaB));
+		invalidator.add(metaB);
+		cut.add(metaA, Arrays.asList(metaB));
+
+		cut.retry();
+
+		assertThat(invalidator.pendingFiles(), is(0));
+		assertThat(linkedIds(), contains(metaB.getId()));
+	}
+
+	@Test
+	public void testFlushWritesInvalidatingGroup() throws Exception {
+		invalidator.add(metaB);
+		cut.add(metaA, Arrays.asList(metaB));
+
+		cut.flush();
+
+		assertThat(cut.deferredGroups(), is(0));
+		assertThat(linkedIds(), contains(metaB.getId()));
+	}
+
+	@Test
+	public void testFlushKeepsUnstoredGroup() throws Exception {
+		cut.add(metaA, Arrays.asList(newMeta));
+
+		cut.flush();
+
+		assertThat(cut.deferredGroups(), is(1));
+	}
+
+	@Test
+	public void testCloseDropsUnstoredLinks() throws Exception {
+		cut.add(metaA, Arrays.asList(metaB, newMeta));
+
+		cut.close();
+
+		assertThat(cut.deferredGroups(), is(0));
+		assertThat(linkedIds(), contains(metaB.getId()));
+	}
+
+	@Test
+	public void testCloseDropsUnstoredSource() throws Exception {
+		cut.add(newMeta, Arrays.asList(metaB));
+
+		cut.close();
+
+		assertThat(cut.deferredGroups(), is(0));
+		assertThat(linkedIds().isEmpty(), is(true));
+	}
+
+	@Test
+	public void testWriteUpdatesLinkedMetadata() throws Exception {
+		metaA.setModifiedTime(42);
+
+		cut.add(metaA, Arrays.asList(metaB));
+		metaWriter.flushAndWait();
+
+		assertThat(metaDao.queryForId(metaB.getId()).getModifiedTime(), is(42L));
+	}
+}
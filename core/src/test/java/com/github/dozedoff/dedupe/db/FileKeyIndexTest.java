@@ -0,0 +1,72 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.db;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.dozedoff.dedupe.db.dao.FileMetaDataDao;
+import com.github.dozedoff.dedupe.db.table.FileMetaData;
+import com.j256.ormlite.dao.DaoManager;
+
+public class FileKeyIndexTest {
+	private static final String KEY_A = "(dev=1,ino=1)";
+	private static final String KEY_B = "(dev=1,ino=2)";
+
+	private Database database;
+	private FileMetaDataDao dao;
+
+	private FileKeyIndex cut;
+
+	@Before
+	public void setUp() throws Exception {
+		database = Database.inMemoryDatabase();
+		dao = DaoManager.createDao(database.getConnectionSource(), FileMetaData.class);
+
+		createMeta("A", KEY_A);
+		createMeta("B", KEY_B);
+		createMeta("C", null);
+
+		cut = FileKeyIndex.load(dao);
+	}
+
+	private void createMeta(String path, String fileKey) throws Exception {
+		FileMetaData meta = new FileMetaData(path);
+		meta.setFileKey(fileKey);
+		dao.create(meta);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		DaoManager.clearCache();
+		database.close();
+	}
+
+	@Test
+	public void testContainsStoredKey() throws Exception {
+		assertThat(cut.mightContain(KEY_B), is(true));
+	}
+
+	@Test
+	public void testUnknownKey() throws Exception {
+		assertThat(cut.mightContain("(dev=1,ino=3)"), is(false));
+	}
+
+	@Test
+	public void testRowsWithoutKeySkipped() throws Exception {
+		assertThat(cut.size(), is(2));
+	}
+
+	@Test
+	public void testEmptyDatabase() throws Exception {
+		dao.deleteBuilder().delete();
+
+		assertThat(FileKeyIndex.load(dao).size(), is(0));
+	}
+}
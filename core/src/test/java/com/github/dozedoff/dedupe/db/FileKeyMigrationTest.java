@@ -0,0 +1,95 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.db;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.j256.ormlite.jdbc.JdbcConnectionSource;
+import com.j256.ormlite.support.DatabaseConnection;
+
+public class FileKeyMigrationTest {
+	private static final String OLD_SCHEMA = "CREATE TABLE `filemetadata` (`id` INTEGER PRIMARY KEY AUTOINCREMENT, "
+			+ "`directory_id` INTEGER NOT NULL, `name` VARCHAR NOT NULL, `size` BIGINT, `modifiedTime` BIGINT, "
+			+ "`hash` BLOB, UNIQUE (`directory_id`, `name`))";
+
+	private Path dbFile;
+	private JdbcConnectionSource connectionSource;
+
+	private FileKeyMigration cut;
+
+	@Before
+	public void setUp() throws Exception {
+		dbFile = Files.createTempFile(FileKeyMigrationTest.class.getSimpleName(), ".db");
+		connectionSource = new JdbcConnectionSource("jdbc:sqlite:" + dbFile);
+
+		DatabaseConnection conn = connectionSource.getReadWriteConnection();
+		conn.executeStatement(OLD_SCHEMA, DatabaseConnection.DEFAULT_RESULT_FLAGS);
+		conn.executeStatement("INSERT INTO filemetadata VALUES (7, 1, 'bar', 42, 1000, X'0102')",
+				DatabaseConnection.DEFAULT_RESULT_FLAGS);
+		connectionSource.releaseConnection(conn);
+
+		cut = new FileKeyMigration(connectionSource);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		connectionSource.close();
+		Files.deleteIfExists(dbFile);
+	}
+
+	@Test
+	public void testIsRequiredOldSchema() throws Exception {
+		assertThat(cut.isRequired(), is(true));
+	}
+
+	@Test
+	public void testIsRequiredAfterMigration() throws Exception {
+		cut.migrate();
+
+		assertThat(cut.isRequired(), is(false));
+	}
+
+	@Test
+	public void testMigrateKeepsRows() throws Exception {
+		cut.migrate();
+
+		assertThat(query("SELECT COUNT(*) FROM filemetadata WHERE fileKey IS NULL"), is(1L));
+	}
+
+	@Test
+	public void testMigrateCreatesIndex() throws Exception {
+		cut.migrate();
+
+		assertThat(query("SELECT COUNT(*) FROM sqlite_master WHERE type = 'index'"
+				+ " AND name = 'filemetadata_fileKey_idx'"), is(1L));
+	}
+
+	@Test
+	public void testNotRequiredWithoutTable() throws Exception {
+		DatabaseConnection conn = connectionSource.getReadWriteConnection();
+		conn.executeStatement("DROP TABLE filemetadata", DatabaseConnection.DEFAULT_RESULT_FLAGS);
+		connectionSource.releaseConnection(conn);
+
+		assertThat(cut.isRequired(), is(false));
+	}
+
+	private long query(String sql) throws Exception {
+		DatabaseConnection conn = connectionSource.getReadWriteConnection();
+
+		try {
+			return conn.queryForLong(sql);
+		} finally {
+			connectionSource.releaseConnection(conn);
+		}
+	}
+}
@@ -0,0 +1,141 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.db;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.dozedoff.dedupe.db.dao.FileLinkDao;
+import com.github.dozedoff.dedupe.db.dao.FileMetaDataDao;
+import com.github.dozedoff.dedupe.db.table.FileLink;
+import com.github.dozedoff.dedupe.db.table.FileMetaData;
+import com.j256.ormlite.dao.DaoManager;
+
+public class LinkIndexTest {
+	private static final int LINK = 3;
+	private static final int SOURCE = 7;
+
+	private LinkIndex cut;
+
+	@Before
+	public void setUp() throws Exception {
+		cut = new LinkIndex();
+		cut.put(LINK, SOURCE);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		DaoManager.clearCache();
+	}
+
+	@Test
+	public void testSourceOf() throws Exception {
+		assertThat(cut.sourceOf(LINK), is(SOURCE));
+	}
+
+	@Test
+	public void testSourceOfUnknown() throws Exception {
+		assertThat(cut.sourceOf(SOURCE), is(LinkIndex.NO_SOURCE));
+	}
+
+	@Test
+	public void testSourceOfNoId() throws Exception {
+		assertThat(cut.sourceOf(LinkIndex.NO_SOURCE), is(LinkIndex.NO_SOURCE));
+	}
+
+	@Test
+	public void testPutReplaces() throws Exception {
+		cut.put(LINK, 9);
+
+		assertThat(cut.sourceOf(LINK), is(9));
+	}
+
+	@Test
+	public void testPutReplacesSize() throws Exception {
+		cut.put(LINK, 9);
+
+		assertThat(cut.size(), is(1));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testPutNoId() throws Exception {
+		cut.put(LinkIndex.NO_SOURCE, SOURCE);
+	}
+
+	@Test
+	public void testInvalidateLink() throws Exception {
+		cut.invalidate(LINK);
+
+		assertThat(cut.isLinkedTo(LINK, SOURCE), is(false));
+	}
+
+	@Test
+	public void testInvalidateSource() throws Exception {
+		cut.invalidate(SOURCE);
+
+		assertThat(cut.sourceOf(LINK), is(LinkIndex.NO_SOURCE));
+	}
+
+	@Test
+	public void testInvalidateOtherFile() throws Exception {
+		cut.invalidate(9);
+
+		assertThat(cut.isLinkedTo(LINK, SOURCE), is(true));
+	}
+
+	@Test
+	public void testIsLinkedTo() throws Exception {
+		assertThat(cut.isLinkedTo(LINK, SOURCE), is(true));
+	}
+
+	@Test
+	public void testIsLinkedToOtherSource() throws Exception {
+		assertThat(cut.isLinkedTo(LINK, 9), is(false));
+	}
+
+	@Test
+	public void testIsLinkedToNoSource() throws Exception {
+		assertThat(cut.isLinkedTo(SOURCE, LinkIndex.NO_SOURCE), is(false));
+	}
+
+	@Test
+	public void testGrow() throws Exception {
+		for (int i = 1; i <= 10000; i++) {
+			cut.put(i, i + 1);
+		}
+
+		boolean allFound = true;
+
+		for (int i = 1; i <= 10000; i++) {
+			allFound &= cut.sourceOf(i) == i + 1;
+		}
+
+		assertThat(allFound, is(true));
+	}
+
+	@Test
+	public void testLoad() throws Exception {
+		Database database = Database.inMemoryDatabase();
+
+		try {
+			FileMetaDataDao metaDao = DaoManager.createDao(database.getConnectionSource(), FileMetaData.class);
+			FileLinkDao linkDao = DaoManager.createDao(database.getConnectionSource(), FileLink.class);
+
+			FileMetaData source = new FileMetaData("A");
+			FileMetaData link = new FileMetaData("B");
+			metaDao.create(source);
+			metaDao.create(link);
+			linkDao.linkFiles(source, link);
+
+			assertThat(LinkIndex.load(linkDao).isLinkedTo(link.getId(), source.getId()), is(true));
+		} finally {
+			database.close();
+		}
+	}
+}
@@ -0,0 +1,149 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.db;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.junit.Assert.assertThat;
+
+import java.sql.SQLException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.dozedoff.dedupe.db.dao.FileLinkDao;
+import com.github.dozedoff.dedupe.db.dao.FileMetaDataDao;
+import com.github.dozedoff.dedupe.db.table.FileLink;
+import com.github.dozedoff.dedupe.db.table.FileMetaData;
+import com.j256.ormlite.dao.DaoManager;
+
+public class LinkInvalidatorTest {
+	private static final int BATCH_SIZE = 2;
+
+	private Database database;
+	private FileMetaDataDao metaDao;
+	private FileLinkDao linkDao;
+
+	private FileMetaData metaA;
+	private FileMetaData metaB;
+	private FileMetaData metaC;
+	private FileMetaData metaD;
+
+	private FileLink linkAB;
+	private FileLink linkCD;
+
+	private LinkInvalidator cut;
+
+	@Before
+	public void setUp() throws Exception {
+		database = Database.inMemoryDatabase();
+		metaDao = DaoManager.createDao(database.getConnectionSource(), FileMetaData.class);
+		linkDao = DaoManager.createDao(database.getConnectionSource(), FileLink.class);
+
+		metaA = createMeta("A");
+		metaB = createMeta("B");
+		metaC = createMeta("C");
+		metaD = createMeta("D");
+
+		linkAB = new FileLink(metaA, metaB);
+		linkCD = new FileLink(metaC, metaD);
+
+		linkDao.create(linkAB);
+		linkDao.create(linkCD);
+
+		cut = new LinkInvalidator(linkDao, BATCH_SIZE);
+	}
+
+	private FileMetaData createMeta(String path) throws SQLException {
+		FileMetaData meta = new FileMetaData(path);
+		metaDao.create(meta);
+		return meta;
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		DaoManager.clearCache();
+		database.close();
+	}
+
+	@Test
+	public void testAddBelowBatchSizeDoesNotDelete() throws Exception {
+		cut.add(metaB);
+
+		assertThat(linkDao.queryForAll(), containsInAnyOrder(linkAB, linkCD));
+	}
+
+	@Test
+	public void testAddBelowBatchSizePending() throws Exception {
+		cut.add(metaB);
+
+		assertThat(cut.pendingFiles(), is(1));
+	}
+
+	@Test
+	public void testAddBatchSizeReachedDeletes() throws Exception {
+		cut.add(metaB);
+		cut.add(metaC);
+
+		assertThat(linkDao.countOf(), is(0L));
+	}
+
+	@Test
+	public void testFlushDeletes() throws Exception {
+		cut.add(metaB);
+		cut.flush();
+
+		assertThat(linkDao.queryForAll(), containsInAnyOrder(linkCD));
+	}
+
+	@Test
+	public void testFlushClearsPending() throws Exception {
+		cut.add(metaB);
+		cut.flush();
+
+		assertThat(cut.pendingFiles(), is(0));
+	}
+
+	@Test
+	public void testUnsavedMetadataIgnored() throws Exception {
+		cut.add(new FileMetaData("E"));
+
+		assertThat(cut.pendingFiles(), is(0));
+	}
+
+	@Test
+	public void testAddQueuedFileOnce() throws Exception {
+		cut.add(metaB);
+		cut.add(metaB);
+
+		assertThat(cut.pendingFiles(), is(1));
+	}
+
+	@Test
+	public void testIsPending() throws Exception {
+		cut.add(metaB);
+
+		assertThat(cut.isPending(metaB.getId()), is(true));
+	}
+
+	@Test
+	public void testNotPendingAfterFlush() throws Exception {
+		cut.add(metaB);
+		cut.flush();
+
+		assertThat(cut.isPending(metaB.getId()), is(false));
+	}
+
+	@Test
+	public void testNotQueuedNotPending() throws Exception {
+		assertThat(cut.isPending(metaB.getId()), is(false));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidBatchSize() throws Exception {
+		new LinkInvalidator(linkDao, 0);
+	}
+}
@@ -0,0 +1,148 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.db;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.dozedoff.dedupe.db.dao.FileMetaDataDao;
+import com.github.dozedoff.dedupe.db.table.FileMetaData;
+import com.j256.ormlite.dao.DaoManager;
+
+public class MetaDataIndexTest {
+	private static final Path ROOT_A = Paths.get("/a");
+	private static final Path ROOT_B = Paths.get("/b");
+
+	private Database database;
+	private FileMetaDataDao dao;
+
+	private FileMetaData metaA;
+	private FileMetaData metaB;
+	private FileMetaData metaC;
+
+	private MetaDataIndex cut;
+
+	@Before
+	public void setUp() throws Exception {
+		database = Database.inMemoryDatabase();
+		dao = DaoManager.createDao(database.getConnectionSource(), FileMetaData.class);
+
+		metaA = new FileMetaData("/a/foo", 1, 2, new byte[] { 3 });
+		metaB = new FileMetaData("/b/bar/foo");
+		metaC = new FileMetaData("/c/foo");
+
+		dao.create(metaA);
+		dao.create(metaB);
+		dao.create(metaC);
+
+		cut = MetaDataIndex.load(dao, Arrays.asList(ROOT_A, ROOT_B));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		database.close();
+	}
+
+	@Test
+	public void testSize() throws Exception {
+		assertThat(cut.size(), is(2));
+	}
+
+	@Test
+	public void testGetMetaDataForPath() throws Exception {
+		assertThat(cut.getMetaDataForPath(metaA.getPath()), is(metaA));
+	}
+
+	@Test
+	public void testGetMetaDataForPathLoadsAllFields() throws Exception {
+		FileMetaData loaded = cut.getMetaDataForPath(metaA.getPath());
+
+		assertThat(loaded.getSize(), is(1L));
+		assertThat(loaded.getModifiedTime(), is(2L));
+		assertThat(loaded.getHash(), is(new byte[] { 3 }));
+	}
+
+	@Test
+	public void testGetMetaDataForPathWithoutDatabase() throws Exception {
+		database.close();
+
+		assertThat(cut.getMetaDataForPath(metaA.getPath()).getSize(), is(1L));
+	}
+
+	@Test
+	public void testGetMetaDataForPathKeepsIdAndFileKey() throws Exception {
+		metaA.setFileKey("(dev=1,ino=2)");
+		dao.update(metaA);
+		cut = MetaDataIndex.load(dao, Arrays.asList(ROOT_A, ROOT_B));
+
+		FileMetaData loaded = cut.getMetaDataForPath(metaA.getPath());
+
+		assertThat(loaded.getId(), is(metaA.getId()));
+		assertThat(loaded.getFileKey(), is("(dev=1,ino=2)"));
+	}
+
+	@Test
+	public void testGetMetaDataForPathCanBeUpdated() throws Exception {
+		FileMetaData loaded = cut.getMetaDataForPath(metaA.getPath());
+		loaded.setSize(5);
+
+		dao.update(loaded);
+
+		assertThat(dao.getMetaDataForPath(metaA.getPath()).getSize(), is(5L));
+	}
+
+	@Test
+	public void testGetMetaDataForManyPaths() throws Exception {
+		for (int i = 0; i < 100; i++) {
+			dao.create(new FileMetaData("/a/" + i, i, 0, new byte[0]));
+		}
+
+		cut = MetaDataIndex.load(dao, Arrays.asList(ROOT_A));
+
+		assertThat(cut.size(), is(101));
+		assertThat(cut.getMetaDataForPath(Paths.get("/a/42")).getSize(), is(42L));
+	}
+
+	@Test
+	public void testOverlappingRootsCountedOnce() throws Exception {
+		cut = MetaDataIndex.load(dao, Arrays.asList(ROOT_A, ROOT_A));
+
+		assertThat(cut.size(), is(1));
+	}
+
+	@Test
+	public void testGetMetaDataForPathUnknownPath() throws Exception {
+		assertThat(cut.getMetaDataForPath(Paths.get("/a/unknown")), is(nullValue()));
+	}
+
+	@Test
+	public void testGetMetaDataForPathInSubDirectory() throws Exception {
+		assertThat(cut.getMetaDataForPath(metaB.getPath()), is(metaB));
+	}
+
+	@Test
+	public void testGetMetaDataForPathOutsideRoots() throws Exception {
+		assertThat(cut.getMetaDataForPath(metaC.getPath()), is(nullValue()));
+	}
+
+	@Test
+	public void testHasMetaData() throws Exception {
+		assertThat(cut.hasMetaData(metaA.getPath()), is(true));
+	}
+
+	@Test
+	public void testHasMetaDataUnknownPath() throws Exception {
+		assertThat(cut.hasMetaData(Paths.get("/a/unknown")), is(false));
+	}
+}
@@ -0,0 +1,135 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.db;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.dozedoff.dedupe.db.dao.FileMetaDataDao;
+import com.github.dozedoff.dedupe.db.table.FileMetaData;
+import com.j256.ormlite.dao.DaoManager;
+import com.j256.ormlite.jdbc.JdbcConnectionSource;
+import com.j256.ormlite.support.DatabaseConnection;
+
+public class NormalizedPathMigrationTest {
+	private static final String OLD_SCHEMA = "CREATE TABLE `filemetadata` (`id` INTEGER PRIMARY KEY AUTOINCREMENT, "
+			+ "`path` VARCHAR NOT NULL, `size` BIGINT, `modifiedTime` BIGINT, `hash` BLOB, UNIQUE (`path`))";
+
+	private Path dbFile;
+	private JdbcConnectionSource connectionSource;
+
+	private NormalizedPathMigration cut;
+
+	@Before
+	public void setUp() throws Exception {
+		dbFile = Files.createTempFile(NormalizedPathMigrationTest.class.getSimpleName(), ".db");
+		connectionSource = new JdbcConnectionSource("jdbc:sqlite:" + dbFile);
+
+		DatabaseConnection conn = connectionSource.getReadWriteConnection();
+		conn.executeStatement(OLD_SCHEMA, DatabaseConnection.DEFAULT_RESULT_FLAGS);
+		conn.executeStatement("CREATE INDEX `filemetadata_size_idx` ON `filemetadata` (`size`)",
+				DatabaseConnection.DEFAULT_RESULT_FLAGS);
+		conn.executeStatement("INSERT INTO filemetadata VALUES (7, '/foo/bar', 42, 1000, X'0102')",
+				DatabaseConnection.DEFAULT_RESULT_FLAGS);
+		conn.executeStatement("INSERT INTO filemetadata VALUES (9, '/foo/baz', 43, 1001, X'0304')",
+				DatabaseConnection.DEFAULT_RESULT_FLAGS);
+		connectionSource.releaseConnection(conn);
+
+		cut = new NormalizedPathMigration(connectionSource);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		DaoManager.clearCache();
+		connectionSource.close();
+		Files.deleteIfExists(dbFile);
+	}
+
+	@Test
+	public void testIsRequiredOldSchema() throws Exception {
+		assertThat(cut.isRequired(), is(true));
+	}
+
+	@Test
+	public void testIsRequiredAfterMigration() throws Exception {
+		cut.migrate();
+
+		assertThat(cut.isRequired(), is(false));
+	}
+
+	@Test
+	public void testMigrateKeepsIds() throws Exception {
+		cut.migrate();
+		FileMetaDataDao dao = DaoManager.createDao(connectionSource, FileMetaData.class);
+
+		assertThat(dao.queryRaw("SELECT id FROM filemetadata WHERE name = 'baz'").getFirstResult()[0], is("9"));
+	}
+
+	@Test
+	public void testMigrateKeepsData() throws Exception {
+		cut.migrate();
+		FileMetaDataDao dao = DaoManager.createDao(connectionSource, FileMetaData.class);
+
+		assertThat(dao.getMetaDataForPath(Paths.get("/foo/bar")),
+				is(new FileMetaData("/foo/bar", 42, 1000, new byte[] { 1, 2 })));
+	}
+
+	@Test
+	public void testMigrateSharesDirectory() throws Exception {
+		cut.migrate();
+		FileMetaDataDao dao = DaoManager.createDao(connectionSource, FileMetaData.class);
+
+		assertThat(dao.getDirectoryDao().countOf(), is(1L));
+	}
+
+	@Test
+	public void testDatabaseMigratesOnOpen() throws Exception {
+		connectionSource.close();
+		Database database = new Database(dbFile.toString());
+
+		try {
+			FileMetaDataDao dao = DaoManager.createDao(database.getConnectionSource(), FileMetaData.class);
+			assertThat(dao.countOf(), is(2L));
+		} finally {
+			database.close();
+		}
+	}
+
+	@Test
+	public void testMigrateNestedDirectory() throws Exception {
+		DatabaseConnection conn = connectionSource.getReadWriteConnection();
+		conn.executeStatement("INSERT INTO filemetadata VALUES (11, '/foo/sub/foo', 44, 1002, X'0506')",
+				DatabaseConnection.DEFAULT_RESULT_FLAGS);
+		connectionSource.releaseConnection(conn);
+
+		cut.migrate();
+		FileMetaDataDao dao = DaoManager.createDao(connectionSource, FileMetaData.class);
+
+		assertThat(dao.getMetaDataForPath(Paths.get("/foo/sub/foo")),
+				is(new FileMetaData("/foo/sub/foo", 44, 1002, new byte[] { 5, 6 })));
+		assertThat(dao.getDirectoryDao().countOf(), is(2L));
+	}
+
+	@Test
+	public void testMigrateFileWithoutDirectory() throws Exception {
+		DatabaseConnection conn = connectionSource.getReadWriteConnection();
+		conn.executeStatement("INSERT INTO filemetadata VALUES (11, 'qux', 44, 1002, X'0506')",
+				DatabaseConnection.DEFAULT_RESULT_FLAGS);
+		connectionSource.releaseConnection(conn);
+
+		cut.migrate();
+		FileMetaDataDao dao = DaoManager.createDao(connectionSource, FileMetaData.class);
+
+		assertThat(dao.queryRaw("SELECT name FROM filemetadata WHERE id = 11").getFirstResult()[0], is("qux"));
+	}
+}
@@ -0,0 +1,128 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.db;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.j256.ormlite.support.ConnectionSource;
+import com.j256.ormlite.support.DatabaseConnection;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ReadWriteConnectionSourceTest {
+	@Mock
+	private ConnectionSource writer;
+	@Mock
+	private ConnectionSource reader;
+
+	@Mock
+	private DatabaseConnection writeConnection;
+	@Mock
+	private DatabaseConnection readConnection;
+
+	private ReadWriteConnectionSource cut;
+
+	@Before
+	public void setUp() throws Exception {
+		when(writer.getReadWriteConnection()).thenReturn(writeConnection);
+		when(reader.getReadOnlyConnection()).thenReturn(readConnection);
+
+		cut = new ReadWriteConnectionSource(writer, reader, 1);
+	}
+
+	@Test
+	public void testReadOnlyConnectionFromReader() throws Exception {
+		assertThat(cut.getReadOnlyConnection(), is(readConnection));
+	}
+
+	@Test
+	public void testReadWriteConnectionFromWriter() throws Exception {
+		assertThat(cut.getReadWriteConnection(), is(writeConnection));
+	}
+
+	@Test
+	public void testReleaseReadConnection() throws Exception {
+		cut.releaseConnection(cut.getReadOnlyConnection());
+
+		verify(reader).releaseConnection(readConnection);
+		verify(writer, never()).releaseConnection(readConnection);
+	}
+
+	@Test
+	public void testReleaseWriteConnection() throws Exception {
+		cut.releaseConnection(cut.getReadWriteConnection());
+
+		verify(writer).releaseConnection(writeConnection);
+	}
+
+	@Test
+	public void testReadConnectionReusedAfterRelease() throws Exception {
+		cut.releaseConnection(cut.getReadOnlyConnection());
+
+		assertThat(cut.getReadOnlyConnection(), is(readConnection));
+	}
+
+	@Test(timeout = 5000)
+	public void testNestedReadReusesConnection() throws Exception {
+		DatabaseConnection outer = cut.getReadOnlyConnection();
+
+		assertThat(cut.getReadOnlyConnection(), is(outer));
+	}
+
+	@Test
+	public void testNestedReadReleasedOnce() throws Exception {
+		DatabaseConnection outer = cut.getReadOnlyConnection();
+		cut.releaseConnection(cut.getReadOnlyConnection());
+		cut.releaseConnection(outer);
+
+		verify(reader, times(1)).releaseConnection(readConnection);
+	}
+
+	@Test
+	public void testNestedReadNotReleasedEarly() throws Exception {
+		DatabaseConnection outer = cut.getReadOnlyConnection();
+		cut.releaseConnection(cut.getReadOnlyConnection());
+
+		verify(reader, never()).releaseConnection(outer);
+	}
+
+	@Test
+	public void testReadInTransactionUsesTransactionConnection() throws Exception {
+		cut.saveSpecialConnection(writeConnection);
+
+		assertThat(cut.getReadOnlyConnection(), is(writeConnection));
+	}
+
+	@Test
+	public void testTransactionConnectionNotReleased() throws Exception {
+		cut.saveSpecialConnection(writeConnection);
+		cut.releaseConnection(writeConnection);
+
+		verify(writer, never()).releaseConnection(writeConnection);
+	}
+
+	@Test
+	public void testCloseClosesBoth() throws Exception {
+		cut.close();
+
+		verify(reader).close();
+		verify(writer).close();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNoReaders() throws Exception {
+		new ReadWriteConnectionSource(writer, reader, 0);
+	}
+}
@@ -0,0 +1,404 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.db;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.dozedoff.dedupe.db.dao.FileMetaDataDao;
+import com.github.dozedoff.dedupe.db.table.FileMetaData;
+import com.github.dozedoff.dedupe.db.table.PendingFile;
+import com.github.dozedoff.dedupe.db.table.PendingLink;
+import com.github.dozedoff.dedupe.db.table.RunState;
+import com.j256.ormlite.dao.DaoManager;
+import com.j256.ormlite.table.DatabaseTableConfig;
+import com.j256.ormlite.table.TableUtils;
+
+public class RunCheckpointTest {
+	private static final long SIZE = 42;
+	private static final long OTHER_SIZE = 7;
+
+	private Database database;
+	private FileMetaDataDao metaDao;
+	private List<Path> roots;
+	private Path fileA;
+	private Path fileB;
+	private Path fileC;
+	private Path fileD;
+	private FileMetaData metaA;
+	private FileMetaData metaB;
+	private Collection<FileMetaData> groupAB;
+	private AtomicInteger flushes;
+	private Runnable flush;
+
+	private RunCheckpoint cut;
+
+	@Before
+	public void setUp() throws Exception {
+		database = Database.inMemoryDatabase();
+		metaDao = DaoManager.createDao(database.getConnectionSource(), FileMetaData.class);
+
+		roots = Arrays.asList(Paths.get("/foo"), Paths.get("/bar"));
+		fileA = Paths.get("/foo/a");
+		fileB = Paths.get("/foo/b");
+		fileC = Paths.get("/bar/c");
+		fileD = Paths.get("/bar/d");
+		metaA = createMeta(fileA);
+		metaB = createMeta(fileB);
+		groupAB = Arrays.asList(metaA, metaB);
+		flushes = new AtomicInteger();
+		flush = flushes::incrementAndGet;
+
+		cut = new RunCheckpoint(database.getConnectionSource(), roots);
+		cut.start();
+		cut.released(SIZE, Arrays.asList(fileA, fileB));
+		cut.released(OTHER_SIZE, Arrays.asList(fileC, fileD));
+	}
+
+	private FileMetaData createMeta(Path path) throws SQLException {
+		FileMetaData meta = new FileMetaData(path.toString());
+		metaDao.create(meta);
+		return meta;
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		DaoManager.clearCache();
+		database.close();
+	}
+
+	private RunCheckpoint reload() throws SQLException {
+		return new RunCheckpoint(database.getConnectionSource(), roots);
+	}
+
+	private interface Step {
+		void run() throws SQLException;
+	}
+
+	private void failWithoutTable(Class<?> table, Step step) throws SQLException {
+		metaDao.executeRaw("DROP TABLE " + DatabaseTableConfig.extractTableName(table));
+
+		try {
+			step.run();
+			fail("Writing the checkpoint should have failed");
+		} catch (SQLException e) {
+			// expected
+		}
+
+		TableUtils.createTable(database.getConnectionSource(), table);
+	}
+
+	@Test
+	public void testNotResumableDuringWalk() throws Exception {
+		cut.checkpoint(flush);
+
+		assertThat(reload().isResumable(), is(false));
+	}
+
+	@Test
+	public void testNoFilesStoredDuringWalk() throws Exception {
+		cut.checkpoint(flush);
+
+		assertThat(reload().pendingFiles().isEmpty(), is(true));
+	}
+
+	@Test
+	public void testResumableAfterWalk() throws Exception {
+		cut.walkFinished(flush);
+
+		assertThat(reload().isResumable(), is(true));
+	}
+
+	@Test
+	public void testResumableWithRootsInOtherOrder() throws Exception {
+		cut.walkFinished(flush);
+
+		RunCheckpoint checkpoint = new RunCheckpoint(database.getConnectionSource(),
+				Arrays.asList(Paths.get("/bar"), Paths.get("/foo/")));
+
+		assertThat(checkpoint.isResumable(), is(true));
+	}
+
+	@Test
+	public void testNotResumableWithOtherRoots() throws Exception {
+		cut.walkFinished(flush);
+
+		RunCheckpoint checkpoint = new RunCheckpoint(database.getConnectionSource(),
+				Collections.singletonList(Paths.get("/foo")));
+
+		assertThat(checkpoint.isResumable(), is(false));
+	}
+
+	@Test
+	public void testHasOtherRun() throws Exception {
+		cut.walkFinished(flush);
+
+		RunCheckpoint checkpoint = new RunCheckpoint(database.getConnectionSource(),
+				Collections.singletonList(Paths.get("/foo")));
+
+		assertThat(checkpoint.hasOtherRun(), is(true));
+	}
+
+	@Test
+	public void testWalkFinishedFlushesWriters() throws Exception {
+		cut.walkFinished(flush);
+
+		assertThat(flushes.get(), is(1));
+	}
+
+	@Test
+	public void testPendingFilesAfterWalk() throws Exception {
+		cut.walkFinished(flush);
+
+		assertThat(reload().pendingFiles().get(SIZE), containsInAnyOrder(fileA.toString(), fileB.toString()));
+	}
+
+	@Test
+	public void testComparedBeforeWalkFinishedNotStored() throws Exception {
+		cut.compared(OTHER_SIZE, Collections.emptyList());
+		cut.walkFinished(flush);
+
+		assertThat(reload().pendingFiles().keySet(), contains(SIZE));
+	}
+
+	@Test
+	public void testComparedGroupRemoved() throws Exception {
+		cut.walkFinished(flush);
+		cut.compared(OTHER_SIZE, Collections.emptyList());
+		cut.checkpoint(flush);
+
+		assertThat(reload().pendingFiles().keySet(), contains(SIZE));
+	}
+
+	@Test
+	public void testIncompleteGroupKept() throws Exception {
+		cut.walkFinished(flush);
+		cut.incomplete(OTHER_SIZE);
+		cut.compared(OTHER_SIZE, Collections.emptyList());
+		cut.checkpoint(flush);
+
+		assertThat(reload().pendingFiles().keySet(), containsInAnyOrder(SIZE, OTHER_SIZE));
+	}
+
+	@Test
+	public void testIdenticalFilesStored() throws Exception {
+		cut.walkFinished(flush);
+		cut.compared(SIZE, Collections.singletonList(groupAB));
+		cut.checkpoint(flush);
+
+		assertThat(reload().pendingLinks().get(0).getMetaDataIds(), contains(metaA.getId(), metaB.getId()));
+	}
+
+	@Test
+	public void testLinkedFilesNotStored() throws Exception {
+		cut.walkFinished(flush);
+		cut.compared(SIZE, Collections.singletonList(groupAB));
+		cut.linked(groupAB);
+		cut.checkpoint(flush);
+
+		assertThat(reload().pendingLinks(), is(empty()));
+	}
+
+	@Test
+	public void testLinkedFilesRemoved() throws Exception {
+		cut.walkFinished(flush);
+		cut.compared(SIZE, Collections.singletonList(groupAB));
+		cut.checkpoint(flush);
+		cut.linked(groupAB);
+		cut.checkpoint(flush);
+
+		assertThat(reload().pendingLinks(), is(empty()));
+	}
+
+	@Test
+	public void testRestoredLinkRemoved() throws Exception {
+		cut.walkFinished(flush);
+		cut.compared(SIZE, Collections.singletonList(groupAB));
+		cut.checkpoint(flush);
+
+		RunCheckpoint resumed = reload();
+		PendingLink link = resumed.pendingLinks().get(0);
+		List<FileMetaData> restored = Arrays.asList(metaA, metaB);
+		resumed.restored(link, restored);
+		resumed.linked(restored);
+		resumed.checkpoint(flush);
+
+		assertThat(reload().pendingLinks(), is(empty()));
+	}
+
+	@Test
+	public void testUnstoredMetaDataKeepsGroupPending() throws Exception {
+		Collection<FileMetaData> unstored = Arrays.asList(new FileMetaData(fileC.toString()),
+				new FileMetaData(fileD.toString()));
+
+		cut.walkFinished(flush);
+		cut.compared(OTHER_SIZE, Collections.singletonList(unstored));
+		cut.checkpoint(flush);
+
+		assertThat(reload().pendingFiles().keySet(), containsInAnyOrder(SIZE, OTHER_SIZE));
+	}
+
+	@Test
+	public void testUnstoredMetaDataRetried() throws Exception {
+		FileMetaData metaC = new FileMetaData(fileC.toString());
+		FileMetaData metaD = new FileMetaData(fileD.toString());
+
+		cut.walkFinished(flush);
+		cut.compared(OTHER_SIZE, Collections.singletonList(Arrays.asList(metaC, metaD)));
+		cut.checkpoint(flush);
+		metaDao.create(metaC);
+		metaDao.create(metaD);
+		cut.checkpoint(flush);
+
+		assertThat(reload().pendingFiles().keySet(), contains(SIZE));
+	}
+
+	@Test
+	public void testFilesKeptWhenCheckpointFails() throws Exception {
+		failWithoutTable(PendingFile.class, () -> cut.walkFinished(flush));
+		cut.checkpoint(flush);
+
+		assertThat(reload().pendingFiles().keySet(), containsInAnyOrder(SIZE, OTHER_SIZE));
+	}
+
+	@Test
+	public void testIdenticalFilesKeptWhenCheckpointFails() throws Exception {
+		cut.walkFinished(flush);
+		cut.compared(SIZE, Collections.singletonList(groupAB));
+
+		failWithoutTable(PendingLink.class, () -> cut.checkpoint(flush));
+		cut.checkpoint(flush);
+
+		assertThat(reload().pendingLinks().get(0).getMetaDataIds(), contains(metaA.getId(), metaB.getId()));
+	}
+
+	@Test
+	public void testComparedGroupRemovedAfterFailedCheckpoint() throws Exception {
+		cut.walkFinished(flush);
+		cut.compared(SIZE, Collections.singletonList(groupAB));
+
+		failWithoutTable(PendingLink.class, () -> cut.checkpoint(flush));
+		cut.checkpoint(flush);
+
+		assertThat(reload().pendingFiles().keySet(), contains(OTHER_SIZE));
+	}
+
+	@Test
+	public void testLinkedKeptWhenCheckpointFails() throws Exception {
+		cut.walkFinished(flush);
+		cut.compared(SIZE, Collections.singletonList(groupAB));
+		cut.checkpoint(flush);
+		cut.linked(groupAB);
+
+		failWithoutTable(RunState.class, () -> cut.checkpoint(flush));
+		cut.checkpoint(flush);
+
+		assertThat(reload().pendingLinks(), is(empty()));
+	}
+
+	@Test
+	public void testFinishIncomplete() throws Exception {
+		cut.walkFinished(flush);
+
+		assertThat(cut.finish(flush), is(false));
+	}
+
+	@Test
+	public void testFinishDuringWalk() throws Exception {
+		assertThat(cut.finish(flush), is(false));
+	}
+
+	@Test
+	public void testFinishComplete() throws Exception {
+		cut.walkFinished(flush);
+		cut.compared(SIZE, Collections.singletonList(groupAB));
+		cut.compared(OTHER_SIZE, Collections.emptyList());
+		cut.linked(groupAB);
+
+		assertThat(cut.finish(flush), is(true));
+	}
+
+	@Test
+	public void testFinishCompleteClearsState() throws Exception {
+		cut.walkFinished(flush);
+		cut.compared(SIZE, Collections.emptyList());
+		cut.compared(OTHER_SIZE, Collections.emptyList());
+		cut.finish(flush);
+
+		assertThat(reload().lastCheckpoint(), is(0L));
+	}
+
+	@Test
+	public void testStartDiscardsState() throws Exception {
+		cut.walkFinished(flush);
+
+		RunCheckpoint checkpoint = reload();
+		checkpoint.start();
+
+		assertThat(reload().pendingFiles().isEmpty(), is(true));
+	}
+
+	@Test
+	public void testReleasedIgnoredWhenResumed() throws Exception {
+		cut.walkFinished(flush);
+
+		RunCheckpoint resumed = reload();
+		resumed.released(OTHER_SIZE, Collections.singletonList(Paths.get("/bar/e")));
+		resumed.checkpoint(flush);
+
+		assertThat(reload().pendingFiles().get(OTHER_SIZE), containsInAnyOrder(fileC.toString(), fileD.toString()));
+	}
+
+	@Test(timeout = 5000)
+	public void testCheckpointWaitsForWriteLock() throws Exception {
+		cut.walkFinished(flush);
+		ExecutorService other = Executors.newSingleThreadExecutor();
+		database.getWriteLock().lock();
+
+		try {
+			Future<?> checkpoint = other.submit(() -> {
+				cut.checkpoint(flush);
+				return null;
+			});
+
+			Thread.sleep(200);
+			assertThat(checkpoint.isDone(), is(false));
+
+			database.getWriteLock().unlock();
+			checkpoint.get();
+		} finally {
+			other.shutdown();
+		}
+	}
+
+	@Test
+	public void testCheckpointReleasesWriteLock() throws Exception {
+		cut.walkFinished(flush);
+		cut.checkpoint(flush);
+
+		assertThat(database.getWriteLock().tryLock(), is(true));
+		database.getWriteLock().unlock();
+	}
+}
@@ -0,0 +1,146 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.db;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.junit.Assert.assertThat;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.dozedoff.dedupe.db.dao.FileLinkDao;
+import com.github.dozedoff.dedupe.db.dao.FileMetaDataDao;
+import com.github.dozedoff.dedupe.db.table.FileLink;
+import com.github.dozedoff.dedupe.db.table.FileMetaData;
+import com.j256.ormlite.dao.DaoManager;
+
+public class StaleRowSweepTest {
+	private static final Path ROOT = Paths.get("/root");
+
+	private Database database;
+	private FileMetaDataDao dao;
+	private FileLinkDao linkDao;
+
+	private FileMetaData existing;
+	private FileMetaData deleted;
+	private FileMetaData deletedInSubDirectory;
+	private FileMetaData outside;
+
+	private StaleRowSweep cut;
+
+	@Before
+	public void setUp() throws Exception {
+		database = Database.inMemoryDatabase();
+		dao = DaoManager.createDao(database.getConnectionSource(), FileMetaData.class);
+		linkDao = DaoManager.createDao(database.getConnectionSource(), FileLink.class);
+
+		existing = createMeta("/root/a");
+		deleted = createMeta("/root/b");
+		deletedInSubDirectory = createMeta("/root/sub/c");
+		outside = createMeta("/other/d");
+
+		linkDao.create(new FileLink(existing, deleted));
+
+		cut = new StaleRowSweep(dao, linkDao, 1);
+	}
+
+	private FileMetaData createMeta(String path) throws SQLException {
+		FileMetaData meta = new FileMetaData(path);
+		dao.create(meta);
+		return meta;
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		DaoManager.clearCache();
+		database.close();
+	}
+
+	private List<String> storedPaths() throws SQLException {
+		return dao.queryForAll().stream().map(FileMetaData::getPathAsString).collect(Collectors.toList());
+	}
+
+	@Test
+	public void testSweepRemovesMissing() throws Exception {
+		cut.sweep(ROOT, Arrays.asList(existing.getPath(), Paths.get("/root/new")));
+
+		assertThat(storedPaths(), containsInAnyOrder("/root/a", "/other/d"));
+	}
+
+	@Test
+	public void testSweepReturnsDeletedRows() throws Exception {
+		assertThat(cut.sweep(ROOT, Arrays.asList(existing.getPath())), is(2L));
+	}
+
+	@Test
+	public void testSweepRemovesLinks() throws Exception {
+		cut.sweep(ROOT, Arrays.asList(existing.getPath()));
+
+		assertThat(linkDao.countOf(), is(0L));
+	}
+
+	@Test
+	public void testSweepKeepsAllExisting() throws Exception {
+		cut.sweep(ROOT, Arrays.asList(deletedInSubDirectory.getPath(), existing.getPath(), deleted.getPath()));
+
+		assertThat(dao.countOf(), is(4L));
+	}
+
+	@Test
+	public void testSweepOrderIndependent() throws Exception {
+		FileMetaData sorted = createMeta("/root/b0");
+		cut.sweep(ROOT, Arrays.asList(sorted.getPath(), deletedInSubDirectory.getPath(), existing.getPath()));
+
+		assertThat(storedPaths(), containsInAnyOrder("/root/a", "/root/b0", "/root/sub/c", "/other/d"));
+	}
+
+	@Test
+	public void testRemovedRows() throws Exception {
+		cut.sweep(ROOT, Arrays.asList(existing.getPath()));
+
+		assertThat(cut.getRemovedRows(), is(2L));
+	}
+
+	@Test
+	public void testRemoveEmptyDirectories() throws Exception {
+		cut.sweep(ROOT, Arrays.asList(existing.getPath()));
+
+		assertThat(cut.removeEmptyDirectories(), is(1L));
+	}
+
+	@Test
+	public void testRemoveEmptyDirectoriesAllowsNewFiles() throws Exception {
+		cut.sweep(ROOT, Arrays.asList(existing.getPath()));
+		cut.removeEmptyDirectories();
+
+		createMeta("/root/sub/e");
+
+		assertThat(dao.hasMetaData(Paths.get("/root/sub/e")), is(true));
+	}
+
+	@Test
+	public void testDatabaseSize() throws Exception {
+		assertThat(cut.databaseSize(), is(greaterThan(0L)));
+	}
+
+	@Test
+	public void testVacuumAndAnalyze() throws Exception {
+		cut.sweep(ROOT, Arrays.asList(existing.getPath()));
+		cut.vacuum();
+		cut.analyze();
+
+		assertThat(cut.freeSpace(), is(0L));
+	}
+}
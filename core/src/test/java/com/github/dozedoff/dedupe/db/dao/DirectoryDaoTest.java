@@ -0,0 +1,108 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.db.dao;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.junit.Assert.assertThat;
+
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.dozedoff.dedupe.db.Database;
+import com.github.dozedoff.dedupe.db.table.Directory;
+import com.j256.ormlite.dao.DaoManager;
+
+public class DirectoryDaoTest {
+	private static final String PATH_EXISTS = "/foo/";
+
+	private Database database;
+	private DirectoryDao cut;
+
+	private Directory existing;
+
+	@Before
+	public void setUp() throws Exception {
+		database = Database.inMemoryDatabase();
+		cut = DaoManager.createDao(database.getConnectionSource(), Directory.class);
+
+		existing = new Directory(PATH_EXISTS);
+		cut.create(existing);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		DaoManager.clearCache();
+		database.close();
+	}
+
+	@Test
+	public void testFindDirectoryExisting() throws Exception {
+		assertThat(cut.findDirectory(PATH_EXISTS), is(existing));
+	}
+
+	@Test
+	public void testFindDirectoryExistingAfterCacheClear() throws Exception {
+		cut.clearDirectoryCache();
+
+		assertThat(cut.findDirectory(PATH_EXISTS), is(existing));
+	}
+
+	@Test
+	public void testFindDirectoryNotExisting() throws Exception {
+		assertThat(cut.findDirectory("/bar/"), is(nullValue()));
+	}
+
+	@Test
+	public void testCreateAssignsId() throws Exception {
+		assertThat(existing.getId(), is(not(0)));
+	}
+
+	@Test
+	public void testCreateDuplicateReturnsZeroRows() throws Exception {
+		assertThat(cut.create(new Directory(PATH_EXISTS)), is(0));
+	}
+
+	@Test
+	public void testCreateDuplicateAssignsStoredId() throws Exception {
+		Directory duplicate = new Directory(PATH_EXISTS);
+		cut.create(duplicate);
+
+		assertThat(duplicate.getId(), is(existing.getId()));
+	}
+
+	@Test
+	public void testCreateDuplicateNoNewRow() throws Exception {
+		cut.create(new Directory(PATH_EXISTS));
+
+		assertThat(cut.countOf(), is(1L));
+	}
+
+	@Test
+	public void testGetOrCreateNew() throws Exception {
+		Directory created = cut.getOrCreate(new Directory("/bar/"));
+
+		assertThat(cut.findDirectory("/bar/").getId(), is(created.getId()));
+	}
+
+	@Test
+	public void testIdsUnder() throws Exception {
+		Directory sub = cut.getOrCreate(new Directory("/foo/bar/"));
+		cut.getOrCreate(new Directory("/foobar/"));
+		cut.getOrCreate(new Directory("/other/"));
+
+		List<Integer> ids = cut.idsUnder(Paths.get("/foo")).query().stream().map(Directory::getId)
+				.collect(Collectors.toList());
+
+		assertThat(ids, containsInAnyOrder(existing.getId(), sub.getId()));
+	}
+}
@@ -0,0 +1,77 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.db.dao;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.contains;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.NoSuchElementException;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.github.dozedoff.dedupe.db.table.FileMetaData;
+import com.j256.ormlite.dao.CloseableIterator;
+
+@RunWith(MockitoJUnitRunner.class)
+public class DuplicateGroupIteratorTest {
+	private static final FileMetaData A = new FileMetaData("a", 1, 0, new byte[] { 1 });
+	private static final FileMetaData B = new FileMetaData("b", 1, 0, new byte[] { 1 });
+	private static final FileMetaData C = new FileMetaData("c", 1, 0, new byte[] { 2 });
+	private static final FileMetaData D = new FileMetaData("d", 1, 0, new byte[] { 2 });
+
+	@Mock
+	private CloseableIterator<FileMetaData> rows;
+
+	private DuplicateGroupIterator cut;
+
+	@Before
+	public void setUp() throws Exception {
+		when(rows.hasNext()).thenReturn(true, true, true, true, false);
+		when(rows.next()).thenReturn(A, B, C, D);
+
+		cut = new DuplicateGroupIterator(rows);
+	}
+
+	@Test
+	public void testFirstGroup() throws Exception {
+		assertThat(cut.next(), contains(A, B));
+	}
+
+	@Test
+	public void testSecondGroup() throws Exception {
+		cut.next();
+
+		assertThat(cut.next(), contains(C, D));
+	}
+
+	@Test
+	public void testHasNextAfterLastGroup() throws Exception {
+		cut.next();
+		cut.next();
+
+		assertThat(cut.hasNext(), is(false));
+	}
+
+	@Test(expected = NoSuchElementException.class)
+	public void testNextAfterLastGroup() throws Exception {
+		cut.next();
+		cut.next();
+		cut.next();
+	}
+
+	@Test
+	public void testClose() throws Exception {
+		cut.close();
+
+		verify(rows).close();
+	}
+}
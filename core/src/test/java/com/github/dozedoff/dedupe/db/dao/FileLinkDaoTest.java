@@ -11,6 +11,8 @@ import static org.hamcrest.Matchers.hasItem;
 import static org.junit.Assert.assertThat;
 
 import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import org.junit.After;
@@ -123,4 +125,34 @@ public class FileLinkDaoTest {
 		assertThat(cut.queryForAll(), is(empty()));
 	}
 
+	@Test
+	public void testUpsertLinkNew() throws Exception {
+		cut.upsertLink(new FileLink(metaB, metaA));
+
+		assertThat(cut.queryForAll(), hasItem(new FileLink(metaB, metaA)));
+	}
+
+	@Test
+	public void testUpsertLinkReplacesExisting() throws Exception {
+		cut.upsertLink(linkBC);
+
+		assertThat(cut.queryForAll(), containsInAnyOrder(linkAD, linkBC));
+	}
+
+	@Test
+	public void testDeleteLinksWithIds() throws Exception {
+		cut.deleteLinksWithIds(Arrays.asList(metaB.getId(), metaD.getId()));
+
+		assertThat(cut.queryForAll(), containsInAnyOrder(linkAC));
+	}
+
+	@Test
+	public void testDeleteLinksWithIdsCount() throws Exception {
+		assertThat(cut.deleteLinksWithIds(Arrays.asList(metaA.getId())), is(2));
+	}
+
+	@Test
+	public void testDeleteLinksWithIdsEmpty() throws Exception {
+		assertThat(cut.deleteLinksWithIds(Collections.emptyList()), is(0));
+	}
 }
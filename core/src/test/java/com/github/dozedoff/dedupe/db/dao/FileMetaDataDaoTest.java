@@ -6,16 +6,23 @@ package com.github.dozedoff.dedupe.db.dao;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
 import static org.junit.Assert.assertThat;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
 
 import org.junit.Before;
 import org.junit.Test;
 
 import com.github.dozedoff.dedupe.db.Database;
 import com.github.dozedoff.dedupe.db.table.FileMetaData;
+import com.j256.ormlite.dao.CloseableIterator;
 import com.j256.ormlite.dao.DaoManager;
 
 public class FileMetaDataDaoTest {
@@ -63,4 +70,181 @@ public class FileMetaDataDaoTest {
 	public void testGetMetaDataForPathWithNonExistingPath() throws Exception {
 		assertThat(cut.getMetaDataForPath(pathNew), is(nullValue()));
 	}
+
+	@Test
+	public void testIteratorUnder() throws Exception {
+		FileMetaData inRoot = new FileMetaData("/root/foo");
+		FileMetaData inSubDirectory = new FileMetaData("/root/bar/baz");
+		FileMetaData samePrefix = new FileMetaData("/rootless/foo");
+		FileMetaData outside = new FileMetaData("/other/foo");
+
+		cut.create(inRoot);
+		cut.create(inSubDirectory);
+		cut.create(samePrefix);
+		cut.create(outside);
+
+		List<FileMetaData> found = new ArrayList<FileMetaData>();
+		CloseableIterator<FileMetaData> iter = cut.iteratorUnder(Paths.get("/root"));
+
+		try {
+			iter.forEachRemaining(found::add);
+		} finally {
+			iter.close();
+		}
+
+		assertThat(found, containsInAnyOrder(inRoot, inSubDirectory));
+	}
+
+	@Test
+	public void testGetMetaDataForPathConcurrent() throws Exception {
+		for (int i = 0; i < 100; i++) {
+			cut.create(new FileMetaData(Integer.toString(i)));
+		}
+
+		boolean allFound = IntStream.range(0, 100).parallel().allMatch(i -> {
+			try {
+				return Integer.toString(i).equals(cut.getMetaDataForPath(Paths.get(Integer.toString(i))).getPathAsString());
+			} catch (Exception e) {
+				return false;
+			}
+		});
+
+		assertThat(allFound, is(true));
+	}
+
+	private List<List<FileMetaData>> duplicateGroups() throws Exception {
+		List<List<FileMetaData>> groups = new ArrayList<List<FileMetaData>>();
+
+		try (DuplicateGroupIterator iter = cut.iterateDuplicateGroups()) {
+			iter.forEachRemaining(groups::add);
+		}
+
+		return groups;
+	}
+
+	@Test
+	public void testIterateDuplicateGroups() throws Exception {
+		FileMetaData a = new FileMetaData("/a", 1, 0, new byte[] { 1 });
+		FileMetaData b = new FileMetaData("/b", 1, 0, new byte[] { 1 });
+		FileMetaData c = new FileMetaData("/c", 2, 0, new byte[] { 2 });
+		FileMetaData d = new FileMetaData("/d", 2, 0, new byte[] { 2 });
+		FileMetaData e = new FileMetaData("/e", 2, 0, new byte[] { 2 });
+
+		for (FileMetaData meta : Arrays.asList(a, b, c, d, e)) {
+			cut.create(meta);
+		}
+
+		List<List<FileMetaData>> groups = duplicateGroups();
+
+		assertThat(groups.size(), is(2));
+		assertThat(groups.get(0), containsInAnyOrder(a, b));
+		assertThat(groups.get(1), containsInAnyOrder(c, d, e));
+	}
+
+	@Test
+	public void testIterateDuplicateGroupsIgnoresUnique() throws Exception {
+		cut.create(new FileMetaData("/a", 1, 0, new byte[] { 1 }));
+		cut.create(new FileMetaData("/b", 1, 0, new byte[] { 2 }));
+		cut.create(new FileMetaData("/c", 2, 0, new byte[] { 1 }));
+
+		assertThat(duplicateGroups(), is(empty()));
+	}
+
+	@Test
+	public void testIterateDuplicateGroupsIgnoresMissingHash() throws Exception {
+		cut.create(new FileMetaData("/a"));
+		cut.create(new FileMetaData("/b"));
+
+		assertThat(duplicateGroups(), is(empty()));
+	}
+
+	@Test
+	public void testHasOtherFileWithSize() throws Exception {
+		cut.create(new FileMetaData("/a", 5, 0, new byte[0]));
+
+		assertThat(cut.hasOtherFileWithSize(Paths.get("/b"), 5), is(true));
+	}
+
+	@Test
+	public void testHasOtherFileWithSizeOnlySelf() throws Exception {
+		cut.create(new FileMetaData("/a", 5, 0, new byte[0]));
+
+		assertThat(cut.hasOtherFileWithSize(Paths.get("/a"), 5), is(false));
+	}
+
+	@Test
+	public void testHasOtherFileWithSizeUnknown() throws Exception {
+		assertThat(cut.hasOtherFileWithSize(Paths.get("/a"), 5), is(false));
+	}
+
+	@Test
+	public void testGetMetaDataWithHash() throws Exception {
+		FileMetaData a = new FileMetaData("/a", 5, 0, new byte[] { 1 });
+		FileMetaData b = new FileMetaData("/b", 5, 0, new byte[] { 1 });
+		cut.create(a);
+		cut.create(b);
+		cut.create(new FileMetaData("/c", 5, 0, new byte[] { 2 }));
+		cut.create(new FileMetaData("/d", 6, 0, new byte[] { 1 }));
+
+		assertThat(cut.getMetaDataWithHash(5, new byte[] { 1 }), containsInAnyOrder(a, b));
+	}
+
+	@Test
+	public void testGetMetaDataForFileKey() throws Exception {
+		FileMetaData a = new FileMetaData("/a", 5, 7, new byte[] { 1 });
+		a.setFileKey("key");
+		FileMetaData otherTime = new FileMetaData("/b", 5, 8, new byte[] { 1 });
+		otherTime.setFileKey("key");
+		cut.create(a);
+		cut.create(otherTime);
+
+		assertThat(cut.getMetaDataForFileKey("key", 5, 7), containsInAnyOrder(a));
+	}
+
+	@Test
+	public void testGetMetaDataForFileKeyUnknown() throws Exception {
+		assertThat(cut.getMetaDataForFileKey("key", 0, 0), is(empty()));
+	}
+
+	@Test
+	public void testMoveTo() throws Exception {
+		FileMetaData meta = cut.getMetaDataForPath(pathExists);
+
+		cut.moveTo(meta, Paths.get("/other/moved"));
+		cut.store(meta);
+		cut.clearObjectCache();
+
+		assertThat(cut.getMetaDataForPath(Paths.get("/other/moved")).getId(), is(existingMeta.getId()));
+	}
+
+	@Test
+	public void testMoveToRemovesOldPath() throws Exception {
+		FileMetaData meta = cut.getMetaDataForPath(pathExists);
+
+		cut.moveTo(meta, Paths.get("/other/moved"));
+		cut.store(meta);
+
+		assertThat(cut.hasMetaData(pathExists), is(false));
+	}
+
+	@Test
+	public void testMoveToDoesNotWrite() throws Exception {
+		FileMetaData meta = cut.getMetaDataForPath(pathExists);
+		long directories = cut.getDirectoryDao().countOf();
+
+		cut.moveTo(meta, Paths.get("/other/moved"));
+
+		assertThat(cut.getDirectoryDao().countOf(), is(directories));
+	}
+
+	@Test
+	public void testStoreCreatesMovedDirectory() throws Exception {
+		FileMetaData meta = cut.getMetaDataForPath(pathExists);
+
+		cut.moveTo(meta, Paths.get("/other/moved"));
+		cut.store(meta);
+
+		assertThat(cut.getDirectoryDao().findDirectory(meta.getDirectory().getPath()).getId(),
+				is(meta.getDirectory().getId()));
+	}
 }
@@ -0,0 +1,60 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.db.dao;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.dozedoff.dedupe.db.table.FileMetaData;
+import com.j256.ormlite.stmt.PreparedQuery;
+
+public class PerThreadStatementTest {
+	private PerThreadStatement<PreparedQuery<FileMetaData>> cut;
+	private ExecutorService otherThread;
+
+	@SuppressWarnings("unchecked")
+	@Before
+	public void setUp() throws Exception {
+		cut = new PerThreadStatement<PreparedQuery<FileMetaData>>(() -> mock(PreparedQuery.class));
+		otherThread = Executors.newSingleThreadExecutor();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		otherThread.shutdown();
+	}
+
+	@Test
+	public void testSameThreadSameStatement() throws Exception {
+		assertThat(cut.bind(), is(sameInstance(cut.bind())));
+	}
+
+	@Test
+	public void testOtherThreadOtherStatement() throws Exception {
+		PreparedQuery<FileMetaData> other = otherThread.submit(() -> cut.bind()).get(5, TimeUnit.SECONDS);
+
+		assertThat(cut.bind(), is(not(sameInstance(other))));
+	}
+
+	@Test
+	public void testArgumentsBoundInOrder() throws Exception {
+		PreparedQuery<FileMetaData> statement = cut.bind("foo", "bar");
+
+		verify(statement).setArgumentHolderValue(0, "foo");
+		verify(statement).setArgumentHolderValue(1, "bar");
+	}
+}
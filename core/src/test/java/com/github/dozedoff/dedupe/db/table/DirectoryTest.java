@@ -0,0 +1,56 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.db.table;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import nl.jqno.equalsverifier.EqualsVerifier;
+import nl.jqno.equalsverifier.Warning;
+
+public class DirectoryTest {
+	private static final String PATH = "/foo/bar/";
+
+	private Directory cut;
+
+	@Before
+	public void setUp() throws Exception {
+		cut = new Directory(PATH);
+	}
+
+	@Test
+	public void testGetPath() throws Exception {
+		assertThat(cut.getPath(), is(PATH));
+	}
+
+	@Test
+	public void testIdNotStored() throws Exception {
+		assertThat(cut.getId(), is(0));
+	}
+
+	@Test
+	public void testFileMetaDataDirectory() throws Exception {
+		assertThat(new FileMetaData(PATH + "baz").getDirectory(), is(cut));
+	}
+
+	@Test
+	public void testFileMetaDataName() throws Exception {
+		assertThat(new FileMetaData(PATH + "baz").getName(), is("baz"));
+	}
+
+	@Test
+	public void testFileMetaDataWithoutDirectory() throws Exception {
+		assertThat(new FileMetaData("baz").getDirectory().getPath(), is(""));
+	}
+
+	@Test
+	public void testEquals() throws Exception {
+		EqualsVerifier.forClass(Directory.class).allFieldsShouldBeUsedExcept("id").suppress(Warning.NONFINAL_FIELDS)
+				.verify();
+	}
+}
@@ -8,6 +8,7 @@ import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertThat;
 
+import java.nio.ByteBuffer;
 import java.nio.file.FileSystem;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -62,6 +63,16 @@ public class FileMetaDataTest {
 		assertArrayEquals(cut.getHash(), hash);
 	}
 
+	@Test
+	public void testGetHashBuffer() throws Exception {
+		assertThat(cut.getHashBuffer(), is(ByteBuffer.wrap(hash)));
+	}
+
+	@Test
+	public void testGetHashBufferIsReadOnly() throws Exception {
+		assertThat(cut.getHashBuffer().isReadOnly(), is(true));
+	}
+
 	@Test
 	public void testEquals() throws Exception {
 		assertThat(cut.equals(new FileMetaData(PATH, SIZE, MOD_TIME, hash)), is(true));
@@ -69,7 +80,7 @@ public class FileMetaDataTest {
 
 	@Test
 	public void testEqualsVerify() throws Exception {
-		EqualsVerifier.forClass(FileMetaData.class).allFieldsShouldBeUsedExcept("id", "size", "modifiedTime", "hash")
+		EqualsVerifier.forClass(FileMetaData.class).allFieldsShouldBeUsedExcept("id", "size", "modifiedTime", "hash", "fileKey")
 				.suppress(Warning.NONFINAL_FIELDS)
 				.verify();
 	}
@@ -92,4 +103,25 @@ public class FileMetaDataTest {
 
 		assertThat(cut.getHash(), is(new byte[0]));
 	}
+
+	@Test
+	public void testSetPath() throws Exception {
+		cut.setPath("/bar/baz");
+
+		assertThat(cut.getPathAsString(), is("/bar/baz"));
+	}
+
+	@Test
+	public void testSetPathKeepsHash() throws Exception {
+		cut.setPath("/bar/baz");
+
+		assertArrayEquals(cut.getHash(), hash);
+	}
+
+	@Test
+	public void testFileKey() throws Exception {
+		cut.setFileKey("(dev=1,ino=2)");
+
+		assertThat(cut.getFileKey(), is("(dev=1,ino=2)"));
+	}
 }
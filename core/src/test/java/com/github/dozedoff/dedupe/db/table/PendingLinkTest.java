@@ -0,0 +1,64 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.db.table;
+
+import static org.hamcrest.Matchers.contains;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.dozedoff.dedupe.db.Database;
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.dao.DaoManager;
+
+public class PendingLinkTest {
+	private Database database;
+	private Dao<FileMetaData, Integer> metaDao;
+	private FileMetaData metaA;
+	private FileMetaData metaB;
+
+	private PendingLink cut;
+
+	@Before
+	public void setUp() throws Exception {
+		database = Database.inMemoryDatabase();
+		metaDao = DaoManager.createDao(database.getConnectionSource(), FileMetaData.class);
+
+		metaA = new FileMetaData("/foo/a");
+		metaB = new FileMetaData("/foo/b");
+		metaDao.create(metaA);
+		metaDao.create(metaB);
+
+		cut = new PendingLink(Arrays.asList(metaA, metaB));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		DaoManager.clearCache();
+		database.close();
+	}
+
+	@Test
+	public void testGetMetaDataIds() throws Exception {
+		assertThat(cut.getMetaDataIds(), contains(metaA.getId(), metaB.getId()));
+	}
+
+	@Test
+	public void testGetMetaDataIdsAfterStore() throws Exception {
+		Dao<PendingLink, Integer> linkDao = DaoManager.createDao(database.getConnectionSource(), PendingLink.class);
+		linkDao.create(cut);
+
+		assertThat(linkDao.queryForId(cut.getId()).getMetaDataIds(), contains(metaA.getId(), metaB.getId()));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnstoredMetaData() throws Exception {
+		new PendingLink(Arrays.asList(metaA, new FileMetaData("/foo/c")));
+	}
+}
@@ -22,6 +22,8 @@ import org.junit.Before;
 import org.junit.Test;
 
 import com.github.dozedoff.dedupe.db.table.FileMetaData;
+import com.github.dozedoff.dedupe.file.DirectReader;
+import com.github.dozedoff.dedupe.file.IoThrottle;
 import com.github.dozedoff.dedupe.util.TestDataUtil;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.MultimapBuilder;
@@ -153,4 +155,18 @@ public class CompareFileTest {
 	public void testGroupIdenticalFilesSingleCandidate() throws Exception {
 		assertThat(cut.groupIdenticalFiles(identicalCandiadates), hasItem(containsInAnyOrder(metaZero)));
 	}
+
+	@Test
+	public void testGroupIdenticalFilesWithDirectReader() throws Exception {
+		cut = new CompareFile(fs, new DirectReader());
+
+		assertThat(cut.groupIdenticalFiles(identicalCandiadates), hasItem(containsInAnyOrder(metaA, metaC)));
+	}
+
+	@Test(timeout = 5000)
+	public void testGroupIdenticalFilesThrottled() throws Exception {
+		cut = new CompareFile(fs, null, new IoThrottle(IoThrottle.UNLIMITED, 1000));
+
+		assertThat(cut.groupIdenticalFiles(identicalCandiadates), hasItem(containsInAnyOrder(metaA, metaC)));
+	}
 }
@@ -0,0 +1,127 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.duplicate;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.github.dozedoff.dedupe.db.Database;
+import com.github.dozedoff.dedupe.db.dao.FileMetaDataDao;
+import com.github.dozedoff.dedupe.db.table.FileMetaData;
+import com.github.dozedoff.dedupe.file.MetaData;
+import com.j256.ormlite.dao.DaoManager;
+
+public class DuplicateQueryTest {
+	private static final byte[] DATA_A = { 1, 2, 3 };
+	private static final byte[] DATA_B = { 4, 5, 6 };
+
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	private Database database;
+	private FileMetaDataDao dao;
+	private MetaData metaData;
+
+	private Path query;
+	private FileMetaData knownA;
+	private FileMetaData knownB;
+
+	private DuplicateQuery cut;
+
+	@Before
+	public void setUp() throws Exception {
+		database = Database.inMemoryDatabase();
+		dao = DaoManager.createDao(database.getConnectionSource(), FileMetaData.class);
+		metaData = spy(new MetaData());
+
+		query = Files.write(temp.newFile("query").toPath(), DATA_A);
+
+		knownA = new MetaData().createMetaDataFromFile(Files.write(temp.newFile("knownA").toPath(), DATA_A));
+		knownB = new MetaData().createMetaDataFromFile(Files.write(temp.newFile("knownB").toPath(), DATA_B));
+
+		dao.create(knownA);
+		dao.create(knownB);
+
+		cut = new DuplicateQuery(dao, metaData);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		DaoManager.clearCache();
+		database.close();
+	}
+
+	@Test
+	public void testFindDuplicates() throws Exception {
+		assertThat(cut.findDuplicates(query), containsInAnyOrder(knownA));
+	}
+
+	@Test
+	public void testFindDuplicatesExcludesSelf() throws Exception {
+		assertThat(cut.findDuplicates(knownA.getPath()), is(empty()));
+	}
+
+	@Test
+	public void testFindDuplicatesUsesStoredHash() throws Exception {
+		dao.create(new MetaData().createMetaDataFromFile(query));
+
+		cut.findDuplicates(query);
+
+		verify(metaData, never()).contentHash(any(Path.class));
+	}
+
+	@Test
+	public void testNoHashForUnknownSize() throws Exception {
+		Path unique = Files.write(temp.newFile("unique").toPath(), new byte[] { 1 });
+
+		assertThat(cut.findDuplicates(unique), is(empty()));
+		verify(metaData, never()).contentHash(any(Path.class));
+	}
+
+	@Test
+	public void testChangedDuplicateIgnored() throws Exception {
+		Files.setLastModifiedTime(knownA.getPath(), FileTime.fromMillis(knownA.getModifiedTime() + 10000));
+
+		assertThat(cut.findDuplicates(query), is(empty()));
+	}
+
+	@Test
+	public void testDeletedDuplicateIgnored() throws Exception {
+		Files.delete(knownA.getPath());
+
+		assertThat(cut.findDuplicates(query), is(empty()));
+	}
+
+	@Test
+	public void testRelativeQuery() throws Exception {
+		Path relative = Paths.get("").toAbsolutePath().relativize(knownA.getPath());
+
+		assertThat(cut.findDuplicates(relative), is(empty()));
+	}
+
+	@Test
+	public void testUnnormalizedQuery() throws Exception {
+		Path unnormalized = knownA.getPath().getParent().resolve("foo").resolve("..").resolve("knownA");
+
+		assertThat(cut.findDuplicates(unnormalized), is(empty()));
+	}
+}
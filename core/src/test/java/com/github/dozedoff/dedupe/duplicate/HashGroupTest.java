@@ -6,11 +6,17 @@ package com.github.dozedoff.dedupe.duplicate;
 
 import static org.awaitility.Awaitility.await;
 import static org.awaitility.Awaitility.to;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.hasSize;
 import static org.junit.Assert.assertThat;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
 
 import org.awaitility.Duration;
 import org.junit.Before;
@@ -56,4 +62,36 @@ public class HashGroupTest {
 	public void testNonUniqueMap() throws Exception {
 		assertThat(cut.nonUniqueMap().values(), containsInAnyOrder(expected));
 	}
+
+	@Test
+	public void testOnePerHash() throws Exception {
+		assertThat(cut.onePerHash(), hasSize(2));
+	}
+
+	@Test
+	public void testOnePerHashContainsUnique() throws Exception {
+		assertThat(cut.onePerHash(), hasItem(metaB));
+	}
+
+	@Test
+	public void testNonUniqueMapKey() throws Exception {
+		assertThat(cut.nonUniqueMap().keySet(), contains(new HashKey(ByteBuffer.wrap(new byte[] { 0 }))));
+	}
+
+	@Test
+	public void testConcurrentAdd() throws Exception {
+		HashGroup group = new HashGroup();
+		group.add(IntStream.range(0, 1000).mapToObj(i -> new FileMetaData(Integer.toString(i), 0, 0,
+				new byte[] { (byte) (i % 10) })));
+
+		assertThat(group.nonUniqueMap().size(), is(1000));
+	}
+
+	@Test
+	public void testAddAll() throws Exception {
+		HashGroup group = new HashGroup();
+		group.addAll(Arrays.asList(metaA, metaB, metaC, metaD));
+
+		assertThat(group.nonUniqueMap().values(), containsInAnyOrder(expected));
+	}
 }
@@ -0,0 +1,64 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.duplicate;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class HashKeyTest {
+	private static final byte[] HASH = { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10 };
+	private static final byte[] OTHER_HASH = { 1, 2, 3, 4, 5, 6, 7, 8, 9, 11 };
+
+	private static HashKey key(byte[] hash) {
+		return new HashKey(ByteBuffer.wrap(hash.clone()));
+	}
+
+	@Test
+	public void testEqualHashes() throws Exception {
+		assertThat(key(HASH), is(key(HASH)));
+	}
+
+	@Test
+	public void testEqualHashCode() throws Exception {
+		assertThat(key(HASH).hashCode(), is(key(HASH).hashCode()));
+	}
+
+	@Test
+	public void testDifferentHashes() throws Exception {
+		assertThat(key(HASH), is(not(key(OTHER_HASH))));
+	}
+
+	@Test
+	public void testShortHashes() throws Exception {
+		assertThat(key(new byte[] { 1 }), is(key(new byte[] { 1 })));
+	}
+
+	@Test
+	public void testCompareTo() throws Exception {
+		assertThat(key(HASH).compareTo(key(OTHER_HASH)), is(lessThan(0)));
+	}
+
+	@Test
+	public void testCompareToReverse() throws Exception {
+		assertThat(key(OTHER_HASH).compareTo(key(HASH)), is(greaterThan(0)));
+	}
+
+	@Test
+	public void testToString() throws Exception {
+		assertThat(key(new byte[] { 1, -1 }).toString(), is("01ff"));
+	}
+
+	@Test
+	public void testToStringEmpty() throws Exception {
+		assertThat(key(new byte[0]).toString(), is(""));
+	}
+}
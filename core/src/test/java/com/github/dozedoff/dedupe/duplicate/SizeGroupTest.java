@@ -7,6 +7,7 @@ package com.github.dozedoff.dedupe.duplicate;
 import static org.awaitility.Awaitility.await;
 import static org.awaitility.Awaitility.to;
 import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.junit.Assert.assertThat;
 import static org.mockito.Mockito.when;
 
 import java.nio.file.Path;
@@ -60,4 +61,13 @@ public class SizeGroupTest {
 		await().atMost(TIMEOUT).untilCall(to(cut).sameSizeFiles(), containsInAnyOrder(expected));
 	}
 
+	@Test
+	public void testSameSizeFilesWithKnownSize() throws Exception {
+		assertThat(cut.sameSizeFiles((path, size) -> size == 2L), containsInAnyOrder(fileA, fileB, fileC));
+	}
+
+	@Test
+	public void testSameSizeFilesWithUnknownSize() throws Exception {
+		assertThat(cut.sameSizeFiles((path, size) -> false), containsInAnyOrder(fileA, fileC));
+	}
 }
@@ -0,0 +1,264 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.duplicate;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.hasSize;
+import static org.junit.Assert.assertThat;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.dozedoff.dedupe.db.table.FileMetaData;
+import com.github.dozedoff.dedupe.duplicate.StreamingSizeGroup.Candidate;
+
+public class StreamingSizeGroupTest {
+	private static final long SIZE = 42;
+	private static final long OTHER_SIZE = 7;
+
+	private Path fileA;
+	private Path fileB;
+	private Path fileC;
+
+	private StreamingSizeGroup cut;
+
+	@Before
+	public void setUp() throws Exception {
+		fileA = Paths.get("a");
+		fileB = Paths.get("b");
+		fileC = Paths.get("c");
+
+		cut = new StreamingSizeGroup();
+	}
+
+	private static List<Path> paths(List<Candidate> candidates) {
+		return candidates.stream().map(Candidate::getPath).collect(Collectors.toList());
+	}
+
+	@Test
+	public void testFirstFileNotHashed() throws Exception {
+		assertThat(cut.add(fileA, SIZE), is(empty()));
+	}
+
+	@Test
+	public void testSecondFileReleasesBoth() throws Exception {
+		cut.add(fileA, SIZE);
+
+		assertThat(paths(cut.add(fileB, SIZE)), containsInAnyOrder(fileA, fileB));
+	}
+
+	@Test
+	public void testThirdFileReleasesItself() throws Exception {
+		cut.add(fileA, SIZE);
+		cut.add(fileB, SIZE);
+
+		assertThat(paths(cut.add(fileC, SIZE)), contains(fileC));
+	}
+
+	@Test
+	public void testDifferentSizeNotHashed() throws Exception {
+		cut.add(fileA, SIZE);
+
+		assertThat(cut.add(fileB, OTHER_SIZE), is(empty()));
+	}
+
+	@Test
+	public void testDuplicatePathIgnored() throws Exception {
+		cut.add(fileA, SIZE);
+
+		assertThat(cut.add(fileA, SIZE), is(empty()));
+	}
+
+	@Test
+	public void testCandidates() throws Exception {
+		cut.add(fileA, SIZE);
+		cut.add(fileB, SIZE);
+		cut.add(fileC, SIZE);
+
+		assertThat(cut.candidates(), is(3L));
+	}
+
+	@Test
+	public void testNotCompleteBeforeWalkFinished() throws Exception {
+		cut.add(fileA, SIZE);
+		List<Candidate> candidates = cut.add(fileB, SIZE);
+
+		cut.hashed(candidates.get(0), new FileMetaData("a"));
+
+		assertThat(cut.hashed(candidates.get(1), new FileMetaData("b")), is(nullValue()));
+	}
+
+	@Test
+	public void testCompleteBeforeWalkFinished() throws Exception {
+		cut.add(fileA, SIZE);
+		List<Candidate> candidates = cut.add(fileB, SIZE);
+		cut.hashed(candidates.get(0), new FileMetaData("a"));
+		cut.hashed(candidates.get(1), new FileMetaData("b"));
+
+		cut.walkFinished((path, size) -> false);
+
+		assertThat(cut.completeGroups(), hasSize(1));
+	}
+
+	@Test
+	public void testCompleteGroupsOnlyOnce() throws Exception {
+		cut.add(fileA, SIZE);
+		List<Candidate> candidates = cut.add(fileB, SIZE);
+		cut.hashed(candidates.get(0), new FileMetaData("a"));
+		cut.hashed(candidates.get(1), new FileMetaData("b"));
+		cut.walkFinished((path, size) -> false);
+		cut.completeGroups();
+
+		assertThat(cut.completeGroups(), is(empty()));
+	}
+
+	@Test
+	public void testCompleteAfterWalkFinished() throws Exception {
+		cut.add(fileA, SIZE);
+		List<Candidate> candidates = cut.add(fileB, SIZE);
+		cut.walkFinished((path, size) -> false);
+		cut.hashed(candidates.get(0), new FileMetaData("a"));
+
+		assertThat(cut.hashed(candidates.get(1), new FileMetaData("b")),
+				containsInAnyOrder(new FileMetaData("a"), new FileMetaData("b")));
+	}
+
+	@Test
+	public void testFailedHashCompletesGroup() throws Exception {
+		cut.add(fileA, SIZE);
+		List<Candidate> candidates = cut.add(fileB, SIZE);
+		cut.walkFinished((path, size) -> false);
+		cut.hashed(candidates.get(0), new FileMetaData("a"));
+
+		assertThat(cut.hashed(candidates.get(1), null), contains(new FileMetaData("a")));
+	}
+
+	@Test
+	public void testUniqueSizeDropped() throws Exception {
+		cut.add(fileA, SIZE);
+
+		assertThat(cut.walkFinished((path, size) -> false), is(empty()));
+	}
+
+	@Test
+	public void testUniqueSizeDroppedFromPending() throws Exception {
+		cut.add(fileA, SIZE);
+		cut.walkFinished((path, size) -> false);
+
+		assertThat(cut.pendingGroups(), is(0));
+	}
+
+	@Test
+	public void testKnownUniqueSizeHashed() throws Exception {
+		cut.add(fileA, SIZE);
+
+		assertThat(paths(cut.walkFinished((path, size) -> size == SIZE)), contains(fileA));
+	}
+
+	@Test
+	public void testKnownUniqueSizeCompletes() throws Exception {
+		cut.add(fileA, SIZE);
+		List<Candidate> candidates = cut.walkFinished((path, size) -> true);
+
+		assertThat(cut.hashed(candidates.get(0), new FileMetaData("a")), contains(new FileMetaData("a")));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testAddAfterWalkFinished() throws Exception {
+		cut.walkFinished((path, size) -> false);
+
+		cut.add(fileA, SIZE);
+	}
+
+	@Test
+	public void testDeferredNotHashedDuringWalk() throws Exception {
+		cut = new StreamingSizeGroup(true);
+		cut.add(fileA, SIZE);
+
+		assertThat(cut.add(fileB, SIZE), is(empty()));
+	}
+
+	@Test
+	public void testDeferredHashedAfterWalk() throws Exception {
+		cut = new StreamingSizeGroup(true);
+		cut.add(fileA, SIZE);
+		cut.add(fileB, SIZE);
+
+		assertThat(paths(cut.walkFinished((path, size) -> false)), containsInAnyOrder(fileA, fileB));
+	}
+
+	@Test
+	public void testDeferredGroupCompletes() throws Exception {
+		cut = new StreamingSizeGroup(true);
+		cut.add(fileA, SIZE);
+		cut.add(fileB, SIZE);
+
+		List<Candidate> candidates = cut.walkFinished((path, size) -> false);
+		cut.hashed(candidates.get(0), new FileMetaData("a"));
+
+		assertThat(cut.hashed(candidates.get(1), new FileMetaData("b")),
+				containsInAnyOrder(new FileMetaData("a"), new FileMetaData("b")));
+	}
+
+	@Test
+	public void testOrderedByReclaimableBytes() throws Exception {
+		cut = new StreamingSizeGroup(true);
+		cut.add(fileA, OTHER_SIZE);
+		cut.add(fileB, OTHER_SIZE);
+		cut.add(fileC, OTHER_SIZE);
+		cut.add(Paths.get("d"), SIZE);
+		cut.add(Paths.get("e"), SIZE);
+
+		List<List<Candidate>> groups = cut.walkFinishedByReclaimableBytes((path, size) -> false);
+
+		assertThat(groups.stream().map(group -> group.get(0).getSize()).collect(Collectors.toList()),
+				contains(SIZE, OTHER_SIZE));
+	}
+
+	@Test
+	public void testOrderedDropsUniqueSize() throws Exception {
+		cut = new StreamingSizeGroup(true);
+		cut.add(fileA, SIZE);
+
+		assertThat(cut.walkFinishedByReclaimableBytes((path, size) -> false), is(empty()));
+	}
+
+	@Test
+	public void testReclaimableBytes() throws Exception {
+		cut = new StreamingSizeGroup(true);
+		cut.add(fileA, SIZE);
+		cut.add(fileB, SIZE);
+		cut.add(fileC, SIZE);
+
+		List<Candidate> group = cut.walkFinishedByReclaimableBytes((path, size) -> false).get(0);
+
+		assertThat(StreamingSizeGroup.reclaimableBytes(group), is(2 * SIZE));
+	}
+
+	@Test
+	public void testReclaimableBytesKnownUniqueSize() throws Exception {
+		cut = new StreamingSizeGroup(true);
+		cut.add(fileA, SIZE);
+
+		List<Candidate> group = cut.walkFinishedByReclaimableBytes((path, size) -> true).get(0);
+
+		assertThat(StreamingSizeGroup.reclaimableBytes(group), is(SIZE));
+	}
+
+	@Test
+	public void testReclaimableBytesEmpty() throws Exception {
+		assertThat(StreamingSizeGroup.reclaimableBytes(Collections.emptyList()), is(0L));
+	}
+}
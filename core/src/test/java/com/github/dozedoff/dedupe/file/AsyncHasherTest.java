@@ -0,0 +1,133 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.file;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.junit.Assert.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.jimfs.Jimfs;
+
+public class AsyncHasherTest {
+	private static final HashFunction SHA512 = Hashing.sha512();
+	private static final int READS_IN_FLIGHT = 2;
+	private static final int BUFFER_SIZE = 16;
+	private static final byte[] TEST_DATA = "The quick brown fox jumps over the lazy dog"
+			.getBytes(StandardCharsets.US_ASCII);
+
+	private FileSystem fs;
+	private Path file;
+
+	private AsyncHasher cut;
+
+	@Before
+	public void setUp() throws Exception {
+		fs = Jimfs.newFileSystem();
+		file = Files.write(fs.getPath("file"), TEST_DATA);
+
+		cut = new AsyncHasher(SHA512, READS_IN_FLIGHT, 1, BUFFER_SIZE);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		cut.close();
+		fs.close();
+	}
+
+	private byte[] hash(Path path) throws Exception {
+		return cut.hash(path).get(5, TimeUnit.SECONDS);
+	}
+
+	@Test
+	public void testHashSpanningBuffers() throws Exception {
+		assertThat(hash(file), is(SHA512.hashBytes(TEST_DATA).asBytes()));
+	}
+
+	@Test
+	public void testHashSingleBuffer() throws Exception {
+		try (AsyncHasher largeBuffer = new AsyncHasher(SHA512, READS_IN_FLIGHT, 1)) {
+			assertThat(largeBuffer.hash(file).get(5, TimeUnit.SECONDS), is(SHA512.hashBytes(TEST_DATA).asBytes()));
+		}
+	}
+
+	@Test
+	public void testHashEmptyFile() throws Exception {
+		Path empty = Files.createFile(fs.getPath("empty"));
+
+		assertThat(hash(empty), is(SHA512.hashBytes(new byte[0]).asBytes()));
+	}
+
+	@Test(expected = NoSuchFileException.class)
+	public void testMissingFile() throws Exception {
+		cut.hash(fs.getPath("missing"));
+	}
+
+	@Test(timeout = 5000)
+	public void testSlotReleasedOnMissingFile() throws Exception {
+		for (int i = 0; i <= READS_IN_FLIGHT; i++) {
+			try {
+				cut.hash(fs.getPath("missing"));
+			} catch (NoSuchFileException e) {
+				// expected
+			}
+		}
+
+		assertThat(hash(file), is(SHA512.hashBytes(TEST_DATA).asBytes()));
+	}
+
+	@Test(timeout = 5000)
+	public void testMoreFilesThanReadsInFlight() throws Exception {
+		List<CompletableFuture<byte[]>> hashes = new ArrayList<CompletableFuture<byte[]>>();
+
+		for (int i = 0; i < 10; i++) {
+			Path path = Files.write(fs.getPath("file" + i), new byte[] { (byte) i });
+			hashes.add(cut.hash(path));
+		}
+
+		for (int i = 0; i < 10; i++) {
+			assertThat(hashes.get(i).get(), is(SHA512.hashBytes(new byte[] { (byte) i }).asBytes()));
+		}
+	}
+
+	@Test(timeout = 5000)
+	public void testNothingInFlightAfterCompletion() throws Exception {
+		hash(file);
+
+		assertThat(cut.inFlight(), is(0));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNoReadsInFlight() throws Exception {
+		new AsyncHasher(SHA512, 0, 1);
+	}
+
+	@Test(timeout = 5000)
+	public void testThrottled() throws Exception {
+		IoThrottle throttle = new IoThrottle(TEST_DATA.length, IoThrottle.UNLIMITED);
+
+		try (AsyncHasher throttled = new AsyncHasher(SHA512, READS_IN_FLIGHT, 1, BUFFER_SIZE, throttle)) {
+			throttled.hash(file).get();
+			throttled.hash(file).get();
+		}
+
+		assertThat(throttle.waitTime(TimeUnit.MILLISECONDS), is(greaterThan(500L)));
+	}
+}
@@ -0,0 +1,193 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.file;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.dozedoff.dedupe.util.TestDataUtil;
+import com.google.common.jimfs.Jimfs;
+
+public class DirectReaderTest {
+	private static final int TEST_DATA_SIZE = 3 * DirectReader.ALIGNMENT + 100;
+
+	private FileSystem fs;
+	private byte[] data;
+	private Path file;
+	private Path copy;
+
+	private DirectReader cut;
+
+	@Before
+	public void setUp() throws Exception {
+		fs = Jimfs.newFileSystem();
+		data = TestDataUtil.randomData(TEST_DATA_SIZE);
+		file = Files.write(fs.getPath("file"), data);
+		copy = Files.write(fs.getPath("copy"), data);
+
+		cut = new DirectReader(DirectReader.ALIGNMENT);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		fs.close();
+	}
+
+	private byte[] readAll(Path path) throws Exception {
+		return cut.read(path, ByteArrayOutputStream::new, (read, buffer) -> {
+			byte[] chunk = new byte[buffer.remaining()];
+			buffer.get(chunk);
+			read.write(chunk, 0, chunk.length);
+		}).toByteArray();
+	}
+
+	@Test
+	public void testReadSpanningBuffers() throws Exception {
+		assertThat(readAll(file), is(data));
+	}
+
+	@Test
+	public void testReadEmptyFile() throws Exception {
+		assertThat(readAll(Files.createFile(fs.getPath("empty"))), is(new byte[0]));
+	}
+
+	@Test(expected = NoSuchFileException.class)
+	public void testReadMissingFile() throws Exception {
+		readAll(fs.getPath("missing"));
+	}
+
+	@Test
+	public void testEqualFiles() throws Exception {
+		assertThat(cut.equal(file, copy), is(true));
+	}
+
+	@Test
+	public void testFileWithSelf() throws Exception {
+		assertThat(cut.equal(file, file), is(true));
+	}
+
+	@Test
+	public void testDifferentLastBlock() throws Exception {
+		byte[] changed = data.clone();
+		changed[changed.length - 1]++;
+		Files.write(copy, changed);
+
+		assertThat(cut.equal(file, copy), is(false));
+	}
+
+	@Test
+	public void testDifferentSize() throws Exception {
+		Files.write(copy, Arrays.copyOf(data, data.length - 1));
+
+		assertThat(cut.equal(file, copy), is(false));
+	}
+
+	@Test
+	public void testEqualEmptyFiles() throws Exception {
+		Path empty1 = Files.createFile(fs.getPath("empty1"));
+		Path empty2 = Files.createFile(fs.getPath("empty2"));
+
+		assertThat(cut.equal(empty1, empty2), is(true));
+	}
+
+	@Test(expected = NoSuchFileException.class)
+	public void testEqualMissingFile() throws Exception {
+		cut.equal(file, fs.getPath("missing"));
+	}
+
+	@Test
+	public void testBufferSizeAligned() throws Exception {
+		ByteBuffer buffer = new DirectReader(1).allocate();
+
+		assertThat(buffer.capacity(), is(DirectReader.ALIGNMENT));
+	}
+
+	@Test
+	public void testOpenCounted() throws Exception {
+		readAll(file);
+
+		assertThat(cut.directReads() + cut.fallbacks(), is(DirectReader.isSupported() ? 1L : 0L));
+	}
+
+	private DirectReader failingDirectReads() {
+		return new DirectReader(DirectReader.ALIGNMENT) {
+			@Override
+			FileChannel openDirect(Path path) throws IOException {
+				// opens fine, but every read fails, like a file system that rejects unaligned direct reads
+				FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+				channel.close();
+				return channel;
+			}
+		};
+	}
+
+	@Test
+	public void testReadFallbackAfterFailedDirectRead() throws Exception {
+		assumeTrue(DirectReader.isSupported());
+		cut = failingDirectReads();
+
+		assertThat(readAll(file), is(data));
+	}
+
+	@Test
+	public void testFailedDirectReadCounted() throws Exception {
+		assumeTrue(DirectReader.isSupported());
+		cut = failingDirectReads();
+
+		readAll(file);
+
+		assertThat(cut.fallbacks(), is(1L));
+		assertThat(cut.directReads(), is(0L));
+	}
+
+	@Test
+	public void testEqualFallbackAfterFailedDirectRead() throws Exception {
+		assumeTrue(DirectReader.isSupported());
+		cut = failingDirectReads();
+
+		assertThat(cut.equal(file, copy), is(true));
+	}
+
+	@Test(expected = NoSuchFileException.class)
+	public void testReadFallbackMissingFile() throws Exception {
+		cut = failingDirectReads();
+
+		readAll(fs.getPath("missing"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidBufferSize() throws Exception {
+		new DirectReader(0);
+	}
+
+	@Test(timeout = 5000)
+	public void testThrottled() throws Exception {
+		IoThrottle throttle = new IoThrottle(TEST_DATA_SIZE, IoThrottle.UNLIMITED);
+		cut = new DirectReader(DirectReader.ALIGNMENT, throttle);
+
+		readAll(file);
+		readAll(file);
+
+		assertThat(throttle.waitTime(TimeUnit.MILLISECONDS), is(greaterThan(500L)));
+	}
+}
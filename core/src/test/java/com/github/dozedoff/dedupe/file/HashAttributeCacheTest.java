@@ -0,0 +1,115 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.file;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+
+public class HashAttributeCacheTest {
+	private static final String ALGORITHM = "SHA-512";
+	private static final byte[] HASH = { 1, 2, 3, -1 };
+	private static final long SIZE = 42;
+	private static final long MODIFIED_TIME = 1000;
+
+	private FileSystem fs;
+	private Path file;
+
+	private HashAttributeCache cut;
+
+	@Before
+	public void setUp() throws Exception {
+		fs = Jimfs.newFileSystem(Configuration.unix().toBuilder().setAttributeViews("basic", "user").build());
+		file = fs.getPath("/foo");
+		Files.createFile(file);
+
+		cut = new HashAttributeCache(ALGORITHM);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		fs.close();
+	}
+
+	@Test
+	public void testReadWithoutAttribute() throws Exception {
+		assertThat(cut.read(file, SIZE, MODIFIED_TIME), is(nullValue()));
+	}
+
+	@Test
+	public void testReadStoredHash() throws Exception {
+		cut.write(file, HASH, SIZE, MODIFIED_TIME);
+
+		assertThat(cut.read(file, SIZE, MODIFIED_TIME), is(HASH));
+	}
+
+	@Test
+	public void testReadSizeChanged() throws Exception {
+		cut.write(file, HASH, SIZE, MODIFIED_TIME);
+
+		assertThat(cut.read(file, SIZE + 1, MODIFIED_TIME), is(nullValue()));
+	}
+
+	@Test
+	public void testReadModifiedTimeChanged() throws Exception {
+		cut.write(file, HASH, SIZE, MODIFIED_TIME);
+
+		assertThat(cut.read(file, SIZE, MODIFIED_TIME + 1), is(nullValue()));
+	}
+
+	@Test
+	public void testReadOtherAlgorithm() throws Exception {
+		new HashAttributeCache("MD5").write(file, HASH, SIZE, MODIFIED_TIME);
+
+		assertThat(cut.read(file, SIZE, MODIFIED_TIME), is(nullValue()));
+	}
+
+	@Test
+	public void testReadMalformedAttribute() throws Exception {
+		Files.getFileAttributeView(file, UserDefinedFileAttributeView.class).write(HashAttributeCache.ATTRIBUTE_NAME,
+				ByteBuffer.wrap("garbage".getBytes(StandardCharsets.US_ASCII)));
+
+		assertThat(cut.read(file, SIZE, MODIFIED_TIME), is(nullValue()));
+	}
+
+	@Test
+	public void testReadWithoutAttributeSupport() throws Exception {
+		try (FileSystem basicFs = Jimfs.newFileSystem()) {
+			Path basicFile = Files.createFile(basicFs.getPath("/foo"));
+
+			assertThat(cut.read(basicFile, SIZE, MODIFIED_TIME), is(nullValue()));
+		}
+	}
+
+	@Test
+	public void testWriteWithoutAttributeSupport() throws Exception {
+		try (FileSystem basicFs = Jimfs.newFileSystem()) {
+			Path basicFile = Files.createFile(basicFs.getPath("/foo"));
+
+			cut.write(basicFile, HASH, SIZE, MODIFIED_TIME);
+
+			assertThat(cut.read(basicFile, SIZE, MODIFIED_TIME), is(nullValue()));
+		}
+	}
+
+	@Test
+	public void testWriteMissingFile() throws Exception {
+		cut.write(fs.getPath("/missing"), HASH, SIZE, MODIFIED_TIME);
+	}
+}
@@ -0,0 +1,143 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.file;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.io.ByteStreams;
+
+public class IoThrottleTest {
+	private static final long BYTES_PER_SECOND = 100_000;
+	private static final int READ_SIZE = 20_000;
+
+	private IoThrottle cut;
+
+	@Before
+	public void setUp() throws Exception {
+		cut = new IoThrottle(BYTES_PER_SECOND, IoThrottle.UNLIMITED);
+	}
+
+	@Test
+	public void testParseRate() throws Exception {
+		assertThat(IoThrottle.parseRate("123"), is(123L));
+	}
+
+	@Test
+	public void testParseRateKilo() throws Exception {
+		assertThat(IoThrottle.parseRate("2K"), is(2048L));
+	}
+
+	@Test
+	public void testParseRateMega() throws Exception {
+		assertThat(IoThrottle.parseRate("50m"), is(50L * 1024 * 1024));
+	}
+
+	@Test
+	public void testParseRateGiga() throws Exception {
+		assertThat(IoThrottle.parseRate(" 1G "), is(1024L * 1024 * 1024));
+	}
+
+	@Test
+	public void testParseRateUnlimited() throws Exception {
+		assertThat(IoThrottle.parseRate("0"), is(IoThrottle.UNLIMITED));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testParseRateInvalid() throws Exception {
+		IoThrottle.parseRate("fast");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testParseRateEmpty() throws Exception {
+		IoThrottle.parseRate("");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testParseRateNegative() throws Exception {
+		IoThrottle.parseRate("-1");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testParseRateTooLarge() throws Exception {
+		IoThrottle.parseRate(Long.MAX_VALUE + "K");
+	}
+
+	@Test
+	public void testLimits() throws Exception {
+		assertThat(cut.getBytesPerSecond(), is(BYTES_PER_SECOND));
+		assertThat(cut.getOperationsPerSecond(), is(IoThrottle.UNLIMITED));
+	}
+
+	@Test
+	public void testSetLimits() throws Exception {
+		cut.setLimits(IoThrottle.UNLIMITED, 10);
+
+		assertThat(cut.getBytesPerSecond(), is(IoThrottle.UNLIMITED));
+		assertThat(cut.getOperationsPerSecond(), is(10L));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNegativeLimit() throws Exception {
+		cut.setLimits(-1, IoThrottle.UNLIMITED);
+	}
+
+	@Test(timeout = 5000)
+	public void testWaitsWhenLimitExceeded() throws Exception {
+		cut.acquire(READ_SIZE);
+		cut.acquire(READ_SIZE);
+
+		assertThat(cut.waitTime(TimeUnit.MILLISECONDS), is(greaterThan(100L)));
+	}
+
+	@Test(timeout = 5000)
+	public void testOperationLimit() throws Exception {
+		cut.setLimits(IoThrottle.UNLIMITED, 10);
+
+		cut.acquire(1);
+		cut.acquire(1);
+
+		assertThat(cut.waitTime(TimeUnit.MILLISECONDS), is(greaterThan(50L)));
+	}
+
+	@Test(timeout = 5000)
+	public void testUnlimitedDoesNotWait() throws Exception {
+		cut.setLimits(IoThrottle.UNLIMITED, IoThrottle.UNLIMITED);
+
+		cut.acquire(READ_SIZE);
+		cut.acquire(READ_SIZE);
+
+		assertThat(cut.waitTime(TimeUnit.NANOSECONDS), is(0L));
+	}
+
+	@Test(timeout = 5000)
+	public void testWrapChargesReads() throws Exception {
+		try (InputStream stream = cut.wrap(new ByteArrayInputStream(new byte[2 * READ_SIZE]))) {
+			byte[] buffer = new byte[READ_SIZE];
+
+			ByteStreams.readFully(stream, buffer);
+			ByteStreams.readFully(stream, buffer);
+		}
+
+		assertThat(cut.waitTime(TimeUnit.MILLISECONDS), is(greaterThan(100L)));
+	}
+
+	@Test
+	public void testWrapReturnsData() throws Exception {
+		byte[] data = { 1, 2, 3 };
+
+		try (InputStream stream = cut.wrap(new ByteArrayInputStream(data))) {
+			assertThat(ByteStreams.toByteArray(stream), is(data));
+		}
+	}
+}
@@ -8,30 +8,25 @@ import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.empty;
 import static org.junit.Assert.assertThat;
-import static org.mockito.Matchers.any;
-import static org.mockito.Mockito.when;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.List;
 
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
-import org.junit.runner.RunWith;
-import org.mockito.InjectMocks;
-import org.mockito.Mock;
-import org.mockito.runners.MockitoJUnitRunner;
 
-import com.github.dozedoff.dedupe.db.dao.FileLinkDao;
+import com.github.dozedoff.dedupe.db.Database;
+import com.github.dozedoff.dedupe.db.LinkIndex;
+import com.github.dozedoff.dedupe.db.dao.FileMetaDataDao;
 import com.github.dozedoff.dedupe.db.table.FileMetaData;
+import com.j256.ormlite.dao.DaoManager;
 
-@RunWith(MockitoJUnitRunner.class)
 public class LinkedFilterTest {
-	@Mock
-	private FileLinkDao dao;
+	private Database database;
+	private LinkIndex links;
 
-	@InjectMocks
 	private LinkedFilter cut;
 
 	private FileMetaData metaA;
@@ -42,18 +37,33 @@ public class LinkedFilterTest {
 
 	@Before
 	public void setUp() throws Exception {
+		database = Database.inMemoryDatabase();
+		FileMetaDataDao dao = DaoManager.createDao(database.getConnectionSource(), FileMetaData.class);
+
 		metaA = new FileMetaData("A");
 		metaB = new FileMetaData("B");
 		metaC = new FileMetaData("C");
 
+		dao.create(metaA);
+		dao.create(metaB);
+		dao.create(metaC);
+
 		toFilter = Arrays.asList(metaB, metaC);
 
-		when(dao.getLinksTo(any())).thenReturn(Collections.emptyList());
+		links = new LinkIndex();
+		cut = new LinkedFilter(links);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		DaoManager.clearCache();
+		database.close();
 	}
 
 	@Test
 	public void testAllLinked() throws Exception {
-		when(dao.getLinksTo(metaA)).thenReturn(Arrays.asList(metaB, metaC));
+		links.put(metaB.getId(), metaA.getId());
+		links.put(metaC.getId(), metaA.getId());
 
 		assertThat(cut.filterLinked(metaA, toFilter), is(empty()));
 	}
@@ -63,6 +73,18 @@ public class LinkedFilterTest {
 		assertThat(cut.filterLinked(metaA, toFilter), containsInAnyOrder(metaB, metaC));
 	}
 
+	@Test
+	public void testLinkedToOtherSource() throws Exception {
+		links.put(metaC.getId(), metaB.getId());
+
+		assertThat(cut.filterLinked(metaA, toFilter), containsInAnyOrder(metaB, metaC));
+	}
+
+	@Test
+	public void testUnsavedSource() throws Exception {
+		assertThat(cut.filterLinked(new FileMetaData("D"), toFilter), containsInAnyOrder(metaB, metaC));
+	}
+
 	@Test
 	public void testSourceRemovedFromFilter() throws Exception {
 		toFilter = new ArrayList<FileMetaData>(toFilter);
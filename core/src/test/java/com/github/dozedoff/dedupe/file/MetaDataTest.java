@@ -5,6 +5,7 @@
 package com.github.dozedoff.dedupe.file;
 
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.greaterThan;
 import static org.junit.Assert.assertThat;
 
 import java.io.IOException;
@@ -20,6 +21,8 @@ import org.junit.Test;
 
 import com.github.dozedoff.dedupe.db.table.FileMetaData;
 import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.jimfs.Configuration;
 import com.google.common.jimfs.Jimfs;
 
 public class MetaDataTest {
@@ -122,4 +125,136 @@ public class MetaDataTest {
 
 		assertThat(meta.getHash(), is(HashCode.fromString(TEST_DATA_SHA512_HASH2).asBytes()));
 	}
+
+	@Test
+	public void testCreateMetaDataFileKey() throws Exception {
+		assertThat(meta.getFileKey(), is(cut.fileKey(testFile)));
+	}
+
+	@Test
+	public void testFileKeySurvivesMove() throws Exception {
+		String key = cut.fileKey(testFile);
+
+		assertThat(cut.fileKey(Files.move(testFile, testFile.resolveSibling("moved"))), is(key));
+	}
+
+	@Test
+	public void testContentHashStoredInAttribute() throws Exception {
+		FileSystem xattrFs = Jimfs
+				.newFileSystem(Configuration.unix().toBuilder().setAttributeViews("basic", "user").build());
+		HashAttributeCache hashCache = new HashAttributeCache(MetaData.HASH_ALGORITHM);
+		Path file = Files.write(xattrFs.getPath("/foo"), data);
+		new MetaData(xattrFs, hashCache).contentHash(file);
+
+		assertThat(hashCache.read(file, data.length, Files.getLastModifiedTime(file).toMillis()),
+				is(HashCode.fromString(TEST_DATA_SHA512_HASH).asBytes()));
+	}
+
+	@Test
+	public void testContentHashUsesStoredAttribute() throws Exception {
+		FileSystem xattrFs = Jimfs
+				.newFileSystem(Configuration.unix().toBuilder().setAttributeViews("basic", "user").build());
+		HashAttributeCache hashCache = new HashAttributeCache(MetaData.HASH_ALGORITHM);
+		Path file = Files.write(xattrFs.getPath("/foo"), data);
+		hashCache.write(file, new byte[] { 1 }, data.length, Files.getLastModifiedTime(file).toMillis());
+
+		assertThat(new MetaData(xattrFs, hashCache).contentHash(file), is(new byte[] { 1 }));
+	}
+
+	@Test
+	public void testContentHashWithoutAttributeSupport() throws Exception {
+		cut = new MetaData(fs, new HashAttributeCache(MetaData.HASH_ALGORITHM));
+
+		assertThat(cut.contentHash(testFile), is(HashCode.fromString(TEST_DATA_SHA512_HASH).asBytes()));
+	}
+
+	@Test
+	public void testContentHashAsync() throws Exception {
+		try (AsyncHasher hasher = new AsyncHasher(Hashing.sha512(), 1, 1)) {
+			MetaData async = new MetaData(fs, null, hasher);
+
+			assertThat(async.contentHashAsync(testFile).get(),
+					is(HashCode.fromString(TEST_DATA_SHA512_HASH).asBytes()));
+		}
+	}
+
+	@Test
+	public void testContentHashAsyncWithoutHasher() throws Exception {
+		assertThat(cut.contentHashAsync(testFile).get(), is(HashCode.fromString(TEST_DATA_SHA512_HASH).asBytes()));
+	}
+
+	@Test
+	public void testCreateMetaDataFromFileAsync() throws Exception {
+		try (AsyncHasher hasher = new AsyncHasher(Hashing.sha512(), 1, 1)) {
+			MetaData async = new MetaData(fs, null, hasher);
+
+			assertThat(async.createMetaDataFromFileAsync(testFile).get().getHash(),
+					is(HashCode.fromString(TEST_DATA_SHA512_HASH).asBytes()));
+		}
+	}
+
+	@Test
+	public void testUpdateMetaDataAsync() throws Exception {
+		Files.write(testFile, data2);
+
+		try (AsyncHasher hasher = new AsyncHasher(Hashing.sha512(), 1, 1)) {
+			MetaData async = new MetaData(fs, null, hasher);
+
+			assertThat(async.updateMetaDataAsync(meta).get().getHash(),
+					is(HashCode.fromString(TEST_DATA_SHA512_HASH2).asBytes()));
+		}
+	}
+
+	@Test
+	public void testContentHashAsyncStoredInAttribute() throws Exception {
+		FileSystem xattrFs = Jimfs
+				.newFileSystem(Configuration.unix().toBuilder().setAttributeViews("basic", "user").build());
+		HashAttributeCache hashCache = new HashAttributeCache(MetaData.HASH_ALGORITHM);
+		Path file = Files.write(xattrFs.getPath("/foo"), data);
+
+		try (AsyncHasher hasher = new AsyncHasher(Hashing.sha512(), 1, 1)) {
+			new MetaData(xattrFs, hashCache, hasher).contentHashAsync(file).get();
+		}
+
+		assertThat(hashCache.read(file, data.length, Files.getLastModifiedTime(file).toMillis()),
+				is(HashCode.fromString(TEST_DATA_SHA512_HASH).asBytes()));
+	}
+
+	@Test
+	public void testContentHashAsyncUsesStoredAttribute() throws Exception {
+		FileSystem xattrFs = Jimfs
+				.newFileSystem(Configuration.unix().toBuilder().setAttributeViews("basic", "user").build());
+		HashAttributeCache hashCache = new HashAttributeCache(MetaData.HASH_ALGORITHM);
+		Path file = Files.write(xattrFs.getPath("/foo"), data);
+		hashCache.write(file, new byte[] { 1 }, data.length, Files.getLastModifiedTime(file).toMillis());
+
+		try (AsyncHasher hasher = new AsyncHasher(Hashing.sha512(), 1, 1)) {
+			assertThat(new MetaData(xattrFs, hashCache, hasher).contentHashAsync(file).get(), is(new byte[] { 1 }));
+		}
+	}
+
+	@Test
+	public void testContentHashWithDirectReader() throws Exception {
+		cut = new MetaData(fs, null, null, new DirectReader());
+
+		assertThat(cut.contentHash(testFile), is(HashCode.fromString(TEST_DATA_SHA512_HASH).asBytes()));
+	}
+
+	@Test(timeout = 5000)
+	public void testContentHashThrottled() throws Exception {
+		IoThrottle throttle = new IoThrottle(data.length, IoThrottle.UNLIMITED);
+		cut = new MetaData(fs, null, null, null, throttle);
+
+		cut.contentHash(testFile);
+		cut.contentHash(testFile);
+
+		assertThat(throttle.waitTime(TimeUnit.MILLISECONDS), is(greaterThan(500L)));
+	}
+
+	@Test(timeout = 5000)
+	public void testContentHashThrottledResult() throws Exception {
+		cut = new MetaData(fs, null, null, null, new IoThrottle(IoThrottle.UNLIMITED, 1000));
+
+		assertThat(cut.contentHash(testFile), is(HashCode.fromString(TEST_DATA_SHA512_HASH).asBytes()));
+	}
 }
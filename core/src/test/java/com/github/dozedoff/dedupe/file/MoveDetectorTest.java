@@ -0,0 +1,145 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.file;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.dozedoff.dedupe.db.Database;
+import com.github.dozedoff.dedupe.db.FileKeyIndex;
+import com.github.dozedoff.dedupe.db.dao.FileMetaDataDao;
+import com.github.dozedoff.dedupe.db.table.FileMetaData;
+import com.github.dozedoff.dedupe.pipeline.DeviceLimiter;
+import com.google.common.jimfs.Jimfs;
+import com.j256.ormlite.dao.DaoManager;
+
+public class MoveDetectorTest {
+	private static final byte[] TEST_DATA = "The quick brown fox jumps over the lazy dog"
+			.getBytes(StandardCharsets.US_ASCII);
+
+	private FileSystem fs;
+	private Database database;
+	private FileMetaDataDao dao;
+	private MetaData metaData;
+
+	private Path original;
+	private Path moved;
+	private FileMetaData stored;
+
+	private MoveDetector cut;
+
+	@Before
+	public void setUp() throws Exception {
+		fs = Jimfs.newFileSystem();
+		database = Database.inMemoryDatabase();
+		dao = DaoManager.createDao(database.getConnectionSource(), FileMetaData.class);
+		metaData = new MetaData(fs);
+
+		original = fs.getPath("/foo/original");
+		moved = fs.getPath("/bar/moved");
+		Files.createDirectories(original.getParent());
+		Files.createDirectories(moved.getParent());
+		Files.write(original, TEST_DATA);
+
+		stored = metaData.createMetaDataFromFile(original);
+		dao.create(stored);
+
+		cut = new MoveDetector(dao);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		database.close();
+		fs.close();
+	}
+
+	@Test
+	public void testMovedFileFound() throws Exception {
+		Files.move(original, moved);
+
+		assertThat(cut.findMoved(moved), is(notNullValue()));
+	}
+
+	@Test
+	public void testMovedFileKeepsId() throws Exception {
+		Files.move(original, moved);
+
+		assertThat(cut.findMoved(moved).getId(), is(stored.getId()));
+	}
+
+	@Test
+	public void testMovedFileHasNewPath() throws Exception {
+		Files.move(original, moved);
+
+		assertThat(cut.findMoved(moved).getPath(fs), is(moved));
+	}
+
+	@Test
+	public void testMovedFileKeepsHash() throws Exception {
+		Files.move(original, moved);
+
+		assertThat(cut.findMoved(moved).getHash(), is(stored.getHash()));
+	}
+
+	@Test
+	public void testHardLinkIsNotMove() throws Exception {
+		Files.createLink(moved, original);
+
+		assertThat(cut.findMoved(moved), is(nullValue()));
+	}
+
+	@Test
+	public void testUnknownFile() throws Exception {
+		Files.write(moved, TEST_DATA);
+
+		assertThat(cut.findMoved(moved), is(nullValue()));
+	}
+
+	@Test
+	public void testModifiedFileIsNotMove() throws Exception {
+		Files.move(original, moved);
+		Files.write(moved, "Lorem ipsum".getBytes(StandardCharsets.US_ASCII));
+
+		assertThat(cut.findMoved(moved), is(nullValue()));
+	}
+
+	@Test
+	public void testRowOnlyMovedOnce() throws Exception {
+		Files.move(original, moved);
+		cut.findMoved(moved);
+
+		assertThat(cut.findMoved(moved), is(nullValue()));
+	}
+
+	@Test
+	public void testMovedFileFoundWithKnownKeys() throws Exception {
+		cut = new MoveDetector(dao, new DeviceLimiter(1), FileKeyIndex.load(dao));
+		Files.move(original, moved);
+
+		assertThat(cut.findMoved(moved), is(notNullValue()));
+	}
+
+	@Test
+	public void testUnknownKeyNotQueried() throws Exception {
+		dao.delete(stored);
+		FileKeyIndex knownKeys = FileKeyIndex.load(dao);
+		dao.create(stored);
+		cut = new MoveDetector(dao, null, knownKeys);
+		Files.move(original, moved);
+
+		assertThat(cut.findMoved(moved), is(nullValue()));
+	}
+}
@@ -0,0 +1,126 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.file;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.jimfs.Jimfs;
+
+public class ThrottleControlFileTest {
+	private FileSystem fs;
+	private Path file;
+	private IoThrottle throttle;
+
+	private ThrottleControlFile cut;
+
+	@Before
+	public void setUp() throws Exception {
+		fs = Jimfs.newFileSystem();
+		file = fs.getPath("throttle.properties");
+		throttle = new IoThrottle(1000, 10);
+
+		cut = new ThrottleControlFile(file, throttle);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		fs.close();
+	}
+
+	private void writeControlFile(long modifiedTime, String... lines) throws Exception {
+		Files.write(file, Arrays.asList(lines), StandardCharsets.UTF_8);
+		Files.setLastModifiedTime(file, FileTime.fromMillis(modifiedTime));
+	}
+
+	@Test
+	public void testMissingFile() throws Exception {
+		assertThat(cut.reload(), is(false));
+	}
+
+	@Test
+	public void testMissingFileKeepsLimits() throws Exception {
+		cut.reload();
+
+		assertThat(throttle.getBytesPerSecond(), is(1000L));
+	}
+
+	@Test
+	public void testReload() throws Exception {
+		writeControlFile(1, "bytes_per_second = 2K", "operations_per_second = 20");
+
+		assertThat(cut.reload(), is(true));
+	}
+
+	@Test
+	public void testBytesPerSecondUpdated() throws Exception {
+		writeControlFile(1, "bytes_per_second = 2K");
+		cut.reload();
+
+		assertThat(throttle.getBytesPerSecond(), is(2048L));
+	}
+
+	@Test
+	public void testOperationsPerSecondUpdated() throws Exception {
+		writeControlFile(1, "operations_per_second = 20");
+		cut.reload();
+
+		assertThat(throttle.getOperationsPerSecond(), is(20L));
+	}
+
+	@Test
+	public void testMissingKeyKeepsLimit() throws Exception {
+		writeControlFile(1, "operations_per_second = 20");
+		cut.reload();
+
+		assertThat(throttle.getBytesPerSecond(), is(1000L));
+	}
+
+	@Test
+	public void testZeroDisablesLimit() throws Exception {
+		writeControlFile(1, "bytes_per_second = 0");
+		cut.reload();
+
+		assertThat(throttle.getBytesPerSecond(), is(IoThrottle.UNLIMITED));
+	}
+
+	@Test
+	public void testUnchangedFileNotReloaded() throws Exception {
+		writeControlFile(1, "bytes_per_second = 2K");
+		cut.reload();
+
+		assertThat(cut.reload(), is(false));
+	}
+
+	@Test
+	public void testModifiedFileReloaded() throws Exception {
+		writeControlFile(1, "bytes_per_second = 2K");
+		cut.reload();
+		writeControlFile(2, "bytes_per_second = 4K");
+		cut.reload();
+
+		assertThat(throttle.getBytesPerSecond(), is(4096L));
+	}
+
+	@Test
+	public void testInvalidValueKeepsLimits() throws Exception {
+		writeControlFile(1, "bytes_per_second = fast", "operations_per_second = 20");
+
+		assertThat(cut.reload(), is(false));
+		assertThat(throttle.getBytesPerSecond(), is(1000L));
+		assertThat(throttle.getOperationsPerSecond(), is(10L));
+	}
+}
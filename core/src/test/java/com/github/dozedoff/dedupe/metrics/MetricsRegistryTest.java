@@ -0,0 +1,181 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.metrics;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.hasEntry;
+import static org.junit.Assert.assertThat;
+
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.github.dozedoff.dedupe.metrics.RunMetrics.Counter;
+import com.github.dozedoff.dedupe.pipeline.PhaseProgress;
+
+public class MetricsRegistryTest {
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	private MBeanServer server;
+	private RunMetrics metrics;
+
+	private MetricsRegistry cut;
+
+	@Before
+	public void setUp() throws Exception {
+		server = MBeanServerFactory.newMBeanServer();
+		metrics = new RunMetrics();
+
+		cut = new MetricsRegistry(server);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		cut.close();
+	}
+
+	@Test
+	public void testObjectName() throws Exception {
+		assertThat(MetricsRegistry.objectName("Stage", "hash").toString(),
+				is("com.github.dozedoff.dedupe:type=Stage,name=hash"));
+	}
+
+	@Test
+	public void testRegister() throws Exception {
+		cut.register("Run", "run", metrics);
+
+		assertThat(server.isRegistered(MetricsRegistry.objectName("Run", "run")), is(true));
+	}
+
+	@Test
+	public void testAttributeReadable() throws Exception {
+		metrics.add(Counter.BYTES_HASHED, 5);
+		cut.register("Run", "run", metrics);
+
+		assertThat(server.getAttribute(MetricsRegistry.objectName("Run", "run"), "BytesHashed"), is((Object) 5L));
+	}
+
+	@Test
+	public void testRegisterReplacesExisting() throws Exception {
+		cut.register("Run", "run", new RunMetrics());
+		cut.register("Run", "run", metrics);
+		metrics.add(Counter.BYTES_HASHED, 5);
+
+		assertThat(server.getAttribute(MetricsRegistry.objectName("Run", "run"), "BytesHashed"), is((Object) 5L));
+	}
+
+	@Test
+	public void testRegisterInvalidBean() throws Exception {
+		cut.register("Run", "run", new Object());
+
+		assertThat(cut.snapshot().isEmpty(), is(true));
+	}
+
+	@Test
+	public void testClose() throws Exception {
+		cut.register("Run", "run", metrics);
+
+		cut.close();
+
+		assertThat(server.isRegistered(MetricsRegistry.objectName("Run", "run")), is(false));
+	}
+
+	@Test
+	public void testSnapshotGroupedByType() throws Exception {
+		cut.register("Phase", "walk", new PhaseProgress("walk"));
+		cut.register("Run", "run", metrics);
+		cut.register("Phase", "hash", new PhaseProgress("hash"));
+
+		Map<String, Map<String, Map<String, Object>>> snapshot = cut.snapshot();
+
+		assertThat(snapshot.keySet(), contains("Phase", "Run"));
+		assertThat(snapshot.get("Phase").keySet(), contains("walk", "hash"));
+	}
+
+	@Test
+	public void testSnapshotAttribute() throws Exception {
+		metrics.increment(Counter.LINKED_FILES);
+		cut.register("Run", "run", metrics);
+
+		assertThat(cut.snapshot().get("Run").get("run"), hasEntry("LinkedFiles", (Object) 1L));
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testSnapshotMapAttribute() throws Exception {
+		metrics.error("hash", "Test");
+		cut.register("Run", "run", metrics);
+
+		Map<String, Object> errors = (Map<String, Object>) cut.snapshot().get("Run").get("run").get("Errors");
+
+		assertThat(errors, hasEntry("hash.Test", (Object) 1L));
+	}
+
+	@Test
+	public void testJson() throws Exception {
+		metrics.add(Counter.BYTES_COMPARED, 12);
+		cut.register("Run", "run", metrics);
+		StringWriter writer = new StringWriter();
+
+		cut.writeJson(writer);
+
+		assertThat(writer.toString(), containsString("\"Run\": {\n    \"run\": {\n"));
+		assertThat(writer.toString(), containsString("\"BytesCompared\": 12,"));
+	}
+
+	@Test
+	public void testJsonTimestamp() throws Exception {
+		StringWriter writer = new StringWriter();
+
+		cut.writeJson(writer);
+
+		assertThat(writer.toString(), containsString("{\n  \"timestamp\": \""));
+	}
+
+	@Test
+	public void testJsonEscaped() throws Exception {
+		metrics.error("hash", "a\"b\\c\n");
+		cut.register("Run", "run", metrics);
+		StringWriter writer = new StringWriter();
+
+		cut.writeJson(writer);
+
+		assertThat(writer.toString(), containsString("\"hash.a\\\"b\\\\c\\n\": 1"));
+	}
+
+	@Test
+	public void testJsonEmptyMap() throws Exception {
+		cut.register("Run", "run", metrics);
+		StringWriter writer = new StringWriter();
+
+		cut.writeJson(writer);
+
+		assertThat(writer.toString(), containsString("\"Errors\": {}"));
+	}
+
+	@Test
+	public void testJsonFile() throws Exception {
+		cut.register("Run", "run", metrics);
+		Path file = temp.getRoot().toPath().resolve("metrics.json");
+
+		cut.writeJson(file);
+
+		assertThat(new String(Files.readAllBytes(file), StandardCharsets.UTF_8), containsString("\"LinkedFiles\": 0"));
+	}
+}
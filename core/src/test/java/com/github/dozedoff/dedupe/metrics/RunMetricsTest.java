@@ -0,0 +1,141 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.metrics;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.hasEntry;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.dozedoff.dedupe.metrics.RunMetrics.Counter;
+import com.google.common.base.Ticker;
+
+public class RunMetricsTest {
+	private long now;
+
+	private RunMetrics cut;
+
+	@Before
+	public void setUp() throws Exception {
+		now = 1000;
+
+		cut = new RunMetrics(new Ticker() {
+			@Override
+			public long read() {
+				return now;
+			}
+		});
+	}
+
+	private void advanceSeconds(long seconds) {
+		now += TimeUnit.SECONDS.toNanos(seconds);
+	}
+
+	@Test
+	public void testIncrement() throws Exception {
+		cut.increment(Counter.NEW_FILES);
+		cut.increment(Counter.NEW_FILES);
+
+		assertThat(cut.getNewFiles(), is(2L));
+	}
+
+	@Test
+	public void testAdd() throws Exception {
+		cut.add(Counter.BYTES_HASHED, 42);
+
+		assertThat(cut.getBytesHashed(), is(42L));
+	}
+
+	@Test
+	public void testCountersIndependent() throws Exception {
+		cut.increment(Counter.LINKED_GROUPS);
+
+		assertThat(cut.getSkippedGroups(), is(0L));
+	}
+
+	@Test
+	public void testGet() throws Exception {
+		cut.add(Counter.NOT_STARTED_BYTES, 7);
+
+		assertThat(cut.get(Counter.NOT_STARTED_BYTES), is(7L));
+	}
+
+	@Test
+	public void testErrorByCause() throws Exception {
+		cut.error("hash", new NoSuchFileException("foo"));
+
+		assertThat(cut.getErrors(), hasEntry("hash.NoSuchFileException", 1L));
+	}
+
+	@Test
+	public void testErrorByName() throws Exception {
+		cut.error("link", "LinkFailed");
+		cut.error("link", "LinkFailed");
+
+		assertThat(cut.getErrors(), hasEntry("link.LinkFailed", 2L));
+	}
+
+	@Test
+	public void testErrorCount() throws Exception {
+		cut.error("hash", new IOException());
+		cut.error("lookup", new IOException());
+
+		assertThat(cut.getErrorCount(), is(2L));
+	}
+
+	@Test
+	public void testErrorsSorted() throws Exception {
+		cut.error("lookup", new IOException());
+		cut.error("hash", new IOException());
+
+		assertThat(cut.getErrors().keySet(), contains("hash.IOException", "lookup.IOException"));
+	}
+
+	@Test
+	public void testNoErrors() throws Exception {
+		assertThat(cut.getErrorCount(), is(0L));
+	}
+
+	@Test
+	public void testElapsed() throws Exception {
+		advanceSeconds(3);
+
+		assertThat(cut.getElapsedMillis(), is(3000L));
+	}
+
+	@Test
+	public void testFirstPhaseFromStart() throws Exception {
+		advanceSeconds(2);
+		cut.phaseFinished("walk");
+
+		assertThat(cut.getPhaseTimesMillis(), hasEntry("walk", 2000L));
+	}
+
+	@Test
+	public void testPhaseFromPreviousPhase() throws Exception {
+		advanceSeconds(2);
+		cut.phaseFinished("walk");
+		advanceSeconds(5);
+		cut.phaseFinished("hash");
+
+		assertThat(cut.getPhaseTimesMillis(), hasEntry("hash", 5000L));
+	}
+
+	@Test
+	public void testPhaseOrder() throws Exception {
+		cut.phaseFinished("walk");
+		cut.phaseFinished("hash");
+		cut.phaseFinished("compare");
+
+		assertThat(cut.getPhaseTimesMillis().keySet(), contains("walk", "hash", "compare"));
+	}
+}
@@ -0,0 +1,110 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.pipeline;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.jimfs.Jimfs;
+
+public class CpuLimitTest {
+	private static final int PROCESSORS = 8;
+
+	private FileSystem fs;
+	private Path cgroupRoot;
+
+	@Before
+	public void setUp() throws Exception {
+		fs = Jimfs.newFileSystem();
+		cgroupRoot = Files.createDirectories(fs.getPath("/sys/fs/cgroup"));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		fs.close();
+	}
+
+	private void write(String file, String content) throws Exception {
+		Path path = cgroupRoot.resolve(file);
+		Files.createDirectories(path.getParent());
+		Files.write(path, content.getBytes(StandardCharsets.US_ASCII));
+	}
+
+	private int availableCpus() {
+		return new CpuLimit(cgroupRoot, PROCESSORS).availableCpus();
+	}
+
+	@Test
+	public void testNoCgroup() throws Exception {
+		assertThat(availableCpus(), is(PROCESSORS));
+	}
+
+	@Test
+	public void testV2Unlimited() throws Exception {
+		write("cpu.max", "max 100000\n");
+
+		assertThat(availableCpus(), is(PROCESSORS));
+	}
+
+	@Test
+	public void testV2Quota() throws Exception {
+		write("cpu.max", "200000 100000\n");
+
+		assertThat(availableCpus(), is(2));
+	}
+
+	@Test
+	public void testV2FractionRoundedUp() throws Exception {
+		write("cpu.max", "150000 100000\n");
+
+		assertThat(availableCpus(), is(2));
+	}
+
+	@Test
+	public void testV2QuotaAboveProcessors() throws Exception {
+		write("cpu.max", "1600000 100000\n");
+
+		assertThat(availableCpus(), is(PROCESSORS));
+	}
+
+	@Test
+	public void testV2SmallQuota() throws Exception {
+		write("cpu.max", "10000 100000\n");
+
+		assertThat(availableCpus(), is(1));
+	}
+
+	@Test
+	public void testV1Quota() throws Exception {
+		write("cpu/cpu.cfs_quota_us", "300000\n");
+		write("cpu/cpu.cfs_period_us", "100000\n");
+
+		assertThat(availableCpus(), is(3));
+	}
+
+	@Test
+	public void testV1Unlimited() throws Exception {
+		write("cpu/cpu.cfs_quota_us", "-1\n");
+		write("cpu/cpu.cfs_period_us", "100000\n");
+
+		assertThat(availableCpus(), is(PROCESSORS));
+	}
+
+	@Test
+	public void testMalformed() throws Exception {
+		write("cpu.max", "garbage\n");
+
+		assertThat(availableCpus(), is(PROCESSORS));
+	}
+}
@@ -0,0 +1,146 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.pipeline;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.jimfs.Jimfs;
+
+public class DeviceLimiterTest {
+	private static final int PERMITS = 2;
+	private static final int TASKS = 6;
+
+	private FileSystem fs;
+	private FileSystem otherFs;
+	private Path file;
+	private Path otherFile;
+	private ExecutorService executor;
+
+	private DeviceLimiter cut;
+
+	@Before
+	public void setUp() throws Exception {
+		fs = Jimfs.newFileSystem();
+		otherFs = Jimfs.newFileSystem();
+		file = Files.createFile(fs.getPath("file"));
+		otherFile = Files.createFile(otherFs.getPath("file"));
+		executor = Executors.newCachedThreadPool();
+
+		cut = new DeviceLimiter(PERMITS);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		executor.shutdownNow();
+		fs.close();
+		otherFs.close();
+	}
+
+	private int peakConcurrency(Path... paths) throws InterruptedException {
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger peak = new AtomicInteger();
+		CountDownLatch done = new CountDownLatch(TASKS);
+
+		for (int i = 0; i < TASKS; i++) {
+			Path path = paths[i % paths.length];
+
+			executor.execute(() -> {
+				try {
+					cut.call(path, () -> {
+						peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+						sleep();
+						running.decrementAndGet();
+						return null;
+					});
+				} catch (IOException | InterruptedException e) {
+					throw new RuntimeException(e);
+				} finally {
+					done.countDown();
+				}
+			});
+		}
+
+		done.await(5, TimeUnit.SECONDS);
+		return peak.get();
+	}
+
+	private static void sleep() throws IOException {
+		try {
+			Thread.sleep(50);
+		} catch (InterruptedException e) {
+			throw new IOException(e);
+		}
+	}
+
+	@Test
+	public void testReturnsResult() throws Exception {
+		assertThat(cut.call(file, () -> 42), is(42));
+	}
+
+	@Test(expected = IOException.class)
+	public void testPropagatesFailure() throws Exception {
+		cut.call(file, () -> {
+			throw new IOException("test");
+		});
+	}
+
+	@Test
+	public void testPermitReleasedOnFailure() throws Exception {
+		for (int i = 0; i <= PERMITS; i++) {
+			try {
+				cut.call(file, () -> {
+					throw new IOException("test");
+				});
+			} catch (IOException e) {
+				// expected
+			}
+		}
+
+		assertThat(cut.call(file, () -> 1), is(1));
+	}
+
+	@Test(timeout = 10000)
+	public void testLimitsConcurrencyPerDevice() throws Exception {
+		assertThat(peakConcurrency(file), is(PERMITS));
+	}
+
+	@Test(timeout = 10000)
+	public void testDevicesAreIndependent() throws Exception {
+		assertThat(peakConcurrency(file, otherFile), is(2 * PERMITS));
+	}
+
+	@Test
+	public void testDeviceCount() throws Exception {
+		cut.call(file, () -> null);
+		cut.call(otherFile, () -> null);
+
+		assertThat(cut.devices(), is(2));
+	}
+
+	@Test
+	public void testMissingDirectory() throws Exception {
+		assertThat(cut.call(fs.getPath("missing", "file"), () -> 1), is(1));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNoPermits() throws Exception {
+		new DeviceLimiter(0);
+	}
+}
@@ -0,0 +1,208 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.pipeline;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Ticker;
+
+public class PhaseProgressTest {
+	private static final long MIB = 1024 * 1024;
+
+	private long now;
+
+	private PhaseProgress cut;
+
+	@Before
+	public void setUp() throws Exception {
+		now = 1000;
+
+		cut = new PhaseProgress("hash", new Ticker() {
+			@Override
+			public long read() {
+				return now;
+			}
+		});
+	}
+
+	private void advanceSeconds(long seconds) {
+		now += TimeUnit.SECONDS.toNanos(seconds);
+	}
+
+	@Test
+	public void testNotStarted() throws Exception {
+		assertThat(cut.hasStarted(), is(false));
+	}
+
+	@Test
+	public void testStartedByExpected() throws Exception {
+		cut.expect(1, MIB);
+
+		assertThat(cut.hasStarted(), is(true));
+	}
+
+	@Test
+	public void testCompleted() throws Exception {
+		cut.completed(2, MIB);
+		cut.completed(1, MIB);
+
+		assertThat(cut.files(), is(3L));
+		assertThat(cut.bytes(), is(2 * MIB));
+	}
+
+	@Test
+	public void testCancel() throws Exception {
+		cut.expect(10, 10 * MIB);
+		cut.cancel(4, 4 * MIB);
+
+		assertThat(cut.expectedFiles(), is(6L));
+		assertThat(cut.expectedBytes(), is(6 * MIB));
+	}
+
+	@Test
+	public void testReportName() throws Exception {
+		assertThat(cut.report(), containsString("hash: "));
+	}
+
+	@Test
+	public void testReportTotalsOpen() throws Exception {
+		cut.expect(10, 10 * MIB);
+		cut.completed(5, 5 * MIB);
+
+		assertThat(cut.report(), containsString("5/10+ files, 5.0 MiB/10.0 MiB+ (50.0%)"));
+	}
+
+	@Test
+	public void testReportTotalsKnown() throws Exception {
+		cut.expect(10, 10 * MIB);
+		cut.totalKnown();
+		cut.completed(5, 5 * MIB);
+
+		assertThat(cut.report(), containsString("5/10 files, 5.0 MiB/10.0 MiB (50.0%)"));
+	}
+
+	@Test
+	public void testReportWithoutExpected() throws Exception {
+		cut.completed(5, 5 * MIB);
+
+		assertThat(cut.report(), containsString("hash: 5 files, 5.0 MiB, "));
+	}
+
+	@Test
+	public void testReportWithoutExpectedTotalKnown() throws Exception {
+		cut.completed(5, 5 * MIB);
+		cut.totalKnown();
+
+		assertThat(cut.report(), containsString("hash: 5 files, 5.0 MiB, "));
+	}
+
+	@Test
+	public void testReportRate() throws Exception {
+		cut.completed(10, 20 * MIB);
+		advanceSeconds(10);
+
+		assertThat(cut.report(), containsString("2.0 MiB/s, 1.0 files/s"));
+	}
+
+	@Test
+	public void testReportRateSinceLastReport() throws Exception {
+		cut.completed(10, 100 * MIB);
+		advanceSeconds(10);
+		cut.report();
+		cut.completed(5, 10 * MIB);
+		advanceSeconds(5);
+
+		assertThat(cut.report(), containsString("2.0 MiB/s, 1.0 files/s"));
+	}
+
+	@Test
+	public void testEtaUnknownWhileTotalOpen() throws Exception {
+		cut.expect(10, 100 * MIB);
+		cut.completed(5, 50 * MIB);
+		advanceSeconds(10);
+
+		assertThat(cut.report(), containsString("ETA unknown"));
+	}
+
+	@Test
+	public void testEta() throws Exception {
+		cut.expect(10, 100 * MIB);
+		cut.totalKnown();
+		cut.completed(5, 50 * MIB);
+		advanceSeconds(10);
+
+		assertThat(cut.report(), containsString("ETA 0:00:10"));
+	}
+
+	@Test
+	public void testEtaFromAverageWhenStalled() throws Exception {
+		cut.expect(10, 100 * MIB);
+		cut.totalKnown();
+		cut.completed(5, 50 * MIB);
+		advanceSeconds(10);
+		cut.report();
+		advanceSeconds(10);
+
+		assertThat(cut.report(), containsString("ETA 0:00:20"));
+	}
+
+	@Test
+	public void testEtaDone() throws Exception {
+		cut.expect(1, MIB);
+		cut.totalKnown();
+		cut.completed(1, MIB);
+
+		assertThat(cut.report(), containsString("ETA done"));
+	}
+
+	@Test
+	public void testEtaUnknownWithoutProgress() throws Exception {
+		cut.expect(1, MIB);
+		cut.totalKnown();
+
+		assertThat(cut.report(), containsString("ETA unknown"));
+	}
+
+	@Test
+	public void testPercentCapped() throws Exception {
+		cut.expect(1, MIB);
+		cut.completed(2, 2 * MIB);
+
+		assertThat(cut.report(), containsString("(100.0%)"));
+	}
+
+	@Test
+	public void testFormatBytes() throws Exception {
+		assertThat(PhaseProgress.formatBytes(512), is("512 B"));
+	}
+
+	@Test
+	public void testFormatBytesGib() throws Exception {
+		assertThat(PhaseProgress.formatBytes(3 * 1024 * MIB / 2), is("1.5 GiB"));
+	}
+
+	@Test
+	public void testFormatDuration() throws Exception {
+		assertThat(PhaseProgress.formatDuration(TimeUnit.HOURS.toSeconds(12) + 189), is("12:03:09"));
+	}
+
+	@Test
+	public void testMXBeanCounters() throws Exception {
+		cut.expect(10, 10 * MIB);
+		cut.completed(5, 5 * MIB);
+
+		assertThat(cut.getFiles(), is(5L));
+		assertThat(cut.getBytes(), is(5 * MIB));
+		assertThat(cut.getExpectedFiles(), is(10L));
+		assertThat(cut.getExpectedBytes(), is(10 * MIB));
+	}
+}
@@ -0,0 +1,165 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.pipeline;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class StageTest {
+	private static final int WORKERS = 2;
+	private static final int CAPACITY = 10;
+
+	private List<Integer> processed;
+
+	private Stage<Integer> cut;
+
+	@Before
+	public void setUp() throws Exception {
+		processed = new CopyOnWriteArrayList<Integer>();
+
+		cut = new Stage<Integer>("test", WORKERS, CAPACITY, processed::add);
+	}
+
+	@Test(timeout = 5000)
+	public void testProcessesAllItems() throws Exception {
+		cut.submitAll(Arrays.asList(1, 2, 3));
+		cut.finishAndAwait();
+
+		assertThat(processed, containsInAnyOrder(1, 2, 3));
+	}
+
+	@Test(timeout = 5000)
+	public void testProcessedCount() throws Exception {
+		cut.submitAll(Arrays.asList(1, 2, 3));
+		cut.finishAndAwait();
+
+		assertThat(cut.processed(), is(3L));
+	}
+
+	@Test(timeout = 5000)
+	public void testFailedItemsCounted() throws Exception {
+		Stage<Integer> failing = new Stage<Integer>("failing", WORKERS, CAPACITY, item -> {
+			throw new IllegalStateException("test");
+		});
+
+		failing.submit(1);
+		failing.finishAndAwait();
+
+		assertThat(failing.failed(), is(1L));
+	}
+
+	@Test(timeout = 5000)
+	public void testContinuesAfterFailure() throws Exception {
+		Stage<Integer> failing = new Stage<Integer>("failing", 1, CAPACITY, item -> {
+			if (item == 1) {
+				throw new IllegalStateException("test");
+			}
+
+			processed.add(item);
+		});
+
+		failing.submitAll(Arrays.asList(1, 2));
+		failing.finishAndAwait();
+
+		assertThat(processed, containsInAnyOrder(2));
+	}
+
+	@Test(timeout = 5000)
+	public void testFeedsNextStage() throws Exception {
+		Stage<Integer> next = new Stage<Integer>("next", WORKERS, CAPACITY, processed::add);
+		Stage<Integer> first = new Stage<Integer>("first", WORKERS, CAPACITY, item -> next.submit(item * 2));
+
+		first.submitAll(Arrays.asList(1, 2, 3));
+		first.finishAndAwait();
+		next.finishAndAwait();
+
+		assertThat(processed, containsInAnyOrder(2, 4, 6));
+	}
+
+	@Test(timeout = 5000)
+	public void testPeakQueueDepth() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		Stage<Integer> blocked = new Stage<Integer>("blocked", 1, CAPACITY, item -> release.await());
+
+		blocked.submitAll(Arrays.asList(1, 2, 3, 4));
+		release.countDown();
+		blocked.finishAndAwait();
+
+		assertThat(blocked.peakQueueDepth(), is(greaterThan(1)));
+	}
+
+	@Test(timeout = 5000)
+	public void testBusyTime() throws Exception {
+		Stage<Integer> sleeping = new Stage<Integer>("sleeping", 1, CAPACITY, item -> Thread.sleep(10));
+
+		sleeping.submit(1);
+		sleeping.finishAndAwait();
+
+		assertThat(sleeping.busyTime(TimeUnit.MILLISECONDS), is(greaterThan(5L)));
+	}
+
+	@Test(timeout = 5000)
+	public void testFinishWithoutItems() throws Exception {
+		cut.finishAndAwait();
+
+		assertThat(processed, is(Collections.<Integer> emptyList()));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testSubmitAfterFinish() throws Exception {
+		cut.finish();
+
+		cut.submit(1);
+	}
+
+	@Test(timeout = 5000)
+	public void testUsesThreadFactory() throws Exception {
+		List<String> threads = new CopyOnWriteArrayList<String>();
+		Stage<Integer> named = new Stage<Integer>("named", 1, CAPACITY, runnable -> new Thread(runnable, "custom"),
+				item -> threads.add(Thread.currentThread().getName()));
+
+		named.submit(1);
+		named.finishAndAwait();
+
+		assertThat(threads, containsInAnyOrder("custom"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNoWorkers() throws Exception {
+		new Stage<Integer>("none", 0, CAPACITY, processed::add);
+	}
+
+	@Test(timeout = 5000)
+	public void testMXBeanProcessed() throws Exception {
+		cut.submitAll(Arrays.asList(1, 2, 3));
+		cut.finishAndAwait();
+
+		assertThat(cut.getProcessed(), is(3L));
+	}
+
+	@Test(timeout = 5000)
+	public void testMXBeanFailed() throws Exception {
+		Stage<Integer> failing = new Stage<Integer>("failing", WORKERS, CAPACITY, item -> {
+			throw new IllegalStateException("test");
+		});
+
+		failing.submit(1);
+		failing.finishAndAwait();
+
+		assertThat(failing.getFailed(), is(1L));
+	}
+}
@@ -0,0 +1,73 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.pipeline;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assume.assumeThat;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+public class ThreadModeTest {
+	@Test
+	public void testPlatformSupported() throws Exception {
+		assertThat(ThreadMode.PLATFORM.isSupported(), is(true));
+	}
+
+	@Test
+	public void testPlatformThreadName() throws Exception {
+		Thread thread = ThreadMode.PLATFORM.threadFactory("test").newThread(() -> {
+		});
+
+		assertThat(thread.getName(), startsWith("test-"));
+	}
+
+	@Test
+	public void testPlatformThreadDaemon() throws Exception {
+		Thread thread = ThreadMode.PLATFORM.threadFactory("test").newThread(() -> {
+		});
+
+		assertThat(thread.isDaemon(), is(true));
+	}
+
+	@Test
+	public void testPlatformNoFallback() throws Exception {
+		assertThat(ThreadMode.PLATFORM.orFallback(), is(ThreadMode.PLATFORM));
+	}
+
+	@Test
+	public void testVirtualFallback() throws Exception {
+		ThreadMode expected = ThreadMode.VIRTUAL.isSupported() ? ThreadMode.VIRTUAL : ThreadMode.PLATFORM;
+
+		assertThat(ThreadMode.VIRTUAL.orFallback(), is(expected));
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testVirtualUnsupported() throws Exception {
+		assumeThat(ThreadMode.VIRTUAL.isSupported(), is(false));
+
+		ThreadMode.VIRTUAL.threadFactory("test");
+	}
+
+	@Test(timeout = 5000)
+	public void testVirtualThreadRuns() throws Exception {
+		assumeThat(ThreadMode.VIRTUAL.isSupported(), is(true));
+		AtomicBoolean ran = new AtomicBoolean();
+		CountDownLatch done = new CountDownLatch(1);
+
+		ThreadMode.VIRTUAL.threadFactory("test").newThread(() -> {
+			ran.set(true);
+			done.countDown();
+		}).start();
+
+		done.await(1, TimeUnit.SECONDS);
+		assertThat(ran.get(), is(true));
+	}
+}
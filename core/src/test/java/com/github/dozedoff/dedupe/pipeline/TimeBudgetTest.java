@@ -0,0 +1,121 @@
+/* The MIT License (MIT)
+ * Copyright (c) 2017 Nicholas Wright
+ * http://opensource.org/licenses/MIT
+ */
+package com.github.dozedoff.dedupe.pipeline;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.time.Duration;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Ticker;
+
+public class TimeBudgetTest {
+	private static final Duration BUDGET = Duration.ofMinutes(10);
+
+	private long now;
+
+	private TimeBudget cut;
+
+	@Before
+	public void setUp() throws Exception {
+		now = 1000;
+
+		cut = new TimeBudget(BUDGET, new Ticker() {
+			@Override
+			public long read() {
+				return now;
+			}
+		});
+	}
+
+	@Test
+	public void testNotExpired() throws Exception {
+		assertThat(cut.isExpired(), is(false));
+	}
+
+	@Test
+	public void testRemaining() throws Exception {
+		now += Duration.ofMinutes(4).toNanos();
+
+		assertThat(cut.remaining(), is(Duration.ofMinutes(6)));
+	}
+
+	@Test
+	public void testExpired() throws Exception {
+		now += BUDGET.toNanos();
+
+		assertThat(cut.isExpired(), is(true));
+	}
+
+	@Test
+	public void testRemainingAfterExpiry() throws Exception {
+		now += BUDGET.toNanos() * 2;
+
+		assertThat(cut.remaining(), is(Duration.ZERO));
+	}
+
+	@Test
+	public void testZeroBudgetExpired() throws Exception {
+		assertThat(new TimeBudget(Duration.ZERO).isExpired(), is(true));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNegativeBudget() throws Exception {
+		new TimeBudget(Duration.ofSeconds(-1));
+	}
+
+	@Test
+	public void testParseSecondsWithoutUnit() throws Exception {
+		assertThat(TimeBudget.parseDuration("90"), is(Duration.ofSeconds(90)));
+	}
+
+	@Test
+	public void testParseSeconds() throws Exception {
+		assertThat(TimeBudget.parseDuration("30s"), is(Duration.ofSeconds(30)));
+	}
+
+	@Test
+	public void testParseMinutes() throws Exception {
+		assertThat(TimeBudget.parseDuration("90m"), is(Duration.ofMinutes(90)));
+	}
+
+	@Test
+	public void testParseHoursUpperCase() throws Exception {
+		assertThat(TimeBudget.parseDuration("2H"), is(Duration.ofHours(2)));
+	}
+
+	@Test
+	public void testParseDays() throws Exception {
+		assertThat(TimeBudget.parseDuration("1d"), is(Duration.ofDays(1)));
+	}
+
+	@Test
+	public void testParseIso() throws Exception {
+		assertThat(TimeBudget.parseDuration("PT1H30M"), is(Duration.ofMinutes(90)));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testParseUnknownUnit() throws Exception {
+		TimeBudget.parseDuration("5w");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testParseInvalid() throws Exception {
+		TimeBudget.parseDuration("soon");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testParseEmpty() throws Exception {
+		TimeBudget.parseDuration("");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testParseNegative() throws Exception {
+		TimeBudget.parseDuration("-5m");
+	}
+}